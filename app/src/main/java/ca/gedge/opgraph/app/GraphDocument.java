@@ -23,11 +23,13 @@ import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.Map;
+import java.util.logging.Logger;
 import javax.swing.JOptionPane;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
 import javax.swing.undo.UndoableEditSupport;
 
 import ca.gedge.opgraph.InputField;
@@ -40,12 +42,16 @@ import ca.gedge.opgraph.app.components.canvas.GraphCanvas;
 import ca.gedge.opgraph.app.components.canvas.GraphCanvasSelectionModel;
 import ca.gedge.opgraph.app.extensions.NodeMetadata;
 import ca.gedge.opgraph.extensions.CompositeNode;
+import ca.gedge.opgraph.extensions.SharedGraph;
 import ca.gedge.opgraph.util.Breadcrumb;
 
 /**
  * Document model used for graphs.
  */
 public class GraphDocument {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(GraphDocument.class.getName());
+
 	/** Key for the processing context property */
 	public static final String PROCESSING_CONTEXT = "processor";
 
@@ -129,7 +135,19 @@ public class GraphDocument {
 			}
 		};
 		this.undoManager.setLimit(500);
-		this.undoSupport = new UndoableEditSupport();
+		this.undoSupport = new UndoableEditSupport() {
+			@Override
+			public synchronized void postEdit(UndoableEdit e) {
+				// Edits are performed when constructed, so revert any made to a shared graph
+				if(isReadOnly()) {
+					if(e.canUndo())
+						e.undo();
+					LOGGER.warning("Shared graphs are read-only; edit reverted: " + e.getPresentationName());
+					return;
+				}
+				super.postEdit(e);
+			}
+		};
 		this.undoSupport.addUndoableEditListener(undoManager);
 		this.changeSupport = new PropertyChangeSupport(this);
 
@@ -212,6 +230,23 @@ public class GraphDocument {
 		return breadcrumb.getCurrentState();
 	}
 
+	/**
+	 * Gets whether or not the current graph is read-only. A graph is
+	 * read-only if it, or any graph containing it, is a {@link SharedGraph}.
+	 * Edits posted to this document's undo support while the current graph
+	 * is read-only are reverted.
+	 * 
+	 * @return <code>true</code> if the current graph is read-only,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean isReadOnly() {
+		for(OpGraph graph : breadcrumb.getStates()) {
+			if(graph.getExtension(SharedGraph.class) != null)
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * @return the canvas
 	 */
@@ -91,7 +91,7 @@ public class OpenCommand extends AbstractAction {
 			if(retVal == JFileChooser.APPROVE_OPTION) {
 				try {
 					final FileInputStream stream = new FileInputStream(chooser.getSelectedFile());
-					final OpGraph graph = serializer.read(stream);
+					final OpGraph graph = serializer.read(stream, chooser.getSelectedFile());
 					document.reset(chooser.getSelectedFile(), graph);
 				} catch(IOException exc) {
 					LOGGER.severe("Could not read graph from file: " + exc.getMessage());
@@ -170,7 +170,7 @@ public class SaveCommand extends AbstractAction {
 			try {
 				// serialize xml into an in-memory stream
 				final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-				serializer.write(model.getGraph(), bout);
+				serializer.write(model.getGraph(), bout, saveFile);
 
 				// assume overwrite warning was issued and accepted...
 				final FileOutputStream stream = new FileOutputStream(saveFile);
@@ -33,7 +33,6 @@ import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
 import javax.swing.KeyStroke;
-import javax.swing.undo.CompoundEdit;
 
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpLink;
@@ -42,8 +41,7 @@ import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.app.GraphDocument;
 import ca.gedge.opgraph.app.GraphEditorModel;
-import ca.gedge.opgraph.app.edits.graph.AddLinkEdit;
-import ca.gedge.opgraph.app.edits.graph.AddNodeEdit;
+import ca.gedge.opgraph.app.edits.graph.AddNodesEdit;
 import ca.gedge.opgraph.app.extensions.NodeMetadata;
 import ca.gedge.opgraph.app.util.GraphUtils;
 import ca.gedge.opgraph.dag.CycleDetectedException;
@@ -83,9 +81,8 @@ public class PasteCommand extends AbstractAction {
 					final SubgraphClipboardContents nodeClipboardContents = 
 							SubgraphClipboardContents.class.cast(clipboardContents.getTransferData(SubgraphClipboardContents.copyFlavor));
 
-					final CompoundEdit cmpEdit = new CompoundEdit();
 					final OpGraph graph = document.getGraph();
-					final Map<String, String> nodeMap = new HashMap<String, String>();
+					final Map<String, OpNode> nodeMap = new HashMap<String, OpNode>();
 
 					// Keep track of the number of times this graph has been pasted
 					Integer timesDuplicated = nodeClipboardContents.graphDuplicates.get(graph);
@@ -97,13 +94,13 @@ public class PasteCommand extends AbstractAction {
 
 					nodeClipboardContents.graphDuplicates.put(graph, timesDuplicated);
 
-					// Create a new node edit for each node in the contents
+					// Clone each node in the contents
 					final Collection<OpNode> newNodes = new ArrayList<OpNode>();
 					for(OpNode node : nodeClipboardContents.subGraph.getVertices()) {
 						// Clone the node
 						final OpNode newNode = GraphUtils.cloneNode(node);
 						newNodes.add(newNode);
-						nodeMap.put(node.getId(), newNode.getId());
+						nodeMap.put(node.getId(), newNode);
 
 						// Offset to avoid pasting on top of current nodes
 						final NodeMetadata metadata = newNode.getExtension(NodeMetadata.class);
@@ -111,36 +108,46 @@ public class PasteCommand extends AbstractAction {
 							metadata.setX(metadata.getX() + (50 * timesDuplicated));
 							metadata.setY(metadata.getY() + (30 * timesDuplicated));
 						}
-
-						// Add an undoable edit for this node
-						cmpEdit.addEdit(new AddNodeEdit(graph, newNode));
 					}
 
-					// Pasted node become the selection
-					document.getSelectionModel().setSelectedNodes(newNodes);
-
-					// Add copied node to graph
+					// Clone links between copied nodes
+					final Collection<OpLink> newLinks = new ArrayList<OpLink>();
 					for(OpLink link : nodeClipboardContents.subGraph.getEdges()) {
-						final OpNode srcNode = graph.getNodeById(nodeMap.get(link.getSource().getId()), false);
+						final OpNode srcNode = nodeMap.get(link.getSource().getId());
 						final OutputField srcField = srcNode.getOutputFieldWithKey(link.getSourceField().getKey());
-						final OpNode dstNode = graph.getNodeById(nodeMap.get(link.getDestination().getId()), false);
+						final OpNode dstNode = nodeMap.get(link.getDestination().getId());
 						final InputField dstField = dstNode.getInputFieldWithKey(link.getDestinationField().getKey());
 
 						try {
-							final OpLink newLink = new OpLink(srcNode, srcField, dstNode, dstField);
-							cmpEdit.addEdit(new AddLinkEdit(graph, newLink));
+							newLinks.add(new OpLink(srcNode, srcField, dstNode, dstField));
 						} catch(ItemMissingException exc) {
 							LOGGER.severe(exc.getMessage());
-						} catch(VertexNotFoundException exc) {
-							LOGGER.severe(exc.getMessage());
-						} catch(CycleDetectedException exc) {
-							LOGGER.severe(exc.getMessage());
 						}
 					}
 
-					// Add the compound edit to the undo manager
-					cmpEdit.end();
-					document.getUndoSupport().postEdit(cmpEdit);
+					// Add copied nodes and links to graph in bulk, and post the edit
+					AddNodesEdit edit = null;
+					try {
+						edit = new AddNodesEdit(graph, newNodes, newLinks);
+					} catch(VertexNotFoundException exc) {
+						LOGGER.severe(exc.getMessage());
+					} catch(CycleDetectedException exc) {
+						LOGGER.severe(exc.getMessage());
+					}
+
+					// Pasted nodes become the selection only once they're in the graph
+					if(edit != null) {
+						document.getUndoSupport().postEdit(edit);
+
+						final Collection<OpNode> addedNodes = new ArrayList<OpNode>();
+						for(OpNode node : newNodes) {
+							if(graph.contains(node))
+								addedNodes.add(node);
+						}
+
+						if(addedNodes.size() > 0)
+							document.getSelectionModel().setSelectedNodes(addedNodes);
+					}
 				} catch(UnsupportedFlavorException exc) {
 					LOGGER.severe(exc.getMessage());
 				} catch(IOException exc) {
@@ -71,7 +71,8 @@ import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.OpNodeListener;
 import ca.gedge.opgraph.Processor;
-import ca.gedge.opgraph.OpGraphListener;
+import ca.gedge.opgraph.OpGraphBatchListener;
+import ca.gedge.opgraph.OpGraphChange;
 import ca.gedge.opgraph.app.GraphDocument;
 import ca.gedge.opgraph.app.GraphEditorModel;
 import ca.gedge.opgraph.app.MenuProvider;
@@ -859,7 +860,33 @@ public class GraphCanvas extends JLayeredPane implements ClipboardOwner {
 
 	private final GraphCanvasAdapter graphAdapter = new GraphCanvasAdapter();
 
-	private class GraphCanvasAdapter implements OpGraphListener, OpNodeListener {
+	private class GraphCanvasAdapter implements OpGraphBatchListener, OpNodeListener {
+		/** Whether or not a batch of changes is being processed */
+		private boolean inBatch;
+
+		/**
+		 * Revalidates and repaints the canvas, unless a batch of changes is
+		 * being processed, in which case this is done once the batch is done.
+		 */
+		private void refresh() {
+			if(!inBatch) {
+				revalidate();
+				repaint();
+			}
+		}
+
+		@Override
+		public void graphChanged(OpGraph graph, List<OpGraphChange> changes) {
+			inBatch = true;
+			try {
+				for(OpGraphChange change : changes)
+					change.deliver(graph, this);
+			} finally {
+				inBatch = false;
+			}
+			refresh();
+		}
+
 		@Override
 		public void nodePropertyChanged(String propertyName, Object oldValue, Object newValue) {}
 
@@ -907,8 +934,7 @@ public class GraphCanvas extends JLayeredPane implements ClipboardOwner {
 				v.addNodeListener(this);
 				v.putExtension(JComponent.class, node);
 
-				revalidate();
-				repaint();
+				refresh();
 			}
 		}
 
@@ -923,8 +949,7 @@ public class GraphCanvas extends JLayeredPane implements ClipboardOwner {
 				v.removeNodeListener(this);
 				v.putExtension(JComponent.class, null);
 
-				revalidate();
-				repaint();
+				refresh();
 			}
 		}
 
@@ -941,7 +966,7 @@ public class GraphCanvas extends JLayeredPane implements ClipboardOwner {
 
 			linksLayer.updateLink(e);
 
-			repaint();
+			refresh();
 		}
 
 		@Override
@@ -970,7 +995,7 @@ public class GraphCanvas extends JLayeredPane implements ClipboardOwner {
 			linksLayer.removeLink(e);
 
 			// Remove link reference and repaint
-			repaint();
+			refresh();
 		}
 
 		@Override
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.app.edits.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+import ca.gedge.opgraph.OpLink;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.dag.CycleDetectedException;
+import ca.gedge.opgraph.dag.VertexNotFoundException;
+
+/**
+ * Adds a collection of nodes, and the links between them, in a single
+ * bulk operation.
+ */
+public class AddNodesEdit extends AbstractUndoableEdit {
+	/** The graph to which this edit was applied  */
+	private OpGraph graph;
+
+	/** The nodes to add */
+	private List<OpNode> nodes;
+
+	/** The links to add */
+	private List<OpLink> links;
+
+	/**
+	 * Constructs an edit that adds a collection of nodes and links to a
+	 * specified graph.
+	 * 
+	 * @param graph  the graph to which this edit will be applied
+	 * @param nodes  the nodes to add
+	 * @param links  the links to add
+	 * 
+	 * @throws CycleDetectedException  if adding the links creates a cycle
+	 * @throws VertexNotFoundException  if a link references a node that is
+	 *                                  neither in the graph nor being added
+	 */
+	public AddNodesEdit(OpGraph graph, Collection<OpNode> nodes, Collection<OpLink> links)
+		throws VertexNotFoundException, CycleDetectedException
+	{
+		this.graph = graph;
+		this.nodes = new ArrayList<OpNode>();
+		this.links = new ArrayList<OpLink>();
+
+		if(nodes != null)
+			this.nodes.addAll(nodes);
+
+		if(links != null)
+			this.links.addAll(links);
+
+		perform();
+	}
+
+	/**
+	 * Performs this edit.
+	 */
+	private void perform() throws VertexNotFoundException, CycleDetectedException {
+		graph.addAll(nodes, links);
+	}
+
+	//
+	// AbstractUndoableEdit
+	//
+
+	@Override
+	public void redo() throws CannotRedoException {
+		super.redo();
+		try {
+			perform();
+		} catch(VertexNotFoundException exc) {
+			throw new CannotRedoException();
+		} catch(CycleDetectedException exc) {
+			throw new CannotRedoException();
+		}
+	}
+
+	@Override
+	public void undo() throws CannotUndoException {
+		super.undo();
+
+		graph.beginBatch();
+		try {
+			for(OpLink link : links)
+				graph.remove(link);
+
+			for(OpNode node : nodes)
+				graph.remove(node);
+		} finally {
+			graph.endBatch();
+		}
+	}
+
+	@Override
+	public String getPresentationName() {
+		if(nodes.size() == 1)
+			return "Add Node";
+		else
+			return "Add Nodes";
+	}
+
+	@Override
+	public boolean isSignificant() {
+		return (nodes.size() > 0 || links.size() > 0);
+	}
+}
@@ -23,16 +23,16 @@ package ca.gedge.opgraph.app.edits.graph;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.undo.CompoundEdit;
 
 import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpLink;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.app.components.canvas.CanvasNode;
 import ca.gedge.opgraph.app.extensions.NodeMetadata;
+import ca.gedge.opgraph.dag.GraphAnalysis;
 
 /**
  * An edit which automatically lays out nodes in a graph.
@@ -54,23 +54,14 @@ public class AutoLayoutEdit extends CompoundEdit {
 		}
 
 		// Perform automatic layout
-		final List<OpNode> nodes = new ArrayList<OpNode>(graph.getVertices());
+		final GraphAnalysis<OpNode, OpLink> analysis = new GraphAnalysis<OpNode, OpLink>(graph);
+		final int levelCount = analysis.getLevelCount();
 		int x = 15;
-		for(int level = 0; !nodes.isEmpty(); ++level) {
+		for(int level = 0; level < levelCount; ++level) {
 			int maxWidth = 0;
 			int y = 15;
 
-			final Iterator<OpNode> iter = nodes.iterator();
-			while(iter.hasNext()) {
-				final OpNode v = iter.next();
-
-				// Skip if node not at this level, otherwise remove it
-				// because it shouldn't be processed at higher levels
-				if(graph.getLevel(v) != level)
-					continue;
-
-				iter.remove();
-
+			for(OpNode v : analysis.getVerticesAtLevel(level)) {
 				// Place those nodes
 				final JComponent node = v.getExtension(JComponent.class);
 				final Dimension pref = node.getPreferredSize();
@@ -81,8 +81,13 @@ public class DeleteNodesEdit extends AbstractUndoableEdit {
 	 * Performs this edit.
 	 */
 	private void perform() {
-		for(OpNode link : nodes)
-			graph.remove(link);
+		graph.beginBatch();
+		try {
+			for(OpNode node : nodes)
+				graph.remove(node);
+		} finally {
+			graph.endBatch();
+		}
 	}
 
 	//
@@ -99,21 +104,15 @@ public class DeleteNodesEdit extends AbstractUndoableEdit {
 	public void undo() throws CannotUndoException {
 		super.undo();
 
-		// Add nodes
-		for(OpNode node : nodes)
-			graph.add(node);
-
-		// Add old links
-		for(OpLink link : links) {
-			try {
-				graph.add(link);
-			} catch(VertexNotFoundException exc) {
-				LOGGER.severe("Erroneous state that should never happen");
-				ErrorDialog.showError(exc);
-			} catch(CycleDetectedException exc) {
-				LOGGER.severe("Erroneous state that should never happen");
-				ErrorDialog.showError(exc);
-			}
+		// Add nodes and old links
+		try {
+			graph.addAll(nodes, links);
+		} catch(VertexNotFoundException exc) {
+			LOGGER.severe("Erroneous state that should never happen");
+			ErrorDialog.showError(exc);
+		} catch(CycleDetectedException exc) {
+			LOGGER.severe("Erroneous state that should never happen");
+			ErrorDialog.showError(exc);
 		}
 	}
 
@@ -18,7 +18,9 @@
  */
 package ca.gedge.opgraph.app.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -41,6 +43,7 @@ import ca.gedge.opgraph.extensions.CompositeNode;
 import ca.gedge.opgraph.extensions.Publishable;
 import ca.gedge.opgraph.extensions.Publishable.PublishedInput;
 import ca.gedge.opgraph.extensions.Publishable.PublishedOutput;
+import ca.gedge.opgraph.extensions.SharedGraph;
 
 /**
  * Helper methods for graphs.
@@ -55,7 +58,8 @@ public class GraphUtils {
 
 	/**
 	 * Clone a node along with {@link NodeSettings}, {@link NodeMetadata},
-	 * {@link CompositeNode}, and {@link Publishable} extensions cloned.
+	 * {@link CompositeNode}, and {@link Publishable} extensions cloned. A
+	 * composite node's graph is not cloned if it's a {@link SharedGraph}.
 	 * 
 	 * @param node  the node to clone
 	 * 
@@ -86,13 +90,20 @@ public class GraphUtils {
 				newNode.putExtension(NodeMetadata.class, newMetaData);
 			}
 
-			// if a composite node, clone graph
+			// if a composite node, clone graph (shared graphs are shared by the clone too)
 			final CompositeNode compositeNode = node.getExtension(CompositeNode.class);
 			final CompositeNode newCompositeNode = newNode.getExtension(CompositeNode.class);
 			if(compositeNode != null && newCompositeNode != null) {
 				final Map<String, String> nodeMap = new HashMap<String, String>();
 				final OpGraph graph = compositeNode.getGraph();
-				final OpGraph newGraph = cloneGraph(graph, null, nodeMap);
+				final OpGraph newGraph;
+				if(graph.getExtension(SharedGraph.class) != null) {
+					newGraph = graph;
+					for(OpNode sharedNode : graph.getVertices())
+						nodeMap.put(sharedNode.getId(), sharedNode.getId());
+				} else {
+					newGraph = cloneGraph(graph, null, nodeMap);
+				}
 				newCompositeNode.setGraph(newGraph);
 
 				// setup published fields (if available)
@@ -146,33 +157,37 @@ public class GraphUtils {
 		final OpGraph retVal = (newGraph != null ? newGraph : new OpGraph());
 
 		// Clone nodes
+		final Map<String, OpNode> clonedNodes = new HashMap<String, OpNode>();
+		final List<OpNode> newNodes = new ArrayList<OpNode>();
 		for(OpNode node : graph.getVertices()) {
 			final OpNode clonedNode = cloneNode(node);
 			nodeMap.put(node.getId(), clonedNode.getId());
-			retVal.add(clonedNode);
+			clonedNodes.put(node.getId(), clonedNode);
+			newNodes.add(clonedNode);
 		}
 
 		// Clone links
+		final List<OpLink> newLinks = new ArrayList<OpLink>();
 		for(OpLink link : graph.getEdges()) {
-			final OpNode origSource = link.getSource();
-			final OpNode newSource = retVal.getNodeById(nodeMap.get(origSource.getId()), false);
-			final OutputField sourceField = newSource.getOutputFieldWithKey(link.getSourceField().getKey());
-			final OpNode origDest = link.getDestination();
-			final OpNode newDest = retVal.getNodeById(nodeMap.get(origDest.getId()), false);
-			final InputField destField = newDest.getInputFieldWithKey(link.getDestinationField().getKey());
+			final OpNode newSource = clonedNodes.get(link.getSource().getId());
+			final OpNode newDest = clonedNodes.get(link.getDestination().getId());
 
 			try {
-				final OpLink newLink = new OpLink(newSource, sourceField.getKey(), newDest, destField.getKey());
-				retVal.add(newLink);
+				newLinks.add(new OpLink(newSource, link.getSourceField().getKey(), newDest, link.getDestinationField().getKey()));
 			} catch (ItemMissingException e) {
 				LOGGER.severe(e.getMessage());
-			} catch (VertexNotFoundException e) {
-				LOGGER.severe(e.getMessage());
-			} catch (CycleDetectedException e) {
-				LOGGER.severe(e.getMessage());
 			}
 		}
 
+		// Add everything in bulk so that the new graph is only sorted once
+		try {
+			retVal.addAll(newNodes, newLinks);
+		} catch (VertexNotFoundException e) {
+			LOGGER.severe(e.getMessage());
+		} catch (CycleDetectedException e) {
+			LOGGER.severe(e.getMessage());
+		}
+
 		// Clone notes
 		final Notes notes = graph.getExtension(Notes.class);
 		if(notes != null) {
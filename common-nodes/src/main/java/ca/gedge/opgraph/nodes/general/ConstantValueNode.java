@@ -18,10 +18,13 @@
  */
 package ca.gedge.opgraph.nodes.general;
 
+import java.util.Collections;
+
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
 import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.nodes.iteration.BatchProcessing;
 
 /**
  * A node that outputs a constant value. 
@@ -31,7 +34,7 @@ import ca.gedge.opgraph.OutputField;
 	description="Outputs a constant value.",
 	category="Data Generation"
 )
-public class ConstantValueNode extends OpNode {
+public class ConstantValueNode extends OpNode implements BatchProcessing {
 	/** Output field for the constant value */
 	public final OutputField VALUE_OUTPUT_FIELD = new OutputField("value", "Constant value", true, Object.class);
 
@@ -73,4 +76,9 @@ public class ConstantValueNode extends OpNode {
 	public void operate(OpContext context) {
 		context.put(VALUE_OUTPUT_FIELD, value);
 	}
+
+	@Override
+	public void operateOnBatch(OpContext context, int size) {
+		context.put(VALUE_OUTPUT_FIELD, Collections.nCopies(size, value));
+	}
 }
@@ -22,31 +22,96 @@
 package ca.gedge.opgraph.nodes.general;
 
 import java.util.AbstractList;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import ca.gedge.opgraph.collections.PrimitiveList;
 
 /**
- * An integer range, as a list.
+ * An integer range, as a list. Values are computed on demand, and the
+ * range's spliterator splits it without boxing or copying values.
  */
-class IntRangeList extends AbstractList<Integer> {
+public final class IntRangeList extends AbstractList<Integer> implements PrimitiveList<Integer> {
 	/** Start of the range, inclusive */
-	private int start;
+	private final int start;
+
+	/** Difference between consecutive values of the range */
+	private final int step;
 
-	/** End of the range, inclusive */
-	private int end;
+	/** Number of values in the range */
+	private final int size;
 
 	/**
-	 * Constructs an integer range.
+	 * Constructs an integer range with a step of one.
 	 * 
 	 * @param start  start value of the range, inclusive
 	 * @param end  end value of the range, inclusive
 	 */
 	public IntRangeList(int start, int end) {
-		if(start <= end) {
-			this.start = start;
-			this.end = end;
-		} else {
-			this.start = end;
-			this.end = start;
-		}
+		this(Math.min(start, end), Math.max(start, end), 1);
+	}
+
+	/**
+	 * Constructs an integer range. The range is empty if stepping from the
+	 * start value moves away from the end value.
+	 * 
+	 * @param start  start value of the range, inclusive
+	 * @param end  end value of the range, inclusive
+	 * @param step  difference between consecutive values of the range
+	 * 
+	 * @throws IllegalArgumentException  if <code>step</code> is zero, or the
+	 *                                   range has too many values for a list
+	 */
+	public IntRangeList(int start, int end, int step) {
+		if(step == 0)
+			throw new IllegalArgumentException("Range step cannot be zero");
+
+		final long distance = (long)end - start;
+		final long size = ((distance < 0) != (step < 0) && distance != 0 ? 0 : distance / step + 1);
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Range has too many values: " + size);
+
+		this.start = start;
+		this.step = step;
+		this.size = (int)size;
+	}
+
+	/**
+	 * Gets a value of this range without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * 
+	 * @return the value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public int getInt(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return start + index*step;
+	}
+
+	/**
+	 * Gets a primitive stream of the values in this range.
+	 * 
+	 * @param parallel  <code>true</code> for a parallel stream,
+	 *                  <code>false</code> for a sequential one
+	 * 
+	 * @return the stream
+	 */
+	public IntStream intStream(boolean parallel) {
+		return StreamSupport.intStream(spliterator(), parallel);
+	}
+
+	//
+	// PrimitiveList<Integer>
+	//
+
+	@Override
+	public Class<Integer> getElementType() {
+		return Integer.class;
 	}
 
 	//
@@ -55,11 +120,75 @@ class IntRangeList extends AbstractList<Integer> {
 
 	@Override
 	public Integer get(int index) {
-		return (start + index);
+		return getInt(index);
 	}
 
 	@Override
 	public int size() {
-		return (end - start + 1);
+		return size;
+	}
+
+	@Override
+	public Spliterator.OfInt spliterator() {
+		return new RangeSpliterator(0, size);
+	}
+
+	/**
+	 * A spliterator over a range of indices of this range.
+	 */
+	private class RangeSpliterator implements Spliterator.OfInt {
+		/** Next index to traverse */
+		private int index;
+
+		/** End index, exclusive */
+		private final int end;
+
+		/**
+		 * Constructs a spliterator over a range of indices.
+		 * 
+		 * @param index  start index, inclusive
+		 * @param end  end index, exclusive
+		 */
+		public RangeSpliterator(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public OfInt trySplit() {
+			final int mid = (index + end) >>> 1;
+			if(mid <= index)
+				return null;
+
+			final RangeSpliterator prefix = new RangeSpliterator(index, mid);
+			index = mid;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if(index >= end)
+				return false;
+
+			action.accept(start + (index++)*step);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			int value = start + index*step;
+			for(; index < end; ++index, value += step)
+				action.accept(value);
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+		}
 	}
 }
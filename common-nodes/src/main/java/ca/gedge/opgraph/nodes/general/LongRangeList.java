@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * 
+ */
+package ca.gedge.opgraph.nodes.general;
+
+import java.util.AbstractList;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import ca.gedge.opgraph.collections.PrimitiveList;
+
+/**
+ * A long integer range, as a list. Values are computed on demand, and the
+ * range's spliterator splits it without boxing or copying values.
+ */
+public final class LongRangeList extends AbstractList<Long> implements PrimitiveList<Long> {
+	/** Start of the range, inclusive */
+	private final long start;
+
+	/** Difference between consecutive values of the range */
+	private final long step;
+
+	/** Number of values in the range */
+	private final int size;
+
+	/**
+	 * Constructs a long integer range with a step of one.
+	 * 
+	 * @param start  start value of the range, inclusive
+	 * @param end  end value of the range, inclusive
+	 */
+	public LongRangeList(long start, long end) {
+		this(Math.min(start, end), Math.max(start, end), 1);
+	}
+
+	/**
+	 * Constructs a long integer range. The range is empty if stepping from the
+	 * start value moves away from the end value.
+	 * 
+	 * @param start  start value of the range, inclusive
+	 * @param end  end value of the range, inclusive
+	 * @param step  difference between consecutive values of the range
+	 * 
+	 * @throws IllegalArgumentException  if <code>step</code> is zero, or the
+	 *                                   range has too many values for a list
+	 */
+	public LongRangeList(long start, long end, long step) {
+		if(step == 0)
+			throw new IllegalArgumentException("Range step cannot be zero");
+
+		// Distances are unsigned, since they can exceed Long.MAX_VALUE. Sizes
+		// that wrap around to zero or below are also too large for a list.
+		long size = 0;
+		if(step > 0 ? start <= end : start >= end) {
+			size = Long.divideUnsigned(step > 0 ? end - start : start - end, step > 0 ? step : -step) + 1;
+			if(size <= 0 || size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Range has too many values");
+		}
+
+		this.start = start;
+		this.step = step;
+		this.size = (int)size;
+	}
+
+	/**
+	 * Gets a value of this range without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * 
+	 * @return the value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public long getLong(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return start + index*step;
+	}
+
+	/**
+	 * Gets a primitive stream of the values in this range.
+	 * 
+	 * @param parallel  <code>true</code> for a parallel stream,
+	 *                  <code>false</code> for a sequential one
+	 * 
+	 * @return the stream
+	 */
+	public LongStream longStream(boolean parallel) {
+		return StreamSupport.longStream(spliterator(), parallel);
+	}
+
+	//
+	// PrimitiveList<Long>
+	//
+
+	@Override
+	public Class<Long> getElementType() {
+		return Long.class;
+	}
+
+	//
+	// AbstractList<Long>
+	//
+
+	@Override
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Spliterator.OfLong spliterator() {
+		return new RangeSpliterator(0, size);
+	}
+
+	/**
+	 * A spliterator over a range of indices of this range.
+	 */
+	private class RangeSpliterator implements Spliterator.OfLong {
+		/** Next index to traverse */
+		private int index;
+
+		/** End index, exclusive */
+		private final int end;
+
+		/**
+		 * Constructs a spliterator over a range of indices.
+		 * 
+		 * @param index  start index, inclusive
+		 * @param end  end index, exclusive
+		 */
+		public RangeSpliterator(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public OfLong trySplit() {
+			final int mid = (index + end) >>> 1;
+			if(mid <= index)
+				return null;
+
+			final RangeSpliterator prefix = new RangeSpliterator(index, mid);
+			index = mid;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if(index >= end)
+				return false;
+
+			action.accept(start + (index++)*step);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			long value = start + index*step;
+			for(; index < end; ++index, value += step)
+				action.accept(value);
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.general;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.extensions.SharedGraph;
+import ca.gedge.opgraph.io.OpGraphSerializer;
+import ca.gedge.opgraph.io.OpGraphSerializerFactory;
+
+/**
+ * A cache of macro definitions loaded from source files. Each source file is
+ * only read into a graph once for as long as its contents don't change, and
+ * all {@link MacroNode}s using that source share the same graph. Shared graphs
+ * have the {@link SharedGraph} extension, and should be treated as read-only.
+ */
+public final class MacroDefinitionCache {
+	/**
+	 * A loaded definition.
+	 */
+	private static class Definition {
+		public final String hash;
+		public final OpGraph graph;
+
+		public Definition(String hash, OpGraph graph) {
+			this.hash = hash;
+			this.graph = graph;
+		}
+	}
+
+	/** Definitions, keyed by canonical path of their source file */
+	private static final Map<String, Definition> definitions = new HashMap<String, Definition>();
+
+	/**
+	 * Gets the definition for a source file. The file is read on every call,
+	 * but only parsed if no definition with the same contents is cached.
+	 * 
+	 * @param source  the source file
+	 * 
+	 * @return the shared graph
+	 * 
+	 * @throws IOException  if the source could not be read or parsed
+	 */
+	public static OpGraph getDefinition(final File source) throws IOException {
+		final String path = source.getCanonicalPath();
+		final byte [] data = read(source);
+		final String hash = hash(data);
+
+		synchronized(definitions) {
+			final Definition definition = definitions.get(path);
+			if(definition != null && definition.hash.equals(hash))
+				return definition.graph;
+		}
+
+		OpGraphSerializer serializer = null;
+		final int dot = source.getName().lastIndexOf('.');
+		if(dot >= 0)
+			serializer = OpGraphSerializerFactory.getSerializerByExtension(source.getName().substring(dot + 1));
+		if(serializer == null)
+			serializer = OpGraphSerializerFactory.getDefaultSerializer();
+		if(serializer == null)
+			throw new IOException("No serializer available to read macro source: " + source);
+
+		final OpGraph graph = serializer.read(new ByteArrayInputStream(data), source);
+		graph.putExtension(SharedGraph.class, new SharedGraph() {
+			@Override
+			public File getSource() {
+				return source;
+			}
+		});
+
+		synchronized(definitions) {
+			// Another thread may have loaded the same contents in the meantime
+			final Definition definition = definitions.get(path);
+			if(definition != null && definition.hash.equals(hash))
+				return definition.graph;
+
+			definitions.put(path, new Definition(hash, graph));
+		}
+
+		return graph;
+	}
+
+	/**
+	 * Removes all cached definitions. Graphs already in use are unaffected.
+	 */
+	public static void clear() {
+		synchronized(definitions) {
+			definitions.clear();
+		}
+	}
+
+	/**
+	 * Reads the contents of a file.
+	 * 
+	 * @param file  the file
+	 * 
+	 * @return the contents
+	 * 
+	 * @throws IOException  if the file could not be read
+	 */
+	private static byte [] read(File file) throws IOException {
+		final InputStream is = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream((int)file.length());
+			final byte [] buffer = new byte[8192];
+			int count;
+			while((count = is.read(buffer)) >= 0)
+				os.write(buffer, 0, count);
+			return os.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Computes a hash of some data.
+	 * 
+	 * @param data  the data
+	 * 
+	 * @return the hash, as a hexadecimal string
+	 */
+	private static String hash(byte [] data) {
+		try {
+			return new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(data)).toString(16);
+		} catch(NoSuchAlgorithmException exc) {
+			// Every Java platform is required to support SHA-1
+			throw new IllegalStateException(exc);
+		}
+	}
+}
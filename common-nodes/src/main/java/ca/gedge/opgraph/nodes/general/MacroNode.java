@@ -34,7 +34,9 @@ import ca.gedge.opgraph.Processor;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 import ca.gedge.opgraph.extensions.CompositeNode;
 import ca.gedge.opgraph.extensions.CustomProcessing;
+import ca.gedge.opgraph.extensions.Inlinable;
 import ca.gedge.opgraph.extensions.Publishable;
+import ca.gedge.opgraph.extensions.SharedGraph;
 
 /**
  * A node that contains a macro operation: a collection of nodes that behave
@@ -47,7 +49,7 @@ import ca.gedge.opgraph.extensions.Publishable;
 )
 public class MacroNode
 	extends OpNode
-	implements CompositeNode, CustomProcessing, Publishable
+	implements CompositeNode, CustomProcessing, Inlinable, Publishable
 {
 	/** The graph representing this macro */
 	protected OpGraph graph;
@@ -97,6 +99,7 @@ public class MacroNode
 
 		putExtension(CompositeNode.class, this);
 		putExtension(CustomProcessing.class, this);
+		putExtension(Inlinable.class, this);
 		putExtension(Publishable.class, this);
 	}
 
@@ -105,9 +108,17 @@ public class MacroNode
 	 * 
 	 * @return  the source file from which this macro was constructed, or
 	 *          <code>null</code> if this macro was constructed from the
-	 *          same file as the root graph which contains this node.
+	 *          same file as the root graph which contains this node. If
+	 *          no source was given, but this macro's graph is a shared
+	 *          definition (see {@link MacroDefinitionCache}), the source
+	 *          of that definition is returned.
 	 */
 	public File getSource() {
+		if(source == null && graph != null) {
+			final SharedGraph sharedGraph = graph.getExtension(SharedGraph.class);
+			if(sharedGraph != null)
+				return sharedGraph.getSource();
+		}
 		return source;
 	}
 
@@ -175,7 +186,11 @@ public class MacroNode
 
 	@Override
 	public void setGraph(OpGraph graph) {
-		this.graph = graph;
+		if(graph != this.graph) {
+			final OpGraph oldGraph = this.graph;
+			this.graph = graph;
+			firePropertyChange(GRAPH_PROPERTY, oldGraph, graph);
+		}
 	}
 
 	//
@@ -18,12 +18,15 @@
  */
 package ca.gedge.opgraph.nodes.general;
 
+import java.util.Collections;
+
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.iteration.BatchProcessing;
 
 /**
  * An {@link OpNode} that takes a value and outputs the same value.
@@ -36,7 +39,7 @@ import ca.gedge.opgraph.exceptions.ProcessingException;
 	            "given as input, a null value is output.",
 	category="General"
 )
-public class PassThroughNode extends OpNode {
+public class PassThroughNode extends OpNode implements BatchProcessing {
 	/** Input field for the value */
 	public final static InputField INPUT = new InputField("input", "input value", true, true);
 
@@ -55,4 +58,16 @@ public class PassThroughNode extends OpNode {
 	public void operate(OpContext context) throws ProcessingException {
 		context.put(OUTPUT, context.get(INPUT));
 	}
+
+	//
+	// BatchProcessing
+	//
+
+	@Override
+	public void operateOnBatch(OpContext context, int size) throws ProcessingException {
+		if(context.containsKey(INPUT))
+			context.put(OUTPUT, context.get(INPUT));
+		else
+			context.put(OUTPUT, Collections.nCopies(size, null));
+	}
 }
@@ -25,9 +25,16 @@ import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
 import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.exceptions.ProcessingException;
 
 /**
- * A node that outputs a constant value. 
+ * A node that outputs a range of integers. Ranges are {@link IntRangeList}s,
+ * or {@link LongRangeList}s if either bound is a {@link Long} or doesn't fit
+ * in an <code>int</code>.
+ * 
+ * Without a step, the range covers every integer between the start and end
+ * values, whichever is larger. With a step, the range goes from the start
+ * value toward the end value, and is empty if the step moves away from it.
  */
 @OpNodeInfo(
 	name="Range",
@@ -41,6 +48,9 @@ public class RangeNode extends OpNode {
 	/** Input field for the end of the output range */
 	public final InputField END_INPUT_FIELD = new InputField("end", "End value of range", false, true, Number.class);
 
+	/** Input field for the difference between consecutive values of the range */
+	public final InputField STEP_INPUT_FIELD = new InputField("step", "Step between values of range", true, true, Number.class);
+
 	/** Output field for the range */
 	public final OutputField RANGE_OUTPUT_FIELD = new OutputField("range", "Range list", true, List.class);
 
@@ -50,13 +60,32 @@ public class RangeNode extends OpNode {
 	public RangeNode() {
 		putField(START_INPUT_FIELD);
 		putField(END_INPUT_FIELD);
+		putField(STEP_INPUT_FIELD);
 		putField(RANGE_OUTPUT_FIELD);
 	}
 
 	@Override
-	public void operate(OpContext context) {
-		final int start = ((Number)context.get(START_INPUT_FIELD)).intValue();
-		final int end = ((Number)context.get(END_INPUT_FIELD)).intValue();
-		context.put(RANGE_OUTPUT_FIELD, new IntRangeList(start, end));
+	public void operate(OpContext context) throws ProcessingException {
+		final Number startValue = (Number)context.get(START_INPUT_FIELD);
+		final Number endValue = (Number)context.get(END_INPUT_FIELD);
+		final Number stepValue = (Number)context.get(STEP_INPUT_FIELD);
+
+		final long start = startValue.longValue();
+		final long end = endValue.longValue();
+		final long step = (stepValue == null ? 0 : stepValue.longValue());
+		final boolean isLong = (startValue instanceof Long || endValue instanceof Long
+		                        || start != (int)start || end != (int)end || step != (int)step);
+
+		try {
+			final List<?> range;
+			if(stepValue == null)
+				range = (isLong ? new LongRangeList(start, end) : new IntRangeList((int)start, (int)end));
+			else
+				range = (isLong ? new LongRangeList(start, end, step) : new IntRangeList((int)start, (int)end, (int)step));
+
+			context.put(RANGE_OUTPUT_FIELD, range);
+		} catch(IllegalArgumentException exc) {
+			throw new ProcessingException(exc.getMessage(), exc);
+		}
 	}
 }
@@ -28,10 +28,15 @@ import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
@@ -46,6 +51,7 @@ import javax.swing.SwingUtilities;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.text.BadLocationException;
+import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
@@ -62,6 +68,11 @@ import ca.gedge.opgraph.nodes.general.script.OutputFields;
 
 /**
  * A node that runs a script. 
+ * 
+ * Scripts are run by a pool of script engines, each of which has already
+ * evaluated the script, so that one node can operate on several threads at
+ * once. Only the node's input fields are bound into an engine's bindings
+ * before running the script, and cleared afterwards.
  */
 @OpNodeInfo(
 	name="Script",
@@ -77,8 +88,11 @@ public class ScriptNode
 	/** The script engine manager being used */
 	private ScriptEngineManager manager;
 
-	/** The script engine being used */
-	private ScriptEngine engine;
+	/** Whether or not the scripting language has an invocable script engine */
+	private volatile boolean engineAvailable;
+
+	/** Engines that have evaluated the current script, and aren't in use */
+	private volatile Queue<ScriptEngine> idleEngines = new ConcurrentLinkedQueue<ScriptEngine>();
 
 	/** The scripting language of this node */
 	private String language;
@@ -123,15 +137,6 @@ public class ScriptNode
 		language = (language == null ? "" : language);
 		if(!language.equals(this.language)) {
 			this.language = language;
-			this.engine = manager.getEngineByName(language);
-
-			// Only work with invocable script engines
-			if(this.engine == null || !(this.engine instanceof Invocable)) {
-				this.engine = null;
-			} else {
-				this.engine.put("Logging", new LoggingHelper());
-			}
-
 			reloadFields();
 		}
 	}
@@ -159,30 +164,80 @@ public class ScriptNode
 	}
 
 	/**
-	 * Reload the input/output fields from the script. 
+	 * Creates a script engine for the scripting language of this node,
+	 * evaluates the script with it, and initializes the script. The script is
+	 * compiled first, if the engine supports it. Every engine is created this
+	 * way, so that any state the script sets up in <code>init()</code> exists
+	 * in every engine.
+	 * 
+	 * @param inputFields  the collection the script adds its input fields to
+	 * @param outputFields  the collection the script adds its output fields to
+	 * 
+	 * @return the script engine, or <code>null</code> if the language has no
+	 *         invocable script engine
+	 * 
+	 * @throws ScriptException  if the script could not be evaluated or initialized
 	 */
-	private void reloadFields() {
-		if(engine != null) {
-			try {
-				engine.eval(script);
+	private ScriptEngine createEngine(InputFields inputFields, OutputFields outputFields)
+		throws ScriptException
+	{
+		final ScriptEngine engine;
+		synchronized(manager) {
+			engine = manager.getEngineByName(language);
+		}
+
+		// Only work with invocable script engines
+		if(engine == null || !(engine instanceof Invocable))
+			return null;
+
+		engine.put("Logging", new LoggingHelper());
+
+		// provide logger for script as 'logger'
+		engine.put("logger", Logger.getLogger(Processor.class.getName()));
+
+		if(engine instanceof Compilable)
+			((Compilable)engine).compile(script).eval();
+		else
+			engine.eval(script);
 
-				// XXX Perhaps have InputFields and OutputFields store temporary
-				//     sets of fields and only remove the input/output fields that
-				//     don't exist in them (isntead of all fields)
+		try {
+			((Invocable)engine).invokeFunction("init", inputFields, outputFields);
+		} catch(NoSuchMethodException exc) {
+			// XXX init() not necessary, but should we warn?
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Reload the input/output fields from the script. Engines that evaluated
+	 * a previous script or language are discarded.
+	 */
+	private void reloadFields() {
+		idleEngines = new ConcurrentLinkedQueue<ScriptEngine>();
+		try {
+			final InputFields inputFields = new InputFields(null);
+			final OutputFields outputFields = new OutputFields(null);
+			final ScriptEngine engine = createEngine(inputFields, outputFields);
+			engineAvailable = (engine != null);
+			if(engine != null) {
+				// XXX Perhaps only remove the input/output fields that don't
+				//     exist in the collected fields (instead of all fields)
 				//
 				removeAllInputFields();
 				removeAllOutputFields();
 
-				final InputFields inputFields = new InputFields(this);
-				final OutputFields outputFields = new OutputFields(this);
-				try {
-					((Invocable)engine).invokeFunction("init", inputFields, outputFields);
-				} catch(NoSuchMethodException exc) {
-					// XXX init() not necessary, but should we warn?
-				}
-			} catch(ScriptException exc) {
-				LOGGER.warning("Script error: " + exc.getLocalizedMessage());
+				for(InputField field : inputFields)
+					putField(field);
+
+				for(OutputField field : outputFields)
+					putField(field);
+
+				idleEngines.offer(engine);
 			}
+		} catch(ScriptException exc) {
+			engineAvailable = false;
+			LOGGER.warning("Script error: " + exc.getLocalizedMessage());
 		}
 	}
 
@@ -192,30 +247,44 @@ public class ScriptNode
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
-		if(engine != null) {
+		if(engineAvailable) {
+			final Queue<ScriptEngine> engines = idleEngines;
+			ScriptEngine engine = engines.poll();
 			try {
-				// Creating bindings from context
-				for(String key : context.keySet())
-					engine.put(key, context.get(key));
+				if(engine == null)
+					engine = createEngine(new InputFields(null), new OutputFields(null));
 
-				// provide logger for script as 'logger'
-				Logger logger = Logger.getLogger(Processor.class.getName());
-				engine.put("logger", logger);
+				if(engine == null)
+					return;
+
+				// Bind inputs
+				final Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+				for(InputField field : getInputFields())
+					bindings.put(field.getKey(), context.get(field));
 
 				// Execute run() method in script
 				((Invocable)engine).invokeFunction("run");
 
 				// Put output values in context
 				for(OutputField field : getOutputFields())
-					context.put(field, engine.get(field.getKey()));
-
-				// Erase values
-				for(String key : context.keySet())
-					engine.put(key, null);
+					context.put(field, bindings.get(field.getKey()));
 			} catch(ScriptException exc) {
 				throw new ProcessingException("Could not execute script script", exc);
 			} catch(NoSuchMethodException exc) {
 				throw new ProcessingException("No run() method in script", exc);
+			} finally {
+				if(engine != null) {
+					// Erase values, so that they don't leak into the next run
+					final Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+					for(InputField field : getInputFields())
+						bindings.put(field.getKey(), null);
+					for(OutputField field : getOutputFields())
+						bindings.put(field.getKey(), null);
+
+					// Engines for a previous script are discarded
+					if(engines == idleEngines)
+						engines.offer(engine);
+				}
 			}
 		}
 	}
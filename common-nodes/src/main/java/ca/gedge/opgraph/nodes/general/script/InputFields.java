@@ -35,14 +35,15 @@ import ca.gedge.opgraph.validators.TypeValidator;
  * input fields from a script.
  */
 public class InputFields extends ArrayList<InputField> {
-	/** The node which this class will add input fields to */
+	/** The node which this class will add input fields to, or <code>null</code> */
 	private OpNode node;
 
 	/**
 	 * Constructs an input fields collection which adds input fields to a
-	 * given node.
+	 * given node. Fields are also collected in this list.
 	 * 
-	 * @param node  the node to add input fields to 
+	 * @param node  the node to add input fields to, or <code>null</code>
+	 *              to only collect fields
 	 */
 	public InputFields(OpNode node) {
 		this.node = node;
@@ -146,6 +147,9 @@ public class InputFields extends ArrayList<InputField> {
 			boolean isFixed,
 			TypeValidator validators)
 	{
-		node.putField(new InputField(key, description, isOptional, isFixed, validators));
+		final InputField field = new InputField(key, description, isOptional, isFixed, validators);
+		add(field);
+		if(node != null)
+			node.putField(field);
 	}
 }
@@ -31,14 +31,15 @@ import ca.gedge.opgraph.OutputField;
  * output fields from a script.
  */
 public class OutputFields extends ArrayList<OutputField> {
-	/** The node which this class will add output fields to */
+	/** The node which this class will add output fields to, or <code>null</code> */
 	private OpNode node;
 
 	/**
 	 * Constructs an output fields collection which adds output fields to a
-	 * given node.
+	 * given node. Fields are also collected in this list.
 	 * 
-	 * @param node  the node to add input fields to 
+	 * @param node  the node to add output fields to, or <code>null</code>
+	 *              to only collect fields
 	 */
 	public OutputFields(OpNode node) {
 		this.node = node;
@@ -53,6 +54,9 @@ public class OutputFields extends ArrayList<OutputField> {
 	 * @param outputType  the type of object this field outputs 
 	 */
 	public void add(String key, String description, boolean isFixed, Class<?> outputType) {
-		node.putField(new OutputField(key, description, isFixed, outputType));
+		final OutputField field = new OutputField(key, description, isFixed, outputType);
+		add(field);
+		if(node != null)
+			node.putField(field);
 	}
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import java.util.List;
+
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+
+/**
+ * An interface for {@link OpNode}s that can operate on a whole chunk of
+ * elements at once. When a {@link ForEachNode} processes its graph in chunks
+ * (see {@link ForEachNode#setChunkSize(int)}), nodes implementing this
+ * interface operate once per chunk, whereas other nodes operate once per
+ * element of the chunk.
+ */
+public interface BatchProcessing {
+	/**
+	 * Operates on a chunk of elements. Every input in the given context is a
+	 * {@link List} with one value per element, and every output put into the
+	 * context must be a {@link List} with one value per element.
+	 * 
+	 * @param context  the working context for the node
+	 * @param size  the number of elements in the chunk
+	 * 
+	 * @throws ProcessingException  if processing could not be completed
+	 */
+	public abstract void operateOnBatch(OpContext context, int size) throws ProcessingException;
+}
@@ -21,46 +21,119 @@
  */
 package ca.gedge.opgraph.nodes.iteration;
 
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpLink;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.Processor;
+import ca.gedge.opgraph.app.GraphDocument;
+import ca.gedge.opgraph.app.edits.node.NodeSettingsEdit;
+import ca.gedge.opgraph.app.extensions.NodeSettings;
+import ca.gedge.opgraph.collections.PrimitiveLists;
+import ca.gedge.opgraph.dag.GraphSnapshot;
+import ca.gedge.opgraph.exceptions.InvalidTypeException;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.exceptions.RequiredInputException;
+import ca.gedge.opgraph.extensions.Inlinable;
 import ca.gedge.opgraph.nodes.general.MacroNode;
 import ca.gedge.opgraph.validators.CollectionValidator;
+import ca.gedge.opgraph.validators.TypeValidator;
 
 /**
  * A special macro node that loops over {@link List} inputs. When a field is
  * published from an internal node, the published field will accept any
  * {@link List} that contains elements of types accepted by the internal field.
+ * 
+ * Iterations are independent of each other, so they can optionally be run
+ * in parallel (see {@link #setParallelism(int)}). Each worker processes a
+ * contiguous range of iterations in its own context, and outputs are stored
+ * by iteration index, so results are in the same order as a sequential run.
+ * Nodes in the internal graph must be safe to operate concurrently in
+ * order to use parallel processing.
+ * 
+ * Iterations can also be processed in chunks (see {@link #setChunkSize(int)}),
+ * which avoids running a {@link Processor} for every element. Nodes in the
+ * internal graph which implement {@link BatchProcessing} operate on a whole
+ * chunk at once, and all other nodes operate once per element of the chunk.
+ * If no node implements {@link BatchProcessing}, iterations are processed one
+ * at a time by a {@link Processor}, as usual.
+ * 
+ * In streaming mode (see {@link #setStreaming(boolean)}), inputs can be any
+ * {@link Iterable} or {@link Iterator}, and are only traversed once. Outputs
+ * can be sent to an {@link IterationSink} as iterations complete, instead of
+ * being collected into a list (see {@link #setSink(OutputField, IterationSink)}).
+ * 
+ * Published inputs accept {@link ca.gedge.opgraph.collections.PrimitiveList}s,
+ * which are validated without boxing their elements. Outputs can optionally
+ * be packed into primitive lists (see {@link #setPackingOutputs(boolean)}).
  */
 @OpNodeInfo(
 	name="For Each",
 	description="A macro operation in which the macro is executed based on collections given as input.",
 	category="Iteration"
 )
-public class ForEachNode extends MacroNode {
+public class ForEachNode extends MacroNode implements NodeSettings {
 	/** {@link OpContext} key for the current iteration */
 	public static final String CURRENT_ITERATION_KEY = "currentIteration";
 
 	/** {@link OpContext} key for the max number of iterations */
 	public static final String MAX_ITERATIONS_KEY = "maxIterations";
 
+	/** Executor shared by all parallel for each nodes */
+	private static ExecutorService executor;
+
+	/** The maximum number of workers used to process iterations */
+	private int parallelism = 1;
+
+	/** The number of iterations processed by each execution of the graph */
+	private int chunkSize = 1;
+
+	/** Whether or not inputs are traversed lazily */
+	private boolean streaming = false;
+
+	/** Whether or not outputs are packed into primitive lists */
+	private boolean packingOutputs = false;
+
+	/** Sinks for published outputs */
+	private final Map<OutputField, IterationSink> sinks = new HashMap<OutputField, IterationSink>();
+
 	/**
 	 * Constructs a new macro with no source file and a default graph.
 	 */
 	public ForEachNode() {
-		super(null, null);
+		this(null, null);
 	}
 
 	/**
@@ -71,7 +144,7 @@ public class ForEachNode extends MacroNode {
 	 * @throws NullPointerException  if the graph is <code>null</code>
 	 */
 	public ForEachNode(OpGraph graph) {
-		super(null, graph);
+		this(null, graph);
 	}
 
 	/**
@@ -82,6 +155,131 @@ public class ForEachNode extends MacroNode {
 	 */
 	public ForEachNode(File source, OpGraph graph) {
 		super(source, graph);
+		putExtension(NodeSettings.class, this);
+
+		// Iterations can't be inlined into a single pass of the parent graph
+		putExtension(Inlinable.class, null);
+	}
+
+	/**
+	 * Gets the maximum number of workers used to process iterations.
+	 * 
+	 * @return the parallelism
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of workers used to process iterations. A value
+	 * of one processes iterations sequentially.
+	 * 
+	 * @param parallelism  the parallelism, which is clamped to be at least one
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Gets the number of iterations processed by each execution of the graph.
+	 * 
+	 * @return the chunk size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the number of iterations processed by each execution of the graph.
+	 * A value of one processes every iteration with its own execution of the
+	 * graph. Chunks are only used when this node is processed as a whole, and
+	 * some node in its graph implements {@link BatchProcessing}, so stepping
+	 * into this node always steps through single iterations.
+	 * 
+	 * @param chunkSize  the chunk size, which is clamped to be at least one
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Gets whether or not inputs are traversed lazily.
+	 * 
+	 * @return <code>true</code> if streaming, <code>false</code> otherwise
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets whether or not inputs are traversed lazily. When streaming, inputs
+	 * can be any {@link Iterable} or {@link Iterator}, and iteration stops
+	 * at the end of the longest input. The number of iterations isn't known
+	 * up front, so iterations are processed sequentially and one at a time,
+	 * regardless of parallelism and chunk size.
+	 * 
+	 * @param streaming  <code>true</code> to stream inputs, <code>false</code> otherwise
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Gets whether or not outputs are packed into primitive lists.
+	 * 
+	 * @return <code>true</code> if packing outputs, <code>false</code> otherwise
+	 */
+	public boolean isPackingOutputs() {
+		return packingOutputs;
+	}
+
+	/**
+	 * Sets whether or not outputs are packed into primitive lists. When
+	 * packing, an output list whose elements are all integers, decimals or
+	 * booleans is stored unboxed (see {@link PrimitiveLists#copyOf(Collection)}).
+	 * Packed lists don't accept <code>null</code> or elements of other types,
+	 * so this is off by default, and outputs are {@link ArrayList}s.
+	 * 
+	 * @param packingOutputs  <code>true</code> to pack outputs, <code>false</code> otherwise
+	 */
+	public void setPackingOutputs(boolean packingOutputs) {
+		this.packingOutputs = packingOutputs;
+	}
+
+	/**
+	 * Creates the list published for an output.
+	 * 
+	 * @param values  the values of the output, one per iteration
+	 * 
+	 * @return the list to publish
+	 */
+	private List<?> createOutputList(List<Object> values) {
+		return (packingOutputs ? PrimitiveLists.copyOf(values) : values);
+	}
+
+	/**
+	 * Gets the sink for a published output.
+	 * 
+	 * @param output  the published output
+	 * 
+	 * @return the sink, or <code>null</code> if the output has no sink
+	 */
+	public IterationSink getSink(OutputField output) {
+		return sinks.get(output);
+	}
+
+	/**
+	 * Sets the sink for a published output. Sinks are only used in streaming
+	 * mode, in which case an output with a sink is not put into the context.
+	 * 
+	 * @param output  the published output
+	 * @param sink  the sink, or <code>null</code> to collect the output in a list
+	 */
+	public void setSink(OutputField output, IterationSink sink) {
+		if(sink == null)
+			sinks.remove(output);
+		else
+			sinks.put(output, sink);
 	}
 
 	/**
@@ -106,30 +304,121 @@ public class ForEachNode extends MacroNode {
 	}
 
 	/**
-	 * Maps published outputs from a given context mapping to a given context.
+	 * Maps a single iteration's values to the published inputs' fields.
+	 * 
+	 * @param context  the macro's local context
+	 * @param iteration  the iteration
+	 * @param values  the values, one per published input
 	 * 
-	 * @param contextsMap  the context mapping to map outputs from
-	 * @param context  the context to map outputs to
+	 * @throws InvalidTypeException  if a value isn't accepted by its field
 	 */
-	private void mapOutputs(OpContext context, int iteration) {
-		// Grab mapped outputs and put them in our context
-		for(PublishedOutput publishedOutput : publishedOutputs) {
-			final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
-			if(sourceContext != null) {
-				final Object result = sourceContext.get(publishedOutput.nodeOutputField);
-				if(context.containsKey(publishedOutput)) {
-					final ArrayList<Object> objects = new ArrayList<Object>((ArrayList<?>)context.get(publishedOutput));
-					objects.add(result);
-					context.put(publishedOutput, objects);
-				} else {
-					final ArrayList<Object> objects = new ArrayList<Object>();
-					objects.add(result);
-					context.put(publishedOutput, objects);
+	private void mapValues(OpContext context, int iteration, Object [] values)
+		throws InvalidTypeException
+	{
+		context.put(CURRENT_ITERATION_KEY, iteration);
+
+		for(int index = 0; index < publishedInputs.size(); ++index) {
+			final PublishedInput publishedInput = publishedInputs.get(index);
+			final Object value = values[index];
+
+			// Inputs aren't validated up front when streaming, so do it here
+			final TypeValidator validator = publishedInput.nodeInputField.getValidator();
+			if(value != null && validator != null && !validator.isAcceptable(value))
+				throw new InvalidTypeException(publishedInput.nodeInputField, value);
+
+			context.getChildContext(publishedInput.destinationNode).put(publishedInput.nodeInputField, value);
+		}
+	}
+
+	/**
+	 * Zips the published inputs of a context into a single iterator. The
+	 * iterator ends with the longest input, and shorter inputs are padded
+	 * with <code>null</code>.
+	 * 
+	 * @param context  the macro's local context
+	 * 
+	 * @return an iterator over values, one per published input
+	 */
+	private Iterator<Object []> zipInputs(OpContext context) {
+		final ArrayList<Iterator<?>> iterators = new ArrayList<Iterator<?>>();
+		for(PublishedInput publishedInput : publishedInputs) {
+			final Object data = context.get(publishedInput);
+			if(data instanceof Iterator)
+				iterators.add((Iterator<?>)data);
+			else if(data instanceof Iterable)
+				iterators.add(((Iterable<?>)data).iterator());
+			else
+				iterators.add(Collections.emptyList().iterator());
+		}
+
+		return new Iterator<Object []>() {
+			@Override
+			public boolean hasNext() {
+				for(Iterator<?> iterator : iterators) {
+					if(iterator.hasNext())
+						return true;
 				}
+				return false;
 			}
+
+			@Override
+			public Object [] next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+
+				final Object [] values = new Object[iterators.size()];
+				for(int index = 0; index < values.length; ++index) {
+					final Iterator<?> iterator = iterators.get(index);
+					values[index] = (iterator.hasNext() ? iterator.next() : null);
+				}
+				return values;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove not supported");
+			}
+		};
+	}
+
+	/**
+	 * Creates storage for the outputs of all iterations.
+	 * 
+	 * @param maxIterations  the number of iterations
+	 * 
+	 * @return an array, indexed by published output and then by iteration
+	 */
+	private Object [][] createResults(int maxIterations) {
+		return new Object[publishedOutputs.size()][maxIterations];
+	}
+
+	/**
+	 * Collects the published outputs of an iteration from a given context.
+	 * 
+	 * @param context  the context to collect outputs from
+	 * @param results  the output storage
+	 * @param iteration  the iteration
+	 */
+	private void collectOutputs(OpContext context, Object [][] results, int iteration) {
+		for(int index = 0; index < publishedOutputs.size(); ++index) {
+			final PublishedOutput publishedOutput = publishedOutputs.get(index);
+			final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
+			if(sourceContext != null)
+				results[index][iteration] = sourceContext.get(publishedOutput.nodeOutputField);
 		}
 	}
 
+	/**
+	 * Publishes the outputs of all iterations to a given context.
+	 * 
+	 * @param context  the context to publish outputs to
+	 * @param results  the output storage
+	 */
+	private void publishOutputs(OpContext context, Object [][] results) {
+		for(int index = 0; index < publishedOutputs.size(); ++index)
+			context.put(publishedOutputs.get(index), createOutputList(new ArrayList<Object>(Arrays.asList(results[index]))));
+	}
+
 	//
 	// Overrides
 	//
@@ -137,10 +426,16 @@ public class ForEachNode extends MacroNode {
 	@Override
 	public InputField publish(String key, OpNode destination, InputField field) {
 		final InputField published = super.publish(key, destination, field);
-		published.setValidator(new CollectionValidator(published.getValidator()));
+		published.setValidator(new PublishedInputValidator(published.getValidator()));
 		return published;
 	}
 
+	@Override
+	public void unpublish(OpNode source, OutputField field) {
+		super.unpublish(source, field);
+		sinks.keySet().retainAll(publishedOutputs);
+	}
+
 	@Override
 	public OutputField publish(String key, OpNode source, OutputField field) {
 		final OutputField published = super.publish(key, source, field);
@@ -150,6 +445,12 @@ public class ForEachNode extends MacroNode {
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
+		if(streaming) {
+			if(graph != null)
+				operateStreaming(context);
+			return;
+		}
+
 		// First, find the biggest list we have
 		int maxIterations = 0;
 		for(PublishedInput field : getPublishedInputs()) {
@@ -159,10 +460,76 @@ public class ForEachNode extends MacroNode {
 
 		// Process
 		if(graph != null) {
-			final Processor processor = new Processor(graph);
-
 			context.put(MAX_ITERATIONS_KEY, maxIterations);
-			for(int iteration = 0; iteration < maxIterations; ++iteration) {
+
+			final Object [][] results = createResults(maxIterations);
+			final int chunks = (maxIterations + chunkSize - 1) / chunkSize;
+			final int workers = Math.min(parallelism, chunks);
+			if(workers > 1)
+				operateInParallel(context, results, maxIterations, workers);
+			else
+				processRange(context, results, 0, maxIterations);
+
+			publishOutputs(context, results);
+		}
+	}
+
+	/**
+	 * Processes iterations lazily, pulling one value at a time from every
+	 * published input until all of them are exhausted.
+	 * 
+	 * @param context  the macro's local context
+	 * 
+	 * @throws ProcessingException  if any iteration failed
+	 */
+	private void operateStreaming(OpContext context) throws ProcessingException {
+		// The number of iterations is only known once the inputs are exhausted
+		context.put(MAX_ITERATIONS_KEY, -1);
+
+		final Iterator<Object []> inputs = zipInputs(context);
+		final StreamedOutputs outputs = new StreamedOutputs();
+		final Processor processor = new Processor(graph);
+		int iteration = 0;
+		for(; inputs.hasNext(); ++iteration) {
+			checkInterrupted();
+			final Object [] values = inputs.next();
+			processor.reset(context);
+			mapValues(context, iteration, values);
+
+			processor.stepAll();
+			if(processor.getError() != null)
+				throw processor.getError();
+
+			outputs.collect(context, iteration);
+		}
+
+		context.put(MAX_ITERATIONS_KEY, iteration);
+		outputs.publish(context);
+	}
+
+	/**
+	 * Processes a contiguous range of iterations in a given context.
+	 * 
+	 * @param context  the context to process in
+	 * @param results  the output storage
+	 * @param start  the first iteration of the range
+	 * @param end  the iteration after the last one in the range
+	 * 
+	 * @throws ProcessingException  if any iteration failed, or the thread was interrupted
+	 */
+	private void processRange(OpContext context, Object [][] results, int start, int end)
+		throws ProcessingException
+	{
+		final GraphSnapshot<OpNode, OpLink> snapshot = graph.getSnapshot();
+		if(chunkSize > 1 && isChunkProcessable(snapshot)) {
+			for(int chunkStart = start; chunkStart < end; chunkStart += chunkSize) {
+				checkInterrupted();
+				processChunk(context, snapshot, results, chunkStart, Math.min(chunkStart + chunkSize, end));
+			}
+		} else {
+			final Processor processor = new Processor(graph);
+			for(int iteration = start; iteration < end; ++iteration) {
+				checkInterrupted();
 				processor.reset(context);
 
 				// The reset call above could clear out the context, so map after
@@ -173,10 +540,434 @@ public class ForEachNode extends MacroNode {
 				if(processor.getError() != null)
 					throw processor.getError();
 
-				// Map the published outputs from the child nodes back into context
-				mapOutputs(context, iteration);
+				// Collect the published outputs from the child nodes
+				collectOutputs(context, results, iteration);
+			}
+		}
+	}
+
+	/**
+	 * Gets whether or not a graph is worth processing in chunks. At least one
+	 * node must implement {@link BatchProcessing}, and no node may have its
+	 * enabled field linked, since a node operates on all of a chunk or none.
+	 * 
+	 * @param snapshot  a snapshot of the graph
+	 * 
+	 * @return <code>true</code> if the graph can be processed in chunks,
+	 *         <code>false</code> otherwise
+	 */
+	private static boolean isChunkProcessable(GraphSnapshot<OpNode, OpLink> snapshot) {
+		boolean batchFound = false;
+		for(int id = 0; id < snapshot.getVertexCount(); ++id) {
+			if(snapshot.getVertex(id) instanceof BatchProcessing)
+				batchFound = true;
+
+			for(int index = 0; index < snapshot.getInDegree(id); ++index) {
+				if(snapshot.getIncomingEdge(id, index).getDestinationField() == OpNode.ENABLED_FIELD)
+					return false;
 			}
 		}
+		return batchFound;
+	}
+
+	/**
+	 * Processes a chunk of iterations with a single pass over the graph. Every
+	 * value flowing through the graph is a {@link List} with one value per
+	 * iteration in the chunk. Nodes implementing {@link BatchProcessing}
+	 * operate on the whole chunk, and other nodes operate once per iteration
+	 * (see {@link #operatePerIteration(OpContext, OpNode, OpContext, int, int)}).
+	 * 
+	 * @param context  the context to process in
+	 * @param snapshot  a snapshot of the graph
+	 * @param results  the output storage
+	 * @param start  the first iteration of the chunk
+	 * @param end  the iteration after the last one in the chunk
+	 * 
+	 * @throws ProcessingException  if any node failed
+	 */
+	private void processChunk(OpContext context, GraphSnapshot<OpNode, OpLink> snapshot,
+	                          Object [][] results, int start, int end)
+		throws ProcessingException
+	{
+		final int size = end - start;
+		context.clearChildContexts();
+		context.put(CURRENT_ITERATION_KEY, start);
+
+		// Published inputs receive a sublist, padded with null if necessary
+		for(PublishedInput publishedInput : publishedInputs) {
+			final List<?> data = (List<?>)context.get(publishedInput);
+			final List<?> chunk;
+			if(end <= data.size()) {
+				chunk = data.subList(start, end);
+			} else {
+				final ArrayList<Object> padded = new ArrayList<Object>(size);
+				if(start < data.size())
+					padded.addAll(data.subList(start, data.size()));
+				while(padded.size() < size)
+					padded.add(null);
+				chunk = padded;
+			}
+
+			context.getChildContext(publishedInput.destinationNode).put(publishedInput.nodeInputField, chunk);
+		}
+
+		// Operate on nodes in topological order
+		for(int id = 0; id < snapshot.getVertexCount(); ++id) {
+			final OpNode node = snapshot.getVertex(id);
+			final OpContext local = context.getChildContext(node);
+			for(int index = 0; index < snapshot.getInDegree(id); ++index) {
+				final OpLink link = snapshot.getIncomingEdge(id, index);
+				final OpContext sourceContext = context.findChildContext(link.getSource());
+				if(sourceContext != null && sourceContext.containsKey(link.getSourceField()))
+					local.put(link.getDestinationField(), sourceContext.get(link.getSourceField()));
+			}
+
+			checkChunkInputs(node, local, size);
+			if(node instanceof BatchProcessing)
+				((BatchProcessing)node).operateOnBatch(local, size);
+			else
+				operatePerIteration(context, node, local, start, size);
+			checkChunkOutputs(node, local, size);
+		}
+
+		// Collect the published outputs from the child nodes
+		for(int index = 0; index < publishedOutputs.size(); ++index) {
+			final PublishedOutput publishedOutput = publishedOutputs.get(index);
+			final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
+			if(sourceContext != null && sourceContext.containsKey(publishedOutput.nodeOutputField)) {
+				final List<?> values = (List<?>)sourceContext.get(publishedOutput.nodeOutputField);
+				for(int offset = 0; offset < size; ++offset)
+					results[index][start + offset] = values.get(offset);
+			}
+		}
+	}
+
+	/**
+	 * Operates a node that does not implement {@link BatchProcessing} once for
+	 * every iteration of a chunk. Before each operation, the node's context
+	 * only contains that iteration's inputs, and the current iteration is set
+	 * in the given context. Afterwards, the node's context holds one list per
+	 * output, containing <code>null</code> for iterations in which the node
+	 * did not set that output.
+	 * 
+	 * @param context  the context to process in
+	 * @param node  the node
+	 * @param local  the node's context for the chunk
+	 * @param start  the first iteration of the chunk
+	 * @param size  the number of iterations in the chunk
+	 * 
+	 * @throws ProcessingException  if the node failed on any iteration
+	 */
+	private static void operatePerIteration(OpContext context, OpNode node, OpContext local, int start, int size)
+		throws ProcessingException
+	{
+		final List<InputField> inputFields = new ArrayList<InputField>();
+		final List<List<?>> inputs = new ArrayList<List<?>>();
+		for(InputField field : node.getInputFields()) {
+			if(local.containsKey(field)) {
+				inputFields.add(field);
+				inputs.add((List<?>)local.get(field));
+			}
+		}
+
+		final List<OutputField> outputFields = node.getOutputFields();
+		final Object [][] outputs = new Object[outputFields.size()][];
+		try {
+			for(int offset = 0; offset < size; ++offset) {
+				context.put(CURRENT_ITERATION_KEY, start + offset);
+				local.clear();
+				for(int index = 0; index < inputFields.size(); ++index)
+					local.put(inputFields.get(index), inputs.get(index).get(offset));
+
+				node.operate(local);
+
+				for(int index = 0; index < outputFields.size(); ++index) {
+					final Object value = local.getLocal(outputFields.get(index).getKey());
+					if(value != null) {
+						if(outputs[index] == null)
+							outputs[index] = new Object[size];
+						outputs[index][offset] = value;
+					}
+				}
+			}
+		} finally {
+			context.put(CURRENT_ITERATION_KEY, start);
+		}
+
+		local.clear();
+		for(int index = 0; index < inputFields.size(); ++index)
+			local.put(inputFields.get(index), inputs.get(index));
+		for(int index = 0; index < outputFields.size(); ++index) {
+			if(outputs[index] != null)
+				local.put(outputFields.get(index), Arrays.asList(outputs[index]));
+		}
+	}
+
+	/**
+	 * Checks that all required inputs of a node have values for a chunk, and
+	 * that every value is accepted by its field.
+	 * 
+	 * @param node  the node
+	 * @param local  the node's context for the chunk
+	 * @param size  the number of iterations in the chunk
+	 * 
+	 * @throws ProcessingException  if an input is missing, or has an invalid value
+	 */
+	private static void checkChunkInputs(OpNode node, OpContext local, int size)
+		throws ProcessingException
+	{
+		for(InputField field : node.getInputFields()) {
+			if(local.containsKey(field)) {
+				final List<?> values = (List<?>)local.get(field);
+				if(values.size() != size)
+					throw new ProcessingException("Input '" + field.getKey() + "' in node '" + node.getName() + "' does not have a value for every iteration");
+
+				final TypeValidator validator = field.getValidator();
+				if(validator != null) {
+					for(Object value : values) {
+						if(!validator.isAcceptable(value))
+							throw new InvalidTypeException(field, value);
+					}
+				}
+			} else if(!field.isOptional()) {
+				throw new RequiredInputException(node, field);
+			}
+		}
+	}
+
+	/**
+	 * Checks that every output a node put into its context for a chunk is a
+	 * {@link List} with one value per iteration of the chunk.
+	 * 
+	 * @param node  the node
+	 * @param local  the node's context for the chunk
+	 * @param size  the number of iterations in the chunk
+	 * 
+	 * @throws ProcessingException  if an output is not a list of the right size
+	 */
+	private static void checkChunkOutputs(OpNode node, OpContext local, int size)
+		throws ProcessingException
+	{
+		for(OutputField field : node.getOutputFields()) {
+			if(local.containsKey(field)) {
+				final Object values = local.get(field);
+				if(!(values instanceof List) || ((List<?>)values).size() != size)
+					throw new ProcessingException("Output '" + field.getKey() + "' in node '" + node.getName() + "' does not have a value for every iteration");
+			}
+		}
+	}
+
+	/**
+	 * Stops processing if the current thread was interrupted.
+	 * 
+	 * @throws ProcessingException  if the current thread was interrupted
+	 */
+	private static void checkInterrupted() throws ProcessingException {
+		if(Thread.currentThread().isInterrupted())
+			throw new ProcessingException("Processing was interrupted");
+	}
+
+	/**
+	 * Processes iterations in parallel. Iterations are split into contiguous
+	 * ranges of whole chunks, one per worker, and each worker processes its range in its own
+	 * context whose parent is the given context. Outputs are written by
+	 * iteration index, so their order is deterministic.
+	 * 
+	 * @param context  the macro's local context
+	 * @param results  the output storage
+	 * @param maxIterations  the number of iterations
+	 * @param workers  the number of workers
+	 * 
+	 * @throws ProcessingException  if any iteration failed
+	 */
+	private void operateInParallel(final OpContext context, final Object [][] results, int maxIterations, int workers)
+		throws ProcessingException
+	{
+		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		final int chunks = (maxIterations + chunkSize - 1) / chunkSize;
+		final int rangeSize = ((chunks + workers - 1) / workers) * chunkSize;
+
+		Runnable localRange = null;
+		for(int start = 0; start < maxIterations; start += rangeSize) {
+			final int end = Math.min(start + rangeSize, maxIterations);
+			final int rangeStart = start;
+			final Runnable range = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						processRange(new OpContext(context), results, rangeStart, end);
+					} catch(ProcessingException exc) {
+						throw new WorkerException(exc);
+					}
+				}
+			};
+
+			// The calling thread processes the last range itself
+			if(end == maxIterations)
+				localRange = range;
+			else
+				futures.add(getExecutor().submit(range));
+		}
+
+		try {
+			localRange.run();
+			for(Future<?> future : futures)
+				future.get();
+		} catch(WorkerException exc) {
+			throw exc.getError();
+		} catch(ExecutionException exc) {
+			if(exc.getCause() instanceof WorkerException)
+				throw ((WorkerException)exc.getCause()).getError();
+			throw new ProcessingException(exc.getCause());
+		} catch(InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new ProcessingException(exc);
+		} catch(RuntimeException exc) {
+			throw new ProcessingException(exc);
+		} finally {
+			for(Future<?> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * Gets the executor used to run parallel iterations. The executor grows
+	 * as needed, so nested parallel loops cannot starve each other.
+	 * 
+	 * @return the executor
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "ForEachNode worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Outputs of a streaming run. Outputs with a sink are sent to it as
+	 * iterations complete, and all other outputs are collected into lists.
+	 */
+	private class StreamedOutputs {
+		/** Sinks, one per published output, or <code>null</code> if there is no sink */
+		private final IterationSink [] outputSinks;
+
+		/** Lists, one per published output, or <code>null</code> if there is a sink */
+		private final List<List<Object>> lists;
+
+		public StreamedOutputs() {
+			this.outputSinks = new IterationSink[publishedOutputs.size()];
+			this.lists = new ArrayList<List<Object>>();
+			for(int index = 0; index < outputSinks.length; ++index) {
+				outputSinks[index] = sinks.get(publishedOutputs.get(index));
+				lists.add(outputSinks[index] == null ? new ArrayList<Object>() : null);
+			}
+		}
+
+		/**
+		 * Collects the published outputs of an iteration from a given context.
+		 * 
+		 * @param context  the context to collect outputs from
+		 * @param iteration  the iteration
+		 * 
+		 * @throws ProcessingException  if a sink could not accept a value
+		 */
+		public void collect(OpContext context, int iteration) throws ProcessingException {
+			for(int index = 0; index < outputSinks.length; ++index) {
+				final PublishedOutput publishedOutput = publishedOutputs.get(index);
+				final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
+				final Object value = (sourceContext == null ? null : sourceContext.get(publishedOutput.nodeOutputField));
+				if(outputSinks[index] == null)
+					lists.get(index).add(value);
+				else
+					outputSinks[index].accept(iteration, value);
+			}
+		}
+
+		/**
+		 * Finishes all sinks, and publishes all lists to a given context.
+		 * 
+		 * @param context  the context to publish outputs to
+		 * 
+		 * @throws ProcessingException  if a sink could not be finished
+		 */
+		public void publish(OpContext context) throws ProcessingException {
+			for(int index = 0; index < outputSinks.length; ++index) {
+				if(outputSinks[index] == null)
+					context.put(publishedOutputs.get(index), createOutputList(lists.get(index)));
+				else
+					outputSinks[index].finish();
+			}
+		}
+	}
+
+	/**
+	 * Validator for published inputs. When not streaming, inputs must be
+	 * collections whose elements are accepted by the internal field. When
+	 * streaming, inputs can be any {@link Iterable} or {@link Iterator}, and
+	 * elements are only validated as they are traversed.
+	 */
+	private class PublishedInputValidator implements TypeValidator {
+		/** The validator used when not streaming */
+		private final CollectionValidator collectionValidator;
+
+		public PublishedInputValidator(TypeValidator elementValidator) {
+			this.collectionValidator = new CollectionValidator(elementValidator);
+		}
+
+		@Override
+		public boolean isAcceptable(Object obj) {
+			if(streaming)
+				return (obj instanceof Iterable || obj instanceof Iterator);
+			return collectionValidator.isAcceptable(obj);
+		}
+
+		@Override
+		public boolean isAcceptable(Class<?> cls) {
+			if(streaming) {
+				if(cls == null)
+					throw new NullPointerException("cls cannot be null");
+				return (Iterable.class.isAssignableFrom(cls) || Iterator.class.isAssignableFrom(cls));
+			}
+			return collectionValidator.isAcceptable(cls);
+		}
+	}
+
+	/**
+	 * A node that fails with a given error when operated. Used to report
+	 * errors that occur between iterations when stepping through.
+	 */
+	private static class FailedIterationNode extends OpNode {
+		private final ProcessingException error;
+
+		public FailedIterationNode(ProcessingException error) {
+			super("Next Iteration", "Maps the values of the next iteration");
+			this.error = error;
+		}
+
+		@Override
+		public void operate(OpContext context) throws ProcessingException {
+			throw error;
+		}
+	}
+
+	/**
+	 * Wraps a {@link ProcessingException} thrown from a worker.
+	 */
+	private static class WorkerException extends RuntimeException {
+		public WorkerException(ProcessingException error) {
+			super(error);
+		}
+
+		public ProcessingException getError() {
+			return (ProcessingException)getCause();
+		}
 	}
 
 	//
@@ -191,6 +982,10 @@ public class ForEachNode extends MacroNode {
 			private Iterator<OpNode> nodeIter;
 			private int iteration = 0;
 			private int maxIterations = 0;
+			private Object [][] results;
+			private Iterator<Object []> inputs;
+			private StreamedOutputs streamedOutputs;
+			private ProcessingException inputError;
 
 			@Override
 			public void remove() {
@@ -212,27 +1007,78 @@ public class ForEachNode extends MacroNode {
 				if(nextNode != null)
 					return true;
 
-				if(!nodeIter.hasNext() && iteration < maxIterations) {
-					mapOutputs(context, iteration);
+				if(inputs != null) {
+					if(!nodeIter.hasNext())
+						nextStreamingIteration();
+				} else if(!nodeIter.hasNext() && iteration < maxIterations) {
+					collectOutputs(context, results, iteration);
 
 					++iteration;
 					if(iteration < maxIterations) {
 						nodeIter = graph.getVertices().iterator();
 						mapInputs(context, iteration);
+					} else {
+						publishOutputs(context, results);
 					}
 				}
 
-				if(nodeIter.hasNext())
+				if(inputError != null) {
+					// Report the error through a node, so that the processor
+					// handles it like any other processing error
+					nextNode = new FailedIterationNode(inputError);
+					nodeIter = Collections.<OpNode>emptyList().iterator();
+					inputError = null;
+				} else if(nodeIter.hasNext()) {
 					nextNode = nodeIter.next();
+				}
 
 				return (nextNode != null);
 			}
 
+			/**
+			 * Collects outputs of the current iteration, if any, and maps the
+			 * next values from the inputs. If the inputs are exhausted, the
+			 * outputs are published. Errors are recorded, and reported by the
+			 * next node stepped to.
+			 */
+			private void nextStreamingIteration() {
+				try {
+					if(iteration >= 0)
+						streamedOutputs.collect(context, iteration);
+
+					++iteration;
+					if(inputs.hasNext()) {
+						mapValues(context, iteration, inputs.next());
+						nodeIter = graph.getVertices().iterator();
+					} else {
+						context.put(MAX_ITERATIONS_KEY, iteration);
+						streamedOutputs.publish(context);
+						inputs = null;
+					}
+				} catch(ProcessingException exc) {
+					inputs = null;
+					inputError = exc;
+					nodeIter = Collections.<OpNode>emptyList().iterator();
+				}
+			}
+
 			@Override
 			public void initialize(OpContext context) {
+				this.iteration = 0;
 				this.maxIterations = 0;
 				this.context = context;
-				this.nodeIter = graph.getVertices().iterator();
+				this.inputs = null;
+				this.inputError = null;
+
+				if(streaming) {
+					context.put(MAX_ITERATIONS_KEY, -1);
+					this.iteration = -1;
+					this.inputs = zipInputs(context);
+					this.streamedOutputs = new StreamedOutputs();
+					this.nodeIter = Collections.<OpNode>emptyList().iterator();
+					nextStreamingIteration();
+					return;
+				}
 
 				// First, find the biggest list we have
 				for(PublishedInput field : getPublishedInputs()) {
@@ -243,12 +1089,129 @@ public class ForEachNode extends MacroNode {
 				}
 
 				context.put(MAX_ITERATIONS_KEY, maxIterations);
+				this.results = createResults(maxIterations);
 
-				mapInputs(context, 0);
+				if(maxIterations == 0) {
+					// Nothing to iterate over
+					this.nodeIter = Collections.<OpNode>emptyList().iterator();
+					publishOutputs(context, results);
+				} else {
+					this.nodeIter = graph.getVertices().iterator();
+					mapInputs(context, 0);
+				}
 			}
 
 			@Override
 			public void terminate(OpContext context) {}
 		};
 	}
+
+	//
+	// NodeSettings
+	//
+
+	private static final String PARALLELISM_KEY = "parallelism";
+	private static final String CHUNK_SIZE_KEY = "chunkSize";
+	private static final String STREAMING_KEY = "streaming";
+	private static final String PACKING_OUTPUTS_KEY = "packOutputs";
+
+	@Override
+	public Component getComponent(GraphDocument document) {
+		final JLabel parallelismLabel = new JLabel("Parallelism: ");
+		parallelismLabel.setToolTipText("The maximum number of iterations processed at the same time");
+
+		final JLabel chunkSizeLabel = new JLabel("Chunk size: ");
+		chunkSizeLabel.setToolTipText("The number of iterations processed by each execution of the graph");
+
+		final JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		panel.add(parallelismLabel);
+		panel.add(createSettingSpinner(document, PARALLELISM_KEY, getParallelism(), 256));
+		panel.add(chunkSizeLabel);
+		panel.add(createSettingSpinner(document, CHUNK_SIZE_KEY, getChunkSize(), 65536));
+		panel.add(createSettingCheckBox(document, STREAMING_KEY, "Streaming", isStreaming(),
+		                                "Traverse inputs lazily, one element at a time"));
+		panel.add(createSettingCheckBox(document, PACKING_OUTPUTS_KEY, "Pack outputs", isPackingOutputs(),
+		                                "Store outputs of integers, decimals or booleans unboxed"));
+		return panel;
+	}
+
+	/**
+	 * Creates a check box that posts an edit for a boolean setting when changed.
+	 * 
+	 * @param document  the document to post edits to
+	 * @param key  the setting's key
+	 * @param label  the check box label
+	 * @param value  the setting's current value
+	 * @param toolTip  the tool tip for the check box
+	 * 
+	 * @return the check box
+	 */
+	private JCheckBox createSettingCheckBox(final GraphDocument document, final String key, String label,
+	                                       boolean value, String toolTip)
+	{
+		final JCheckBox checkBox = new JCheckBox(label, value);
+		checkBox.setToolTipText(toolTip);
+		checkBox.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				if(document != null) {
+					final Properties settings = new Properties();
+					settings.setProperty(key, Boolean.toString(checkBox.isSelected()));
+					document.getUndoSupport().postEdit(new NodeSettingsEdit(ForEachNode.this, settings));
+				}
+			}
+		});
+		return checkBox;
+	}
+
+	/**
+	 * Creates a spinner that posts an edit for an integer setting when changed.
+	 * 
+	 * @param document  the document to post edits to
+	 * @param key  the setting's key
+	 * @param value  the setting's current value
+	 * @param maximum  the maximum value of the setting
+	 * 
+	 * @return the spinner
+	 */
+	private JSpinner createSettingSpinner(final GraphDocument document, final String key, int value, int maximum) {
+		final SpinnerNumberModel model = new SpinnerNumberModel(value, 1, maximum, 1);
+		final JSpinner spinner = new JSpinner(model);
+		spinner.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				if(document != null) {
+					final Properties settings = new Properties();
+					settings.setProperty(key, model.getValue().toString());
+					document.getUndoSupport().postEdit(new NodeSettingsEdit(ForEachNode.this, settings));
+				}
+			}
+		});
+		return spinner;
+	}
+
+	@Override
+	public Properties getSettings() {
+		final Properties props = new Properties();
+		props.setProperty(PARALLELISM_KEY, "" + getParallelism());
+		props.setProperty(CHUNK_SIZE_KEY, "" + getChunkSize());
+		props.setProperty(STREAMING_KEY, Boolean.toString(isStreaming()));
+		props.setProperty(PACKING_OUTPUTS_KEY, Boolean.toString(isPackingOutputs()));
+		return props;
+	}
+
+	@Override
+	public void loadSettings(Properties properties) {
+		if(properties.containsKey(PARALLELISM_KEY))
+			setParallelism(Integer.parseInt(properties.getProperty(PARALLELISM_KEY)));
+
+		if(properties.containsKey(CHUNK_SIZE_KEY))
+			setChunkSize(Integer.parseInt(properties.getProperty(CHUNK_SIZE_KEY)));
+
+		if(properties.containsKey(STREAMING_KEY))
+			setStreaming(Boolean.parseBoolean(properties.getProperty(STREAMING_KEY)));
+
+		if(properties.containsKey(PACKING_OUTPUTS_KEY))
+			setPackingOutputs(Boolean.parseBoolean(properties.getProperty(PACKING_OUTPUTS_KEY)));
+	}
 }
@@ -0,0 +1,1215 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpLink;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.OpNodeInfo;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.app.GraphDocument;
+import ca.gedge.opgraph.app.edits.node.NodeSettingsEdit;
+import ca.gedge.opgraph.app.extensions.NodeSettings;
+import ca.gedge.opgraph.dag.GraphSnapshot;
+import ca.gedge.opgraph.exceptions.InvalidTypeException;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.exceptions.RequiredInputException;
+import ca.gedge.opgraph.extensions.Inlinable;
+import ca.gedge.opgraph.nodes.general.MacroNode;
+import ca.gedge.opgraph.validators.TypeValidator;
+
+/**
+ * A special macro node that partitions the elements of a {@link Collection}
+ * into groups by key, and aggregates every group. The internal graph has two
+ * stages, found from its published fields:
+ * <ul>
+ *   <li>the key stage receives an element through the published input
+ *       {@value #ELEMENT_KEY}, and computes its key in the published output
+ *       {@value #KEY_KEY}</li>
+ *   <li>the aggregate stage receives a {@link List} of the elements in a
+ *       group through the published input {@value #GROUP_KEY}, and computes
+ *       any other published outputs</li>
+ * </ul>
+ * A node operates in a stage if any of that stage's outputs depend on it.
+ * Every other published output of the internal graph becomes a {@link Map}
+ * output of this node, from each key to its group's aggregate value. Keys
+ * are ordered by the first element in their group. Any other published
+ * inputs are passed unchanged to both stages.
+ * 
+ * Every pass of a stage is numbered, and the number is available to the
+ * internal graph under {@link ForEachNode#CURRENT_ITERATION_KEY}. The key
+ * stage for element <code>i</code> is pass <code>i</code>, and the aggregate
+ * stage for a group whose first element is <code>i</code> is pass
+ * <code>n + i</code>, for a collection of <code>n</code> elements.
+ * 
+ * Groups are hash partitioned across workers (see {@link #setParallelism(int)}):
+ * each worker computes the keys of a contiguous range of elements, and then
+ * aggregates the groups in one partition. Nodes in the internal graph must
+ * be safe to operate concurrently in order to use parallel processing.
+ * 
+ * When the number of elements a worker holds in memory exceeds its share of
+ * a budget (see {@link #setMemoryBudget(int)}), all of them are spilled to
+ * the worker's temporary file, as one run per partition ordered by the hash
+ * codes of keys. Each partition is then aggregated by merging its runs from
+ * every worker, so only the groups whose keys share one hash code need to
+ * fit in memory at once. Keys and elements must be {@link java.io.Serializable}
+ * for groups to be spilled, and keys must still be equal, with the same hash
+ * codes, once deserialized.
+ */
+@OpNodeInfo(
+	name="Group By",
+	description="A macro operation which partitions a collection into groups by key, and aggregates each group.",
+	category="Iteration"
+)
+public class GroupByNode extends MacroNode implements NodeSettings {
+	/** Key of the published input receiving an element in the key stage */
+	public static final String ELEMENT_KEY = "element";
+
+	/** Key of the published output giving an element's key */
+	public static final String KEY_KEY = "key";
+
+	/** Key of the published input receiving a group in the aggregate stage */
+	public static final String GROUP_KEY = "group";
+
+	/** The collection to group */
+	public final InputField COLLECTION_INPUT = new InputField("collection", "collection to group", false, true, Collection.class);
+
+	/** The number of workers used to group and aggregate */
+	private int parallelism = 1;
+
+	/** The most elements held in memory before groups are spilled, or zero for no limit */
+	private int memoryBudget = 0;
+
+	/**
+	 * Constructs a new group by node with no source file and a default graph.
+	 */
+	public GroupByNode() {
+		this(null, null);
+	}
+
+	/**
+	 * Constructs a new group by node with no source file and a specified graph.
+	 * 
+	 * @param graph  the graph
+	 */
+	public GroupByNode(OpGraph graph) {
+		this(null, graph);
+	}
+
+	/**
+	 * Constructs a group by node from the given source file and graph.
+	 * 
+	 * @param source  the source file (see {@link #getSource()}
+	 * @param graph  the graph
+	 */
+	public GroupByNode(File source, OpGraph graph) {
+		super(source, graph);
+		putField(COLLECTION_INPUT);
+		putExtension(NodeSettings.class, this);
+
+		// The graph is processed many times, so it can't be inlined
+		putExtension(Inlinable.class, null);
+	}
+
+	/**
+	 * Gets the number of workers used to group and aggregate.
+	 * 
+	 * @return the number of workers
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of workers used to group and aggregate. A value of one
+	 * processes all elements sequentially on the calling thread.
+	 * 
+	 * @param parallelism  the number of workers, clamped to at least one
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Gets the most elements held in memory before groups are spilled.
+	 * 
+	 * @return the number of elements, or zero if there is no limit
+	 */
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets the most elements held in memory before groups are spilled to
+	 * temporary files. The budget is shared equally between workers.
+	 * 
+	 * @param memoryBudget  the number of elements, or zero for no limit
+	 */
+	public void setMemoryBudget(int memoryBudget) {
+		this.memoryBudget = Math.max(0, memoryBudget);
+	}
+
+	/**
+	 * Gets whether or not a key is the key of a published field internal to
+	 * the stages. Those published fields aren't fields of this node.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return <code>true</code> if the key is internal, <code>false</code> otherwise
+	 */
+	private static boolean isStageKey(String key) {
+		return (ELEMENT_KEY.equals(key) || KEY_KEY.equals(key) || GROUP_KEY.equals(key));
+	}
+
+	/**
+	 * Gets a published input by key.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return the published input, or <code>null</code> if none has the given key
+	 */
+	private PublishedInput findPublishedInput(String key) {
+		for(PublishedInput publishedInput : publishedInputs) {
+			if(publishedInput.getKey().equals(key))
+				return publishedInput;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the published output giving an element's key.
+	 * 
+	 * @return the published output, or <code>null</code> if it isn't published
+	 */
+	private PublishedOutput findKeyOutput() {
+		for(PublishedOutput publishedOutput : publishedOutputs) {
+			if(publishedOutput.getKey().equals(KEY_KEY))
+				return publishedOutput;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the published outputs computed by the aggregate stage.
+	 * 
+	 * @return the list of published outputs
+	 */
+	private List<PublishedOutput> getAggregateOutputs() {
+		final List<PublishedOutput> outputs = new ArrayList<PublishedOutput>();
+		for(PublishedOutput publishedOutput : publishedOutputs) {
+			if(!publishedOutput.getKey().equals(KEY_KEY))
+				outputs.add(publishedOutput);
+		}
+		return outputs;
+	}
+
+	/**
+	 * Checks that the inputs and outputs of both stages are published.
+	 * 
+	 * @throws ProcessingException  if any of them aren't published
+	 */
+	private void checkPublished() throws ProcessingException {
+		if(findPublishedInput(ELEMENT_KEY) == null
+				|| findKeyOutput() == null
+				|| findPublishedInput(GROUP_KEY) == null)
+		{
+			throw new ProcessingException("Group by node requires published '" + ELEMENT_KEY + "', '"
+					+ KEY_KEY + "' and '" + GROUP_KEY + "' fields");
+		}
+	}
+
+	/**
+	 * Finds the nodes that operate in a stage, which are the nodes that the
+	 * given outputs depend on.
+	 * 
+	 * @param snapshot  a snapshot of the graph
+	 * @param outputs  the outputs of the stage
+	 * 
+	 * @return an array, indexed by vertex id, which is <code>true</code> for
+	 *         nodes in the stage
+	 */
+	private static boolean [] findStage(GraphSnapshot<OpNode, OpLink> snapshot,
+	                                    List<PublishedOutput> outputs)
+	{
+		final boolean [] stage = new boolean[snapshot.getVertexCount()];
+		for(PublishedOutput output : outputs) {
+			final int id = snapshot.getId(output.sourceNode);
+			if(id >= 0)
+				stage[id] = true;
+		}
+
+		// Vertices are in topological order, so a single backwards pass finds all dependencies
+		for(int id = stage.length - 1; id >= 0; --id) {
+			if(stage[id]) {
+				for(int index = 0; index < snapshot.getInDegree(id); ++index)
+					stage[snapshot.getId(snapshot.getIncomingEdge(id, index).getSource())] = true;
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * Gets the nodes of a stage, in topological order.
+	 * 
+	 * @param snapshot  a snapshot of the graph
+	 * @param stage  the stage, as given by {@link #findStage(GraphSnapshot, List)}
+	 * 
+	 * @return the list of nodes
+	 */
+	private static List<OpNode> getStageNodes(GraphSnapshot<OpNode, OpLink> snapshot, boolean [] stage) {
+		final List<OpNode> nodes = new ArrayList<OpNode>();
+		for(int id = 0; id < stage.length; ++id) {
+			if(stage[id])
+				nodes.add(snapshot.getVertex(id));
+		}
+		return nodes;
+	}
+
+	/**
+	 * Maps published inputs for one pass of a stage.
+	 * 
+	 * @param context  the context to map to
+	 * @param pass  the number of the pass
+	 * @param stageInput  the published input of the stage
+	 * @param value  the value of the stage's input
+	 */
+	private void mapStageInputs(OpContext context, int pass, PublishedInput stageInput, Object value) {
+		context.clearChildContexts();
+		context.put(ForEachNode.CURRENT_ITERATION_KEY, pass);
+		mapInputs(context);
+		context.getChildContext(stageInput.destinationNode).put(stageInput.nodeInputField, value);
+	}
+
+	/**
+	 * Gets the value of a published output after a pass of a stage.
+	 * 
+	 * @param context  the context the stage was processed in
+	 * @param output  the published output
+	 * 
+	 * @return the value, or <code>null</code> if there is none
+	 */
+	private static Object getOutputValue(OpContext context, PublishedOutput output) {
+		final OpContext sourceContext = context.findChildContext(output.sourceNode);
+		return (sourceContext == null ? null : sourceContext.get(output.nodeOutputField));
+	}
+
+	/**
+	 * Processes one pass of a stage. Nodes are operated directly in
+	 * topological order, instead of through a processor, so that nodes
+	 * outside of the stage are skipped.
+	 * 
+	 * @param context  the context to process in, whose parent is this node's context
+	 * @param snapshot  a snapshot of the graph
+	 * @param stage  the stage, as given by {@link #findStage(GraphSnapshot, List)}
+	 * @param pass  the number of the pass
+	 * @param stageInput  the published input of the stage
+	 * @param value  the value of the stage's input
+	 * 
+	 * @throws ProcessingException  if any node failed
+	 */
+	private void processStage(OpContext context, GraphSnapshot<OpNode, OpLink> snapshot,
+	                          boolean [] stage, int pass, PublishedInput stageInput, Object value)
+		throws ProcessingException
+	{
+		mapStageInputs(context, pass, stageInput, value);
+
+		for(int id = 0; id < stage.length; ++id) {
+			if(!stage[id])
+				continue;
+
+			final OpNode node = snapshot.getVertex(id);
+			final OpContext local = context.getChildContext(node);
+			for(int index = 0; index < snapshot.getInDegree(id); ++index) {
+				final OpLink link = snapshot.getIncomingEdge(id, index);
+				final OpContext sourceContext = context.findChildContext(link.getSource());
+				if(sourceContext != null && sourceContext.containsKey(link.getSourceField())) {
+					final Object linkValue = sourceContext.get(link.getSourceField());
+					final TypeValidator validator = link.getDestinationField().getValidator();
+					if(validator != null && !validator.isAcceptable(linkValue))
+						throw new InvalidTypeException(link.getDestinationField(), linkValue);
+
+					local.put(link.getDestinationField(), linkValue);
+				}
+			}
+
+			for(InputField field : node.getInputFields()) {
+				if(!field.isOptional() && !local.containsKey(field))
+					throw new RequiredInputException(node, field);
+			}
+
+			final Boolean enabled = (Boolean)local.get(OpNode.ENABLED_FIELD);
+			if(enabled == null || enabled == Boolean.TRUE)
+				node.operate(local);
+		}
+	}
+
+	/**
+	 * Gets the partition of a key.
+	 * 
+	 * @param key  the key
+	 * @param partitions  the number of partitions
+	 * 
+	 * @return the partition
+	 */
+	private static int getPartition(Object key, int partitions) {
+		int hash = (key == null ? 0 : key.hashCode());
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % partitions;
+	}
+
+	/**
+	 * Runs tasks, in parallel if there is more than one.
+	 * 
+	 * @param tasks  the tasks
+	 * 
+	 * @return the results of the tasks, in order
+	 * 
+	 * @throws ProcessingException  if any task failed
+	 */
+	private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws ProcessingException {
+		final List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if(tasks.size() == 1) {
+				results.add(tasks.get(0).call());
+			} else {
+				for(Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks))
+					results.add(future.get());
+			}
+		} catch(ProcessingException exc) {
+			throw exc;
+		} catch(ExecutionException exc) {
+			if(exc.getCause() instanceof ProcessingException)
+				throw (ProcessingException)exc.getCause();
+			throw new ProcessingException(exc.getCause());
+		} catch(InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new ProcessingException(exc);
+		} catch(Exception exc) {
+			throw new ProcessingException(exc);
+		}
+		return results;
+	}
+
+	//
+	// Overrides
+	//
+
+	@Override
+	public InputField publish(String key, OpNode destination, InputField field) {
+		final InputField published = super.publish(key, destination, field);
+		if(isStageKey(published.getKey()))
+			removeField(published);
+		else if(getInputFieldWithKey(published.getKey()) == null)
+			putField(published);
+		return published;
+	}
+
+	@Override
+	public OutputField publish(String key, OpNode source, OutputField field) {
+		final OutputField published = super.publish(key, source, field);
+		if(isStageKey(published.getKey()))
+			removeField(published);
+		else if(getOutputFieldWithKey(published.getKey()) == null)
+			putField(published);
+		return published;
+	}
+
+	@Override
+	public void operate(final OpContext context) throws ProcessingException {
+		if(graph == null)
+			return;
+
+		checkPublished();
+
+		final Collection<?> collection = (Collection<?>)context.get(COLLECTION_INPUT);
+		final List<?> values = (collection instanceof List ? (List<?>)collection : new ArrayList<Object>(collection));
+
+		final GraphSnapshot<OpNode, OpLink> snapshot = graph.getSnapshot();
+		final PublishedInput elementInput = findPublishedInput(ELEMENT_KEY);
+		final PublishedInput groupInput = findPublishedInput(GROUP_KEY);
+		final PublishedOutput keyOutput = findKeyOutput();
+		final List<PublishedOutput> aggregateOutputs = getAggregateOutputs();
+		final boolean [] keyStage = findStage(snapshot, Collections.singletonList(keyOutput));
+		final boolean [] aggregateStage = findStage(snapshot, aggregateOutputs);
+
+		final int workers = Math.max(1, Math.min(parallelism, values.size()));
+		final int budget = (memoryBudget == 0 ? Integer.MAX_VALUE : Math.max(1, memoryBudget / workers));
+		final List<Partitioner> partitioners = new ArrayList<Partitioner>();
+		for(int worker = 0; worker < workers; ++worker)
+			partitioners.add(new Partitioner(workers, budget));
+
+		try {
+			// Each worker computes keys for a contiguous range of elements
+			final int rangeSize = (values.size() + workers - 1) / Math.max(1, workers);
+			final List<Callable<Void>> keyTasks = new ArrayList<Callable<Void>>();
+			for(int worker = 0; worker < workers; ++worker) {
+				final Partitioner partitioner = partitioners.get(worker);
+				final int start = worker * rangeSize;
+				final int end = Math.min(start + rangeSize, values.size());
+				keyTasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws ProcessingException {
+						final OpContext workerContext = new OpContext(context);
+						for(int index = start; index < end; ++index) {
+							checkInterrupted();
+							final Object value = values.get(index);
+							processStage(workerContext, snapshot, keyStage, index, elementInput, value);
+							partitioner.add(getOutputValue(workerContext, keyOutput), value, index);
+						}
+						partitioner.finishWriting();
+						return null;
+					}
+				});
+			}
+			invokeAll(keyTasks);
+
+			// Each worker then aggregates the groups in one partition
+			final List<Callable<List<AggregatedGroup>>> aggregateTasks = new ArrayList<Callable<List<AggregatedGroup>>>();
+			for(int worker = 0; worker < workers; ++worker) {
+				final int partition = worker;
+				aggregateTasks.add(new Callable<List<AggregatedGroup>>() {
+					@Override
+					public List<AggregatedGroup> call() throws ProcessingException {
+						// Streams are in worker order, then spill order, which keeps
+						// elements in order within groups
+						final List<RecordStream> streams = new ArrayList<RecordStream>();
+						for(Partitioner partitioner : partitioners)
+							partitioner.addStreams(partition, streams);
+
+						final PriorityQueue<RecordStream> queue = new PriorityQueue<RecordStream>(Math.max(1, streams.size()));
+						for(RecordStream stream : streams) {
+							if(stream.peek() != null)
+								queue.add(stream);
+						}
+
+						final OpContext workerContext = new OpContext(context);
+						final List<AggregatedGroup> aggregated = new ArrayList<AggregatedGroup>();
+						while(!queue.isEmpty()) {
+							checkInterrupted();
+
+							// Collect every group whose key has the smallest hash code left
+							final int hash = queue.peek().peek().hash;
+							final Map<Object, List<Record>> groups = new LinkedHashMap<Object, List<Record>>();
+							while(!queue.isEmpty() && queue.peek().peek().hash == hash) {
+								final RecordStream stream = queue.poll();
+								while(stream.peek() != null && stream.peek().hash == hash) {
+									final Record record = stream.next();
+									List<Record> group = groups.get(record.key);
+									if(group == null) {
+										group = new ArrayList<Record>();
+										groups.put(record.key, group);
+									}
+									group.add(record);
+								}
+
+								if(stream.peek() != null)
+									queue.add(stream);
+							}
+
+							for(Map.Entry<Object, List<Record>> entry : groups.entrySet()) {
+								final List<Object> elements = new ArrayList<Object>(entry.getValue().size());
+								for(Record record : entry.getValue())
+									elements.add(record.element);
+
+								final int firstIndex = entry.getValue().get(0).index;
+								processStage(workerContext, snapshot, aggregateStage, values.size() + firstIndex, groupInput, elements);
+
+								final Object [] aggregates = new Object[aggregateOutputs.size()];
+								for(int index = 0; index < aggregates.length; ++index)
+									aggregates[index] = getOutputValue(workerContext, aggregateOutputs.get(index));
+
+								aggregated.add(new AggregatedGroup(firstIndex, entry.getKey(), aggregates));
+							}
+						}
+						return aggregated;
+					}
+				});
+			}
+
+			final List<AggregatedGroup> aggregated = new ArrayList<AggregatedGroup>();
+			for(List<AggregatedGroup> partition : invokeAll(aggregateTasks))
+				aggregated.addAll(partition);
+
+			publishAggregates(context, aggregateOutputs, aggregated);
+		} finally {
+			for(Partitioner partitioner : partitioners)
+				partitioner.dispose();
+		}
+	}
+
+	/**
+	 * Puts a map from key to aggregate value for every aggregate output into
+	 * the given context. Keys are ordered by the first element of their group.
+	 * 
+	 * @param context  the macro's local context
+	 * @param aggregateOutputs  the published outputs of the aggregate stage
+	 * @param aggregated  the aggregated groups
+	 */
+	private static void publishAggregates(OpContext context, List<PublishedOutput> aggregateOutputs,
+	                                      List<AggregatedGroup> aggregated)
+	{
+		Collections.sort(aggregated, new Comparator<AggregatedGroup>() {
+			@Override
+			public int compare(AggregatedGroup a, AggregatedGroup b) {
+				return (a.firstIndex < b.firstIndex ? -1 : (a.firstIndex == b.firstIndex ? 0 : 1));
+			}
+		});
+
+		for(int index = 0; index < aggregateOutputs.size(); ++index) {
+			final Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+			for(AggregatedGroup group : aggregated)
+				map.put(group.key, group.aggregates[index]);
+			context.put(aggregateOutputs.get(index), map);
+		}
+	}
+
+	/**
+	 * Stops processing if the current thread was interrupted.
+	 * 
+	 * @throws ProcessingException  if the current thread was interrupted
+	 */
+	private static void checkInterrupted() throws ProcessingException {
+		if(Thread.currentThread().isInterrupted())
+			throw new ProcessingException("Processing was interrupted");
+	}
+
+	/**
+	 * An element of a group, along with its key and its index in the collection.
+	 */
+	private static class Record {
+		public final int hash;
+		public final Object key;
+		public final int index;
+		public final Object element;
+
+		public Record(Object key, int index, Object element) {
+			this.hash = (key == null ? 0 : key.hashCode());
+			this.key = key;
+			this.index = index;
+			this.element = element;
+		}
+	}
+
+	/**
+	 * A run spilled for one partition: a range of a worker's file holding
+	 * records ordered by the hash codes of their keys.
+	 */
+	private static class Run {
+		public final long offset;
+		public final int count;
+
+		public Run(long offset, int count) {
+			this.offset = offset;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Partitions the elements seen by one worker into groups. When too many
+	 * elements are held in memory, every partition is spilled as a run to
+	 * this worker's file.
+	 */
+	private static class Partitioner {
+		/** The groups held in memory in every partition, by key */
+		private final List<Map<Object, List<Record>>> partitions;
+
+		/** The runs spilled for every partition, in the order they were spilled */
+		private final List<List<Run>> runs;
+
+		/** The most elements held in memory */
+		private final int budget;
+
+		/** The number of elements held in memory */
+		private int buffered;
+
+		/** The file runs are spilled to, or <code>null</code> if none were */
+		private File file;
+
+		/** The stream runs are written with, or <code>null</code> if closed */
+		private FileOutputStream out;
+
+		/** The channel runs are read with, or <code>null</code> if not open */
+		private FileChannel channel;
+
+		public Partitioner(int partitionCount, int budget) {
+			this.partitions = new ArrayList<Map<Object, List<Record>>>(partitionCount);
+			this.runs = new ArrayList<List<Run>>(partitionCount);
+			for(int partition = 0; partition < partitionCount; ++partition) {
+				this.partitions.add(new LinkedHashMap<Object, List<Record>>());
+				this.runs.add(new ArrayList<Run>());
+			}
+			this.budget = budget;
+		}
+
+		/**
+		 * Adds an element to the group for a key.
+		 * 
+		 * @param key  the key
+		 * @param element  the element
+		 * @param index  the index of the element in the collection
+		 * 
+		 * @throws ProcessingException  if groups had to be spilled, but could not be
+		 */
+		public void add(Object key, Object element, int index) throws ProcessingException {
+			final Map<Object, List<Record>> groups = partitions.get(getPartition(key, partitions.size()));
+			List<Record> group = groups.get(key);
+			if(group == null) {
+				group = new ArrayList<Record>();
+				groups.put(key, group);
+			}
+
+			group.add(new Record(key, index, element));
+			if(++buffered > budget)
+				spill();
+		}
+
+		/**
+		 * Spills every group held in memory, as one run per partition.
+		 * 
+		 * @throws ProcessingException  if the groups could not be spilled
+		 */
+		private void spill() throws ProcessingException {
+			try {
+				if(file == null) {
+					file = File.createTempFile("opgraph-group", ".tmp");
+					file.deleteOnExit();
+					out = new FileOutputStream(file);
+				}
+
+				for(int partition = 0; partition < partitions.size(); ++partition) {
+					final Map<Object, List<Record>> groups = partitions.get(partition);
+					if(groups.isEmpty())
+						continue;
+
+					// Every run gets its own object stream, so it can be read on its own
+					final long offset = out.getChannel().position();
+					final ObjectOutputStream runOut = new ObjectOutputStream(new BufferedOutputStream(out));
+					int count = 0;
+					for(List<Record> group : sortByHash(groups)) {
+						for(Record record : group) {
+							runOut.writeObject(record.key);
+							runOut.writeInt(record.index);
+							runOut.writeObject(record.element);
+							++count;
+						}
+					}
+
+					// Flushed but not closed, since that would close the file
+					runOut.flush();
+					runs.get(partition).add(new Run(offset, count));
+					groups.clear();
+				}
+				buffered = 0;
+			} catch(NotSerializableException exc) {
+				throw new ProcessingException("Group could not be spilled, because a key or element isn't serializable", exc);
+			} catch(IOException exc) {
+				throw new ProcessingException("Group could not be spilled", exc);
+			}
+		}
+
+		/**
+		 * Finishes spilling, and opens the spilled runs for reading.
+		 * 
+		 * @throws ProcessingException  if the file could not be closed or opened
+		 */
+		public void finishWriting() throws ProcessingException {
+			if(out != null) {
+				try {
+					out.close();
+					out = null;
+					channel = new FileInputStream(file).getChannel();
+				} catch(IOException exc) {
+					throw new ProcessingException("Group could not be spilled", exc);
+				}
+			}
+		}
+
+		/**
+		 * Adds streams over the records of a partition, ordered by the hash
+		 * codes of their keys: one for every spilled run, in the order they
+		 * were spilled, followed by one for the groups still in memory.
+		 * 
+		 * @param partition  the partition
+		 * @param streams  the list to add streams to
+		 */
+		public void addStreams(int partition, List<RecordStream> streams) {
+			for(Run run : runs.get(partition))
+				streams.add(new RunStream(streams.size(), channel, run));
+
+			final List<List<Record>> groups = sortByHash(partitions.get(partition));
+			if(!groups.isEmpty())
+				streams.add(new MemoryStream(streams.size(), groups));
+		}
+
+		/**
+		 * Releases all groups, and deletes the file.
+		 */
+		public void dispose() {
+			for(Map<Object, List<Record>> groups : partitions)
+				groups.clear();
+
+			try {
+				if(out != null)
+					out.close();
+				if(channel != null)
+					channel.close();
+			} catch(IOException exc) {
+				// Nothing else to do, since the file is deleted anyway
+			}
+			out = null;
+			channel = null;
+
+			if(file != null) {
+				file.delete();
+				file = null;
+			}
+		}
+
+		/**
+		 * Orders groups by the hash codes of their keys. Groups whose keys
+		 * have the same hash code keep their order.
+		 * 
+		 * @param groups  the groups, by key
+		 * 
+		 * @return the ordered groups
+		 */
+		private static List<List<Record>> sortByHash(Map<Object, List<Record>> groups) {
+			final List<List<Record>> sorted = new ArrayList<List<Record>>(groups.values());
+			Collections.sort(sorted, new Comparator<List<Record>>() {
+				@Override
+				public int compare(List<Record> a, List<Record> b) {
+					return Integer.compare(a.get(0).hash, b.get(0).hash);
+				}
+			});
+			return sorted;
+		}
+	}
+
+	/**
+	 * A stream of records ordered by the hash codes of their keys. Streams
+	 * are ordered by the hash code of their next record, and then by their
+	 * position in the list of streams being merged.
+	 */
+	private static abstract class RecordStream implements Comparable<RecordStream> {
+		/** The position of this stream in the list of streams being merged */
+		private final int position;
+
+		/** The next record, or <code>null</code> if it hasn't been read yet */
+		private Record next;
+
+		public RecordStream(int position) {
+			this.position = position;
+		}
+
+		/**
+		 * Gets the next record, without consuming it.
+		 * 
+		 * @return the next record, or <code>null</code> if there are none left
+		 * 
+		 * @throws ProcessingException  if the record could not be read
+		 */
+		public Record peek() throws ProcessingException {
+			if(next == null)
+				next = read();
+			return next;
+		}
+
+		/**
+		 * Consumes the next record.
+		 * 
+		 * @return the next record, or <code>null</code> if there are none left
+		 * 
+		 * @throws ProcessingException  if the record could not be read
+		 */
+		public Record next() throws ProcessingException {
+			final Record record = peek();
+			next = null;
+			return record;
+		}
+
+		/**
+		 * Reads the next record.
+		 * 
+		 * @return the record, or <code>null</code> if there are none left
+		 * 
+		 * @throws ProcessingException  if the record could not be read
+		 */
+		protected abstract Record read() throws ProcessingException;
+
+		@Override
+		public int compareTo(RecordStream other) {
+			// Streams are only queued while they have a record left
+			final int ret = Integer.compare(next.hash, other.next.hash);
+			return (ret == 0 ? Integer.compare(position, other.position) : ret);
+		}
+	}
+
+	/**
+	 * Reads the records of a spilled run.
+	 */
+	private static class RunStream extends RecordStream {
+		private final FileChannel channel;
+		private final Run run;
+		private ObjectInputStream in;
+		private int remaining;
+
+		public RunStream(int position, FileChannel channel, Run run) {
+			super(position);
+			this.channel = channel;
+			this.run = run;
+			this.remaining = run.count;
+		}
+
+		@Override
+		protected Record read() throws ProcessingException {
+			if(remaining == 0)
+				return null;
+
+			try {
+				if(in == null)
+					in = new ObjectInputStream(new BufferedInputStream(new ChannelInputStream(channel, run.offset)));
+
+				final Object key = in.readObject();
+				final int index = in.readInt();
+				final Object element = in.readObject();
+				--remaining;
+				return new Record(key, index, element);
+			} catch(ClassNotFoundException exc) {
+				throw new ProcessingException("Spilled group could not be read", exc);
+			} catch(IOException exc) {
+				throw new ProcessingException("Spilled group could not be read", exc);
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of groups still held in memory.
+	 */
+	private static class MemoryStream extends RecordStream {
+		private final Iterator<List<Record>> groups;
+		private Iterator<Record> records = Collections.<Record>emptyList().iterator();
+
+		public MemoryStream(int position, List<List<Record>> groups) {
+			super(position);
+			this.groups = groups.iterator();
+		}
+
+		@Override
+		protected Record read() {
+			while(!records.hasNext() && groups.hasNext())
+				records = groups.next().iterator();
+			return (records.hasNext() ? records.next() : null);
+		}
+	}
+
+	/**
+	 * An input stream that reads a file channel from a given position,
+	 * without moving the channel's own position. Many streams can read from
+	 * the same channel concurrently.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+
+		public ChannelInputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte [] b = new byte[1];
+			return (read(b, 0, 1) == 1 ? (b[0] & 0xff) : -1);
+		}
+
+		@Override
+		public int read(byte [] b, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+
+			final int count = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if(count > 0)
+				position += count;
+			return count;
+		}
+	}
+
+	/**
+	 * The aggregate values of a group.
+	 */
+	private static class AggregatedGroup {
+		public final int firstIndex;
+		public final Object key;
+		public final Object [] aggregates;
+
+		public AggregatedGroup(int firstIndex, Object key, Object [] aggregates) {
+			this.firstIndex = firstIndex;
+			this.key = key;
+			this.aggregates = aggregates;
+		}
+	}
+
+	//
+	// CustomProcessing
+	//
+
+	@Override
+	public CustomProcessor getCustomProcessor() {
+		// Stepping through groups sequentially, without spilling
+		return new CustomProcessor() {
+			private OpContext context;
+			private OpNode nextNode;
+			private Iterator<OpNode> nodeIter;
+			private List<OpNode> keyNodes;
+			private List<OpNode> aggregateNodes;
+			private List<?> values;
+			private int index;
+			private Map<Object, List<Object>> groups;
+			private Map<Object, Integer> firstIndices;
+			private Iterator<Map.Entry<Object, List<Object>>> groupIter;
+			private Object groupKey;
+			private List<Map<Object, Object>> results;
+			private boolean finished;
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove not supported");
+			}
+
+			@Override
+			public OpNode next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+
+				final OpNode node = nextNode;
+				nextNode = null;
+				return node;
+			}
+
+			@Override
+			public boolean hasNext() {
+				if(nextNode != null)
+					return true;
+
+				while(!nodeIter.hasNext() && !finished) {
+					finishPass();
+					startNextPass();
+				}
+
+				if(nodeIter.hasNext())
+					nextNode = nodeIter.next();
+
+				return (nextNode != null);
+			}
+
+			/**
+			 * Collects the outputs of the pass that just completed.
+			 */
+			private void finishPass() {
+				if(groupIter == null) {
+					if(index >= 0) {
+						final Object key = getOutputValue(context, findKeyOutput());
+						List<Object> group = groups.get(key);
+						if(group == null) {
+							group = new ArrayList<Object>();
+							groups.put(key, group);
+							firstIndices.put(key, index);
+						}
+						group.add(values.get(index));
+					}
+				} else {
+					final List<PublishedOutput> aggregateOutputs = getAggregateOutputs();
+					for(int output = 0; output < aggregateOutputs.size(); ++output)
+						results.get(output).put(groupKey, getOutputValue(context, aggregateOutputs.get(output)));
+				}
+			}
+
+			/**
+			 * Maps the next element or group, or publishes the aggregates if
+			 * there are none left.
+			 */
+			private void startNextPass() {
+				if(index + 1 < values.size()) {
+					++index;
+					mapStageInputs(context, index, findPublishedInput(ELEMENT_KEY), values.get(index));
+					nodeIter = keyNodes.iterator();
+					return;
+				}
+
+				if(groupIter == null)
+					groupIter = groups.entrySet().iterator();
+
+				if(groupIter.hasNext()) {
+					final Map.Entry<Object, List<Object>> entry = groupIter.next();
+					groupKey = entry.getKey();
+					mapStageInputs(context, values.size() + firstIndices.get(groupKey), findPublishedInput(GROUP_KEY), entry.getValue());
+					nodeIter = aggregateNodes.iterator();
+				} else {
+					final List<PublishedOutput> aggregateOutputs = getAggregateOutputs();
+					for(int output = 0; output < aggregateOutputs.size(); ++output)
+						context.put(aggregateOutputs.get(output), results.get(output));
+
+					nodeIter = Collections.<OpNode>emptyList().iterator();
+					finished = true;
+				}
+			}
+
+			@Override
+			public void initialize(OpContext context) {
+				try {
+					checkPublished();
+				} catch(ProcessingException exc) {
+					throw new IllegalStateException(exc);
+				}
+
+				final GraphSnapshot<OpNode, OpLink> snapshot = graph.getSnapshot();
+				this.keyNodes = getStageNodes(snapshot, findStage(snapshot, Collections.singletonList(findKeyOutput())));
+				this.aggregateNodes = getStageNodes(snapshot, findStage(snapshot, getAggregateOutputs()));
+
+				this.context = context;
+				this.nextNode = null;
+				this.nodeIter = Collections.<OpNode>emptyList().iterator();
+				this.values = Collections.emptyList();
+				if(context.get(COLLECTION_INPUT) instanceof Collection)
+					this.values = new ArrayList<Object>((Collection<?>)context.get(COLLECTION_INPUT));
+
+				this.index = -1;
+				this.groups = new LinkedHashMap<Object, List<Object>>();
+				this.firstIndices = new HashMap<Object, Integer>();
+				this.groupIter = null;
+				this.groupKey = null;
+				this.finished = false;
+
+				this.results = new ArrayList<Map<Object, Object>>();
+				for(int output = 0; output < getAggregateOutputs().size(); ++output)
+					this.results.add(new LinkedHashMap<Object, Object>());
+			}
+
+			@Override
+			public void terminate(OpContext context) {}
+		};
+	}
+
+	//
+	// NodeSettings
+	//
+
+	private static final String PARALLELISM_KEY = "parallelism";
+	private static final String MEMORY_BUDGET_KEY = "memoryBudget";
+
+	@Override
+	public Component getComponent(GraphDocument document) {
+		final JLabel parallelismLabel = new JLabel("Parallelism: ");
+		parallelismLabel.setToolTipText("The number of workers used to group and aggregate");
+
+		final JLabel memoryBudgetLabel = new JLabel("Memory budget: ");
+		memoryBudgetLabel.setToolTipText("The most elements held in memory before groups are spilled to disk, or zero for no limit");
+
+		final JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		panel.add(parallelismLabel);
+		panel.add(createSettingSpinner(document, PARALLELISM_KEY, getParallelism(), 1, 256));
+		panel.add(memoryBudgetLabel);
+		panel.add(createSettingSpinner(document, MEMORY_BUDGET_KEY, getMemoryBudget(), 0, Integer.MAX_VALUE));
+		return panel;
+	}
+
+	/**
+	 * Creates a spinner that posts an edit for an integer setting when changed.
+	 * 
+	 * @param document  the document to post edits to
+	 * @param key  the setting's key
+	 * @param value  the setting's current value
+	 * @param minimum  the minimum value of the setting
+	 * @param maximum  the maximum value of the setting
+	 * 
+	 * @return the spinner
+	 */
+	private JSpinner createSettingSpinner(final GraphDocument document, final String key, int value, int minimum, int maximum) {
+		final SpinnerNumberModel model = new SpinnerNumberModel(value, minimum, maximum, 1);
+		final JSpinner spinner = new JSpinner(model);
+		spinner.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				if(document != null) {
+					final Properties settings = new Properties();
+					settings.setProperty(key, model.getValue().toString());
+					document.getUndoSupport().postEdit(new NodeSettingsEdit(GroupByNode.this, settings));
+				}
+			}
+		});
+		return spinner;
+	}
+
+	@Override
+	public Properties getSettings() {
+		final Properties props = new Properties();
+		props.setProperty(PARALLELISM_KEY, "" + getParallelism());
+		props.setProperty(MEMORY_BUDGET_KEY, "" + getMemoryBudget());
+		return props;
+	}
+
+	@Override
+	public void loadSettings(Properties properties) {
+		if(properties.containsKey(PARALLELISM_KEY))
+			setParallelism(Integer.parseInt(properties.getProperty(PARALLELISM_KEY)));
+
+		if(properties.containsKey(MEMORY_BUDGET_KEY))
+			setMemoryBudget(Integer.parseInt(properties.getProperty(MEMORY_BUDGET_KEY)));
+	}
+}
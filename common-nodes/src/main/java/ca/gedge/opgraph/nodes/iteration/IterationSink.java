@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import ca.gedge.opgraph.exceptions.ProcessingException;
+
+/**
+ * A destination for the values of a {@link ForEachNode} output, which
+ * receives values as iterations complete instead of collecting them in a
+ * list (see {@link ForEachNode#setSink(ca.gedge.opgraph.OutputField, IterationSink)}).
+ */
+public interface IterationSink {
+	/**
+	 * Accepts the value of an output for an iteration. Iterations are
+	 * accepted in order.
+	 * 
+	 * @param iteration  the iteration
+	 * @param value  the value of the output
+	 * 
+	 * @throws ProcessingException  if the value could not be accepted
+	 */
+	public abstract void accept(int iteration, Object value) throws ProcessingException;
+
+	/**
+	 * Called after the last iteration has been accepted.
+	 * 
+	 * @throws ProcessingException  if the sink could not be finished
+	 */
+	public abstract void finish() throws ProcessingException;
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.OpNodeInfo;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.Processor;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.extensions.Inlinable;
+import ca.gedge.opgraph.nodes.general.MacroNode;
+
+/**
+ * A special macro node that reduces a {@link Collection} to a single value.
+ * The internal graph combines two values into one, and must publish inputs
+ * with the keys {@value #LEFT_KEY} and {@value #RIGHT_KEY}, and an output with
+ * the key {@value #RESULT_KEY}. The published result is also the output of
+ * this node. Any other published inputs are passed unchanged to every
+ * combination.
+ * 
+ * The combination must be associative, so elements are reduced with a
+ * parallel tree reduction: the collection is split into ranges, ranges are
+ * reduced in parallel, and their results are combined pairwise, giving
+ * a depth logarithmic in the size of the collection. The order of elements
+ * is preserved, so the combination doesn't need to be commutative. Nodes in
+ * the internal graph must be safe to operate concurrently.
+ * 
+ * An empty collection reduces to the identity input.
+ * 
+ * Every combination is numbered, and the number is available to the internal
+ * graph under {@link ForEachNode#CURRENT_ITERATION_KEY}. Folding in element
+ * <code>i</code> of a range is combination <code>i</code>, and combining two
+ * ranges split at element <code>i</code> is combination <code>n + i</code>,
+ * for a collection of <code>n</code> elements.
+ */
+@OpNodeInfo(
+	name="Reduce",
+	description="A macro operation which combines the elements of a collection into a single value.",
+	category="Iteration"
+)
+public class ReduceNode extends MacroNode {
+	/** Key of the published input receiving the left value of a combination */
+	public static final String LEFT_KEY = "left";
+
+	/** Key of the published input receiving the right value of a combination */
+	public static final String RIGHT_KEY = "right";
+
+	/** Key of the published output giving the combined value */
+	public static final String RESULT_KEY = "result";
+
+	/** The collection to reduce */
+	public final InputField COLLECTION_INPUT = new InputField("collection", "collection to reduce", false, true, Collection.class);
+
+	/** The value of reducing an empty collection */
+	public final InputField IDENTITY_INPUT = new InputField("identity", "value of reducing an empty collection", true, true);
+
+	/** The fewest elements worth reducing as a separate task */
+	private static final int MINIMUM_GRAIN_SIZE = 64;
+
+	/**
+	 * Constructs a new reduce node with no source file and a default graph.
+	 */
+	public ReduceNode() {
+		this(null, null);
+	}
+
+	/**
+	 * Constructs a new reduce node with no source file and a specified graph.
+	 * 
+	 * @param graph  the graph
+	 */
+	public ReduceNode(OpGraph graph) {
+		this(null, graph);
+	}
+
+	/**
+	 * Constructs a reduce node from the given source file and graph.
+	 * 
+	 * @param source  the source file (see {@link #getSource()}
+	 * @param graph  the graph
+	 */
+	public ReduceNode(File source, OpGraph graph) {
+		super(source, graph);
+		putField(COLLECTION_INPUT);
+		putField(IDENTITY_INPUT);
+
+		// The graph is processed many times, so it can't be inlined
+		putExtension(Inlinable.class, null);
+	}
+
+	/**
+	 * Gets whether or not a key is one of the operands of a combination.
+	 * Published inputs for operands are internal, so they aren't fields of
+	 * this node.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return <code>true</code> if the key is an operand's key, <code>false</code> otherwise
+	 */
+	private static boolean isOperandKey(String key) {
+		return (LEFT_KEY.equals(key) || RIGHT_KEY.equals(key));
+	}
+
+	/**
+	 * Gets a published input by key.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return the published input, or <code>null</code> if none has the given key
+	 */
+	private PublishedInput findPublishedInput(String key) {
+		for(PublishedInput publishedInput : publishedInputs) {
+			if(publishedInput.getKey().equals(key))
+				return publishedInput;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets a published output by key.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return the published output, or <code>null</code> if none has the given key
+	 */
+	private PublishedOutput findPublishedOutput(String key) {
+		for(PublishedOutput publishedOutput : publishedOutputs) {
+			if(publishedOutput.getKey().equals(key))
+				return publishedOutput;
+		}
+		return null;
+	}
+
+	/**
+	 * Combines two values by processing the internal graph.
+	 * 
+	 * @param processor  the processor to use
+	 * @param context  the context to process in, whose parent is this node's context
+	 * @param combination  the number of the combination
+	 * @param left  the left value
+	 * @param right  the right value
+	 * 
+	 * @return the combined value
+	 * 
+	 * @throws ProcessingException  if the internal graph could not be processed
+	 */
+	private Object combine(Processor processor, OpContext context, int combination, Object left, Object right)
+		throws ProcessingException
+	{
+		processor.reset(context);
+		context.put(ForEachNode.CURRENT_ITERATION_KEY, combination);
+		mapInputs(context);
+		mapOperands(context, left, right);
+
+		processor.stepAll();
+		if(processor.getError() != null)
+			throw processor.getError();
+
+		return getResult(context);
+	}
+
+	/**
+	 * Maps the operands of a combination to the internal graph.
+	 * 
+	 * @param context  the context to map to
+	 * @param left  the left value
+	 * @param right  the right value
+	 */
+	private void mapOperands(OpContext context, Object left, Object right) {
+		final PublishedInput leftInput = findPublishedInput(LEFT_KEY);
+		final PublishedInput rightInput = findPublishedInput(RIGHT_KEY);
+		context.getChildContext(leftInput.destinationNode).put(leftInput.nodeInputField, left);
+		context.getChildContext(rightInput.destinationNode).put(rightInput.nodeInputField, right);
+	}
+
+	/**
+	 * Gets the result of a combination from the internal graph.
+	 * 
+	 * @param context  the context the combination was processed in
+	 * 
+	 * @return the combined value
+	 */
+	private Object getResult(OpContext context) {
+		final PublishedOutput resultOutput = findPublishedOutput(RESULT_KEY);
+		final OpContext sourceContext = context.findChildContext(resultOutput.sourceNode);
+		return (sourceContext == null ? null : sourceContext.get(resultOutput.nodeOutputField));
+	}
+
+	/**
+	 * Checks that the operands and result of a combination are published.
+	 * 
+	 * @throws ProcessingException  if any of them aren't published
+	 */
+	private void checkPublished() throws ProcessingException {
+		if(findPublishedInput(LEFT_KEY) == null
+				|| findPublishedInput(RIGHT_KEY) == null
+				|| findPublishedOutput(RESULT_KEY) == null)
+		{
+			throw new ProcessingException("Reduce node requires published '" + LEFT_KEY + "', '"
+					+ RIGHT_KEY + "' and '" + RESULT_KEY + "' fields");
+		}
+	}
+
+	/**
+	 * Gets the elements of a collection as a random access list.
+	 * 
+	 * @param collection  the collection
+	 * 
+	 * @return the list
+	 */
+	private static List<?> toList(Collection<?> collection) {
+		if(collection instanceof List && collection instanceof RandomAccess)
+			return (List<?>)collection;
+		return new ArrayList<Object>(collection);
+	}
+
+	//
+	// Overrides
+	//
+
+	@Override
+	public InputField publish(String key, OpNode destination, InputField field) {
+		final InputField published = super.publish(key, destination, field);
+		if(isOperandKey(published.getKey()))
+			removeField(published);
+		else if(getInputFieldWithKey(published.getKey()) == null)
+			putField(published);
+		return published;
+	}
+
+	@Override
+	public void operate(OpContext context) throws ProcessingException {
+		if(graph != null) {
+			checkPublished();
+
+			final List<?> values = toList((Collection<?>)context.get(COLLECTION_INPUT));
+			final Object result;
+			if(values.isEmpty()) {
+				result = context.get(IDENTITY_INPUT);
+			} else {
+				final int grainSize = Math.max(MINIMUM_GRAIN_SIZE, values.size() / (4 * ForkJoinPool.getCommonPoolParallelism()));
+				final ReduceTask task = new ReduceTask(context, values, 0, values.size(), grainSize);
+				if(values.size() <= grainSize) {
+					result = task.reduceRange();
+				} else {
+					try {
+						result = ForkJoinPool.commonPool().invoke(task);
+					} catch(RuntimeException exc) {
+						// Tasks wrap processing exceptions, but the pool may wrap them again
+						for(Throwable cause = exc; cause != null; cause = cause.getCause()) {
+							if(cause instanceof ProcessingException)
+								throw (ProcessingException)cause;
+						}
+						throw new ProcessingException(exc);
+					}
+				}
+			}
+
+			context.put(findPublishedOutput(RESULT_KEY), result);
+		}
+	}
+
+	/**
+	 * A task that reduces a range of elements, splitting it in two if it has
+	 * more elements than the grain size.
+	 */
+	private class ReduceTask extends RecursiveTask<Object> {
+		private final OpContext context;
+		private final List<?> values;
+		private final int start;
+		private final int end;
+		private final int grainSize;
+
+		/**
+		 * Constructs a task that reduces a range of elements.
+		 * 
+		 * @param context  this node's context
+		 * @param values  the elements
+		 * @param start  the first element of the range
+		 * @param end  the element after the last one in the range
+		 * @param grainSize  the most elements reduced without splitting
+		 */
+		public ReduceTask(OpContext context, List<?> values, int start, int end, int grainSize) {
+			this.context = context;
+			this.values = values;
+			this.start = start;
+			this.end = end;
+			this.grainSize = grainSize;
+		}
+
+		/**
+		 * Reduces this task's range sequentially.
+		 * 
+		 * @return the reduced value
+		 * 
+		 * @throws ProcessingException  if any combination failed
+		 */
+		public Object reduceRange() throws ProcessingException {
+			final OpContext workerContext = new OpContext(context);
+			final Processor processor = new Processor(graph);
+			Object result = values.get(start);
+			for(int index = start + 1; index < end; ++index)
+				result = combine(processor, workerContext, index, result, values.get(index));
+			return result;
+		}
+
+		@Override
+		protected Object compute() {
+			try {
+				if(end - start <= grainSize)
+					return reduceRange();
+
+				final int middle = (start + end) >>> 1;
+				final ReduceTask left = new ReduceTask(context, values, start, middle, grainSize);
+				final ReduceTask right = new ReduceTask(context, values, middle, end, grainSize);
+				left.fork();
+
+				final Object rightResult = right.compute();
+				final Object leftResult = left.join();
+				return combine(new Processor(graph), new OpContext(context), values.size() + middle, leftResult, rightResult);
+			} catch(ProcessingException exc) {
+				throw new ReduceException(exc);
+			}
+		}
+	}
+
+	/**
+	 * Wraps a {@link ProcessingException} thrown from a task.
+	 */
+	private static class ReduceException extends RuntimeException {
+		public ReduceException(ProcessingException error) {
+			super(error);
+		}
+	}
+
+	//
+	// CustomProcessing
+	//
+
+	@Override
+	public CustomProcessor getCustomProcessor() {
+		// Stepping through reduces sequentially, from left to right
+		return new CustomProcessor() {
+			private OpContext context;
+			private OpNode nextNode;
+			private Iterator<OpNode> nodeIter;
+			private List<?> values;
+			private int index;
+			private Object result;
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove not supported");
+			}
+
+			@Override
+			public OpNode next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+
+				final OpNode node = nextNode;
+				nextNode = null;
+				return node;
+			}
+
+			@Override
+			public boolean hasNext() {
+				if(nextNode != null)
+					return true;
+
+				if(!nodeIter.hasNext() && index < values.size()) {
+					result = getResult(context);
+					++index;
+					nextCombination();
+				}
+
+				if(nodeIter.hasNext())
+					nextNode = nodeIter.next();
+
+				return (nextNode != null);
+			}
+
+			/**
+			 * Maps the next combination, or publishes the result if there
+			 * are no more elements.
+			 */
+			private void nextCombination() {
+				if(index < values.size()) {
+					nodeIter = graph.getVertices().iterator();
+					context.clearChildContexts();
+					context.put(ForEachNode.CURRENT_ITERATION_KEY, index);
+					mapInputs(context);
+					mapOperands(context, result, values.get(index));
+				} else {
+					nodeIter = Collections.<OpNode>emptyList().iterator();
+					context.put(findPublishedOutput(RESULT_KEY), result);
+				}
+			}
+
+			@Override
+			public void initialize(OpContext context) {
+				this.context = context;
+				this.values = Collections.emptyList();
+				this.nodeIter = Collections.<OpNode>emptyList().iterator();
+
+				try {
+					checkPublished();
+				} catch(ProcessingException exc) {
+					throw new IllegalStateException(exc);
+				}
+
+				if(context.get(COLLECTION_INPUT) instanceof Collection)
+					this.values = toList((Collection<?>)context.get(COLLECTION_INPUT));
+
+				if(values.isEmpty()) {
+					this.result = context.get(IDENTITY_INPUT);
+					this.index = 0;
+					context.put(findPublishedOutput(RESULT_KEY), result);
+				} else {
+					this.result = values.get(0);
+					this.index = 1;
+					nextCombination();
+				}
+			}
+
+			@Override
+			public void terminate(OpContext context) {}
+		};
+	}
+}
@@ -18,12 +18,16 @@
  */
 package ca.gedge.opgraph.nodes.logic;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.iteration.BatchProcessing;
 
 /**
  * An {@link OpNode} that computes the logical AND of its inputs.
@@ -33,7 +37,7 @@ import ca.gedge.opgraph.exceptions.ProcessingException;
 	description="Computes the logical AND of two boolean inputs.",
 	category="Logic"
 )
-public class LogicalAndNode extends OpNode {
+public class LogicalAndNode extends OpNode implements BatchProcessing {
 	/** Input field for one of the two boolean values */
 	public final static InputField X_INPUT_FIELD = new InputField("x", "boolean input", false, true, Boolean.class);
 
@@ -58,4 +62,18 @@ public class LogicalAndNode extends OpNode {
 		boolean y = (Boolean)context.get(Y_INPUT_FIELD);
 		context.put(RESULT_OUTPUT_FIELD, x && y);
 	}
+
+	//
+	// BatchProcessing
+	//
+
+	@Override
+	public void operateOnBatch(OpContext context, int size) throws ProcessingException {
+		final List<?> xs = (List<?>)context.get(X_INPUT_FIELD);
+		final List<?> ys = (List<?>)context.get(Y_INPUT_FIELD);
+		final ArrayList<Boolean> results = new ArrayList<Boolean>(size);
+		for(int index = 0; index < size; ++index)
+			results.add((Boolean)xs.get(index) && (Boolean)ys.get(index));
+		context.put(RESULT_OUTPUT_FIELD, results);
+	}
 }
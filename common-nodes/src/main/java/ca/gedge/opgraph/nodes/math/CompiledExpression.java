@@ -0,0 +1,784 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.tree.Tree;
+
+import ca.gedge.opgraph.nodes.math.parser.MathExpressionParser;
+
+/**
+ * A math expression compiled from its parse tree into a tree of terms,
+ * so that evaluating it doesn't walk the parse tree. Variables are bound by
+ * slot, in the order given by {@link #getVariables()}, and evaluation
+ * doesn't allocate. Compiled expressions are immutable, so they can be
+ * evaluated by many threads at once.
+ * 
+ * Expressions can also be evaluated element-wise over arrays (see
+ * {@link #evaluate(double[], double[][], int)}). Every term then computes
+ * all elements in one loop, which the JIT compiler can vectorize.
+ * 
+ * Expressions are optimized when compiled:
+ * <ul>
+ *   <li>constant subterms are folded into a single constant</li>
+ *   <li>algebraic identities that hold for every value, including NaN and
+ *       the infinities, are simplified (e.g., <code>x*1</code> becomes
+ *       <code>x</code>), although the sign of a zero result may differ</li>
+ *   <li>common subterms are computed once per evaluation, and stored in
+ *       extra slots after the variables (see {@link #getSlotCount()})</li>
+ * </ul>
+ */
+final class CompiledExpression {
+	/** The variables, indexed by slot */
+	private final List<String> variables;
+
+	/** The number of slots, for variables and common subterms */
+	private final int slotCount;
+
+	/** The root term */
+	private final Term root;
+
+	/**
+	 * Constructs a compiled expression.
+	 * 
+	 * @param variables  the variables, indexed by slot
+	 * @param slotCount  the number of slots
+	 * @param root  the root term
+	 */
+	private CompiledExpression(List<String> variables, int slotCount, Term root) {
+		this.variables = variables;
+		this.slotCount = slotCount;
+		this.root = root;
+	}
+
+	/**
+	 * Compiles and optimizes a parse tree produced by {@link MathExpressionParser}.
+	 * 
+	 * @param tree  the parse tree
+	 * @param variables  the variables in the expression
+	 * 
+	 * @return the compiled expression
+	 * 
+	 * @throws IllegalArgumentException  if the tree contains an unknown token
+	 */
+	public static CompiledExpression compile(Tree tree, Collection<String> variables) {
+		return compile(tree, variables, true);
+	}
+
+	/**
+	 * Compiles a parse tree produced by {@link MathExpressionParser}.
+	 * 
+	 * @param tree  the parse tree
+	 * @param variables  the variables in the expression
+	 * @param optimize  if <code>true</code>, optimize the expression
+	 * 
+	 * @return the compiled expression
+	 * 
+	 * @throws IllegalArgumentException  if the tree contains an unknown token
+	 */
+	public static CompiledExpression compile(Tree tree, Collection<String> variables, boolean optimize) {
+		final List<String> slots = Collections.unmodifiableList(new ArrayList<String>(variables));
+		if(!optimize)
+			return new CompiledExpression(slots, slots.size(), compileTerm(tree, slots, null));
+
+		// Identical subterms are built once, and then shared
+		final Term term = compileTerm(tree, slots, new HashMap<String, Term>());
+
+		final Map<Term, Integer> references = new IdentityHashMap<Term, Integer>();
+		countReferences(term, references);
+
+		final Map<Term, Integer> sharedSlots = new IdentityHashMap<Term, Integer>();
+		final Term root = shareSubterms(term, references, sharedSlots, slots.size());
+		return new CompiledExpression(slots, slots.size() + sharedSlots.size(), root);
+	}
+
+	/**
+	 * Compiles a subtree of a parse tree.
+	 * 
+	 * @param tree  the subtree
+	 * @param variables  the variables, indexed by slot
+	 * @param terms  the terms built so far, by key, or <code>null</code> to
+	 *               compile without optimizing
+	 * 
+	 * @return the term
+	 */
+	private static Term compileTerm(Tree tree, List<String> variables, Map<String, Term> terms) {
+		Term term = null;
+		switch(tree.getType()) {
+		case MathExpressionParser.INT:
+		case MathExpressionParser.REAL:
+			term = new Constant(Double.parseDouble(tree.getText()));
+			break;
+		case MathExpressionParser.ID:
+			term = new Variable(variables.indexOf(tree.getText()));
+			break;
+		case MathExpressionParser.NEGATE:
+			term = new Negate(compileTerm(tree.getChild(0), variables, terms));
+			break;
+		default:
+			if(tree.getChildCount() == 2 && tree.getText().length() == 1) {
+				final Term a = compileTerm(tree.getChild(0), variables, terms);
+				final Term b = compileTerm(tree.getChild(1), variables, terms);
+				switch(tree.getText().charAt(0)) {
+				case '+': term = new Add(a, b); break;
+				case '-': term = new Subtract(a, b); break;
+				case '*': term = new Multiply(a, b); break;
+				case '/': term = new Divide(a, b); break;
+				case '%': term = new Remainder(a, b); break;
+				}
+			}
+		}
+
+		if(term == null)
+			throw new IllegalArgumentException("Unknown token in math expression: " + tree.getText());
+
+		return (terms == null ? term : intern(term.simplify(), terms));
+	}
+
+	/**
+	 * Gets the shared instance of a term.
+	 * 
+	 * @param term  the term
+	 * @param terms  the terms built so far, by key
+	 * 
+	 * @return the first term built with the same key as the given term
+	 */
+	private static Term intern(Term term, Map<String, Term> terms) {
+		final Term existing = terms.get(term.toString());
+		if(existing != null)
+			return existing;
+
+		terms.put(term.toString(), term);
+		return term;
+	}
+
+	/**
+	 * Counts the references to every term from distinct parent terms.
+	 * 
+	 * @param term  the root term
+	 * @param references  the number of references, by term
+	 */
+	private static void countReferences(Term term, Map<Term, Integer> references) {
+		final Integer count = references.get(term);
+		references.put(term, (count == null ? 1 : count + 1));
+
+		// Only count the children once, no matter how often a term is shared
+		if(count == null) {
+			for(int index = 0; index < term.getChildCount(); ++index)
+				countReferences(term.getChild(index), references);
+		}
+	}
+
+	/**
+	 * Rebuilds a term so that shared subterms are computed once. Terms are
+	 * visited in evaluation order, so the first occurrence of a shared term
+	 * stores its value, and later occurrences load it.
+	 * 
+	 * @param term  the term
+	 * @param references  the number of references, by term
+	 * @param sharedSlots  the slots of shared terms visited so far
+	 * @param firstSlot  the first slot after the variables
+	 * 
+	 * @return the rebuilt term
+	 */
+	private static Term shareSubterms(Term term, Map<Term, Integer> references, Map<Term, Integer> sharedSlots,
+	                                  int firstSlot)
+	{
+		final boolean shared = (references.get(term) > 1 && term.getChildCount() > 0);
+		if(shared && sharedSlots.containsKey(term))
+			return new Load(sharedSlots.get(term));
+
+		final Term [] children = new Term[term.getChildCount()];
+		for(int index = 0; index < children.length; ++index)
+			children[index] = shareSubterms(term.getChild(index), references, sharedSlots, firstSlot);
+
+		final Term rebuilt = term.withChildren(children);
+		if(!shared)
+			return rebuilt;
+
+		final int slot = firstSlot + sharedSlots.size();
+		sharedSlots.put(term, slot);
+		return new Store(rebuilt, slot);
+	}
+
+	/**
+	 * Gets the variables of this expression.
+	 * 
+	 * @return the variables, indexed by slot
+	 */
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Gets the number of slots needed to evaluate this expression, which is
+	 * at least the number of variables.
+	 * 
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Evaluates this expression.
+	 * 
+	 * @param values  the value of every variable, indexed by slot, with
+	 *                room for {@link #getSlotCount()} values
+	 * 
+	 * @return the value of the expression
+	 */
+	public double evaluate(double [] values) {
+		return root.evaluate(values);
+	}
+
+	/**
+	 * Evaluates this expression element-wise. Every variable either has an
+	 * array of values, or a single value used for every element.
+	 * 
+	 * @param scalars  the value of every variable without an array, indexed
+	 *                 by slot, with room for {@link #getSlotCount()} values
+	 * @param columns  the array of every variable, indexed by slot, or
+	 *                 <code>null</code> for variables with a single value,
+	 *                 with room for {@link #getSlotCount()} arrays
+	 * @param length  the number of elements
+	 * 
+	 * @return the value of the expression for every element, in a new array
+	 */
+	public double [] evaluate(double [] scalars, double [][] columns, int length) {
+		final double [] result = root.evaluate(scalars, columns, length);
+		for(double [] column : columns) {
+			if(column == result)
+				return result.clone();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the optimized form of this expression, as a prefix expression.
+	 * Shared subterms are written as <code>#slot=term</code> where they are
+	 * stored, and as <code>#slot</code> where they are loaded.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	//
+	// Terms
+	//
+
+	/**
+	 * A term in a compiled expression. Terms are keyed by their string form,
+	 * so structurally equal terms have equal strings.
+	 */
+	static abstract class Term {
+		/**
+		 * Evaluates this term.
+		 * 
+		 * @param values  the value of every variable, indexed by slot
+		 * 
+		 * @return the value of the term
+		 */
+		public abstract double evaluate(double [] values);
+
+		/**
+		 * Evaluates this term element-wise. The returned array must not be
+		 * modified, since it may be one of the given arrays.
+		 * 
+		 * @param scalars  the value of every variable without an array, indexed by slot
+		 * @param columns  the array of every variable, indexed by slot
+		 * @param length  the number of elements
+		 * 
+		 * @return the value of the term for every element
+		 */
+		public abstract double [] evaluate(double [] scalars, double [][] columns, int length);
+
+		/**
+		 * Gets the number of child terms.
+		 * 
+		 * @return the number of children
+		 */
+		public int getChildCount() {
+			return 0;
+		}
+
+		/**
+		 * Gets a child term.
+		 * 
+		 * @param index  the index of the child
+		 * 
+		 * @return the child
+		 */
+		public Term getChild(int index) {
+			throw new IndexOutOfBoundsException("term has no children");
+		}
+
+		/**
+		 * Gets a term like this one, with different children.
+		 * 
+		 * @param children  the children
+		 * 
+		 * @return the term
+		 */
+		public Term withChildren(Term [] children) {
+			return this;
+		}
+
+		/**
+		 * Gets a simpler term equivalent to this one, assuming the children
+		 * of this term are already simplified.
+		 * 
+		 * @return the simplified term, or this term if it can't be simplified
+		 */
+		public Term simplify() {
+			return this;
+		}
+
+		/**
+		 * Gets whether or not this term is a given constant.
+		 * 
+		 * @param value  the constant
+		 * 
+		 * @return <code>true</code> if this term is the constant, <code>false</code> otherwise
+		 */
+		public boolean isConstant(double value) {
+			return false;
+		}
+	}
+
+	static final class Constant extends Term {
+		private final double value;
+
+		public Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return value;
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] result = new double[length];
+			Arrays.fill(result, value);
+			return result;
+		}
+
+		@Override
+		public boolean isConstant(double value) {
+			return (Double.compare(this.value, value) == 0);
+		}
+
+		@Override
+		public String toString() {
+			return Double.toString(value);
+		}
+	}
+
+	static final class Variable extends Term {
+		private final int slot;
+
+		public Variable(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return values[slot];
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			if(columns[slot] != null)
+				return columns[slot];
+
+			final double [] result = new double[length];
+			Arrays.fill(result, scalars[slot]);
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "$" + slot;
+		}
+	}
+
+	/**
+	 * Computes a shared subterm, and stores its value in a slot.
+	 */
+	static final class Store extends Term {
+		private final Term a;
+		private final int slot;
+
+		public Store(Term a, int slot) {
+			this.a = a;
+			this.slot = slot;
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return (values[slot] = a.evaluate(values));
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			return (columns[slot] = a.evaluate(scalars, columns, length));
+		}
+
+		@Override
+		public String toString() {
+			return "#" + slot + "=" + a;
+		}
+	}
+
+	/**
+	 * Loads the value of a shared subterm stored earlier in the same evaluation.
+	 */
+	static final class Load extends Term {
+		private final int slot;
+
+		public Load(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return values[slot];
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			return columns[slot];
+		}
+
+		@Override
+		public String toString() {
+			return "#" + slot;
+		}
+	}
+
+	static final class Negate extends Term {
+		private final Term a;
+
+		public Negate(Term a) {
+			this.a = a;
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return -a.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = -x[index];
+			return result;
+		}
+
+		@Override
+		public int getChildCount() {
+			return 1;
+		}
+
+		@Override
+		public Term getChild(int index) {
+			if(index != 0)
+				throw new IndexOutOfBoundsException("index out of bounds: " + index);
+			return a;
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Negate(children[0]);
+		}
+
+		@Override
+		public Term simplify() {
+			if(a instanceof Constant)
+				return new Constant(-a.evaluate(null));
+
+			// -(-x) = x
+			if(a instanceof Negate)
+				return ((Negate)a).a;
+
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "(- " + a + ")";
+		}
+	}
+
+	/**
+	 * A term with two operands.
+	 */
+	static abstract class Binary extends Term {
+		protected final Term a;
+		protected final Term b;
+
+		public Binary(Term a, Term b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		/**
+		 * Gets the operator's symbol.
+		 * 
+		 * @return the symbol
+		 */
+		protected abstract char getOperator();
+
+		@Override
+		public int getChildCount() {
+			return 2;
+		}
+
+		@Override
+		public Term getChild(int index) {
+			if(index == 0)
+				return a;
+			if(index == 1)
+				return b;
+			throw new IndexOutOfBoundsException("index out of bounds: " + index);
+		}
+
+		@Override
+		public Term simplify() {
+			if(a instanceof Constant && b instanceof Constant)
+				return new Constant(evaluate(null));
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "(" + getOperator() + " " + a + " " + b + ")";
+		}
+	}
+
+	static final class Add extends Binary {
+		public Add(Term a, Term b) {
+			super(a, b);
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return a.evaluate(values) + b.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] y = b.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = x[index] + y[index];
+			return result;
+		}
+
+		@Override
+		protected char getOperator() {
+			return '+';
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Add(children[0], children[1]);
+		}
+
+		@Override
+		public Term simplify() {
+			if(b.isConstant(0.0))
+				return a;
+			if(a.isConstant(0.0))
+				return b;
+			return super.simplify();
+		}
+	}
+
+	static final class Subtract extends Binary {
+		public Subtract(Term a, Term b) {
+			super(a, b);
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return a.evaluate(values) - b.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] y = b.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = x[index] - y[index];
+			return result;
+		}
+
+		@Override
+		protected char getOperator() {
+			return '-';
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Subtract(children[0], children[1]);
+		}
+
+		@Override
+		public Term simplify() {
+			if(b.isConstant(0.0))
+				return a;
+			if(a.isConstant(0.0) && !(b instanceof Constant))
+				return new Negate(b).simplify();
+			return super.simplify();
+		}
+	}
+
+	static final class Multiply extends Binary {
+		public Multiply(Term a, Term b) {
+			super(a, b);
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return a.evaluate(values) * b.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] y = b.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = x[index] * y[index];
+			return result;
+		}
+
+		@Override
+		protected char getOperator() {
+			return '*';
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Multiply(children[0], children[1]);
+		}
+
+		@Override
+		public Term simplify() {
+			if(b.isConstant(1.0))
+				return a;
+			if(a.isConstant(1.0))
+				return b;
+			if(b.isConstant(-1.0) && !(a instanceof Constant))
+				return new Negate(a).simplify();
+			if(a.isConstant(-1.0) && !(b instanceof Constant))
+				return new Negate(b).simplify();
+			return super.simplify();
+		}
+	}
+
+	static final class Divide extends Binary {
+		public Divide(Term a, Term b) {
+			super(a, b);
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return a.evaluate(values) / b.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] y = b.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = x[index] / y[index];
+			return result;
+		}
+
+		@Override
+		protected char getOperator() {
+			return '/';
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Divide(children[0], children[1]);
+		}
+
+		@Override
+		public Term simplify() {
+			if(b.isConstant(1.0))
+				return a;
+			if(b.isConstant(-1.0) && !(a instanceof Constant))
+				return new Negate(a).simplify();
+			return super.simplify();
+		}
+	}
+
+	static final class Remainder extends Binary {
+		public Remainder(Term a, Term b) {
+			super(a, b);
+		}
+
+		@Override
+		public double evaluate(double [] values) {
+			return a.evaluate(values) % b.evaluate(values);
+		}
+
+		@Override
+		public double [] evaluate(double [] scalars, double [][] columns, int length) {
+			final double [] x = a.evaluate(scalars, columns, length);
+			final double [] y = b.evaluate(scalars, columns, length);
+			final double [] result = new double[length];
+			for(int index = 0; index < length; ++index)
+				result[index] = x[index] % y[index];
+			return result;
+		}
+
+		@Override
+		protected char getOperator() {
+			return '%';
+		}
+
+		@Override
+		public Term withChildren(Term [] children) {
+			return new Remainder(children[0], children[1]);
+		}
+	}
+}
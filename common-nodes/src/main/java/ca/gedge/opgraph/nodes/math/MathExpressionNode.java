@@ -29,6 +29,8 @@ import java.beans.PropertyChangeListener;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -45,7 +47,7 @@ import javax.swing.SpinnerNumberModel;
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
-import org.antlr.runtime.tree.CommonTreeNodeStream;
+import org.antlr.runtime.tree.Tree;
 
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
@@ -56,13 +58,24 @@ import ca.gedge.opgraph.app.GraphDocument;
 import ca.gedge.opgraph.app.GraphEditorModel;
 import ca.gedge.opgraph.app.edits.node.NodeSettingsEdit;
 import ca.gedge.opgraph.app.extensions.NodeSettings;
+import ca.gedge.opgraph.collections.DoubleArrayList;
+import ca.gedge.opgraph.collections.IntArrayList;
 import ca.gedge.opgraph.exceptions.ProcessingException;
-import ca.gedge.opgraph.nodes.math.parser.MathExpressionEval;
+import ca.gedge.opgraph.nodes.general.IntRangeList;
+import ca.gedge.opgraph.nodes.general.LongRangeList;
+import ca.gedge.opgraph.nodes.iteration.BatchProcessing;
 import ca.gedge.opgraph.nodes.math.parser.MathExpressionLexer;
 import ca.gedge.opgraph.nodes.math.parser.MathExpressionParser;
 
 /**
- * A node that computes a value from a mathematical expression.
+ * A node that computes a value from a mathematical expression. Variables
+ * can also be given arrays of values (either a <code>double[]</code> or a
+ * {@link List} of numbers), in which case the expression is evaluated
+ * element-wise, and a <code>double[]</code> is computed instead. Variables
+ * given a single value use it for every element.
+ * 
+ * When processed in chunks by a {@link ca.gedge.opgraph.nodes.iteration.ForEachNode},
+ * numeric variables are evaluated element-wise over the whole chunk at once.
  */
 @OpNodeInfo(
 	name="Math Expression",
@@ -71,7 +84,7 @@ import ca.gedge.opgraph.nodes.math.parser.MathExpressionParser;
 )
 public class MathExpressionNode
 	extends OpNode
-	implements NodeSettings
+	implements NodeSettings, BatchProcessing
 {
 	/** Logger */
 	private static final Logger LOGGER = Logger.getLogger(MathExpressionNode.class.getName());
@@ -79,14 +92,14 @@ public class MathExpressionNode
 	/** Output field for the expression result */
 	public final OutputField RESULT_OUTPUT_FIELD = new OutputField("result", "expression result", true, Number.class); 
 
+	/** Output field for the element-wise expression results, if any variable is given an array */
+	public final OutputField RESULTS_OUTPUT_FIELD = new OutputField("results", "element-wise expression results", true, double[].class);
+
 	/** The math expression */
 	private String expression;
 
-	/** The expression parser that parsed the expression when it was set */
-	private MathExpressionParser expressionParser;
-
-	/** The parsed expression tree */
-	private Object expressionTree;
+	/** The expression compiled when it was set, or <code>null</code> if it could not be parsed */
+	private volatile CompiledExpression compiledExpression;
 
 	/** The number of decimal places that are significant in the expression result */
 	private int significantDigits;
@@ -111,6 +124,7 @@ public class MathExpressionNode
 		setSignificantDigits(DEFAULT_SIGNIFICANT_DIGITS);
 
 		putField(RESULT_OUTPUT_FIELD);
+		putField(RESULTS_OUTPUT_FIELD);
 		putExtension(NodeSettings.class, this);
 	}
 
@@ -135,12 +149,12 @@ public class MathExpressionNode
 		final MathExpressionLexer lexer = new MathExpressionLexer(stream);
 		final CommonTokenStream tokens = new CommonTokenStream(lexer);
 
-		expressionParser = new MathExpressionParser(tokens);
+		final MathExpressionParser expressionParser = new MathExpressionParser(tokens);
 
 		try {
-			expressionTree = expressionParser.prog().getTree();
+			final Tree expressionTree = (Tree)expressionParser.prog().getTree();
 			if(expressionTree != null)
-				LOGGER.info(((org.antlr.runtime.tree.CommonTree)expressionTree).toStringTree());
+				LOGGER.info(expressionTree.toStringTree());
 
 			// Remove any input fields that correspond to non-existant variables
 			final ArrayList<InputField> inputFieldsCopy = new ArrayList<InputField>(getInputFields());
@@ -152,10 +166,15 @@ public class MathExpressionNode
 			// Insert new input fields
 			for(String variable : expressionParser.getVariables()) {
 				if(getInputFieldWithKey(variable) == null)
-					putField(new InputField(variable, "expression variable", false, true, Number.class));
+					putField(new InputField(variable, "expression variable", false, true, Number.class, double[].class, List.class));
 			}
+
+			// Compile once, so that operating doesn't walk the tree
+			compiledExpression = null;
+			if(expressionTree != null)
+				compiledExpression = CompiledExpression.compile(expressionTree, expressionParser.getVariables());
 		} catch(RecognitionException exc) {
-			expressionParser = null;
+			compiledExpression = null;
 		}
 	}
 
@@ -226,28 +245,202 @@ public class MathExpressionNode
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
-		if(expressionParser == null || expressionTree == null)
+		final CompiledExpression expression = compiledExpression;
+		if(expression == null)
 			throw new NullPointerException("Math expression could not be parsed");
 
-		//
-		final CommonTreeNodeStream stream = new CommonTreeNodeStream(expressionTree);
-		final MathExpressionEval expressionEval = new MathExpressionEval(stream);
-
-		// Add variable bindings
-		for(String variable : expressionParser.getVariables())
-			expressionEval.putValue(variable, (Number)context.get(variable));
+		// Bind variables by slot
+		final List<String> variables = expression.getVariables();
+		final double [] values = new double[expression.getSlotCount()];
+		final double [][] columns = new double[expression.getSlotCount()][];
+		int length = -1;
+		for(int slot = 0; slot < variables.size(); ++slot) {
+			final Object value = context.get(variables.get(slot));
+			if(value == null)
+				throw new NullPointerException("Undefined variable in math expression: " + variables.get(slot));
+
+			if(value instanceof Number) {
+				values[slot] = ((Number)value).doubleValue();
+			} else {
+				columns[slot] = toArray(variables.get(slot), value);
+				if(length >= 0 && length != columns[slot].length)
+					throw new ProcessingException("Arrays given to math expression have different lengths");
+				length = columns[slot].length;
+			}
+		}
 
 		// Evaluate, and round to the number of significant decimal places
-		try {
-			expressionEval.prog();
-
-			final Number result = roundToSignificantDigits(expressionEval.getResult(), significantDigits);
+		if(length < 0) {
+			final Number result = roundToSignificantDigits(expression.evaluate(values), significantDigits);
 			context.put(RESULT_OUTPUT_FIELD, result);
-		} catch(RecognitionException exc) {
-			throw new ProcessingException("Could not evaluate math expression", exc);
+		} else {
+			final double [] results = expression.evaluate(values, columns, length);
+			if(significantDigits >= 0) {
+				for(int index = 0; index < length; ++index)
+					results[index] = roundToSignificantDigits(results[index], significantDigits).doubleValue();
+			}
+			context.put(RESULTS_OUTPUT_FIELD, results);
 		}
 	}
 
+	//
+	// BatchProcessing
+	//
+
+	@Override
+	public void operateOnBatch(OpContext context, int size) throws ProcessingException {
+		final CompiledExpression expression = compiledExpression;
+		if(expression == null)
+			throw new NullPointerException("Math expression could not be parsed");
+
+		// Every variable gets one number per element, so evaluate as columns
+		final List<String> variables = expression.getVariables();
+		final double [][] columns = new double[expression.getSlotCount()][];
+		for(int slot = 0; slot < variables.size(); ++slot) {
+			final Object value = context.get(variables.get(slot));
+			if(value == null)
+				throw new NullPointerException("Undefined variable in math expression: " + variables.get(slot));
+
+			columns[slot] = toColumn((List<?>)value, size);
+			if(columns[slot] == null) {
+				// Some element is itself an array, so evaluate every element on its own
+				operateOnElements(context, expression, size);
+				return;
+			}
+		}
+
+		final double [] results = expression.evaluate(new double[expression.getSlotCount()], columns, size);
+		if(significantDigits < 0) {
+			context.put(RESULT_OUTPUT_FIELD, new DoubleArrayList(results));
+		} else {
+			final ArrayList<Number> rounded = new ArrayList<Number>(size);
+			for(int index = 0; index < size; ++index)
+				rounded.add(roundToSignificantDigits(results[index], significantDigits));
+			context.put(RESULT_OUTPUT_FIELD, rounded);
+		}
+	}
+
+	/**
+	 * Operates on every element of a chunk separately, as {@link #operate(OpContext)}
+	 * would, and gathers the outputs into lists.
+	 * 
+	 * @param context  the working context for the chunk
+	 * @param expression  the expression being evaluated
+	 * @param size  the number of elements in the chunk
+	 * 
+	 * @throws ProcessingException  if any element could not be evaluated
+	 */
+	private void operateOnElements(OpContext context, CompiledExpression expression, int size)
+		throws ProcessingException
+	{
+		final Object [] results = new Object[size];
+		final Object [] arrayResults = new Object[size];
+		for(int index = 0; index < size; ++index) {
+			final OpContext elementContext = new OpContext(context.getParent());
+			for(String variable : expression.getVariables())
+				elementContext.put(variable, ((List<?>)context.get(variable)).get(index));
+
+			operate(elementContext);
+			results[index] = elementContext.get(RESULT_OUTPUT_FIELD);
+			arrayResults[index] = elementContext.get(RESULTS_OUTPUT_FIELD);
+		}
+
+		context.put(RESULT_OUTPUT_FIELD, Arrays.asList(results));
+		context.put(RESULTS_OUTPUT_FIELD, Arrays.asList(arrayResults));
+	}
+
+	/**
+	 * Gets the values of a variable for a chunk as a column of numbers.
+	 * 
+	 * @param values  the values given to the variable, one per element
+	 * @param size  the number of elements in the chunk
+	 * 
+	 * @return the column, or <code>null</code> if any value is not a number
+	 */
+	private static double [] toColumn(List<?> values, int size) {
+		if(values instanceof DoubleArrayList)
+			return ((DoubleArrayList)values).toDoubleArray();
+
+		final double [] column = new double[size];
+		if(values instanceof IntArrayList) {
+			final IntArrayList list = (IntArrayList)values;
+			for(int index = 0; index < size; ++index)
+				column[index] = list.getInt(index);
+		} else if(values instanceof IntRangeList) {
+			final IntRangeList list = (IntRangeList)values;
+			for(int index = 0; index < size; ++index)
+				column[index] = list.getInt(index);
+		} else if(values instanceof LongRangeList) {
+			final LongRangeList list = (LongRangeList)values;
+			for(int index = 0; index < size; ++index)
+				column[index] = list.getLong(index);
+		} else {
+			for(int index = 0; index < size; ++index) {
+				final Object value = values.get(index);
+				if(!(value instanceof Number))
+					return null;
+				column[index] = ((Number)value).doubleValue();
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Gets the values of an array variable.
+	 * 
+	 * @param variable  the variable
+	 * @param value  the value given to the variable
+	 * 
+	 * @return the values of the variable
+	 * 
+	 * @throws ProcessingException  if the value isn't an array of numbers
+	 */
+	private static double [] toArray(String variable, Object value) throws ProcessingException {
+		if(value instanceof double[])
+			return (double[])value;
+
+		if(value instanceof DoubleArrayList)
+			return ((DoubleArrayList)value).toDoubleArray();
+
+		if(value instanceof IntArrayList) {
+			final IntArrayList list = (IntArrayList)value;
+			final double [] array = new double[list.size()];
+			for(int index = 0; index < array.length; ++index)
+				array[index] = list.getInt(index);
+			return array;
+		}
+
+		if(value instanceof IntRangeList) {
+			final IntRangeList list = (IntRangeList)value;
+			final double [] array = new double[list.size()];
+			for(int index = 0; index < array.length; ++index)
+				array[index] = list.getInt(index);
+			return array;
+		}
+
+		if(value instanceof LongRangeList) {
+			final LongRangeList list = (LongRangeList)value;
+			final double [] array = new double[list.size()];
+			for(int index = 0; index < array.length; ++index)
+				array[index] = list.getLong(index);
+			return array;
+		}
+
+		if(value instanceof List) {
+			final List<?> list = (List<?>)value;
+			final double [] array = new double[list.size()];
+			for(int index = 0; index < array.length; ++index) {
+				final Object element = list.get(index);
+				if(!(element instanceof Number))
+					throw new ProcessingException("Non-numeric element given to variable in math expression: " + variable);
+				array[index] = ((Number)element).doubleValue();
+			}
+			return array;
+		}
+
+		throw new ProcessingException("Unsupported value given to variable in math expression: " + variable);
+	}
+
 	//
 	// NodeSettings
 	//
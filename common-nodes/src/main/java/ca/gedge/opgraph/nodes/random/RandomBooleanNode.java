@@ -18,6 +18,9 @@
  */
 package ca.gedge.opgraph.nodes.random;
 
+import java.util.SplittableRandom;
+
+import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OpNodeInfo;
@@ -25,7 +28,8 @@ import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 
 /**
- * A node that outputs a random boolean.
+ * A node that outputs a random boolean. Values are reproducible when a seed is
+ * given, and can be generated in bulk.
  */
 @OpNodeInfo(
 	name = "Random Boolean",
@@ -33,14 +37,26 @@ import ca.gedge.opgraph.exceptions.ProcessingException;
 	category="Data Generation"
 )
 public class RandomBooleanNode extends OpNode {
+	/** Input field for the random seed */
+	public final InputField SEED_INPUT = RandomStreams.createSeedInput();
+
+	/** Input field for the number of random booleans to generate in bulk */
+	public final InputField COUNT_INPUT = RandomStreams.createCountInput();
+
 	/** Output field for the random boolean */
 	public final OutputField VALUE_OUTPUT = new OutputField("value", "random boolean", true, Boolean.class);
 
+	/** Output field for the random booleans generated in bulk */
+	public final OutputField VALUES_OUTPUT = new OutputField("values", "random booleans", true, boolean[].class);
+
 	/**
 	 * Default constructor
 	 */
 	public RandomBooleanNode() {
+		putField(SEED_INPUT);
+		putField(COUNT_INPUT);
 		putField(VALUE_OUTPUT);
+		putField(VALUES_OUTPUT);
 	}
 
 	//
@@ -49,6 +65,17 @@ public class RandomBooleanNode extends OpNode {
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
-		context.put(VALUE_OUTPUT, Math.random() < 0.5f);
+		final SplittableRandom random = RandomStreams.create(this, context, SEED_INPUT);
+
+		context.put(VALUE_OUTPUT, random.nextBoolean());
+
+		final int count = RandomStreams.getCount(context, COUNT_INPUT);
+		if(count >= 0) {
+			final boolean [] values = new boolean[count];
+			for(int i = 0; i < count; ++i)
+				values[i] = random.nextBoolean();
+
+			context.put(VALUES_OUTPUT, values);
+		}
 	}
 }
@@ -18,6 +18,8 @@
  */
 package ca.gedge.opgraph.nodes.random;
 
+import java.util.SplittableRandom;
+
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
@@ -26,7 +28,8 @@ import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 
 /**
- * A node that outputs a random number.
+ * A node that outputs a random number. Values are reproducible when a seed is
+ * given, and can be generated in bulk.
  */
 @OpNodeInfo(
 	name = "Random Decimal",
@@ -40,16 +43,28 @@ public class RandomDecimalNode extends OpNode {
 	/** Input field for the maximum possible value of the random decimal */
 	public final InputField MAX_INPUT = new InputField("max", "largest possible value (inclusive)", true, true, Number.class);
 
+	/** Input field for the random seed */
+	public final InputField SEED_INPUT = RandomStreams.createSeedInput();
+
+	/** Input field for the number of random decimals to generate in bulk */
+	public final InputField COUNT_INPUT = RandomStreams.createCountInput();
+
 	/** Output field for the random decimal */
 	public final OutputField VALUE_OUTPUT = new OutputField("value", "random decimal number", true, Double.class);
 
+	/** Output field for the random decimals generated in bulk */
+	public final OutputField VALUES_OUTPUT = new OutputField("values", "random decimal numbers", true, double[].class);
+
 	/**
 	 * Default constructor.
 	 */
 	public RandomDecimalNode() {
 		putField(MIN_INPUT);
 		putField(MAX_INPUT);
+		putField(SEED_INPUT);
+		putField(COUNT_INPUT);
 		putField(VALUE_OUTPUT);
+		putField(VALUES_OUTPUT);
 	}
 
 	//
@@ -60,8 +75,20 @@ public class RandomDecimalNode extends OpNode {
 	public void operate(OpContext context) throws ProcessingException {
 		final double MIN = (context.containsKey(MIN_INPUT) ? ((Number)context.get(MIN_INPUT)).doubleValue() : -Double.MAX_VALUE);
 		final double MAX = (context.containsKey(MAX_INPUT) ? ((Number)context.get(MAX_INPUT)).doubleValue() : Double.MAX_VALUE);
-		final double t = Math.random();
-		final double value = (1 - t)*MIN + t*MAX;
-		context.put(VALUE_OUTPUT, value);
+		final SplittableRandom random = RandomStreams.create(this, context, SEED_INPUT);
+
+		double t = random.nextDouble();
+		context.put(VALUE_OUTPUT, (1 - t)*MIN + t*MAX);
+
+		final int count = RandomStreams.getCount(context, COUNT_INPUT);
+		if(count >= 0) {
+			final double [] values = new double[count];
+			for(int i = 0; i < count; ++i) {
+				t = random.nextDouble();
+				values[i] = (1 - t)*MIN + t*MAX;
+			}
+
+			context.put(VALUES_OUTPUT, values);
+		}
 	}
 }
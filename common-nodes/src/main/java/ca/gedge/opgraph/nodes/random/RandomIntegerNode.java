@@ -18,6 +18,8 @@
  */
 package ca.gedge.opgraph.nodes.random;
 
+import java.util.SplittableRandom;
+
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
 import ca.gedge.opgraph.OpNode;
@@ -26,7 +28,8 @@ import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 
 /**
- * A node that outputs a random number.
+ * A node that outputs a random number. Values are reproducible when a seed is
+ * given, and can be generated in bulk.
  */
 @OpNodeInfo(
 	name = "Random Integer",
@@ -40,16 +43,28 @@ public class RandomIntegerNode extends OpNode {
 	/** Input field for the maximum possible value of the random integer */
 	public final InputField MAX_INPUT = new InputField("max", "largest possible value (inclusive)", true, true, Number.class);
 
+	/** Input field for the random seed */
+	public final InputField SEED_INPUT = RandomStreams.createSeedInput();
+
+	/** Input field for the number of random integers to generate in bulk */
+	public final InputField COUNT_INPUT = RandomStreams.createCountInput();
+
 	/** Output field for the random integer */
 	public final OutputField VALUE_OUTPUT = new OutputField("value", "random integer", true, Integer.class);
 
+	/** Output field for the random integers generated in bulk */
+	public final OutputField VALUES_OUTPUT = new OutputField("values", "random integers", true, int[].class);
+
 	/**
 	 * Default constructor.
 	 */
 	public RandomIntegerNode() {
 		putField(MIN_INPUT);
 		putField(MAX_INPUT);
+		putField(SEED_INPUT);
+		putField(COUNT_INPUT);
 		putField(VALUE_OUTPUT);
+		putField(VALUES_OUTPUT);
 	}
 
 	//
@@ -60,8 +75,19 @@ public class RandomIntegerNode extends OpNode {
 	public void operate(OpContext context) throws ProcessingException {
 		final int MIN = (context.containsKey(MIN_INPUT) ? ((Number)context.get(MIN_INPUT)).intValue() : Integer.MIN_VALUE);
 		final int MAX = (context.containsKey(MAX_INPUT) ? ((Number)context.get(MAX_INPUT)).intValue() : Integer.MAX_VALUE);
-		final double t = Math.random();
-		final int value = (int)((1 - t)*MIN + t*MAX);
-		context.put(VALUE_OUTPUT, value);
+		final long lower = Math.min(MIN, MAX);
+		final long upper = Math.max(MIN, MAX) + 1L;
+		final SplittableRandom random = RandomStreams.create(this, context, SEED_INPUT);
+
+		context.put(VALUE_OUTPUT, (int)random.nextLong(lower, upper));
+
+		final int count = RandomStreams.getCount(context, COUNT_INPUT);
+		if(count >= 0) {
+			final int [] values = new int[count];
+			for(int i = 0; i < count; ++i)
+				values[i] = (int)random.nextLong(lower, upper);
+
+			context.put(VALUES_OUTPUT, values);
+		}
 	}
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.random;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.iteration.ForEachNode;
+
+/**
+ * Creates the random number generators used by random nodes.
+ * 
+ * A seeded generator is derived from the seed, the id of the node, and the
+ * path to the node: the id of every enclosing macro, along with the current
+ * iteration at each level, as set by {@link ForEachNode} and the other
+ * iteration nodes. Every operation of a node gets its own generator, so
+ * results do not depend on the order in which iterations run, or on which
+ * thread runs them.
+ */
+final class RandomStreams {
+	/** Odd constant used to spread seed components, as in {@link SplittableRandom} */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private RandomStreams() {}
+
+	/**
+	 * Creates an input field for a random seed.
+	 * 
+	 * @return the input field
+	 */
+	static InputField createSeedInput() {
+		return new InputField("seed", "random seed, for reproducible values", true, true, Number.class);
+	}
+
+	/**
+	 * Creates an input field for the number of values to generate in bulk.
+	 * 
+	 * @return the input field
+	 */
+	static InputField createCountInput() {
+		return new InputField("count", "number of values to generate in bulk", true, true, Number.class);
+	}
+
+	/**
+	 * Gets the number of values to generate in bulk.
+	 * 
+	 * @param context  the operating context
+	 * @param countInput  the count input field
+	 * 
+	 * @return the number of values, or -1 if bulk generation was not requested
+	 * 
+	 * @throws ProcessingException  if the count is negative
+	 */
+	static int getCount(OpContext context, InputField countInput) throws ProcessingException {
+		if(!context.containsKey(countInput))
+			return -1;
+
+		final int count = ((Number)context.get(countInput)).intValue();
+		if(count < 0)
+			throw new ProcessingException("Cannot generate a negative number of values: " + count);
+
+		return count;
+	}
+
+	/**
+	 * Creates a random number generator for an operation of a node.
+	 * 
+	 * @param node  the node being operated
+	 * @param context  the operating context
+	 * @param seedInput  the seed input field of the node
+	 * 
+	 * @return a generator derived from the seed, if one is given, or an
+	 *         unpredictable generator otherwise
+	 */
+	static SplittableRandom create(OpNode node, OpContext context, InputField seedInput) {
+		if(!context.containsKey(seedInput))
+			return new SplittableRandom(ThreadLocalRandom.current().nextLong());
+
+		long seed = ((Number)context.get(seedInput)).longValue();
+		seed = mix64(seed + GOLDEN_GAMMA*node.getId().hashCode());
+
+		// Walk out to the global context, folding in the innermost iteration
+		// of each macro level, followed by the macro itself. Worker contexts
+		// of parallel iterations have no node, so they fold in the same way
+		// as the macro's own context does in serial processing.
+		Object iteration = null;
+		for(OpContext level = context; level != null; level = level.getParent()) {
+			if(iteration == null)
+				iteration = level.getLocal(ForEachNode.CURRENT_ITERATION_KEY);
+
+			final OpNode owner = level.getNode();
+			if(owner != null && owner != node) {
+				seed = fold(seed, iteration);
+				seed = mix64(seed + GOLDEN_GAMMA*owner.getId().hashCode());
+				iteration = null;
+			}
+		}
+		seed = fold(seed, iteration);
+
+		return new SplittableRandom(seed);
+	}
+
+	/**
+	 * Folds an iteration index into a seed.
+	 * 
+	 * @param seed  the seed
+	 * @param iteration  the iteration index, or <code>null</code> if there is none
+	 * 
+	 * @return the new seed
+	 */
+	private static long fold(long seed, Object iteration) {
+		if(iteration instanceof Number)
+			seed = mix64(seed + GOLDEN_GAMMA*(((Number)iteration).longValue() + 1));
+		return seed;
+	}
+
+	/**
+	 * Scrambles the bits of a value, using the finalizer of MurmurHash3.
+	 * 
+	 * @param z  the value
+	 * 
+	 * @return the scrambled value
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 33))*0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33))*0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
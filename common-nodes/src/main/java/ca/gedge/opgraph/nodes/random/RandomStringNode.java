@@ -18,8 +18,7 @@
  */
 package ca.gedge.opgraph.nodes.random;
 
-import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.util.SplittableRandom;
 
 import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
@@ -29,7 +28,8 @@ import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 
 /**
- * A node that outputs a random string.
+ * A node that outputs a random string of base-32 digits. Values are
+ * reproducible when a seed is given, and can be generated in bulk.
  */
 @OpNodeInfo(
 	name = "Random String",
@@ -40,18 +40,33 @@ public class RandomStringNode extends OpNode {
 	/** Input field for the output string's length */
 	public final InputField LENGTH_INPUT = new InputField("length", "string length", false, true, Number.class);
 
+	/** Input field for the random seed */
+	public final InputField SEED_INPUT = RandomStreams.createSeedInput();
+
+	/** Input field for the number of random strings to generate in bulk */
+	public final InputField COUNT_INPUT = RandomStreams.createCountInput();
+
 	/** Output field for the random string */
 	public final OutputField VALUE_OUTPUT = new OutputField("value", "random string", true, String.class);
 
-	/** Random number generator to use */
-	private SecureRandom random = new SecureRandom();
+	/** Output field for the random strings generated in bulk */
+	public final OutputField VALUES_OUTPUT = new OutputField("values", "random strings", true, String[].class);
+
+	/** Digits of the generated strings */
+	private static final char [] DIGITS = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+	/** Number of digits taken from each random long */
+	private static final int DIGITS_PER_LONG = 12;
 
 	/** 
 	 * Default constructor 
 	 */
 	public RandomStringNode() {
 		putField(LENGTH_INPUT);
+		putField(SEED_INPUT);
+		putField(COUNT_INPUT);
 		putField(VALUE_OUTPUT);
+		putField(VALUES_OUTPUT);
 	}
 
 	//
@@ -61,6 +76,38 @@ public class RandomStringNode extends OpNode {
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
 		final int length = ((Number)context.get(LENGTH_INPUT)).intValue();
-		context.put(VALUE_OUTPUT, (new BigInteger(6*length, random)).toString(32).substring(0, length));
+		final SplittableRandom random = RandomStreams.create(this, context, SEED_INPUT);
+
+		context.put(VALUE_OUTPUT, nextString(random, length));
+
+		final int count = RandomStreams.getCount(context, COUNT_INPUT);
+		if(count >= 0) {
+			final String [] values = new String[count];
+			for(int i = 0; i < count; ++i)
+				values[i] = nextString(random, length);
+
+			context.put(VALUES_OUTPUT, values);
+		}
+	}
+
+	/**
+	 * Generates a random string.
+	 * 
+	 * @param random  the random number generator to use
+	 * @param length  the length of the string
+	 * 
+	 * @return the random string
+	 */
+	private static String nextString(SplittableRandom random, int length) {
+		final char [] chars = new char[length];
+		long bits = 0;
+		for(int i = 0; i < length; ++i) {
+			if(i % DIGITS_PER_LONG == 0)
+				bits = random.nextLong();
+
+			chars[i] = DIGITS[(int)(bits & 31)];
+			bits >>>= 5;
+		}
+		return new String(chars);
 	}
 }
@@ -35,10 +35,16 @@ import ca.gedge.opgraph.OpGraph;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.extensions.Extendable;
+import ca.gedge.opgraph.extensions.Publishable.PublishedInput;
+import ca.gedge.opgraph.extensions.Publishable.PublishedOutput;
+import ca.gedge.opgraph.extensions.SharedGraph;
 import ca.gedge.opgraph.io.xml.XMLSerializer;
 import ca.gedge.opgraph.io.xml.XMLSerializerFactory;
+import ca.gedge.opgraph.nodes.general.MacroDefinitionCache;
 import ca.gedge.opgraph.nodes.general.MacroNode;
 import ca.gedge.opgraph.nodes.iteration.ForEachNode;
+import ca.gedge.opgraph.nodes.iteration.GroupByNode;
+import ca.gedge.opgraph.nodes.iteration.ReduceNode;
 
 /**
  * A default serializer for reading/writing {@link OpNode} to/from XML.
@@ -81,14 +87,20 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 			macroElem.appendChild(descriptionElem);
 		}
 
-		// Macro graph
-		final XMLSerializer graphSerializer = serializerFactory.getHandler(OpGraph.class);
-		if(graphSerializer == null)
-			throw new IOException("No handler for graph");
+		// Macro graph, or a reference to its source if it's a shared definition
+		final SharedGraph sharedGraph = macro.getGraph().getExtension(SharedGraph.class);
+		if(sharedGraph != null) {
+			macroElem.setAttribute("source", serializerFactory.getRelativePath(sharedGraph.getSource()));
+		} else {
+			final XMLSerializer graphSerializer = serializerFactory.getHandler(OpGraph.class);
+			if(graphSerializer == null)
+				throw new IOException("No handler for graph");
 
-		graphSerializer.write(serializerFactory, doc, macroElem, macro.getGraph());
+			graphSerializer.write(serializerFactory, doc, macroElem, macro.getGraph());
+		}
 
-		// Input fields
+		// Input fields, including published inputs used internally by the
+		// macro, which aren't fields of the node
 		for(InputField field : macro.getInputFields()) {
 			final XMLSerializer serializer = serializerFactory.getHandler(field.getClass());
 			if(serializer == null)
@@ -97,7 +109,17 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 			serializer.write(serializerFactory, doc, macroElem, field);
 		}
 
-		// Output fields
+		for(PublishedInput field : macro.getPublishedInputs()) {
+			if(macro.getInputFieldWithKey(field.getKey()) != field) {
+				final XMLSerializer serializer = serializerFactory.getHandler(field.getClass());
+				if(serializer == null)
+					throw new IOException("Cannot get handler for input field: " + field.getClass().getName());
+
+				serializer.write(serializerFactory, doc, macroElem, field);
+			}
+		}
+
+		// Output fields, including internal published outputs
 		for(OutputField field : macro.getOutputFields()) {
 			final XMLSerializer serializer = serializerFactory.getHandler(field.getClass());
 			if(serializer == null)
@@ -106,6 +128,16 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 			serializer.write(serializerFactory, doc, macroElem, field);
 		}
 
+		for(PublishedOutput field : macro.getPublishedOutputs()) {
+			if(macro.getOutputFieldWithKey(field.getKey()) != field) {
+				final XMLSerializer serializer = serializerFactory.getHandler(field.getClass());
+				if(serializer == null)
+					throw new IOException("Cannot get handler for output field: " + field.getClass().getName());
+
+				serializer.write(serializerFactory, doc, macroElem, field);
+			}
+		}
+
 		// Extensions last
 		if(macro.getExtensionClasses().size() > 0) {
 			final XMLSerializer serializer = serializerFactory.getHandler(Extendable.class);
@@ -153,6 +185,10 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 				throw new IOException("Cannot construct macro node with given type: " + cls.getName());
 			}
 
+			// Macros referencing a source share its definition
+			if(elem.hasAttribute("source"))
+				macro = newMacro(constructor, MacroDefinitionCache.getDefinition(serializerFactory.resolvePath(elem.getAttribute("source"))));
+
 			// Read children
 			final NodeList children = elem.getChildNodes();
 			for(int childIndex = 0; childIndex < children.getLength(); ++childIndex) {
@@ -165,17 +201,7 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 						if(objRead == null || !(objRead instanceof OpGraph))
 							throw new IOException("Could not read graph for macro");
 
-						try {
-							macro = constructor.newInstance(objRead);
-						} catch(IllegalArgumentException exc) {
-							throw new IOException("Could not instantiate macro node");
-						} catch(InstantiationException exc) {
-							throw new IOException("Could not instantiate macro node");
-						} catch(IllegalAccessException exc) {
-							throw new IOException("Could not instantiate macro node");
-						} catch(InvocationTargetException exc) {
-							throw new IOException("Could not instantiate macro node");
-						}
+						macro = newMacro(constructor, (OpGraph)objRead);
 					} else {
 						if(macro == null)
 							throw new IOException("Reading other macro data before macro graph read");
@@ -206,9 +232,35 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 		return macro;
 	}
 
+	/**
+	 * Constructs a macro node.
+	 * 
+	 * @param constructor  the constructor taking the macro's graph
+	 * @param graph  the graph
+	 * 
+	 * @return the macro node
+	 * 
+	 * @throws IOException  if the macro node could not be constructed
+	 */
+	private static MacroNode newMacro(Constructor<? extends MacroNode> constructor, OpGraph graph)
+		throws IOException
+	{
+		try {
+			return constructor.newInstance(graph);
+		} catch(IllegalArgumentException exc) {
+			throw new IOException("Could not instantiate macro node");
+		} catch(InstantiationException exc) {
+			throw new IOException("Could not instantiate macro node");
+		} catch(IllegalAccessException exc) {
+			throw new IOException("Could not instantiate macro node");
+		} catch(InvocationTargetException exc) {
+			throw new IOException("Could not instantiate macro node");
+		}
+	}
+
 	@Override
 	public boolean handles(Class<?> cls) {
-		return (cls == MacroNode.class || cls == ForEachNode.class);
+		return (cls == MacroNode.class || cls == ForEachNode.class || cls == GroupByNode.class || cls == ReduceNode.class);
 	}
 
 	@Override
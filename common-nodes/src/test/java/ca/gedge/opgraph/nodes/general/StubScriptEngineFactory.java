@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.general;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import ca.gedge.opgraph.nodes.general.script.InputFields;
+import ca.gedge.opgraph.nodes.general.script.OutputFields;
+
+/**
+ * A script engine factory for testing {@link ScriptNode}. Scripts are lines
+ * of the form <code>input KEY</code> or <code>output KEY</code>. Running a
+ * script puts the sum of its inputs in each of its outputs.
+ */
+public class StubScriptEngineFactory implements ScriptEngineFactory {
+	/** Engines created by this factory */
+	public static final List<StubScriptEngine> ENGINES = Collections.synchronizedList(new ArrayList<StubScriptEngine>());
+
+	/** If not <code>null</code>, every run counts down and waits for this latch */
+	public static volatile CountDownLatch runLatch;
+
+	/**
+	 * A script engine for the stub language.
+	 */
+	public static class StubScriptEngine extends AbstractScriptEngine implements Invocable, Compilable {
+		private final ScriptEngineFactory factory;
+		private final List<String> inputs = new ArrayList<String>();
+		private final List<String> outputs = new ArrayList<String>();
+
+		/** Whether or not <code>init()</code> was called */
+		public volatile boolean initialized;
+
+		/** Whether or not a compiled script was evaluated */
+		public volatile boolean compiled;
+
+		/** Keys with values in the engine bindings during the last run */
+		public volatile List<String> boundKeys;
+
+		public StubScriptEngine(ScriptEngineFactory factory) {
+			this.factory = factory;
+		}
+
+		private void parse(String script) throws ScriptException {
+			inputs.clear();
+			outputs.clear();
+			for(String line : script.split("\n")) {
+				final String [] parts = line.trim().split("\\s+");
+				if(parts.length == 2 && parts[0].equals("input"))
+					inputs.add(parts[1]);
+				else if(parts.length == 2 && parts[0].equals("output"))
+					outputs.add(parts[1]);
+				else if(line.trim().length() > 0)
+					throw new ScriptException("Bad line: " + line);
+			}
+		}
+
+		@Override
+		public Object eval(String script, ScriptContext context) throws ScriptException {
+			parse(script);
+			return null;
+		}
+
+		@Override
+		public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+			return eval(read(reader), context);
+		}
+
+		@Override
+		public CompiledScript compile(final String script) throws ScriptException {
+			return new CompiledScript() {
+				@Override
+				public Object eval(ScriptContext context) throws ScriptException {
+					parse(script);
+					compiled = true;
+					return null;
+				}
+
+				@Override
+				public ScriptEngine getEngine() {
+					return StubScriptEngine.this;
+				}
+			};
+		}
+
+		@Override
+		public CompiledScript compile(Reader reader) throws ScriptException {
+			return compile(read(reader));
+		}
+
+		@Override
+		public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+			if(name.equals("init")) {
+				for(String input : inputs)
+					((InputFields)args[0]).add(input, "", true, true);
+				for(String output : outputs)
+					((OutputFields)args[1]).add(output, "", true, Integer.class);
+				initialized = true;
+				return null;
+			}
+
+			if(name.equals("run")) {
+				if(!initialized)
+					throw new ScriptException("init() not called");
+
+				final Bindings bindings = getBindings(ScriptContext.ENGINE_SCOPE);
+				final List<String> keys = new ArrayList<String>();
+				for(String key : bindings.keySet()) {
+					if(bindings.get(key) != null)
+						keys.add(key);
+				}
+				boundKeys = keys;
+
+				final CountDownLatch latch = runLatch;
+				if(latch != null) {
+					latch.countDown();
+					try {
+						if(!latch.await(5, TimeUnit.SECONDS))
+							throw new ScriptException("Runs were not concurrent");
+					} catch(InterruptedException exc) {
+						throw new ScriptException(exc);
+					}
+				}
+
+				int sum = 0;
+				for(String input : inputs) {
+					final Object value = bindings.get(input);
+					if(value instanceof Number)
+						sum += ((Number)value).intValue();
+				}
+
+				for(String output : outputs)
+					bindings.put(output, sum);
+				return null;
+			}
+
+			throw new NoSuchMethodException(name);
+		}
+
+		@Override
+		public Object invokeMethod(Object thiz, String name, Object... args) throws NoSuchMethodException {
+			throw new NoSuchMethodException(name);
+		}
+
+		@Override
+		public <T> T getInterface(Class<T> cls) {
+			return null;
+		}
+
+		@Override
+		public <T> T getInterface(Object thiz, Class<T> cls) {
+			return null;
+		}
+
+		@Override
+		public Bindings createBindings() {
+			return new SimpleBindings();
+		}
+
+		@Override
+		public ScriptEngineFactory getFactory() {
+			return factory;
+		}
+
+		private static String read(Reader reader) throws ScriptException {
+			try {
+				final StringBuilder builder = new StringBuilder();
+				final BufferedReader buffered = new BufferedReader(reader);
+				String line;
+				while((line = buffered.readLine()) != null)
+					builder.append(line).append('\n');
+				return builder.toString();
+			} catch(IOException exc) {
+				throw new ScriptException(exc);
+			}
+		}
+	}
+
+	@Override
+	public String getEngineName() {
+		return "Stub";
+	}
+
+	@Override
+	public String getEngineVersion() {
+		return "1.0";
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return Arrays.asList("stub");
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public List<String> getNames() {
+		return Arrays.asList("stub");
+	}
+
+	@Override
+	public String getLanguageName() {
+		return "stub";
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return "1.0";
+	}
+
+	@Override
+	public Object getParameter(String key) {
+		if(ScriptEngine.NAME.equals(key))
+			return "stub";
+		return null;
+	}
+
+	@Override
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+		return null;
+	}
+
+	@Override
+	public String getOutputStatement(String toDisplay) {
+		return null;
+	}
+
+	@Override
+	public String getProgram(String... statements) {
+		return null;
+	}
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		final StubScriptEngine engine = new StubScriptEngine(this);
+		ENGINES.add(engine);
+		return engine;
+	}
+}
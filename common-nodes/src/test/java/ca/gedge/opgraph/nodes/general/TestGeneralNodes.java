@@ -20,19 +20,26 @@ package ca.gedge.opgraph.nodes.general;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeSet;
 
 import org.junit.Test;
 
 import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.collections.PrimitiveList;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.validators.CollectionValidator;
 
 /**
  * Test nodes in {@link ca.gedge.opgraph.nodes.general}.
  */
 public class TestGeneralNodes {
 	@Test
-	public void testRange() {
+	public void testRange() throws ProcessingException {
 		final RangeNode node = new RangeNode();
 		final OpContext context = new OpContext();
 
@@ -52,4 +59,90 @@ public class TestGeneralNodes {
 			assertEquals(expected, new TreeSet<Object>((Collection<?>)context.get(node.RANGE_OUTPUT_FIELD)));
 		}
 	}
+
+	@Test
+	public void testRangeStep() throws ProcessingException {
+		final RangeNode node = new RangeNode();
+		final OpContext context = new OpContext();
+
+		context.put(node.START_INPUT_FIELD, 1);
+		context.put(node.END_INPUT_FIELD, 10);
+		context.put(node.STEP_INPUT_FIELD, 3);
+		node.operate(context);
+		assertEquals(Arrays.asList(1, 4, 7, 10), context.get(node.RANGE_OUTPUT_FIELD));
+
+		context.put(node.START_INPUT_FIELD, 5);
+		context.put(node.END_INPUT_FIELD, -4);
+		context.put(node.STEP_INPUT_FIELD, -2);
+		node.operate(context);
+		assertEquals(Arrays.asList(5, 3, 1, -1, -3), context.get(node.RANGE_OUTPUT_FIELD));
+
+		context.put(node.STEP_INPUT_FIELD, 2);
+		node.operate(context);
+		assertTrue("Stepping away from end gives empty range", ((List<?>)context.get(node.RANGE_OUTPUT_FIELD)).isEmpty());
+
+		context.put(node.STEP_INPUT_FIELD, 0);
+		try {
+			node.operate(context);
+			fail("Zero step should fail");
+		} catch(ProcessingException exc) {}
+	}
+
+	@Test
+	public void testLongRange() throws ProcessingException {
+		final RangeNode node = new RangeNode();
+		final OpContext context = new OpContext();
+
+		final long start = Integer.MAX_VALUE - 1L;
+		context.put(node.START_INPUT_FIELD, start);
+		context.put(node.END_INPUT_FIELD, start + 4);
+		node.operate(context);
+		assertEquals(Arrays.asList(start, start + 1, start + 2, start + 3, start + 4), context.get(node.RANGE_OUTPUT_FIELD));
+
+		context.put(node.START_INPUT_FIELD, Long.MIN_VALUE);
+		context.put(node.END_INPUT_FIELD, Long.MAX_VALUE);
+		context.put(node.STEP_INPUT_FIELD, Long.MAX_VALUE);
+		node.operate(context);
+		assertEquals(Arrays.asList(Long.MIN_VALUE, -1L, Long.MAX_VALUE - 1), context.get(node.RANGE_OUTPUT_FIELD));
+
+		context.put(node.STEP_INPUT_FIELD, 1);
+		try {
+			node.operate(context);
+			fail("Range too large for a list should fail");
+		} catch(ProcessingException exc) {}
+	}
+
+	@Test
+	public void testRangeSpliterator() {
+		final IntRangeList range = new IntRangeList(-1000, 1000, 7);
+		final Spliterator.OfInt spliterator = range.spliterator();
+		assertTrue("Spliterator is sized", spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+		assertEquals(range.size(), spliterator.getExactSizeIfKnown());
+
+		final Spliterator.OfInt prefix = spliterator.trySplit();
+		assertEquals(range.size(), prefix.getExactSizeIfKnown() + spliterator.getExactSizeIfKnown());
+
+		assertEquals(-1000, Spliterators.iterator(prefix).nextInt());
+
+		int sum = 0;
+		for(int value : range)
+			sum += value;
+		assertEquals(sum, range.intStream(true).sum());
+
+		final LongRangeList longRange = new LongRangeList(1, 100000);
+		assertEquals(5000050000L, longRange.longStream(true).sum());
+	}
+
+	@Test
+	public void testRangeElementType() {
+		final PrimitiveList<Integer> range = new IntRangeList(1, 10);
+		final PrimitiveList<Long> longRange = new LongRangeList(1, 10);
+		assertEquals(Integer.class, range.getElementType());
+		assertEquals(Long.class, longRange.getElementType());
+
+		// Ranges are validated by their element type
+		assertTrue(new CollectionValidator(Number.class).isAcceptable(range));
+		assertTrue(new CollectionValidator(Long.class).isAcceptable(longRange));
+		assertFalse(new CollectionValidator(Long.class).isAcceptable(range));
+	}
 }
@@ -20,6 +20,12 @@ package ca.gedge.opgraph.nodes.general;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 import org.junit.Test;
 
 import ca.gedge.opgraph.InputField;
@@ -29,6 +35,8 @@ import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OutputField;
 import ca.gedge.opgraph.Processor;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.io.OpGraphSerializer;
+import ca.gedge.opgraph.io.OpGraphSerializerFactory;
 import ca.gedge.opgraph.nodes.general.ConstantValueNode;
 import ca.gedge.opgraph.nodes.general.MacroNode;
 import ca.gedge.opgraph.nodes.general.PassThroughNode;
@@ -265,4 +273,212 @@ public class TestMacroNode {
 			fail("Should be no errors when processing");
 		}
 	}
+
+	/** Tests that inlining nested macros gives the same results and contexts */
+	@Test
+	public void testInlinedMacro() throws ProcessingException {
+		PassThroughNode [] inputs1 = new PassThroughNode[2];
+		PassThroughNode [] outputs1 = new PassThroughNode[1];
+
+		PassThroughNode [] inputs2 = new PassThroughNode[2];
+		PassThroughNode [] outputs2 = new PassThroughNode[1];
+
+		MacroNode min1 = new MacroNode(createMinDAG(inputs1, outputs1));
+		MacroNode min2 = new MacroNode(createMinDAG(inputs2, outputs2));
+
+		InputField min1_in1 = min1.publish("x", inputs1[0], PassThroughNode.INPUT);
+		InputField min1_in2 = min1.publish("y", inputs1[1], PassThroughNode.INPUT);
+		OutputField min1_out1 = min1.publish("result", outputs1[0], PassThroughNode.OUTPUT);
+
+		InputField min2_in1 = min2.publish("x", inputs2[0], PassThroughNode.INPUT);
+		InputField min2_in2 = min2.publish("y", inputs2[1], PassThroughNode.INPUT);
+		OutputField min2_out1 = min2.publish("result", outputs2[0], PassThroughNode.OUTPUT);
+
+		// A macro computing the minimum of three values, made of two macros
+		OpGraph min3DAG = new OpGraph();
+		min3DAG.add(min1);
+		min3DAG.add(min2);
+		assertNotNull(min3DAG.connect(min1, min1_out1, min2, min2_in1));
+
+		MacroNode min3 = new MacroNode(min3DAG);
+		InputField min3_in1 = min3.publish("x", min1, min1_in1);
+		InputField min3_in2 = min3.publish("y", min1, min1_in2);
+		InputField min3_in3 = min3.publish("z", min2, min2_in2);
+		OutputField min3_out1 = min3.publish("result", min2, min2_out1);
+
+		ConstantValueNode cv1 = new ConstantValueNode(1.0);
+		ConstantValueNode cv2 = new ConstantValueNode(2.0);
+
+		OpGraph dag = new OpGraph();
+		dag.add(cv1);
+		dag.add(cv2);
+		dag.add(min3);
+		assertNotNull(dag.connect(cv1, cv1.VALUE_OUTPUT_FIELD, min3, min3_in1));
+		assertNotNull(dag.connect(cv2, cv2.VALUE_OUTPUT_FIELD, min3, min3_in2));
+
+		for(int i = 0; i < 4; ++i) {
+			for(int j = 0; j < 4; ++j) {
+				for(int k = 0; k < 4; ++k) {
+					cv1.setValue(1.0*i);
+					cv2.setValue(1.0*j);
+
+					// The third value isn't linked, so put it in the macro's context
+					final OpContext context = new OpContext();
+					context.getChildContext(min3).put(min3_in3, 1.0*k);
+
+					final Processor processor = new Processor(dag);
+					processor.setInlining(true);
+					processor.reset(context);
+					while(processor.hasNext()) {
+						processor.step();
+						assertFalse(processor.getCurrentNode() instanceof MacroNode);
+					}
+
+					if(processor.getError() != null)
+						throw processor.getError();
+
+					final double minVal = Math.min(Math.min(i, j), k);
+					final OpContext min3Context = context.getChildContexts().get(min3);
+					assertEquals(minVal, (Double)min3Context.get(min3_out1), 1e-10);
+					assertEquals(minVal, (Double)min3Context.getChildContexts().get(min2).get(min2_out1), 1e-10);
+					assertEquals(Math.min(i, j), (Double)min3Context.getChildContexts().get(min1).get(min1_out1), 1e-10);
+				}
+			}
+		}
+	}
+
+	/** Tests that macros sharing a graph keep their own values when inlined */
+	@Test
+	public void testInlinedSharedGraph() throws ProcessingException {
+		final OpGraph shared = new OpGraph();
+		final PassThroughNode passThrough = new PassThroughNode();
+		shared.add(passThrough);
+
+		final MacroNode macro1 = new MacroNode(shared);
+		final MacroNode macro2 = new MacroNode(shared);
+		final InputField in1 = macro1.publish("in", passThrough, PassThroughNode.INPUT);
+		final OutputField out1 = macro1.publish("out", passThrough, PassThroughNode.OUTPUT);
+		final InputField in2 = macro2.publish("in", passThrough, PassThroughNode.INPUT);
+		final OutputField out2 = macro2.publish("out", passThrough, PassThroughNode.OUTPUT);
+
+		final OpGraph dag = new OpGraph();
+		dag.add(macro1);
+		dag.add(macro2);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(macro1).put(in1, "first");
+		context.getChildContext(macro2).put(in2, "second");
+
+		final Processor processor = new Processor(dag);
+		processor.setInlining(true);
+		processor.reset(context);
+		processor.stepAll();
+		if(processor.getError() != null)
+			throw processor.getError();
+
+		assertEquals("first", context.getChildContexts().get(macro1).get(out1));
+		assertEquals("second", context.getChildContexts().get(macro2).get(out2));
+	}
+
+	/** Tests that macro definitions are loaded once, and shared between macros */
+	@Test
+	public void testSharedDefinition() throws IOException, ProcessingException {
+		final OpGraphSerializer serializer = OpGraphSerializerFactory.getSerializerByExtension("xml");
+		assertNotNull(serializer);
+
+		final OpGraph definition = new OpGraph();
+		definition.setId("root");
+		final PassThroughNode passThrough = new PassThroughNode();
+		passThrough.setId("pass");
+		definition.add(passThrough);
+
+		final File source = File.createTempFile("macro", ".xml");
+		source.deleteOnExit();
+
+		FileOutputStream os = new FileOutputStream(source);
+		serializer.write(definition, os);
+		os.close();
+
+		MacroDefinitionCache.clear();
+		final OpGraph shared = MacroDefinitionCache.getDefinition(source);
+		assertSame(shared, MacroDefinitionCache.getDefinition(source));
+
+		// Two macros sharing a definition process independently
+		final MacroNode macro1 = new MacroNode(shared);
+		final MacroNode macro2 = new MacroNode(shared);
+		assertEquals(source, macro1.getSource());
+
+		final OpNode sharedNode = shared.getNodeById("pass", false);
+		final InputField in1 = macro1.publish("in", sharedNode, PassThroughNode.INPUT);
+		final OutputField out1 = macro1.publish("out", sharedNode, PassThroughNode.OUTPUT);
+		final InputField in2 = macro2.publish("in", sharedNode, PassThroughNode.INPUT);
+		final OutputField out2 = macro2.publish("out", sharedNode, PassThroughNode.OUTPUT);
+
+		final OpGraph dag = new OpGraph();
+		dag.add(macro1);
+		dag.add(macro2);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(macro1).put(in1, "first");
+		context.getChildContext(macro2).put(in2, "second");
+		process(dag, context);
+		assertEquals("first", context.getChildContexts().get(macro1).get(out1));
+		assertEquals("second", context.getChildContexts().get(macro2).get(out2));
+
+		// Removing one macro keeps the shared graph's nodes reachable through the other
+		dag.remove(macro1);
+		assertSame(sharedNode, dag.getNodeById("pass", true));
+
+		// Changed contents are loaded again
+		definition.add(new PassThroughNode());
+		os = new FileOutputStream(source);
+		serializer.write(definition, os);
+		os.close();
+
+		final OpGraph changed = MacroDefinitionCache.getDefinition(source);
+		assertNotSame(shared, changed);
+		assertEquals(2, changed.getVertices().size());
+	}
+
+	/** Tests that shared macro sources are stored relative to the document */
+	@Test
+	public void testSharedSourceLocation() throws IOException {
+		final OpGraphSerializer serializer = OpGraphSerializerFactory.getSerializerByExtension("xml");
+		assertNotNull(serializer);
+
+		final File dir = File.createTempFile("macros", "");
+		assertTrue(dir.delete());
+		final File macroDir = new File(dir, "macros");
+		assertTrue(macroDir.mkdirs());
+
+		final File source = new File(macroDir, "macro.xml");
+		final File location = new File(dir, "graph.xml");
+		source.deleteOnExit();
+		macroDir.deleteOnExit();
+		dir.deleteOnExit();
+
+		final OpGraph definition = new OpGraph();
+		definition.setId("root");
+		definition.add(new PassThroughNode());
+		final FileOutputStream os = new FileOutputStream(source);
+		serializer.write(definition, os);
+		os.close();
+
+		MacroDefinitionCache.clear();
+		final OpGraph graph = new OpGraph();
+		graph.setId("root");
+		final MacroNode macro = new MacroNode(MacroDefinitionCache.getDefinition(source));
+		macro.setId("macro");
+		graph.add(macro);
+
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		serializer.write(graph, bout, location);
+		assertTrue(bout.toString("UTF-8").contains("source=\"macros/macro.xml\""));
+
+		// Relative sources resolve against the document, not the working directory
+		final OpGraph read = serializer.read(new ByteArrayInputStream(bout.toByteArray()), location);
+		final MacroNode readMacro = (MacroNode)read.getNodeById("macro", false);
+		assertNotNull(readMacro);
+		assertEquals(source.getCanonicalFile(), readMacro.getSource().getCanonicalFile());
+	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.general;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.script.ScriptContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.general.StubScriptEngineFactory.StubScriptEngine;
+
+/**
+ * Tests {@link ScriptNode}, using the scripting language of
+ * {@link StubScriptEngineFactory}.
+ */
+public class TestScriptNode {
+	private static final String SCRIPT = "input a\ninput b\noutput sum";
+
+	@Before
+	public void setUp() {
+		StubScriptEngineFactory.ENGINES.clear();
+		StubScriptEngineFactory.runLatch = null;
+	}
+
+	@After
+	public void tearDown() {
+		StubScriptEngineFactory.runLatch = null;
+	}
+
+	@Test
+	public void testFields() {
+		final ScriptNode node = new ScriptNode("stub");
+		node.setScriptSource(SCRIPT);
+
+		assertNotNull(node.getInputFieldWithKey("a"));
+		assertNotNull(node.getInputFieldWithKey("b"));
+		assertNotNull(node.getOutputFieldWithKey("sum"));
+		assertTrue("Script was compiled", StubScriptEngineFactory.ENGINES.get(StubScriptEngineFactory.ENGINES.size() - 1).compiled);
+
+		// A script error leaves the node unable to run
+		node.setScriptSource("not a script");
+		final OpContext context = new OpContext();
+		try {
+			node.operate(context);
+		} catch(ProcessingException exc) {
+			fail("Node with a bad script should not run");
+		}
+		assertFalse(context.containsKey("sum"));
+	}
+
+	@Test
+	public void testBindings() throws ProcessingException {
+		final ScriptNode node = new ScriptNode("stub");
+		node.setScriptSource(SCRIPT);
+		final int engineCount = StubScriptEngineFactory.ENGINES.size();
+
+		final OpContext parent = new OpContext();
+		parent.put("unrelated", 100);
+
+		final OpContext context = new OpContext(parent);
+		context.put(node.getInputFieldWithKey("a"), 1);
+		context.put(node.getInputFieldWithKey("b"), 2);
+		node.operate(context);
+		assertEquals(3, context.get(node.getOutputFieldWithKey("sum")));
+
+		// Only declared inputs are bound, and they're cleared after running
+		final StubScriptEngine engine = StubScriptEngineFactory.ENGINES.get(engineCount - 1);
+		assertTrue(engine.boundKeys.contains("a"));
+		assertTrue(engine.boundKeys.contains("b"));
+		assertFalse(engine.boundKeys.contains("unrelated"));
+		assertNull(engine.getBindings(ScriptContext.ENGINE_SCOPE).get("a"));
+		assertNull(engine.getBindings(ScriptContext.ENGINE_SCOPE).get("sum"));
+
+		// Values don't leak into the next run, which reuses the engine
+		final OpContext next = new OpContext();
+		next.put(node.getInputFieldWithKey("a"), 5);
+		node.operate(next);
+		assertEquals(5, next.get(node.getOutputFieldWithKey("sum")));
+		assertEquals(engineCount, StubScriptEngineFactory.ENGINES.size());
+	}
+
+	@Test
+	public void testConcurrentEngines() throws Exception {
+		final ScriptNode node = new ScriptNode("stub");
+		node.setScriptSource(SCRIPT);
+
+		final int THREADS = 4;
+		StubScriptEngineFactory.runLatch = new CountDownLatch(THREADS);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for(int thread = 0; thread < THREADS; ++thread) {
+				final int value = thread;
+				results.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws ProcessingException {
+						final OpContext context = new OpContext();
+						context.put(node.getInputFieldWithKey("a"), value);
+						context.put(node.getInputFieldWithKey("b"), 10);
+						node.operate(context);
+						return context.get(node.getOutputFieldWithKey("sum"));
+					}
+				}));
+			}
+
+			for(int thread = 0; thread < THREADS; ++thread)
+				assertEquals(thread + 10, results.get(thread).get());
+		} finally {
+			executor.shutdown();
+		}
+
+		// Every engine, including those created on demand, was initialized
+		for(StubScriptEngine engine : StubScriptEngineFactory.ENGINES)
+			assertTrue(engine.initialized);
+	}
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpLink;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.Processor;
+import ca.gedge.opgraph.collections.IntArrayList;
+import ca.gedge.opgraph.dag.CycleDetectedException;
+import ca.gedge.opgraph.dag.VertexNotFoundException;
+import ca.gedge.opgraph.exceptions.ItemMissingException;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+
+/**
+ * Tests {@link ForEachNode}.
+ */
+public class TestForEachNode {
+	static class SquareNode extends OpNode {
+		public final static InputField X_FIELD = new InputField("x", "", false, true, Integer.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, Integer.class);
+
+		public SquareNode() {
+			super("Square", "Computes x*x");
+			putField(X_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) throws ProcessingException {
+			final Integer x = (Integer)context.get(X_FIELD);
+			if(x < 0)
+				throw new ProcessingException("negative input");
+
+			context.put(RESULT_FIELD, x * x);
+		}
+	}
+
+	static class BatchSquareNode extends SquareNode implements BatchProcessing {
+		public int batches = 0;
+
+		@Override
+		public void operateOnBatch(OpContext context, int size) throws ProcessingException {
+			++batches;
+
+			final List<?> xs = (List<?>)context.get(X_FIELD);
+			final ArrayList<Integer> results = new ArrayList<Integer>(size);
+			for(Object x : xs)
+				results.add((Integer)x * (Integer)x);
+
+			context.put(RESULT_FIELD, results);
+		}
+	}
+
+	/**
+	 * Runs a for each node that squares its inputs.
+	 * 
+	 * @param values  the input values
+	 * @param parallelism  the parallelism of the for each node
+	 * 
+	 * @return the output list
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static List<?> runSquares(List<Integer> values, int parallelism) throws ProcessingException {
+		return runSquares(values, new SquareNode(), parallelism, 1, false, 1);
+	}
+
+	/**
+	 * Runs a for each node that squares its inputs.
+	 * 
+	 * @param values  the input values
+	 * @param square  the node that squares
+	 * @param parallelism  the parallelism of the for each node
+	 * @param chunkSize  the chunk size of the for each node
+	 * @param stepThrough  if <code>true</code>, step into the for each node
+	 *                     instead of processing it as a whole
+	 * @param runs  the number of times to process the graph with the same context
+	 * 
+	 * @return the output list
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static List<?> runSquares(List<Integer> values, SquareNode square, int parallelism, int chunkSize,
+	                                  boolean stepThrough, int runs)
+		throws ProcessingException
+	{
+		final OpGraph inner = new OpGraph();
+		inner.add(square);
+
+		final ForEachNode forEach = new ForEachNode(inner);
+		forEach.setParallelism(parallelism);
+		forEach.setChunkSize(chunkSize);
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(forEach);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(forEach).put(input, values);
+
+		Processor processor = null;
+		for(int run = 0; run < runs; ++run) {
+			processor = new Processor(graph, context);
+			if(stepThrough) {
+				while(processor.hasNext())
+					processor.stepInto();
+			} else {
+				processor.stepAll();
+			}
+
+			if(processor.getError() != null)
+				throw processor.getError();
+		}
+
+		return (List<?>)processor.getContext().findChildContext(forEach).get(output);
+	}
+
+	/**
+	 * Tests that sequential and parallel processing give the same, ordered results
+	 */
+	@Test
+	public void testParallelOrdering() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		final ArrayList<Integer> expected = new ArrayList<Integer>();
+		for(int i = 0; i < 1000; ++i) {
+			values.add(i);
+			expected.add(i * i);
+		}
+
+		assertEquals(expected, runSquares(values, 1));
+		assertEquals(expected, runSquares(values, 4));
+		assertEquals(expected, runSquares(values, 2000));
+	}
+
+	/**
+	 * Appends a <code>null</code> and a decimal to its input list, as an
+	 * existing consumer of output lists might.
+	 */
+	static class AppendNode extends OpNode {
+		public final static InputField LIST_FIELD = new InputField("list", "", false, true, List.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, List.class);
+
+		public AppendNode() {
+			super("Append", "Appends values to a list");
+			putField(LIST_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void operate(OpContext context) throws ProcessingException {
+			final List<Object> list = (List<Object>)context.get(LIST_FIELD);
+			list.add(null);
+			list.add(0.5);
+			context.put(RESULT_FIELD, list);
+		}
+	}
+
+	/**
+	 * Tests that primitive lists are accepted as inputs, that outputs are
+	 * plain lists which downstream nodes can modify, and that outputs are
+	 * only packed into primitive lists when asked to
+	 */
+	@Test
+	public void testPrimitiveLists() throws ProcessingException, ItemMissingException, VertexNotFoundException, CycleDetectedException {
+		final IntArrayList values = new IntArrayList();
+		final ArrayList<Object> expected = new ArrayList<Object>();
+		for(int i = 0; i < 1000; ++i) {
+			values.addInt(i);
+			expected.add(i * i);
+		}
+
+		for(int run = 0; run < 2; ++run) {
+			final boolean packing = (run == 1);
+
+			final OpGraph inner = new OpGraph();
+			final SquareNode square = new SquareNode();
+			inner.add(square);
+
+			final ForEachNode forEach = new ForEachNode(inner);
+			forEach.setParallelism(4);
+			forEach.setPackingOutputs(packing);
+			final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+			final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+
+			final OpGraph graph = new OpGraph();
+			graph.add(forEach);
+
+			final OpContext context = new OpContext();
+			context.getChildContext(forEach).put(input, values);
+
+			if(packing) {
+				final Processor processor = new Processor(graph, context);
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+
+				final Object results = context.findChildContext(forEach).get(output);
+				assertTrue("Output is a primitive list", results instanceof IntArrayList);
+				assertEquals(expected, results);
+			} else {
+				final AppendNode append = new AppendNode();
+				graph.add(append);
+				graph.add(new OpLink(forEach, output, append, AppendNode.LIST_FIELD));
+
+				final Processor processor = new Processor(graph, context);
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+
+				final ArrayList<Object> appended = new ArrayList<Object>(expected);
+				appended.add(null);
+				appended.add(0.5);
+				assertEquals(appended, context.findChildContext(append).get(AppendNode.RESULT_FIELD));
+			}
+		}
+	}
+
+	/**
+	 * Tests that errors in parallel workers are reported
+	 */
+	@Test(expected=ProcessingException.class)
+	public void testParallelError() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i)
+			values.add(i == 10 ? -1 : i);
+
+		runSquares(values, 4);
+	}
+
+	/**
+	 * Tests that stepping through iterations gives the same results, and that
+	 * processing again with the same context doesn't accumulate stale outputs
+	 */
+	@Test
+	public void testStepThroughAndRerun() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		final ArrayList<Integer> expected = new ArrayList<Integer>();
+		for(int i = 0; i < 50; ++i) {
+			values.add(i);
+			expected.add(i * i);
+		}
+
+		assertEquals(expected, runSquares(values, new SquareNode(), 1, 1, true, 1));
+		assertEquals(expected, runSquares(values, new SquareNode(), 1, 1, false, 2));
+		assertEquals(expected, runSquares(values, new SquareNode(), 1, 1, true, 2));
+		assertEquals(expected, runSquares(values, new SquareNode(), 4, 1, false, 2));
+		assertEquals(new ArrayList<Integer>(), runSquares(new ArrayList<Integer>(), new SquareNode(), 1, 1, true, 1));
+	}
+
+	/**
+	 * Tests that chunked processing gives the same results, and that batch
+	 * processing nodes operate once per chunk
+	 */
+	@Test
+	public void testChunks() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		final ArrayList<Integer> expected = new ArrayList<Integer>();
+		for(int i = 0; i < 1000; ++i) {
+			values.add(i);
+			expected.add(i * i);
+		}
+
+		assertEquals(expected, runSquares(values, new SquareNode(), 1, 7, false, 1));
+		assertEquals(expected, runSquares(values, new SquareNode(), 4, 16, false, 2));
+
+		final BatchSquareNode batchSquare = new BatchSquareNode();
+		assertEquals(expected, runSquares(values, batchSquare, 1, 100, false, 1));
+		assertEquals(10, batchSquare.batches);
+
+		assertEquals(expected, runSquares(values, new BatchSquareNode(), 3, 64, false, 1));
+
+		// In a graph mixing both kinds of nodes, nodes lacking batch support
+		// operate once per iteration of each chunk
+		final BatchSquareNode mixedSquare = new BatchSquareNode();
+		final OpGraph inner = new OpGraph();
+		final SquareNode plainSquare = new SquareNode();
+		inner.add(mixedSquare);
+		inner.add(plainSquare);
+		assertNotNull(inner.connect(mixedSquare, SquareNode.RESULT_FIELD, plainSquare, SquareNode.X_FIELD));
+
+		final ForEachNode forEach = new ForEachNode(inner);
+		forEach.setChunkSize(10);
+		final InputField input = forEach.publish("x", mixedSquare, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", plainSquare, SquareNode.RESULT_FIELD);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(forEach);
+
+		final List<Integer> smallValues = values.subList(0, 95);
+		final ArrayList<Integer> fourthPowers = new ArrayList<Integer>();
+		for(int value : smallValues)
+			fourthPowers.add(value * value * value * value);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(forEach).put(input, smallValues);
+		final Processor processor = new Processor(graph, context);
+		processor.stepAll();
+		assertNull(processor.getError());
+		assertEquals(fourthPowers, context.getChildContext(forEach).get(output));
+		assertEquals(10, mixedSquare.batches);
+	}
+
+	/**
+	 * Tests that errors from nodes operating per iteration within a chunk
+	 * are reported
+	 */
+	@Test(expected=ProcessingException.class)
+	public void testMixedChunkError() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i)
+			values.add(i == 10 ? -1 : i);
+
+		final BatchSquareNode batchSquare = new BatchSquareNode();
+		final SquareNode plainSquare = new SquareNode();
+		final OpGraph inner = new OpGraph();
+		inner.add(batchSquare);
+		inner.add(plainSquare);
+
+		final ForEachNode forEach = new ForEachNode(inner);
+		forEach.setChunkSize(8);
+		final InputField batchInput = forEach.publish("x", batchSquare, SquareNode.X_FIELD);
+		final InputField plainInput = forEach.publish("y", plainSquare, SquareNode.X_FIELD);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(forEach);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(forEach).put(batchInput, values);
+		context.getChildContext(forEach).put(plainInput, values);
+		final Processor processor = new Processor(graph, context);
+		processor.stepAll();
+		if(processor.getError() != null)
+			throw processor.getError();
+	}
+
+	/**
+	 * Tests that errors in chunks are reported
+	 */
+	@Test(expected=ProcessingException.class)
+	public void testChunkError() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i)
+			values.add(i == 10 ? -1 : i);
+
+		runSquares(values, new SquareNode(), 1, 8, false, 1);
+	}
+
+	/**
+	 * Tests that streaming processes an unsized iterable, sending outputs to
+	 * a sink, both when processed as a whole and when stepped through
+	 */
+	@Test
+	public void testStreaming() throws ProcessingException {
+		final Iterable<Integer> values = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return (next < 100);
+					}
+
+					@Override
+					public Integer next() {
+						return next++;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException("remove not supported");
+					}
+				};
+			}
+		};
+
+		final ArrayList<Integer> expected = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i)
+			expected.add(i * i);
+
+		for(int run = 0; run < 4; ++run) {
+			final boolean stepThrough = (run % 2 == 1);
+			final boolean useSink = (run >= 2);
+
+			final OpGraph inner = new OpGraph();
+			final SquareNode square = new SquareNode();
+			inner.add(square);
+
+			final ForEachNode forEach = new ForEachNode(inner);
+			forEach.setStreaming(true);
+			final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+			final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+
+			final ArrayList<Object> sunk = new ArrayList<Object>();
+			final boolean [] finished = new boolean[1];
+			final IterationSink sink = new IterationSink() {
+				@Override
+				public void accept(int iteration, Object value) {
+					assertEquals(sunk.size(), iteration);
+					sunk.add(value);
+				}
+
+				@Override
+				public void finish() {
+					finished[0] = true;
+				}
+			};
+			if(useSink)
+				forEach.setSink(output, sink);
+
+			final OpGraph graph = new OpGraph();
+			graph.add(forEach);
+
+			final OpContext context = new OpContext();
+			context.getChildContext(forEach).put(input, values);
+
+			final Processor processor = new Processor(graph, context);
+			while(processor.hasNext()) {
+				if(stepThrough)
+					processor.stepInto();
+				else
+					processor.step();
+			}
+
+			if(processor.getError() != null)
+				throw processor.getError();
+
+			final OpContext forEachContext = context.findChildContext(forEach);
+			if(useSink) {
+				assertEquals(expected, sunk);
+				assertTrue(finished[0]);
+				assertFalse(forEachContext.containsKey(output));
+			} else {
+				assertEquals(expected, forEachContext.get(output));
+			}
+			assertEquals(100, forEachContext.get(ForEachNode.MAX_ITERATIONS_KEY));
+		}
+	}
+
+	/**
+	 * Tests that errors mapping streamed values are reported as processing
+	 * errors when stepping through
+	 */
+	@Test
+	public void testStreamingStepThroughError() {
+		final OpGraph inner = new OpGraph();
+		final SquareNode square = new SquareNode();
+		inner.add(square);
+
+		final ForEachNode forEach = new ForEachNode(inner);
+		forEach.setStreaming(true);
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		forEach.publish("result", square, SquareNode.RESULT_FIELD);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(forEach);
+
+		for(int badIndex = 0; badIndex < 2; ++badIndex) {
+			final ArrayList<Object> values = new ArrayList<Object>();
+			values.add(1);
+			values.add(2);
+			values.add(badIndex, "not an integer");
+
+			final OpContext context = new OpContext();
+			context.getChildContext(forEach).put(input, values);
+
+			final Processor processor = new Processor(graph, context);
+			while(processor.hasNext())
+				processor.stepInto();
+
+			assertNotNull("Error reported", processor.getError());
+		}
+	}
+}
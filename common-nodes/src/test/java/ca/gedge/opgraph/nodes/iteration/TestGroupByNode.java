@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.Processor;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+
+/**
+ * Tests {@link GroupByNode}.
+ */
+public class TestGroupByNode {
+	static class ModuloNode extends OpNode {
+		public final static InputField X_FIELD = new InputField("x", "", false, true, Integer.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, Object.class);
+
+		private final int modulus;
+
+		public ModuloNode() {
+			this(7);
+		}
+
+		public ModuloNode(int modulus) {
+			super("Modulo", "Computes x mod a modulus");
+			this.modulus = modulus;
+			putField(X_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		/**
+		 * Gets the key of a value.
+		 * 
+		 * @param x  the value
+		 * 
+		 * @return the key
+		 */
+		public Object getKey(int x) {
+			return x % modulus;
+		}
+
+		@Override
+		public void operate(OpContext context) throws ProcessingException {
+			final Integer x = (Integer)context.get(X_FIELD);
+			if(x < 0)
+				throw new ProcessingException("negative input");
+
+			context.put(RESULT_FIELD, getKey(x));
+		}
+	}
+
+	/**
+	 * Gives keys whose hash codes collide, e.g. <code>"AaBB".hashCode() == "BBAa".hashCode()</code>.
+	 */
+	static class CollidingKeyNode extends ModuloNode {
+		private static final String [] KEYS = {"AaAa", "BBBB", "AaBB", "BBAa", "Aa", "BB"};
+
+		public CollidingKeyNode() {
+			super(KEYS.length);
+		}
+
+		@Override
+		public Object getKey(int x) {
+			return KEYS[(Integer)super.getKey(x)];
+		}
+	}
+
+	static class SumNode extends OpNode {
+		public final static InputField VALUES_FIELD = new InputField("values", "", false, true, List.class);
+		public final static OutputField SUM_FIELD = new OutputField("sum", "", true, Integer.class);
+		public final static OutputField VALUES_OUTPUT_FIELD = new OutputField("values", "", true, List.class);
+
+		public SumNode() {
+			super("Sum", "Sums values");
+			putField(VALUES_FIELD);
+			putField(SUM_FIELD);
+			putField(VALUES_OUTPUT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) throws ProcessingException {
+			int sum = 0;
+			for(Object value : (List<?>)context.get(VALUES_FIELD))
+				sum += (Integer)value;
+
+			context.put(SUM_FIELD, sum);
+			context.put(VALUES_OUTPUT_FIELD, context.get(VALUES_FIELD));
+		}
+	}
+
+	/**
+	 * Runs a group by node that groups values by their remainder modulo 7,
+	 * and sums each group.
+	 * 
+	 * @param values  the input values
+	 * @param parallelism  the parallelism of the group by node
+	 * @param memoryBudget  the memory budget of the group by node
+	 * @param stepThrough  if <code>true</code>, step into the group by node
+	 *                     instead of processing it as a whole
+	 * 
+	 * @return the sum and values outputs
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static List<Map<?, ?>> runGroupSums(List<Integer> values, int parallelism, int memoryBudget,
+	                                            boolean stepThrough)
+		throws ProcessingException
+	{
+		return runGroupSums(values, new ModuloNode(), parallelism, memoryBudget, stepThrough);
+	}
+
+	/**
+	 * Runs a group by node that groups values by key, and sums each group.
+	 * 
+	 * @param values  the input values
+	 * @param modulo  the node computing keys
+	 * @param parallelism  the parallelism of the group by node
+	 * @param memoryBudget  the memory budget of the group by node
+	 * @param stepThrough  if <code>true</code>, step into the group by node
+	 *                     instead of processing it as a whole
+	 * 
+	 * @return the sum and values outputs
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static List<Map<?, ?>> runGroupSums(List<Integer> values, ModuloNode modulo, int parallelism,
+	                                            int memoryBudget, boolean stepThrough)
+		throws ProcessingException
+	{
+		final SumNode sum = new SumNode();
+		final OpGraph inner = new OpGraph();
+		inner.add(modulo);
+		inner.add(sum);
+
+		final GroupByNode groupBy = new GroupByNode(inner);
+		groupBy.setParallelism(parallelism);
+		groupBy.setMemoryBudget(memoryBudget);
+		groupBy.publish(GroupByNode.ELEMENT_KEY, modulo, ModuloNode.X_FIELD);
+		groupBy.publish(GroupByNode.KEY_KEY, modulo, ModuloNode.RESULT_FIELD);
+		groupBy.publish(GroupByNode.GROUP_KEY, sum, SumNode.VALUES_FIELD);
+		final OutputField sumOutput = groupBy.publish("sum", sum, SumNode.SUM_FIELD);
+		final OutputField valuesOutput = groupBy.publish("values", sum, SumNode.VALUES_OUTPUT_FIELD);
+		assertNull(groupBy.getOutputFieldWithKey(GroupByNode.KEY_KEY));
+
+		final OpGraph graph = new OpGraph();
+		graph.add(groupBy);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(groupBy).put(groupBy.COLLECTION_INPUT, values);
+
+		final Processor processor = new Processor(graph, context);
+		if(stepThrough) {
+			while(processor.hasNext())
+				processor.stepInto();
+		} else {
+			processor.stepAll();
+		}
+
+		if(processor.getError() != null)
+			throw processor.getError();
+
+		final OpContext groupByContext = processor.getContext().findChildContext(groupBy);
+		return Arrays.<Map<?, ?>>asList((Map<?, ?>)groupByContext.get(sumOutput), (Map<?, ?>)groupByContext.get(valuesOutput));
+	}
+
+	/**
+	 * Tests that all ways of processing give the same groups, with keys
+	 * ordered by first element and elements in order within groups
+	 */
+	@Test
+	public void testGroups() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		final LinkedHashMap<Integer, Integer> expectedSums = new LinkedHashMap<Integer, Integer>();
+		final LinkedHashMap<Integer, List<Integer>> expectedGroups = new LinkedHashMap<Integer, List<Integer>>();
+		for(int i = 0; i < 1000; ++i) {
+			final int value = (i * 31) % 1000;
+			values.add(value);
+
+			final Integer key = value % 7;
+			if(!expectedGroups.containsKey(key)) {
+				expectedSums.put(key, 0);
+				expectedGroups.put(key, new ArrayList<Integer>());
+			}
+			expectedSums.put(key, expectedSums.get(key) + value);
+			expectedGroups.get(key).add(value);
+		}
+
+		final List<Integer> expectedKeys = new ArrayList<Integer>(expectedSums.keySet());
+		final boolean [] stepThroughs = {false, true};
+		final int [][] configurations = {{1, 0}, {4, 0}, {1, 10}, {4, 10}, {3, 1}};
+		for(boolean stepThrough : stepThroughs) {
+			for(int [] configuration : configurations) {
+				final List<Map<?, ?>> outputs = runGroupSums(values, configuration[0], configuration[1], stepThrough);
+				assertEquals(expectedSums, outputs.get(0));
+				assertEquals(expectedKeys, new ArrayList<Object>(outputs.get(0).keySet()));
+				assertEquals(expectedGroups, outputs.get(1));
+			}
+		}
+	}
+
+	/**
+	 * Tests spilling many distinct keys with a small budget, including keys
+	 * whose hash codes collide
+	 */
+	@Test
+	public void testSpilledGroups() throws ProcessingException {
+		final ModuloNode [] keyNodes = {new ModuloNode(1000), new CollidingKeyNode()};
+		for(ModuloNode keyNode : keyNodes) {
+			final ArrayList<Integer> values = new ArrayList<Integer>();
+			final LinkedHashMap<Object, Integer> expectedSums = new LinkedHashMap<Object, Integer>();
+			final LinkedHashMap<Object, List<Integer>> expectedGroups = new LinkedHashMap<Object, List<Integer>>();
+			for(int i = 0; i < 5000; ++i) {
+				final int value = (i * 7919) % 5000;
+				values.add(value);
+
+				final Object key = keyNode.getKey(value);
+				if(!expectedGroups.containsKey(key)) {
+					expectedSums.put(key, 0);
+					expectedGroups.put(key, new ArrayList<Integer>());
+				}
+				expectedSums.put(key, expectedSums.get(key) + value);
+				expectedGroups.get(key).add(value);
+			}
+
+			final List<Object> expectedKeys = new ArrayList<Object>(expectedSums.keySet());
+			final int [][] configurations = {{1, 16}, {4, 16}, {3, 1}};
+			for(int [] configuration : configurations) {
+				final List<Map<?, ?>> outputs = runGroupSums(values, keyNode, configuration[0], configuration[1], false);
+				assertEquals(expectedSums, outputs.get(0));
+				assertEquals(expectedKeys, new ArrayList<Object>(outputs.get(0).keySet()));
+				assertEquals(expectedGroups, outputs.get(1));
+			}
+		}
+	}
+
+	/**
+	 * Tests that an empty collection gives empty maps
+	 */
+	@Test
+	public void testEmpty() throws ProcessingException {
+		assertEquals(new LinkedHashMap<Object, Object>(), runGroupSums(new ArrayList<Integer>(), 4, 0, false).get(0));
+		assertEquals(new LinkedHashMap<Object, Object>(), runGroupSums(new ArrayList<Integer>(), 1, 0, true).get(0));
+	}
+
+	/**
+	 * Tests that errors in parallel workers are reported
+	 */
+	@Test(expected=ProcessingException.class)
+	public void testError() throws ProcessingException {
+		final ArrayList<Integer> values = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i)
+			values.add(i == 60 ? -1 : i);
+
+		runGroupSums(values, 4, 10, false);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.iteration;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ca.gedge.opgraph.InputField;
+import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.Processor;
+import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.io.OpGraphSerializer;
+import ca.gedge.opgraph.io.OpGraphSerializerFactory;
+
+/**
+ * Tests {@link ReduceNode}.
+ */
+public class TestReduceNode {
+	public static class ConcatNode extends OpNode {
+		public final static InputField LEFT_FIELD = new InputField("left", "", false, true, String.class);
+		public final static InputField RIGHT_FIELD = new InputField("right", "", false, true, String.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, String.class);
+
+		public ConcatNode() {
+			super("Concat", "Concatenates left and right");
+			putField(LEFT_FIELD);
+			putField(RIGHT_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) throws ProcessingException {
+			final String left = (String)context.get(LEFT_FIELD);
+			final String right = (String)context.get(RIGHT_FIELD);
+			if(right.isEmpty())
+				throw new ProcessingException("empty input");
+
+			context.put(RESULT_FIELD, left + right);
+		}
+	}
+
+	/**
+	 * Runs a reduce node that concatenates its inputs.
+	 * 
+	 * @param values  the input values
+	 * @param identity  the identity value
+	 * @param stepThrough  if <code>true</code>, step into the reduce node
+	 *                     instead of processing it as a whole
+	 * 
+	 * @return the reduced value
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static Object runConcat(List<String> values, String identity, boolean stepThrough)
+		throws ProcessingException
+	{
+		final ConcatNode concat = new ConcatNode();
+		final OpGraph inner = new OpGraph();
+		inner.add(concat);
+
+		final ReduceNode reduce = new ReduceNode(inner);
+		reduce.publish(ReduceNode.LEFT_KEY, concat, ConcatNode.LEFT_FIELD);
+		reduce.publish(ReduceNode.RIGHT_KEY, concat, ConcatNode.RIGHT_FIELD);
+		final OutputField output = reduce.publish(ReduceNode.RESULT_KEY, concat, ConcatNode.RESULT_FIELD);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(reduce);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(reduce).put(reduce.COLLECTION_INPUT, values);
+		context.getChildContext(reduce).put(reduce.IDENTITY_INPUT, identity);
+
+		final Processor processor = new Processor(graph, context);
+		if(stepThrough) {
+			while(processor.hasNext())
+				processor.stepInto();
+		} else {
+			processor.stepAll();
+		}
+
+		if(processor.getError() != null)
+			throw processor.getError();
+
+		return processor.getContext().findChildContext(reduce).get(output);
+	}
+
+	/**
+	 * Tests that parallel reduction combines elements in order
+	 */
+	@Test
+	public void testReduce() throws ProcessingException {
+		final ArrayList<String> values = new ArrayList<String>();
+		final StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 5000; ++i) {
+			values.add(Integer.toString(i % 10));
+			expected.append(i % 10);
+		}
+
+		assertEquals(expected.toString(), runConcat(values, "", false));
+		assertEquals(expected.toString(), runConcat(values, "", true));
+		assertEquals("abc", runConcat(Arrays.asList("a", "b", "c"), "", false));
+	}
+
+	/**
+	 * Tests that an empty collection reduces to the identity
+	 */
+	@Test
+	public void testIdentity() throws ProcessingException {
+		assertEquals("identity", runConcat(new ArrayList<String>(), "identity", false));
+		assertEquals("identity", runConcat(new ArrayList<String>(), "identity", true));
+	}
+
+	/**
+	 * Tests that errors in parallel tasks are reported
+	 */
+	@Test(expected=ProcessingException.class)
+	public void testError() throws ProcessingException {
+		final ArrayList<String> values = new ArrayList<String>();
+		for(int i = 0; i < 5000; ++i)
+			values.add(i == 3000 ? "" : "x");
+
+		runConcat(values, "", false);
+	}
+
+	/**
+	 * Tests that the operands, which aren't fields of the node, are saved
+	 */
+	@Test
+	public void testSerialization() throws IOException {
+		final OpGraphSerializer serializer = OpGraphSerializerFactory.getSerializerByExtension("xml");
+		assertNotNull(serializer);
+
+		final ConcatNode concat = new ConcatNode();
+		concat.setId("concat");
+		final OpGraph inner = new OpGraph();
+		inner.add(concat);
+
+		final ReduceNode reduce = new ReduceNode(inner);
+		reduce.setId("reduce");
+		reduce.publish(ReduceNode.LEFT_KEY, concat, ConcatNode.LEFT_FIELD);
+		reduce.publish(ReduceNode.RIGHT_KEY, concat, ConcatNode.RIGHT_FIELD);
+		reduce.publish(ReduceNode.RESULT_KEY, concat, ConcatNode.RESULT_FIELD);
+		assertNull(reduce.getInputFieldWithKey(ReduceNode.LEFT_KEY));
+
+		final OpGraph graph = new OpGraph();
+		graph.setId("root");
+		graph.add(reduce);
+
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		serializer.write(graph, os);
+
+		final OpGraph read = serializer.read(new ByteArrayInputStream(os.toByteArray()));
+		final ReduceNode readReduce = (ReduceNode)read.getNodeById("reduce", false);
+		assertEquals(2, readReduce.getPublishedInputs().size());
+		assertEquals(1, readReduce.getPublishedOutputs().size());
+		assertNull(readReduce.getInputFieldWithKey(ReduceNode.LEFT_KEY));
+		assertNotNull(readReduce.getOutputFieldWithKey(ReduceNode.RESULT_KEY));
+	}
+}
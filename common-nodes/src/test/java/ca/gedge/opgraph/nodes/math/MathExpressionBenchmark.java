@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.nodes.math;
+
+import org.antlr.runtime.RecognitionException;
+
+/**
+ * Measures the time per evaluation of math expressions, with and without
+ * optimizations. Not run as part of the test suite; run its main method
+ * with the test classpath of this module.
+ */
+public class MathExpressionBenchmark {
+	/** Expressions typical of edited graphs, with constant and repeated subterms */
+	private static final String [] EXPRESSIONS = {
+		"x*1 + 0",
+		"(2*3.5 + 4/8) * x + (2*3.5 + 4/8) * y",
+		"(x*y + 1)*(x*y + 1) + (x*y + 1)/(x - y) - 3*(x*y + 1)",
+		"((x + y)*(x - y) + (x + y)*(x - y)*2) / ((x + y)*(x - y) + 1*1*1)"
+	};
+
+	private static final int EVALUATIONS = 20000000;
+
+	public static void main(String [] args) throws RecognitionException {
+		for(String expression : EXPRESSIONS) {
+			final CompiledExpression plain = TestMathNodes.compile(expression, false);
+			final CompiledExpression optimized = TestMathNodes.compile(expression, true);
+
+			// Warm up both, so that they're compiled by the JIT
+			run(plain, EVALUATIONS / 10);
+			run(optimized, EVALUATIONS / 10);
+
+			final double plainTime = run(plain, EVALUATIONS);
+			final double optimizedTime = run(optimized, EVALUATIONS);
+			System.out.println(expression);
+			System.out.println(String.format("  unoptimized: %6.2f ns/eval  %s", plainTime, plain));
+			System.out.println(String.format("  optimized:   %6.2f ns/eval  %s", optimizedTime, optimized));
+			System.out.println(String.format("  speedup:     %6.2fx", plainTime / optimizedTime));
+		}
+	}
+
+	/**
+	 * Evaluates an expression many times.
+	 * 
+	 * @param expression  the expression
+	 * @param evaluations  the number of evaluations
+	 * 
+	 * @return the average time per evaluation, in nanoseconds
+	 */
+	private static double run(CompiledExpression expression, int evaluations) {
+		final double [] values = new double[expression.getSlotCount()];
+		double sum = 0.0;
+		final long start = System.nanoTime();
+		for(int i = 0; i < evaluations; ++i) {
+			values[0] = i;
+			if(values.length > 1)
+				values[1] = 0.5 * i;
+			sum += expression.evaluate(values);
+		}
+		final long elapsed = System.nanoTime() - start;
+
+		// Keep the result live, so the loop isn't eliminated
+		if(sum == 42.0)
+			System.out.println(sum);
+
+		return (double)elapsed / evaluations;
+	}
+}
@@ -21,13 +21,29 @@ package ca.gedge.opgraph.nodes.math;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.Tree;
 import org.junit.Test;
 
 import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.collections.DoubleArrayList;
+import ca.gedge.opgraph.collections.IntArrayList;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.general.IntRangeList;
+import ca.gedge.opgraph.nodes.general.LongRangeList;
+import ca.gedge.opgraph.nodes.math.parser.MathExpressionLexer;
+import ca.gedge.opgraph.nodes.math.parser.MathExpressionParser;
 import ca.gedge.opgraph.util.Pair;
 
 /**
@@ -101,4 +117,190 @@ public class TestMathNodes {
 			assertTrue("loss of data expected", Math.abs(value - expected) < 1);
 		}
 	}
+
+	/** Tests that one node can be operated by several threads at once */
+	@Test
+	public void testConcurrentEvaluation() throws Exception {
+		Logger.getLogger(MathExpressionNode.class.getName()).setLevel(Level.WARNING);
+
+		final MathExpressionNode node = new MathExpressionNode("2*x + -5*(-y + 5.102*x) % 7");
+		final ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for(int thread = 0; thread < 4; ++thread) {
+				final int offset = thread;
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws ProcessingException {
+						final OpContext context = new OpContext();
+						for(int i = 0; i < 10000; ++i) {
+							final double x = i + offset;
+							final double y = i * 0.5;
+							context.put("x", x);
+							context.put("y", y);
+							node.operate(context);
+
+							final double result = ((Number)context.get(node.RESULT_OUTPUT_FIELD)).doubleValue();
+							if(result != 2*x + -5*(-y + 5.102*x) % 7)
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+
+			for(Future<Boolean> future : futures)
+				assertTrue(future.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Tests element-wise evaluation over arrays and lists */
+	@Test
+	public void testArrayEvaluation() throws ProcessingException {
+		Logger.getLogger(MathExpressionNode.class.getName()).setLevel(Level.WARNING);
+
+		final MathExpressionNode node = new MathExpressionNode("x*y - z % 3");
+		final OpContext context = new OpContext();
+
+		final double [] x = new double[1000];
+		final ArrayList<Integer> z = new ArrayList<Integer>();
+		for(int i = 0; i < x.length; ++i) {
+			x[i] = i * 0.25;
+			z.add(i);
+		}
+
+		context.put("x", x);
+		context.put("y", 2.5);
+		context.put("z", z);
+		node.operate(context);
+
+		final double [] results = (double[])context.get(node.RESULTS_OUTPUT_FIELD);
+		assertEquals(x.length, results.length);
+		for(int i = 0; i < x.length; ++i)
+			assertEquals(x[i]*2.5 - z.get(i) % 3, results[i], 1e-10);
+
+		// Rounding doesn't modify inputs
+		node.setExpression("x");
+		node.setSignificantDigits(0);
+		node.operate(context);
+		assertEquals(0.25, x[1], 0.0);
+		assertEquals(0.0, ((double[])context.get(node.RESULTS_OUTPUT_FIELD))[1], 0.0);
+
+		// Primitive lists
+		node.setExpression("x + z");
+		node.setSignificantDigits(-1);
+		context.put("x", new DoubleArrayList(x));
+		context.put("z", new IntArrayList(new int[]{1, 2, 3}));
+		try {
+			node.operate(context);
+			fail("Arrays of different lengths should fail");
+		} catch(ProcessingException exc) {}
+
+		context.put("x", new DoubleArrayList(new double[]{0.5, 1.5, 2.5}));
+		node.operate(context);
+		assertArrayEquals(new double[]{1.5, 3.5, 5.5}, (double[])context.get(node.RESULTS_OUTPUT_FIELD), 1e-10);
+
+		// Ranges
+		context.put("x", new IntRangeList(1, 5, 2));
+		context.put("z", new LongRangeList(30, 10, -10));
+		node.operate(context);
+		assertArrayEquals(new double[]{31.0, 23.0, 15.0}, (double[])context.get(node.RESULTS_OUTPUT_FIELD), 1e-10);
+	}
+
+	/** Tests evaluation of chunks of elements, as given by a for each node */
+	@Test
+	public void testBatchEvaluation() throws ProcessingException {
+		Logger.getLogger(MathExpressionNode.class.getName()).setLevel(Level.WARNING);
+
+		final MathExpressionNode node = new MathExpressionNode("x*y + 1");
+		final OpContext context = new OpContext();
+		context.put("x", Arrays.asList(1, 2.5, 3));
+		context.put("y", new IntArrayList(new int[]{2, 4, 6}));
+		node.operateOnBatch(context, 3);
+		assertEquals(Arrays.asList(3.0, 11.0, 19.0), context.get(node.RESULT_OUTPUT_FIELD));
+
+		node.setSignificantDigits(0);
+		node.operateOnBatch(context, 3);
+		assertEquals(Arrays.<Number>asList(3L, 11L, 19L), context.get(node.RESULT_OUTPUT_FIELD));
+
+		// Ranges are columns too
+		node.setSignificantDigits(-1);
+		context.put("x", new IntRangeList(1, 3));
+		context.put("y", new LongRangeList(2, 6, 2));
+		node.operateOnBatch(context, 3);
+		assertEquals(Arrays.asList(3.0, 9.0, 19.0), context.get(node.RESULT_OUTPUT_FIELD));
+
+		// Elements that are arrays are evaluated on their own
+		node.setSignificantDigits(-1);
+		context.put("x", Arrays.asList(1, new double[]{1.0, 2.0}, 3));
+		node.operateOnBatch(context, 3);
+		assertEquals(Arrays.asList(3.0, null, 19.0), context.get(node.RESULT_OUTPUT_FIELD));
+
+		final List<?> results = (List<?>)context.get(node.RESULTS_OUTPUT_FIELD);
+		assertEquals(3, results.size());
+		assertArrayEquals(new double[]{5.0, 9.0}, (double[])results.get(1), 1e-10);
+	}
+
+	/** Tests that arrays of different lengths are rejected */
+	@Test(expected=ProcessingException.class)
+	public void testArrayLengthMismatch() throws ProcessingException {
+		Logger.getLogger(MathExpressionNode.class.getName()).setLevel(Level.WARNING);
+
+		final MathExpressionNode node = new MathExpressionNode("x + y");
+		final OpContext context = new OpContext();
+		context.put("x", new double[3]);
+		context.put("y", new double[4]);
+		node.operate(context);
+	}
+
+	/**
+	 * Compiles an expression.
+	 * 
+	 * @param expression  the expression
+	 * @param optimize  if <code>true</code>, optimize the expression
+	 * 
+	 * @return the compiled expression
+	 */
+	static CompiledExpression compile(String expression, boolean optimize) throws RecognitionException {
+		final MathExpressionParser parser = new MathExpressionParser(new CommonTokenStream(new MathExpressionLexer(new ANTLRStringStream(expression))));
+		final Tree tree = (Tree)parser.prog().getTree();
+		return CompiledExpression.compile(tree, parser.getVariables(), optimize);
+	}
+
+	/** Tests constant folding, identities and common subexpressions */
+	@Test
+	public void testOptimization() throws RecognitionException {
+		assertEquals("(+ 6.0 $0)", compile("2*3 + x*1", true).toString());
+		assertEquals("$0", compile("-(-(x)) / 1 - 0", true).toString());
+		assertEquals("(- $0)", compile("0 - x*-1*-1", true).toString());
+		assertEquals("(+ (* #2=(+ $0 $1) #2) #2)", compile("(x+y)*(x+y) + (x+y)", true).toString());
+		assertEquals("(* (+ $0 $1) (+ $0 $1))", compile("(x+y)*(x+y)", false).toString());
+
+		// Optimized expressions give the same values, including for NaN and infinities
+		final String [] expressions = {
+			"(x+y)*(x+y) + (x+y) % (x+y)",
+			"2*x + -5*(-y + 5.102*x) - (2*x + 0)",
+			"x*0 + y/1 - (x - x) + 1.5*2",
+			"((x*y)/(x*y)) * -(-(x*y))"
+		};
+		final double [] samples = {0.0, -3.5, 7.25, Double.NaN, Double.POSITIVE_INFINITY};
+		for(String expression : expressions) {
+			final CompiledExpression plain = compile(expression, false);
+			final CompiledExpression optimized = compile(expression, true);
+			for(double x : samples) {
+				for(double y : samples) {
+					final double [] plainValues = {x, y};
+					final double [] optimizedValues = new double[optimized.getSlotCount()];
+					optimizedValues[0] = x;
+					optimizedValues[1] = y;
+
+					final double expected = plain.evaluate(plainValues);
+					final double actual = optimized.evaluate(optimizedValues);
+					assertTrue(expression, expected == actual || (Double.isNaN(expected) && Double.isNaN(actual)));
+				}
+			}
+		}
+	}
 }
@@ -20,10 +20,23 @@ package ca.gedge.opgraph.nodes.random;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.junit.Test;
 
+import ca.gedge.opgraph.InputField;
 import ca.gedge.opgraph.OpContext;
+import ca.gedge.opgraph.OpGraph;
+import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.Processor;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.nodes.general.MacroNode;
+import ca.gedge.opgraph.nodes.iteration.ForEachNode;
 
 /**
  * Test nodes in {@link ca.gedge.opgraph.nodes.random}.
@@ -101,4 +114,198 @@ public class TestRandomNodes {
 			assertEquals("Output value is correct length", LENGTH, context.get(node.VALUE_OUTPUT).toString().length());
 		}
 	}
+
+	@Test
+	public void testSeededValues() throws ProcessingException {
+		final RandomDecimalNode node = new RandomDecimalNode();
+		final OpContext context = new OpContext();
+		context.put(node.SEED_INPUT, 42);
+
+		node.operate(context);
+		final Object first = context.get(node.VALUE_OUTPUT);
+
+		node.operate(context);
+		assertEquals("Same seed gives same value", first, context.get(node.VALUE_OUTPUT));
+
+		// A copy of the node with the same id generates the same values
+		final RandomDecimalNode copy = new RandomDecimalNode();
+		copy.setId(node.getId());
+		copy.operate(context);
+		assertEquals("Same node id gives same value", first, context.get(copy.VALUE_OUTPUT));
+
+		context.put(node.SEED_INPUT, 43);
+		node.operate(context);
+		assertFalse("Different seed gives different value", first.equals(context.get(node.VALUE_OUTPUT)));
+	}
+
+	/**
+	 * Runs a for each node around a seeded random integer node.
+	 * 
+	 * @param iterations  the number of iterations
+	 * @param parallelism  the parallelism of the for each node
+	 * 
+	 * @return the output list
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static List<?> runSeededForEach(int iterations, int parallelism) throws ProcessingException {
+		final RandomIntegerNode node = new RandomIntegerNode();
+		node.setId("random");
+
+		final OpGraph inner = new OpGraph();
+		inner.add(node);
+
+		final ForEachNode forEach = new ForEachNode(inner);
+		forEach.setId("forEach");
+		forEach.setParallelism(parallelism);
+		final InputField input = forEach.publish("seed", node, node.SEED_INPUT);
+		final OutputField output = forEach.publish("value", node, node.VALUE_OUTPUT);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(forEach);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(forEach).put(input, Collections.nCopies(iterations, 7));
+		return (List<?>)process(graph, context).getChildContext(forEach).get(output);
+	}
+
+	/**
+	 * Processes a graph, failing on any error.
+	 * 
+	 * @param graph  the graph
+	 * @param context  the operating context
+	 * 
+	 * @return the operating context
+	 * 
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	private static OpContext process(OpGraph graph, OpContext context) throws ProcessingException {
+		final Processor processor = new Processor(graph, context);
+		processor.stepAll();
+		if(processor.getError() != null)
+			throw processor.getError();
+		return context;
+	}
+
+	@Test
+	public void testSeededIterations() throws ProcessingException {
+		// Iterations generate the same values regardless of the order they run in
+		final List<?> serial = runSeededForEach(200, 1);
+		final List<?> parallel = runSeededForEach(200, 4);
+		assertEquals("Iteration values are reproducible", serial, parallel);
+		assertEquals("Iteration values are distinct", serial.size(), new HashSet<Object>(serial).size());
+	}
+
+	@Test
+	public void testSeededNestedIterations() throws ProcessingException {
+		final RandomIntegerNode node = new RandomIntegerNode();
+
+		final OpGraph innerGraph = new OpGraph();
+		innerGraph.add(node);
+
+		final ForEachNode inner = new ForEachNode(innerGraph);
+		final InputField innerInput = inner.publish("seed", node, node.SEED_INPUT);
+		final OutputField innerOutput = inner.publish("value", node, node.VALUE_OUTPUT);
+
+		final OpGraph outerGraph = new OpGraph();
+		outerGraph.add(inner);
+
+		final ForEachNode outer = new ForEachNode(outerGraph);
+		final InputField outerInput = outer.publish("seed", inner, innerInput);
+		final OutputField outerOutput = outer.publish("value", inner, innerOutput);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(outer);
+
+		final List<List<Integer>> seeds = new ArrayList<List<Integer>>();
+		for(int iteration = 0; iteration < 10; ++iteration)
+			seeds.add(Collections.nCopies(10, 7));
+
+		final OpContext context = new OpContext();
+		context.getChildContext(outer).put(outerInput, seeds);
+
+		final Set<Object> values = new HashSet<Object>();
+		for(Object list : (List<?>)process(graph, context).getChildContext(outer).get(outerOutput))
+			values.addAll((List<?>)list);
+
+		assertEquals("Outer iterations have different values", 100, values.size());
+	}
+
+	@Test
+	public void testSeededSharedMacros() throws ProcessingException {
+		final RandomIntegerNode node = new RandomIntegerNode();
+
+		final OpGraph shared = new OpGraph();
+		shared.add(node);
+
+		final MacroNode first = new MacroNode(shared);
+		final InputField firstInput = first.publish("seed", node, node.SEED_INPUT);
+		final OutputField firstOutput = first.publish("value", node, node.VALUE_OUTPUT);
+
+		final MacroNode second = new MacroNode(shared);
+		final InputField secondInput = second.publish("seed", node, node.SEED_INPUT);
+		final OutputField secondOutput = second.publish("value", node, node.VALUE_OUTPUT);
+
+		final OpGraph graph = new OpGraph();
+		graph.add(first);
+		graph.add(second);
+
+		final OpContext context = new OpContext();
+		context.getChildContext(first).put(firstInput, 7);
+		context.getChildContext(second).put(secondInput, 7);
+		process(graph, context);
+
+		final Object firstValue = context.getChildContext(first).get(firstOutput);
+		final Object secondValue = context.getChildContext(second).get(secondOutput);
+		assertNotNull("Macro has a value", firstValue);
+		assertFalse("Macro instances have different values", firstValue.equals(secondValue));
+	}
+
+	@Test
+	public void testBulkValues() throws ProcessingException {
+		final RandomIntegerNode integerNode = new RandomIntegerNode();
+		final OpContext context = new OpContext();
+		context.put(integerNode.MIN_INPUT, -3);
+		context.put(integerNode.MAX_INPUT, 3);
+		context.put(integerNode.COUNT_INPUT, 1000);
+		integerNode.operate(context);
+
+		final int [] integers = (int[])context.get(integerNode.VALUES_OUTPUT);
+		assertEquals("Correct number of values", 1000, integers.length);
+
+		boolean minSeen = false;
+		boolean maxSeen = false;
+		for(int value : integers) {
+			assertTrue("Value in range", value >= -3 && value <= 3);
+			minSeen |= (value == -3);
+			maxSeen |= (value == 3);
+		}
+		assertTrue("Bounds are inclusive", minSeen && maxSeen);
+
+		final RandomDecimalNode decimalNode = new RandomDecimalNode();
+		context.put(decimalNode.SEED_INPUT, 1);
+		decimalNode.operate(context);
+
+		final double [] decimals = (double[])context.get(decimalNode.VALUES_OUTPUT);
+		decimalNode.operate(context);
+		assertTrue("Seeded bulk values are reproducible", Arrays.equals(decimals, (double[])context.get(decimalNode.VALUES_OUTPUT)));
+
+		final RandomBooleanNode booleanNode = new RandomBooleanNode();
+		context.put(booleanNode.COUNT_INPUT, 0);
+		booleanNode.operate(context);
+		assertEquals("Empty bulk values", 0, ((boolean[])context.get(booleanNode.VALUES_OUTPUT)).length);
+
+		final RandomStringNode stringNode = new RandomStringNode();
+		context.put(stringNode.LENGTH_INPUT, 30);
+		context.put(stringNode.COUNT_INPUT, 10);
+		stringNode.operate(context);
+		for(String value : (String[])context.get(stringNode.VALUES_OUTPUT))
+			assertEquals("Bulk value is correct length", 30, value.length());
+
+		context.put(stringNode.COUNT_INPUT, -1);
+		try {
+			stringNode.operate(context);
+			fail("Negative count should fail");
+		} catch(ProcessingException exc) {}
+	}
 }
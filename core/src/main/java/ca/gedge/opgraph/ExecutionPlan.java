@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.gedge.opgraph.dag.CycleDetectedException;
+import ca.gedge.opgraph.dag.GraphSnapshot;
+import ca.gedge.opgraph.dag.VertexNotFoundException;
+import ca.gedge.opgraph.exceptions.ItemMissingException;
+import ca.gedge.opgraph.extensions.CompositeNode;
+import ca.gedge.opgraph.extensions.Inlinable;
+import ca.gedge.opgraph.extensions.Publishable;
+import ca.gedge.opgraph.extensions.Publishable.PublishedInput;
+import ca.gedge.opgraph.extensions.Publishable.PublishedOutput;
+
+/**
+ * A graph to process in which nodes with the {@link Inlinable} extension are
+ * replaced by their internal nodes, recursively. Links to and from published
+ * fields are rewired to link directly to and from the internal fields.
+ * 
+ * Internal nodes keep their usual contexts, nested in the contexts of the
+ * nodes they were inlined from. Values put directly into the context of an
+ * inlined node for a published input are still mapped to the internal node,
+ * and values of published outputs are still mapped back into the context of
+ * the inlined node, so the contexts look the same as without inlining.
+ * 
+ * The internal graph of a node is only inlined once per plan. Any other node
+ * sharing the same graph is processed as usual, since every internal node
+ * can only have one place in the plan.
+ */
+final class ExecutionPlan {
+	/**
+	 * Maps a field in the context of an inlined node to a field in the
+	 * context of one of its internal nodes.
+	 */
+	private static final class Boundary {
+		public final OpNode outer;
+		public final ContextualItem outerField;
+		public final OpNode inner;
+		public final ContextualItem innerField;
+
+		public Boundary(OpNode outer, ContextualItem outerField, OpNode inner, ContextualItem innerField) {
+			this.outer = outer;
+			this.outerField = outerField;
+			this.inner = inner;
+			this.innerField = innerField;
+		}
+	}
+
+	/** The flattened graph */
+	private final GraphSnapshot<OpNode, OpLink> graph;
+
+	/** Nodes that were inlined */
+	private final Map<OpNode, Boolean> inlined = new IdentityHashMap<OpNode, Boolean>();
+
+	/** Internal graphs of the nodes that were inlined */
+	private final Map<OpGraph, Boolean> inlinedGraphs = new IdentityHashMap<OpGraph, Boolean>();
+
+	/** For nodes inside inlined nodes, the inlined nodes containing them, outermost first */
+	private final Map<OpNode, List<OpNode>> paths = new IdentityHashMap<OpNode, List<OpNode>>();
+
+	/** Published inputs, by the internal node they map to */
+	private final Map<OpNode, List<Boundary>> inputs = new IdentityHashMap<OpNode, List<Boundary>>();
+
+	/** Published outputs, by the internal node they map from */
+	private final Map<OpNode, List<Boundary>> outputs = new IdentityHashMap<OpNode, List<Boundary>>();
+
+	/**
+	 * Constructs a plan for a given graph.
+	 * 
+	 * @param snapshot  the graph
+	 */
+	public ExecutionPlan(GraphSnapshot<OpNode, OpLink> snapshot) {
+		final ArrayList<OpNode> vertices = new ArrayList<OpNode>();
+		final ArrayList<OpLink> links = new ArrayList<OpLink>();
+		flatten(snapshot, Collections.<OpNode>emptyList(), vertices, links);
+
+		final ArrayList<OpLink> edges = new ArrayList<OpLink>(links.size());
+		for(OpLink link : links)
+			edges.add(rewire(link));
+
+		try {
+			this.graph = new GraphSnapshot<OpNode, OpLink>(vertices, edges);
+		} catch(VertexNotFoundException exc) {
+			throw new IllegalStateException(exc);
+		} catch(CycleDetectedException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	/**
+	 * Gets the flattened graph.
+	 * 
+	 * @return the graph
+	 */
+	public GraphSnapshot<OpNode, OpLink> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Gets the context of a node, creating it if necessary.
+	 * 
+	 * @param global  the global context
+	 * @param node  the node
+	 * 
+	 * @return the node's context
+	 */
+	public OpContext getContext(OpContext global, OpNode node) {
+		OpContext context = global;
+		final List<OpNode> path = paths.get(node);
+		if(path != null) {
+			for(OpNode outer : path)
+				context = context.getChildContext(outer);
+		}
+		return context.getChildContext(node);
+	}
+
+	/**
+	 * Maps values put into the contexts of inlined nodes for published inputs
+	 * to the context of a given node.
+	 * 
+	 * @param global  the global context
+	 * @param node  the node
+	 */
+	public void mapInputs(OpContext global, OpNode node) {
+		final List<Boundary> boundaries = inputs.get(node);
+		if(boundaries != null) {
+			for(Boundary boundary : boundaries) {
+				// Outer inlined nodes map into the inlined node first
+				mapInputs(global, boundary.outer);
+
+				final OpContext outerContext = getContext(global, boundary.outer);
+				if(outerContext.containsKey(boundary.outerField)) {
+					final OpContext innerContext = getContext(global, boundary.inner);
+					innerContext.put(boundary.innerField, outerContext.get(boundary.outerField));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps the outputs of a given node to the published outputs in the
+	 * contexts of the inlined nodes containing it.
+	 * 
+	 * @param global  the global context
+	 * @param node  the node
+	 */
+	public void mapOutputs(OpContext global, OpNode node) {
+		mapOutputs(global, node, null);
+	}
+
+	/**
+	 * Maps the outputs of a given node to the published outputs in the
+	 * contexts of the inlined nodes containing it.
+	 * 
+	 * @param global  the global context
+	 * @param node  the node
+	 * @param field  the only field to map, or <code>null</code> to map all fields
+	 */
+	private void mapOutputs(OpContext global, OpNode node, ContextualItem field) {
+		final List<Boundary> boundaries = outputs.get(node);
+		if(boundaries != null) {
+			for(Boundary boundary : boundaries) {
+				if(field != null && boundary.innerField != field)
+					continue;
+
+				final OpContext innerContext = getContext(global, boundary.inner);
+				if(innerContext.containsKey(boundary.innerField)) {
+					getContext(global, boundary.outer).put(boundary.outerField, innerContext.get(boundary.innerField));
+
+					// The inlined node may itself be inside an inlined node
+					mapOutputs(global, boundary.outer, boundary.outerField);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the nodes and links of a graph to a plan, inlining nodes as necessary.
+	 * 
+	 * @param snapshot  the graph
+	 * @param path  the inlined nodes containing the graph, outermost first
+	 * @param vertices  the list to add nodes to
+	 * @param links  the list to add links to
+	 */
+	private void flatten(GraphSnapshot<OpNode, OpLink> snapshot,
+	                     List<OpNode> path,
+	                     List<OpNode> vertices,
+	                     List<OpLink> links)
+	{
+		for(int id = 0; id < snapshot.getVertexCount(); ++id) {
+			final OpNode node = snapshot.getVertex(id);
+			if(!path.isEmpty())
+				paths.put(node, path);
+
+			if(canInline(snapshot, id) && !inlinedGraphs.containsKey(node.getExtension(CompositeNode.class).getGraph())) {
+				inlined.put(node, Boolean.TRUE);
+
+				final Publishable publishable = node.getExtension(Publishable.class);
+				for(PublishedInput publishedInput : publishable.getPublishedInputs())
+					addBoundary(inputs, publishedInput.destinationNode, new Boundary(node, publishedInput, publishedInput.destinationNode, publishedInput.nodeInputField));
+
+				for(PublishedOutput publishedOutput : publishable.getPublishedOutputs())
+					addBoundary(outputs, publishedOutput.sourceNode, new Boundary(node, publishedOutput, publishedOutput.sourceNode, publishedOutput.nodeOutputField));
+
+				final ArrayList<OpNode> innerPath = new ArrayList<OpNode>(path);
+				innerPath.add(node);
+
+				final OpGraph graph = node.getExtension(CompositeNode.class).getGraph();
+				inlinedGraphs.put(graph, Boolean.TRUE);
+				flatten(graph.getSnapshot(), innerPath, vertices, links);
+			} else {
+				vertices.add(node);
+			}
+		}
+
+		links.addAll(snapshot.getEdges());
+	}
+
+	/**
+	 * Gets whether or not a node can be inlined. A node can be inlined if it
+	 * has all of the required extensions, and every link to and from it is
+	 * connected to a published field.
+	 * 
+	 * @param snapshot  the graph containing the node
+	 * @param id  the node's id in the given graph
+	 * 
+	 * @return <code>true</code> if the node can be inlined, <code>false</code> otherwise
+	 */
+	private static boolean canInline(GraphSnapshot<OpNode, OpLink> snapshot, int id) {
+		final OpNode node = snapshot.getVertex(id);
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		final Publishable publishable = node.getExtension(Publishable.class);
+		if(node.getExtension(Inlinable.class) == null || composite == null || publishable == null || composite.getGraph() == null)
+			return false;
+
+		for(int index = 0; index < snapshot.getInDegree(id); ++index) {
+			if(!containsIdentical(publishable.getPublishedInputs(), snapshot.getIncomingEdge(id, index).getDestinationField()))
+				return false;
+		}
+
+		for(int index = 0; index < snapshot.getOutDegree(id); ++index) {
+			if(!containsIdentical(publishable.getPublishedOutputs(), snapshot.getOutgoingEdge(id, index).getSourceField()))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets whether or not a list contains a given object, compared by identity.
+	 * Fields are compared by key with {@link Object#equals(Object)}, which
+	 * isn't enough to tell a published field from a node's own field.
+	 * 
+	 * @param list  the list
+	 * @param obj  the object
+	 * 
+	 * @return <code>true</code> if the list contains the object, <code>false</code> otherwise
+	 */
+	private static boolean containsIdentical(List<?> list, Object obj) {
+		for(Object element : list) {
+			if(element == obj)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Rewires a link so that it doesn't connect to any inlined nodes.
+	 * 
+	 * @param link  the link
+	 * 
+	 * @return the rewired link, or the given link if it needs no rewiring
+	 */
+	private OpLink rewire(OpLink link) {
+		OpNode source = link.getSource();
+		OutputField sourceField = link.getSourceField();
+		while(inlined.containsKey(source)) {
+			final PublishedOutput publishedOutput = (PublishedOutput)sourceField;
+			source = publishedOutput.sourceNode;
+			sourceField = publishedOutput.nodeOutputField;
+		}
+
+		OpNode destination = link.getDestination();
+		InputField destinationField = link.getDestinationField();
+		while(inlined.containsKey(destination)) {
+			final PublishedInput publishedInput = (PublishedInput)destinationField;
+			destination = publishedInput.destinationNode;
+			destinationField = publishedInput.nodeInputField;
+		}
+
+		if(source == link.getSource() && destination == link.getDestination())
+			return link;
+
+		try {
+			return new OpLink(source, sourceField, destination, destinationField);
+		} catch(ItemMissingException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	/**
+	 * Adds a boundary to a mapping.
+	 * 
+	 * @param map  the mapping
+	 * @param node  the node to add the boundary for
+	 * @param boundary  the boundary
+	 */
+	private static void addBoundary(Map<OpNode, List<Boundary>> map, OpNode node, Boundary boundary) {
+		List<Boundary> boundaries = map.get(node);
+		if(boundaries == null) {
+			boundaries = new ArrayList<Boundary>();
+			map.put(node, boundaries);
+		}
+		boundaries.add(boundary);
+	}
+}
@@ -18,6 +18,7 @@
  */
 package ca.gedge.opgraph;
 
+import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,6 +37,9 @@ public final class OpContext extends HashMap<String, Object> {
 	/** The child contexts */
 	private WeakHashMap<OpNode, OpContext> childContexts;
 
+	/** The node this context was created for, if it is a child context */
+	private WeakReference<OpNode> node;
+
 	/**
 	 * Constructs a global context (i.e., no parent context).
 	 */
@@ -61,6 +65,17 @@ public final class OpContext extends HashMap<String, Object> {
 		return parent;
 	}
 
+	/**
+	 * Gets the node this context was created for by
+	 * {@link #getChildContext(OpNode)}.
+	 * 
+	 * @return the node, or <code>null</code> if this context was not created
+	 *         for a node
+	 */
+	public OpNode getNode() {
+		return (node == null ? null : node.get());
+	}
+
 	/**
 	 * Finds a context for the specified node. This is a deep operation which
 	 * will recursively search through all child contexts to find one for the
@@ -117,8 +132,11 @@ public final class OpContext extends HashMap<String, Object> {
 		if(childContexts == null)
 			childContexts = new WeakHashMap<OpNode, OpContext>();
 
-		if(!childContexts.containsKey(node))
-			childContexts.put(node, new OpContext(this));
+		if(!childContexts.containsKey(node)) {
+			final OpContext context = new OpContext(this);
+			context.node = new WeakReference<OpNode>(node);
+			childContexts.put(node, context);
+		}
 
 		return childContexts.get(node);
 	}
@@ -155,11 +173,25 @@ public final class OpContext extends HashMap<String, Object> {
 		return results;
 	}
 
+	/**
+	 * Gets the value mapped to a key in this context, without looking at
+	 * the parent context.
+	 * 
+	 * @param key  the key
+	 * 
+	 * @return the value, or <code>null</code> if this context does not
+	 *         itself map the key
+	 */
+	public Object getLocal(String key) {
+		return super.get(key);
+	}
+
 	/**
 	 * Removes all child contexts in this context.
 	 */
 	public void clearChildContexts() {
-		childContexts.clear();
+		if(childContexts != null)
+			childContexts.clear();
 	}
 
 	//
@@ -20,11 +20,19 @@ package ca.gedge.opgraph;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import ca.gedge.opgraph.dag.CycleDetectedException;
 import ca.gedge.opgraph.dag.DirectedAcyclicGraph;
+import ca.gedge.opgraph.dag.GraphSnapshot;
 import ca.gedge.opgraph.dag.VertexNotFoundException;
 import ca.gedge.opgraph.exceptions.ItemMissingException;
 import ca.gedge.opgraph.extensions.CompositeNode;
@@ -48,11 +56,47 @@ public final class OpGraph
 	/** A mapping from node id to node */
 	private Map<String, OpNode> nodeMap;
 
+	/**
+	 * A hierarchical index of node ids. Maps the id of every node in this
+	 * graph, or in the graph of a composite node in this graph (recursively),
+	 * to the graph where the lookup continues: this graph for nodes in this
+	 * graph, otherwise the graph of the composite node containing the node.
+	 * If an id can be reached along several routes, such as through a graph
+	 * shared by several composite nodes, the route indexed first is kept
+	 * until it goes away, at which point a remaining route takes its place.
+	 */
+	private Map<String, OpGraph> idRoutes;
+
+	/**
+	 * The graphs containing a composite node whose graph is this graph,
+	 * mapped to the number of such composite nodes in each graph
+	 */
+	private Map<OpGraph, Integer> parentGraphs;
+
+	/**
+	 * The graphs of composite nodes in this graph, in the order they were
+	 * first added. Each graph in this set has this graph in its
+	 * {@link #parentGraphs}, along with the number of composite nodes.
+	 */
+	private Set<OpGraph> childGraphs;
+
+	/**
+	 * The immutable snapshot of the latest version of this graph, or
+	 * <code>null</code> if no snapshot has been requested.
+	 */
+	private volatile GraphSnapshot<OpNode, OpLink> snapshot;
+
+	/** The modification count of this graph when {@link #snapshot} was built */
+	private int snapshotModificationCount;
+
 	/**
 	 * Default constructor.
 	 */
 	public OpGraph() {
 		this.nodeMap = new HashMap<String, OpNode>();
+		this.idRoutes = new HashMap<String, OpGraph>();
+		this.parentGraphs = new IdentityHashMap<OpGraph, Integer>();
+		this.childGraphs = new LinkedHashSet<OpGraph>();
 		setId(null);
 	}
 
@@ -74,6 +118,51 @@ public final class OpGraph
 		this.id = (id == null ? Integer.toHexString(super.hashCode()) : id);
 	}
 
+	/**
+	 * Gets an immutable snapshot of the current version of this graph. A
+	 * snapshot is never modified, so readers can hold on to it (for example,
+	 * while processing this graph) without locking, and without being
+	 * affected by edits made to this graph from another thread.
+	 * 
+	 * The first snapshot is built on request, so editing costs nothing extra
+	 * while no one asks for snapshots. From then on, a new snapshot is built
+	 * and published while applying each change (or at the end of each batch
+	 * of changes, see {@link #beginBatch()}), under the same lock as the
+	 * change itself. Hence, only the very first request takes a lock, and
+	 * requests made during a batch see the version from before the batch.
+	 * 
+	 * Note that only the structure of this graph is versioned. Changes to
+	 * the nodes themselves, such as their fields, are visible to all
+	 * snapshots.
+	 * 
+	 * @return the snapshot
+	 */
+	public GraphSnapshot<OpNode, OpLink> getSnapshot() {
+		GraphSnapshot<OpNode, OpLink> ret = snapshot;
+		if(ret == null) {
+			synchronized(this) {
+				ret = snapshot;
+				if(ret == null) {
+					snapshotModificationCount = getModificationCount();
+					snapshot = ret = new GraphSnapshot<OpNode, OpLink>(this);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Publishes a new snapshot if one has been requested before, this graph
+	 * changed since the current one was built, and no batch is in progress.
+	 * Must be called while holding this graph's lock.
+	 */
+	private void publishSnapshot() {
+		if(snapshot != null && batchDepth == 0 && snapshotModificationCount != getModificationCount()) {
+			snapshotModificationCount = getModificationCount();
+			snapshot = new GraphSnapshot<OpNode, OpLink>(this);
+		}
+	}
+
 	//
 	// Helper methods
 	//
@@ -99,8 +188,12 @@ public final class OpGraph
 
 	/**
 	 * Finds a node and its parent graph by id. This is a deep operation,
-	 * and hence will recursively search through macro nodes to find the
-	 * node with the given id. 
+	 * and hence will search through macro nodes to find the node with the
+	 * given id. A hierarchical index is maintained, so this operation takes
+	 * time proportional to the nesting depth of the node.
+	 * <p>
+	 * A node in a graph shared by several composite nodes is found along the
+	 * first route indexed for its id (see {@link #getGraphPath(String)}).
 	 * 
 	 * @param id  the id of the node
 	 * 
@@ -108,26 +201,173 @@ public final class OpGraph
 	 *          exists anywhere in this graph or its macros
 	 */
 	protected Pair<OpGraph, OpNode> findNodeById(String id) {
-		Pair<OpGraph, OpNode> ret = null;
-		if(nodeMap.containsKey(id)) {
-			final OpNode node = nodeMap.get(id);
-			if(node != null) {
-				ret = new Pair<OpGraph, OpNode>(this, node);
+		final List<OpGraph> path = getGraphPath(id);
+		if(path == null)
+			return null;
+
+		final OpGraph owner = path.get(path.size() - 1);
+		return new Pair<OpGraph, OpNode>(owner, owner.nodeMap.get(id));
+	}
+
+	/**
+	 * Gets the path of graphs leading to the node with a given id. The path
+	 * starts with this graph, and each subsequent graph is the graph of a
+	 * composite node in the previous graph. The last graph in the path is
+	 * the graph which directly contains the node.
+	 * <p>
+	 * Graphs are only listed once in the path, even when shared by several
+	 * composite nodes. If the node can be reached along more than one path,
+	 * the path through the route which was indexed first is returned, which
+	 * is normally the composite node added first. Nodes directly contained
+	 * in a graph always take precedence over nodes in its composite nodes.
+	 * 
+	 * @param id  the id of the node
+	 * 
+	 * @return the path of graphs, or <code>null</code> if no such node exists
+	 *         anywhere in this graph or its macros
+	 */
+	public List<OpGraph> getGraphPath(String id) {
+		final ArrayList<OpGraph> path = new ArrayList<OpGraph>();
+		OpGraph graph = this;
+		while(graph != null) {
+			path.add(graph);
+
+			final OpGraph route = graph.idRoutes.get(id);
+			if(route == graph)
+				return (graph.nodeMap.containsKey(id) ? path : null);
+
+			graph = route;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an id to the hierarchical index of this graph, and its parents.
+	 * An existing route for the id is kept, unless the id belongs to a node
+	 * in this graph.
+	 * 
+	 * @param id  the node id
+	 * @param route  the graph in which the lookup continues
+	 */
+	private void indexId(String id, OpGraph route) {
+		if(!idRoutes.containsKey(id)) {
+			idRoutes.put(id, route);
+			for(OpGraph parent : parentGraphs.keySet())
+				parent.indexId(id, this);
+		} else if(route == this) {
+			// Parents already route this id here
+			idRoutes.put(id, route);
+		}
+	}
+
+	/**
+	 * Removes a route for an id from the hierarchical index of this graph. If
+	 * the id can still be reached along another route, that route replaces
+	 * the removed one, otherwise the id is also removed from the parents.
+	 * 
+	 * @param id  the node id
+	 * @param route  the graph in which the lookup continued
+	 */
+	private void unindexId(String id, OpGraph route) {
+		if(idRoutes.get(id) == route) {
+			final OpGraph alternateRoute = findRoute(id);
+			if(alternateRoute == null) {
+				idRoutes.remove(id);
+				for(OpGraph parent : parentGraphs.keySet())
+					parent.unindexId(id, this);
 			} else {
-				nodeMap.remove(id);
+				idRoutes.put(id, alternateRoute);
 			}
+		}
+	}
+
+	/**
+	 * Finds a route for an id among the nodes currently in this graph,
+	 * preferring nodes in this graph over the graphs of composite nodes,
+	 * which are tried in the order they were added. Only the indices of
+	 * this graph and its child graphs are consulted, so this takes time
+	 * proportional to the number of distinct child graphs.
+	 * 
+	 * @param id  the node id
+	 * 
+	 * @return the graph in which the lookup continues, or <code>null</code>
+	 *         if no node in this graph or its composite nodes has the id
+	 */
+	private OpGraph findRoute(String id) {
+		if(nodeMap.containsKey(id))
+			return this;
+
+		for(OpGraph child : childGraphs) {
+			if(child.idRoutes.containsKey(id))
+				return child;
+		}
+		return null;
+	}
+
+	/**
+	 * Registers the graph of a composite node in this graph.
+	 * 
+	 * @param child  the graph of the composite node
+	 */
+	private void attachGraph(OpGraph child) {
+		final Integer count = child.parentGraphs.get(this);
+		if(count == null) {
+			child.parentGraphs.put(this, 1);
+			childGraphs.add(child);
+			for(String id : child.idRoutes.keySet())
+				indexId(id, child);
 		} else {
-			// Try searching through composite nodes
-			for(OpNode node : getVertices()) {
-				final CompositeNode composite = node.getExtension(CompositeNode.class);
-				if(composite != null) {
-					ret = composite.getGraph().findNodeById(id);
-					if(ret != null)
-						break;
-				}
-			}
+			child.parentGraphs.put(this, count + 1);
 		}
-		return ret;
+	}
+
+	/**
+	 * Unregisters the graph of a composite node in this graph.
+	 * 
+	 * @param child  the graph of the composite node
+	 */
+	private void detachGraph(OpGraph child) {
+		final Integer count = child.parentGraphs.get(this);
+
+		// A shared graph may still be in another composite node of this graph
+		if(count != null && count > 1) {
+			child.parentGraphs.put(this, count - 1);
+		} else if(count != null) {
+			child.parentGraphs.remove(this);
+			childGraphs.remove(child);
+			for(String id : child.idRoutes.keySet())
+				unindexId(id, child);
+		}
+	}
+
+	/**
+	 * Registers a node that was added to this graph.
+	 * 
+	 * @param node  the node
+	 */
+	private void attachNode(OpNode node) {
+		node.addNodeListener(nodeListener);
+		nodeMap.put(node.getId(), node);
+		indexId(node.getId(), this);
+
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		if(composite != null && composite.getGraph() != null)
+			attachGraph(composite.getGraph());
+	}
+
+	/**
+	 * Unregisters a node that was removed from this graph.
+	 * 
+	 * @param node  the node
+	 */
+	private void detachNode(OpNode node) {
+		node.removeNodeListener(nodeListener);
+		nodeMap.remove(node.getId());
+		unindexId(node.getId(), this);
+
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		if(composite != null && composite.getGraph() != null)
+			detachGraph(composite.getGraph());
 	}
 
 	/**
@@ -204,12 +444,14 @@ public final class OpGraph
 	@Override
 	public void add(OpNode node) {
 		if(node != null && node.getId() != null) {
-			if(nodeMap.containsKey(node)) {
+			if(contains(node)) {
 				// XXX What to do if node with that id already exists? 
 			} else {
-				super.add(node);
-				node.addNodeListener(nodeListener);
-				nodeMap.put(node.getId(), node);
+				synchronized(this) {
+					super.add(node);
+					publishSnapshot();
+				}
+				attachNode(node);
 				fireNodeAdded(node);
 			}
 		}
@@ -217,30 +459,100 @@ public final class OpGraph
 
 	@Override
 	public boolean remove(OpNode node) {
-		final boolean removed = super.remove(node);
-		if(removed) {
-			node.removeNodeListener(nodeListener);
-			nodeMap.remove(node.getId());
-			fireNodeRemoved(node);
+		// Links removed along with the node are delivered in the same batch
+		beginBatch();
+		try {
+			final boolean removed;
+			synchronized(this) {
+				removed = super.remove(node);
+			}
+
+			if(removed) {
+				detachNode(node);
+				fireNodeRemoved(node);
+			}
+			return removed;
+		} finally {
+			endBatch();
 		}
-		return removed;
 	}
 
 	@Override
 	public void add(OpLink link) throws VertexNotFoundException, CycleDetectedException {
-		super.add(link);
+		synchronized(this) {
+			super.add(link);
+			publishSnapshot();
+		}
+
 		if(link != null)
 			fireLinkAdded(link);
 	}
 
 	@Override
 	public boolean remove(OpLink link) {
-		final boolean removed = super.remove(link);
+		final boolean removed;
+		synchronized(this) {
+			removed = super.remove(link);
+			publishSnapshot();
+		}
+
 		if(removed)
 			fireLinkRemoved(link);
 		return removed;
 	}
 
+	/**
+	 * Adds a collection of nodes and links to this graph. Acyclicity is only
+	 * checked once, after all nodes and links have been inserted, and
+	 * listeners are notified in a single batch only after the whole collection
+	 * has been added.
+	 * Either all of the given nodes and links are added, or none of them are.
+	 * 
+	 * @param nodes  the nodes to add
+	 * @param links  the links to add, which may reference nodes in either this
+	 *               graph or <code>nodes</code>
+	 * 
+	 * @throws VertexNotFoundException  if a link references a node that is not
+	 *                                  contained within this graph or the given
+	 *                                  collection of nodes
+	 * @throws CycleDetectedException  if adding the links will induce a cycle
+	 */
+	@Override
+	public void addAll(Collection<? extends OpNode> nodes, Collection<? extends OpLink> links)
+		throws VertexNotFoundException, CycleDetectedException
+	{
+		final LinkedHashSet<OpNode> newNodes = new LinkedHashSet<OpNode>();
+		for(OpNode node : nodes) {
+			if(node != null && node.getId() != null && !contains(node))
+				newNodes.add(node);
+		}
+
+		final LinkedHashSet<OpLink> newLinks = new LinkedHashSet<OpLink>();
+		for(OpLink link : links) {
+			if(!contains(link))
+				newLinks.add(link);
+		}
+
+		synchronized(this) {
+			super.addAll(newNodes, newLinks);
+			publishSnapshot();
+		}
+
+		for(OpNode node : newNodes)
+			attachNode(node);
+
+		beginBatch();
+		try {
+			for(OpNode node : newNodes)
+				fireNodeAdded(node);
+
+			for(OpLink link : newLinks)
+				fireLinkAdded(link);
+		} finally {
+			endBatch();
+		}
+	}
+
 	//
 	// Extendable
 	//
@@ -288,7 +600,24 @@ public final class OpGraph
 		}
 
 		@Override
-		public void nodePropertyChanged(String propertyName, Object oldValue, Object newValue) {}
+		public void nodePropertyChanged(String propertyName, Object oldValue, Object newValue) {
+			// Keep id mappings up to date
+			if(OpNode.ID_PROPERTY.equals(propertyName)) {
+				final OpNode node = nodeMap.get(oldValue);
+				if(node != null && newValue.equals(node.getId())) {
+					nodeMap.remove(oldValue);
+					unindexId((String)oldValue, OpGraph.this);
+					nodeMap.put(node.getId(), node);
+					indexId(node.getId(), OpGraph.this);
+				}
+			} else if(CompositeNode.GRAPH_PROPERTY.equals(propertyName)) {
+				// Keep the hierarchical index up to date
+				if(oldValue != null)
+					detachGraph((OpGraph)oldValue);
+				if(newValue != null)
+					attachGraph((OpGraph)newValue);
+			}
+		}
 
 		@Override
 		public void fieldAdded(OpNode node, OutputField field) {}
@@ -301,7 +630,17 @@ public final class OpGraph
 	// Listeners
 	//
 
-	private final ArrayList<OpGraphListener> listeners = new ArrayList<OpGraphListener>();
+	/** Listeners, which can be iterated without locking while being modified */
+	private final List<OpGraphListener> listeners = new CopyOnWriteArrayList<OpGraphListener>();
+
+	/** The number of nested calls to {@link #beginBatch()} */
+	private int batchDepth;
+
+	/** Changes made during the current batch */
+	private ArrayList<OpGraphChange> pendingChanges = new ArrayList<OpGraphChange>();
+
+	/** The executor used to deliver events, or <code>null</code> to deliver them directly */
+	private volatile Executor eventExecutor;
 
 	/**
 	 * Adds a listener to this graph.
@@ -309,9 +648,7 @@ public final class OpGraph
 	 * @param listener  the listener to add
 	 */
 	public void addGraphListener(OpGraphListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 	}
 
 	/**
@@ -320,36 +657,110 @@ public final class OpGraph
 	 * @param listener  the listener to remove
 	 */
 	public void removeGraphListener(OpGraphListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the executor used to deliver events to listeners.
+	 * 
+	 * @return the executor, or <code>null</code> if events are delivered
+	 *         directly on the thread that modified this graph
+	 */
+	public Executor getEventExecutor() {
+		return eventExecutor;
+	}
+
+	/**
+	 * Sets the executor used to deliver events to listeners. Events are
+	 * submitted to the executor in the order they occur, so an executor
+	 * that runs tasks in submission order (such as a single thread, or the
+	 * AWT event dispatch thread) preserves the order of events.
+	 * 
+	 * @param eventExecutor  the executor, or <code>null</code> to deliver
+	 *                       events directly on the thread that modified
+	 *                       this graph
+	 */
+	public void setEventExecutor(Executor eventExecutor) {
+		this.eventExecutor = eventExecutor;
+	}
+
+	/**
+	 * Begins a batch of changes. Until the matching call to
+	 * {@link #endBatch()}, changes to this graph are collected rather than
+	 * delivered to listeners. Batches may be nested, in which case changes are
+	 * delivered when the outermost batch ends.
+	 */
+	public void beginBatch() {
+		++batchDepth;
+	}
+
+	/**
+	 * Ends a batch of changes, delivering the collected changes to listeners
+	 * if this is the outermost batch. Listeners implementing
+	 * {@link OpGraphBatchListener} receive all changes in a single event. 
+	 * 
+	 * @throws IllegalStateException  if there is no batch to end
+	 */
+	public void endBatch() {
+		if(batchDepth == 0)
+			throw new IllegalStateException("no batch to end");
+
+		if(--batchDepth == 0) {
+			synchronized(this) {
+				publishSnapshot();
+			}
+		}
+
+		if(batchDepth == 0 && pendingChanges.size() > 0) {
+			final List<OpGraphChange> changes = Collections.unmodifiableList(pendingChanges);
+			pendingChanges = new ArrayList<OpGraphChange>();
+			dispatch(changes, true);
 		}
 	}
 
-	private void fireNodeAdded(OpNode node) {
-		synchronized(listeners) {
-			for(OpGraphListener listener : listeners)
-				listener.nodeAdded(this, node);
+	private void fireChange(OpGraphChange change) {
+		if(batchDepth > 0) {
+			pendingChanges.add(change);
+		} else {
+			dispatch(Collections.singletonList(change), false);
 		}
 	}
 
+	private void dispatch(final List<OpGraphChange> changes, final boolean batched) {
+		final Runnable delivery = new Runnable() {
+			@Override
+			public void run() {
+				for(OpGraphListener listener : listeners) {
+					if(batched && (listener instanceof OpGraphBatchListener)) {
+						((OpGraphBatchListener)listener).graphChanged(OpGraph.this, changes);
+					} else {
+						for(OpGraphChange change : changes)
+							change.deliver(OpGraph.this, listener);
+					}
+				}
+			}
+		};
+
+		final Executor executor = eventExecutor;
+		if(executor == null)
+			delivery.run();
+		else
+			executor.execute(delivery);
+	}
+
+	private void fireNodeAdded(OpNode node) {
+		fireChange(new OpGraphChange(OpGraphChange.Type.NODE_ADDED, node));
+	}
+
 	private void fireNodeRemoved(OpNode node) {
-		synchronized(listeners) {
-			for(OpGraphListener listener : listeners)
-				listener.nodeRemoved(this, node);
-		}
+		fireChange(new OpGraphChange(OpGraphChange.Type.NODE_REMOVED, node));
 	}
 
 	private void fireLinkAdded(OpLink link) {
-		synchronized(listeners) {
-			for(OpGraphListener listener : listeners)
-				listener.linkAdded(this, link);
-		}
+		fireChange(new OpGraphChange(OpGraphChange.Type.LINK_ADDED, link));
 	}
 
 	private void fireLinkRemoved(OpLink link) {
-		synchronized(listeners) {
-			for(OpGraphListener listener : listeners)
-				listener.linkRemoved(this, link);
-		}
+		fireChange(new OpGraphChange(OpGraphChange.Type.LINK_REMOVED, link));
 	}
 }
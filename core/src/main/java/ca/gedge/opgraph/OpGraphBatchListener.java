@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph;
+
+import java.util.List;
+
+/**
+ * A listener for {@link OpGraph} that can receive a batch of changes in a
+ * single event. Changes made between {@link OpGraph#beginBatch()} and
+ * {@link OpGraph#endBatch()} are delivered to this listener through
+ * {@link #graphChanged(OpGraph, List)}, instead of the individual methods
+ * of {@link OpGraphListener}. Changes made outside of a batch are still
+ * delivered through the individual methods.
+ */
+public interface OpGraphBatchListener extends OpGraphListener {
+	/**
+	 * Called when a batch of changes was made to a graph.
+	 * 
+	 * @param graph  the source graph
+	 * @param changes  the changes, in the order they were made
+	 */
+	public abstract void graphChanged(OpGraph graph, List<OpGraphChange> changes);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph;
+
+/**
+ * A single structural change to an {@link OpGraph}, as delivered to an
+ * {@link OpGraphBatchListener}.
+ */
+public final class OpGraphChange {
+	/**
+	 * The kind of change.
+	 */
+	public static enum Type {
+		/** A node was added */
+		NODE_ADDED,
+
+		/** A node was removed */
+		NODE_REMOVED,
+
+		/** A link was added */
+		LINK_ADDED,
+
+		/** A link was removed */
+		LINK_REMOVED
+	}
+
+	/** The kind of change */
+	private final Type type;
+
+	/** The node that was added/removed, or <code>null</code> for link changes */
+	private final OpNode node;
+
+	/** The link that was added/removed, or <code>null</code> for node changes */
+	private final OpLink link;
+
+	/**
+	 * Constructs a change for a node.
+	 * 
+	 * @param type  either {@link Type#NODE_ADDED} or {@link Type#NODE_REMOVED}
+	 * @param node  the node
+	 */
+	public OpGraphChange(Type type, OpNode node) {
+		this.type = type;
+		this.node = node;
+		this.link = null;
+	}
+
+	/**
+	 * Constructs a change for a link.
+	 * 
+	 * @param type  either {@link Type#LINK_ADDED} or {@link Type#LINK_REMOVED}
+	 * @param link  the link
+	 */
+	public OpGraphChange(Type type, OpLink link) {
+		this.type = type;
+		this.node = null;
+		this.link = link;
+	}
+
+	/**
+	 * Gets the kind of change.
+	 * 
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the node that was added or removed.
+	 * 
+	 * @return the node, or <code>null</code> if this is a link change
+	 */
+	public OpNode getNode() {
+		return node;
+	}
+
+	/**
+	 * Gets the link that was added or removed.
+	 * 
+	 * @return the link, or <code>null</code> if this is a node change
+	 */
+	public OpLink getLink() {
+		return link;
+	}
+
+	/**
+	 * Delivers this change to the appropriate method of a listener.
+	 * 
+	 * @param graph  the graph that changed
+	 * @param listener  the listener
+	 */
+	public void deliver(OpGraph graph, OpGraphListener listener) {
+		switch(type) {
+		case NODE_ADDED:
+			listener.nodeAdded(graph, node);
+			break;
+		case NODE_REMOVED:
+			listener.nodeRemoved(graph, node);
+			break;
+		case LINK_ADDED:
+			listener.linkAdded(graph, link);
+			break;
+		case LINK_REMOVED:
+			listener.linkRemoved(graph, link);
+			break;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return type + ": " + (node == null ? link : node);
+	}
+}
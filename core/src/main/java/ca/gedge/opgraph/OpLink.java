@@ -19,6 +19,7 @@
 package ca.gedge.opgraph;
 
 import java.util.Collection;
+import ca.gedge.opgraph.dag.DirectedEdge;
 import ca.gedge.opgraph.dag.SimpleDirectedEdge;
 import ca.gedge.opgraph.exceptions.ItemMissingException;
 import ca.gedge.opgraph.extensions.Extendable;
@@ -161,12 +162,42 @@ public final class OpLink
 
 	@Override
 	public int hashCode() {
-		return (31 * source.hashCode()
-				+ 19 * destination.hashCode()
+		return (31 * (int)source.getSequenceId()
+				+ 19 * (int)destination.getSequenceId()
 				+ 61 * sourceField.hashCode()
 				+ 67 * destinationField.hashCode());
 	}
 
+	/**
+	 * Compares links by source node, destination node, source field key,
+	 * destination field key, and then the class names of the fields. Nodes
+	 * are ordered by their sequence id, which is unique to a node. Two links
+	 * compare equal exactly when they connect the same nodes through fields
+	 * of the same key and class, so this ordering is total, deterministic,
+	 * and consistent with {@link #equals(Object)}.
+	 * 
+	 * @throws ClassCastException  if the given edge is not a link
+	 */
+	@Override
+	public int compareTo(DirectedEdge<OpNode> o) {
+		if(!(o instanceof OpLink))
+			throw new ClassCastException("cannot compare a link to " + o.getClass().getName());
+
+		final OpLink link = (OpLink)o;
+		int ret = compareSequenceIds(source.getSequenceId(), link.source.getSequenceId());
+		if(ret == 0)
+			ret = compareSequenceIds(destination.getSequenceId(), link.destination.getSequenceId());
+		if(ret == 0)
+			ret = sourceField.getKey().compareTo(link.sourceField.getKey());
+		if(ret == 0)
+			ret = destinationField.getKey().compareTo(link.destinationField.getKey());
+		if(ret == 0)
+			ret = sourceField.getClass().getName().compareTo(link.sourceField.getClass().getName());
+		if(ret == 0)
+			ret = destinationField.getClass().getName().compareTo(link.destinationField.getClass().getName());
+		return ret;
+	}
+
 	//
 	// Extendable
 	//
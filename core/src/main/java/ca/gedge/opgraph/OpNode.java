@@ -22,6 +22,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ca.gedge.opgraph.dag.Vertex;
 import ca.gedge.opgraph.exceptions.ProcessingException;
@@ -44,7 +48,10 @@ public abstract class OpNode implements Extendable, Vertex {
 	/** The key for the category property */
 	public static final String CATEGORY_PROPERTY = "category"; 
 
-	/** Default enabled field */
+	/**
+	 * Default enabled field. This field is shared by every node, so its key
+	 * is locked and cannot be changed.
+	 */
 	public final static InputField ENABLED_FIELD = new InputField(
 			"enabled",
 			"if true, disables processing of this node",
@@ -52,6 +59,16 @@ public abstract class OpNode implements Extendable, Vertex {
 			true,
 			Boolean.class);
 
+	static {
+		ENABLED_FIELD.lockKey();
+	}
+
+	/** Source of sequence ids for nodes */
+	private static final AtomicLong nextSequenceId = new AtomicLong();
+
+	/** The sequence id of this node, used to give links a stable ordering */
+	private final long sequenceId = nextSequenceId.getAndIncrement();
+
 	/** A unique id for this node */
 	private String id;
 
@@ -70,6 +87,16 @@ public abstract class OpNode implements Extendable, Vertex {
 	/** The list of output fields this node has */
 	private List<OutputField> outputFields;
 
+	/**
+	 * An index from key to input field. Fields notify this node when their
+	 * key changes (see {@link #fieldKeyChanged(SimpleItem, String)}), so the
+	 * index is always up to date.
+	 */
+	private volatile Map<String, InputField> inputFieldIndex;
+
+	/** An index from key to output field */
+	private volatile Map<String, OutputField> outputFieldIndex;
+
 	/**
 	 * Constructs a node with a generated id, this class' name as the node name
 	 * and an empty description. Also adds the enabled field.
@@ -116,6 +143,18 @@ public abstract class OpNode implements Extendable, Vertex {
 		this.outputFields = new ArrayList<OutputField>();
 		this.inputFields = new ArrayList<InputField>();
 		this.inputFields.add(ENABLED_FIELD);
+		this.inputFieldIndex = createInputFieldIndex();
+		this.outputFieldIndex = new ConcurrentHashMap<String, OutputField>();
+	}
+
+	/**
+	 * Gets the sequence id for this node. Sequence ids are unique, and
+	 * monotonically increase in the order nodes are constructed.
+	 * 
+	 * @return the sequence id
+	 */
+	final long getSequenceId() {
+		return sequenceId;
 	}
 
 	/**
@@ -266,20 +305,14 @@ public abstract class OpNode implements Extendable, Vertex {
 	 */
 	public final void putField(InputField field) {
 		if(field != null) {
-			int index = 0;
-			InputField foundField = null;
-			for(; index < inputFields.size(); ++index) {
-				if(inputFields.get(index).getKey().equals(field.getKey())) {
-					if(inputFields.get(index).isFixed())
-						throw new IllegalArgumentException("Cannot overwrite fixed input field '" + field.getKey() + "' in node '" + getName() + "'");
-
-					foundField = inputFields.get(index);
-					break;
-				}
-			}
+			final InputField foundField = getInputFieldWithKey(field.getKey());
+			if(foundField != null && foundField.isFixed())
+				throw new IllegalArgumentException("Cannot overwrite fixed input field '" + field.getKey() + "' in node '" + getName() + "'");
 
 			if(foundField == null) {
 				inputFields.add(field);
+				inputFieldIndex.put(field.getKey(), field);
+				field.addOwner(this);
 				fireFieldAdded(field);
 			} else {
 				foundField.setDescription(field.getDescription());
@@ -298,20 +331,14 @@ public abstract class OpNode implements Extendable, Vertex {
 	 */
 	public final void putField(OutputField field) {
 		if(field != null) {
-			int index = 0;
-			OutputField foundField = null;
-			for(; index < outputFields.size(); ++index) {
-				if(outputFields.get(index).getKey().equals(field.getKey())) {
-					if(outputFields.get(index).isFixed())
-						throw new IllegalArgumentException("Cannot overwrite fixed output field '" + field.getKey() + "' in node '" + getName() + "'");
-
-					foundField = outputFields.get(index);
-					break;
-				}
-			}
+			final OutputField foundField = getOutputFieldWithKey(field.getKey());
+			if(foundField != null && foundField.isFixed())
+				throw new IllegalArgumentException("Cannot overwrite fixed output field '" + field.getKey() + "' in node '" + getName() + "'");
 
 			if(foundField == null) {
 				outputFields.add(field);
+				outputFieldIndex.put(field.getKey(), field);
+				field.addOwner(this);
 				fireFieldAdded(field);
 			} else {
 				foundField.setDescription(field.getDescription());
@@ -328,8 +355,15 @@ public abstract class OpNode implements Extendable, Vertex {
 	 */
 	public final void removeField(InputField field) {
 		if(field != ENABLED_FIELD) {
-			if(inputFields.remove(field))
+			final int index = inputFields.indexOf(field);
+			if(index >= 0) {
+				final InputField removed = inputFields.remove(index);
+				reindexKey(inputFields, inputFieldIndex, removed.getKey());
+				if(!containsIdentical(inputFields, removed))
+					removed.removeOwner(this);
+
 				fireFieldRemoved(field);
+			}
 		}
 	}
 
@@ -338,8 +372,16 @@ public abstract class OpNode implements Extendable, Vertex {
 	 */
 	public final void removeAllInputFields() {
 		final ArrayList<InputField> fieldsCopy = new ArrayList<InputField>(inputFields);
-		for(InputField field : fieldsCopy)
-			removeField(field);
+		inputFields.clear();
+		inputFields.add(ENABLED_FIELD);
+		inputFieldIndex = createInputFieldIndex();
+
+		for(InputField field : fieldsCopy) {
+			if(field != ENABLED_FIELD) {
+				field.removeOwner(this);
+				fireFieldRemoved(field);
+			}
+		}
 	}
 
 	/**
@@ -348,8 +390,15 @@ public abstract class OpNode implements Extendable, Vertex {
 	 * @param field  the field
 	 */
 	public final void removeField(OutputField field) {
-		if(outputFields.remove(field))
+		final int index = outputFields.indexOf(field);
+		if(index >= 0) {
+			final OutputField removed = outputFields.remove(index);
+			reindexKey(outputFields, outputFieldIndex, removed.getKey());
+			if(!containsIdentical(outputFields, removed))
+				removed.removeOwner(this);
+
 			fireFieldRemoved(field);
+		}
 	}
 
 	/**
@@ -357,8 +406,13 @@ public abstract class OpNode implements Extendable, Vertex {
 	 */
 	public final void removeAllOutputFields() {
 		final ArrayList<OutputField> fieldsCopy = new ArrayList<OutputField>(outputFields);
-		for(OutputField field : fieldsCopy)
-			removeField(field);
+		outputFields.clear();
+		outputFieldIndex = new ConcurrentHashMap<String, OutputField>();
+
+		for(OutputField field : fieldsCopy) {
+			field.removeOwner(this);
+			fireFieldRemoved(field);
+		}
 	}
 
 	/**
@@ -370,11 +424,7 @@ public abstract class OpNode implements Extendable, Vertex {
 	 *         if no input field exists with this key
 	 */
 	public final InputField getInputFieldWithKey(String key) {
-		for(InputField field : inputFields) {
-			if(field.getKey().equals(key))
-				return field;
-		}
-		return null;
+		return (key == null ? null : inputFieldIndex.get(key));
 	}
 
 	/**
@@ -386,11 +436,77 @@ public abstract class OpNode implements Extendable, Vertex {
 	 *         if no output field exists with this key
 	 */
 	public final OutputField getOutputFieldWithKey(String key) {
-		for(OutputField field : outputFields) {
-			if(field.getKey().equals(key))
-				return field;
+		return (key == null ? null : outputFieldIndex.get(key));
+	}
+
+	/**
+	 * Creates an input field index containing only {@link #ENABLED_FIELD}.
+	 * 
+	 * @return the index
+	 */
+	private static Map<String, InputField> createInputFieldIndex() {
+		final Map<String, InputField> index = new ConcurrentHashMap<String, InputField>();
+		index.put(ENABLED_FIELD.getKey(), ENABLED_FIELD);
+		return index;
+	}
+
+	/**
+	 * Called by a field of this node when its key changes, to update the
+	 * key indices.
+	 * 
+	 * @param field  the field
+	 * @param oldKey  the key before the change
+	 */
+	void fieldKeyChanged(SimpleItem field, String oldKey) {
+		boolean owned = false;
+		if(field instanceof InputField && containsIdentical(inputFields, field)) {
+			reindexKey(inputFields, inputFieldIndex, oldKey);
+			reindexKey(inputFields, inputFieldIndex, field.getKey());
+			owned = true;
+		}
+
+		if(field instanceof OutputField && containsIdentical(outputFields, field)) {
+			reindexKey(outputFields, outputFieldIndex, oldKey);
+			reindexKey(outputFields, outputFieldIndex, field.getKey());
+			owned = true;
 		}
-		return null;
+
+		if(!owned)
+			field.removeOwner(this);
+	}
+
+	/**
+	 * Updates the entry of a key index for a single key. If more than one
+	 * field has the same key, the first one is indexed.
+	 * 
+	 * @param fields  the fields
+	 * @param index  the index of the given fields
+	 * @param key  the key to update
+	 */
+	private static <F extends ContextualItem> void reindexKey(List<F> fields, Map<String, F> index, String key) {
+		for(F field : fields) {
+			if(field.getKey().equals(key)) {
+				index.put(key, field);
+				return;
+			}
+		}
+		index.remove(key);
+	}
+
+	/**
+	 * Gets whether or not a list contains a given object, compared by identity.
+	 * 
+	 * @param list  the list
+	 * @param obj  the object
+	 * 
+	 * @return <code>true</code> if the list contains the object, <code>false</code> otherwise
+	 */
+	private static boolean containsIdentical(List<?> list, Object obj) {
+		for(Object element : list) {
+			if(element == obj)
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -451,7 +567,8 @@ public abstract class OpNode implements Extendable, Vertex {
 	// Listeners
 	//
 
-	private final ArrayList<OpNodeListener> listeners = new ArrayList<OpNodeListener>();
+	/** Listeners, which can be iterated without locking while being modified */
+	private final List<OpNodeListener> listeners = new CopyOnWriteArrayList<OpNodeListener>();
 
 	/**
 	 * Adds a listener to this node.
@@ -459,9 +576,7 @@ public abstract class OpNode implements Extendable, Vertex {
 	 * @param listener  the listener to add
 	 */
 	public void addNodeListener(OpNodeListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 	}
 
 	/**
@@ -470,43 +585,38 @@ public abstract class OpNode implements Extendable, Vertex {
 	 * @param listener  the listener to remove
 	 */
 	public void removeNodeListener(OpNodeListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
-		}
+		listeners.remove(listener);
 	}
 
-	private void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
-		synchronized(listeners) {
-			for(OpNodeListener listener : listeners)
-				listener.nodePropertyChanged(propertyName, oldValue, newValue);
-		}
+	/**
+	 * Notifies listeners that a property of this node changed.
+	 * 
+	 * @param propertyName  the name of the property
+	 * @param oldValue  the value before the change
+	 * @param newValue  the value after the change
+	 */
+	protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+		for(OpNodeListener listener : listeners)
+			listener.nodePropertyChanged(propertyName, oldValue, newValue);
 	}
 
 	private void fireFieldAdded(InputField field) {
-		synchronized(listeners) {
-			for(OpNodeListener listener : listeners)
-				listener.fieldAdded(this, field);
-		}
+		for(OpNodeListener listener : listeners)
+			listener.fieldAdded(this, field);
 	}
 
 	private void fireFieldRemoved(InputField field) {
-		synchronized(listeners) {
-			for(OpNodeListener listener : listeners)
-				listener.fieldRemoved(this, field);
-		}
+		for(OpNodeListener listener : listeners)
+			listener.fieldRemoved(this, field);
 	}
 
 	private void fireFieldAdded(OutputField field) {
-		synchronized(listeners) {
-			for(OpNodeListener listener : listeners)
-				listener.fieldAdded(this, field);
-		}
+		for(OpNodeListener listener : listeners)
+			listener.fieldAdded(this, field);
 	}
 
 	private void fireFieldRemoved(OutputField field) {
-		synchronized(listeners) {
-			for(OpNodeListener listener : listeners)
-				listener.fieldRemoved(this, field);
-		}
+		for(OpNodeListener listener : listeners)
+			listener.fieldRemoved(this, field);
 	}
 }
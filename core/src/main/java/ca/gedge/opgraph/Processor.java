@@ -20,12 +20,14 @@ package ca.gedge.opgraph;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import ca.gedge.opgraph.dag.GraphSnapshot;
 import ca.gedge.opgraph.exceptions.InvalidTypeException;
 import ca.gedge.opgraph.exceptions.ProcessingException;
 import ca.gedge.opgraph.exceptions.RequiredInputException;
 import ca.gedge.opgraph.extensions.CompositeNode;
 import ca.gedge.opgraph.extensions.CustomProcessing;
 import ca.gedge.opgraph.extensions.CustomProcessing.CustomProcessor;
+import ca.gedge.opgraph.extensions.Inlinable;
 import ca.gedge.opgraph.validators.TypeValidator;
 
 /**
@@ -36,6 +38,12 @@ public class Processor {
 	/** The graph this processor is operating on */
 	private OpGraph graph;
 
+	/**
+	 * The version of the graph being processed, pinned when processing
+	 * is reset so that concurrent edits to the graph do not affect it
+	 */
+	private GraphSnapshot<OpNode, OpLink> snapshot;
+
 	/** Custom processing needs of the given graph */
 	private CustomProcessor customProcessor;
 
@@ -57,6 +65,12 @@ public class Processor {
 	/** If we stepped into a macro, the processing context for that macro */
 	private Processor currentMacro;
 
+	/** Whether or not nodes with the {@link Inlinable} extension are inlined */
+	private boolean inlining;
+
+	/** The plan with inlined nodes, or <code>null</code> if not inlining */
+	private ExecutionPlan plan;
+
 	/**
 	 * Constructs a processing context for a given graph.
 	 * 
@@ -102,6 +116,33 @@ public class Processor {
 		reset(context);
 	}
 
+	/**
+	 * Gets whether or not nodes with the {@link Inlinable} extension are
+	 * inlined when processing.
+	 * 
+	 * @return <code>true</code> if inlining, <code>false</code> otherwise
+	 */
+	public boolean isInlining() {
+		return inlining;
+	}
+
+	/**
+	 * Sets whether or not nodes with the {@link Inlinable} extension are
+	 * inlined when processing. An inlined node is replaced by the nodes in
+	 * its graph, recursively, and links to and from its published fields
+	 * connect directly to the internal nodes. This removes the overhead of
+	 * processing the node's graph separately. Inlined nodes are never stepped
+	 * into, since their internal nodes are processed like any other node.
+	 * 
+	 * Inlining is only done at the top level of processing, i.e., not when
+	 * processing with a custom processor, and takes effect on the next reset.
+	 * 
+	 * @param inlining  <code>true</code> to inline, <code>false</code> otherwise
+	 */
+	public void setInlining(boolean inlining) {
+		this.inlining = inlining;
+	}
+
 	/**
 	 * Resets this context so that further processing will start from the
 	 * beginning.
@@ -127,8 +168,15 @@ public class Processor {
 		if(customProcessor != null)
 			nodeIter = customProcessor;
 
+		snapshot = graph.getSnapshot();
+		plan = null;
+		if(inlining && customProcessor == null) {
+			plan = new ExecutionPlan(snapshot);
+			snapshot = plan.getGraph();
+		}
+
 		if(nodeIter == null)
-			nodeIter = graph.getVertices().iterator();
+			nodeIter = snapshot.getVertices().iterator();
 
 		// Set up context
 		if(globalContext != null && globalContext == context)
@@ -267,13 +315,19 @@ public class Processor {
 	 */
 	private void processCurrentNode() {
 		try {
-			final OpContext localContext = globalContext.getChildContext(currentNode);
+			final OpContext localContext = getNodeContext(currentNode);
+			if(plan != null)
+				plan.mapInputs(globalContext, currentNode);
+
 			setupInputs(currentNode, localContext);
 
 			Boolean enabled = (Boolean)localContext.get(OpNode.ENABLED_FIELD);
 			if(enabled == null || enabled == Boolean.TRUE)
 				currentNode.operate(localContext);
 
+			if(plan != null)
+				plan.mapOutputs(globalContext, currentNode);
+
 			if(!hasNext() && customProcessor != null)
 				customProcessor.terminate(globalContext);
 		} catch(ProcessingException exc) {
@@ -297,8 +351,8 @@ public class Processor {
 			else
 				stepOutOf();
 		} else {
-			final int level = graph.getLevel(currentNode);
-			while(hasNext() && graph.getLevel(currentNode) == level)
+			final int level = snapshot.getLevel(currentNode);
+			while(hasNext() && snapshot.getLevel(currentNode) == level)
 				step();
 		}
 	}
@@ -351,7 +405,10 @@ public class Processor {
 			final CompositeNode composite = currentNode.getExtension(CompositeNode.class);
 			if(composite != null) {
 				try {
-					final OpContext context = globalContext.getChildContext(currentNode);
+					final OpContext context = getNodeContext(currentNode);
+					if(plan != null)
+						plan.mapInputs(globalContext, currentNode);
+
 					setupInputs(currentNode, context);
 
 					final CustomProcessing customProcessing = currentNode.getExtension(CustomProcessing.class);
@@ -379,6 +436,9 @@ public class Processor {
 				currentMacro.stepAll();
 				currentError = currentMacro.getError();
 				currentMacro = null;
+
+				if(plan != null && currentError == null)
+					plan.mapOutputs(globalContext, currentNode);
 			} else {
 				currentMacro.stepOutOf();
 			}
@@ -393,6 +453,19 @@ public class Processor {
 			step();
 	}
 
+	/**
+	 * Gets the working context for a node, creating it if necessary.
+	 * 
+	 * @param node  the node
+	 * 
+	 * @return the working context
+	 */
+	private OpContext getNodeContext(OpNode node) {
+		if(plan != null)
+			return plan.getContext(globalContext, node);
+		return globalContext.getChildContext(node);
+	}
+
 	/**
 	 * Adds inputs from incoming links to a given node's context.  
 	 * 
@@ -409,7 +482,10 @@ public class Processor {
 		checkInputs(node, context);
 
 		// Now set up the inputs
-		for(OpLink link : graph.getIncomingEdges(node)) {
+		final int id = snapshot.getId(node);
+		final int inDegree = (id < 0 ? 0 : snapshot.getInDegree(id));
+		for(int index = 0; index < inDegree; ++index) {
+			final OpLink link = snapshot.getIncomingEdge(id, index);
 			final OpContext srcContext = globalContext.findChildContext(link.getSource());
 			if(srcContext != null && srcContext.containsKey(link.getSourceField())) {
 				final Object val = srcContext.get(link.getSourceField());
@@ -433,7 +509,8 @@ public class Processor {
 	private void checkInputs(OpNode node, OpContext context)
 		throws InvalidTypeException, RequiredInputException
 	{
-		//
+		final int id = snapshot.getId(node);
+		final int inDegree = (id < 0 ? 0 : snapshot.getInDegree(id));
 		for(InputField field : node.getInputFields()) {
 			// Working context already has value, no need to check links
 			if(context.containsKey(field))
@@ -441,7 +518,8 @@ public class Processor {
 
 			if(!field.isOptional()) {
 				boolean linkFound = false;
-				for(OpLink link : graph.getIncomingEdges(node)) {
+				for(int index = 0; index < inDegree; ++index) {
+					final OpLink link = snapshot.getIncomingEdge(id, index);
 					if(link.getDestinationField() == field) {
 						// Make sure this link actually has a value flowing through it
 						final OpContext sourceContext = globalContext.findChildContext(link.getSource());
@@ -18,7 +18,10 @@
  */
 package ca.gedge.opgraph;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.WeakHashMap;
+
 import ca.gedge.opgraph.extensions.Extendable;
 import ca.gedge.opgraph.extensions.ExtendableSupport;
 
@@ -32,6 +35,21 @@ public class SimpleItem implements ContextualItem, Extendable {
 	/** The description for this field */
 	private String description;
 
+	/**
+	 * The nodes that have this item as a field, and index their fields by
+	 * key. Nodes are weakly referenced, since a node does not remove itself
+	 * when it is discarded.
+	 */
+	private WeakHashMap<OpNode, Boolean> owners;
+
+	/**
+	 * Whether or not the key of this item can no longer change. Nodes need
+	 * not be notified of key changes for such items, so they are never
+	 * tracked as owners. Used for items shared by every node, such as
+	 * {@link OpNode#ENABLED_FIELD}, which would otherwise track every node.
+	 */
+	private volatile boolean keyLocked;
+
 	/**
 	 * Constructs a field with a key and empty description.
 	 * 
@@ -86,9 +104,69 @@ public class SimpleItem implements ContextualItem, Extendable {
 		return description;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalStateException  if the key of this item is locked, and
+	 *                                the given key differs from the current one
+	 */
 	@Override
 	public void setKey(String key) {
+		final String oldKey = this.key;
+		if(keyLocked && !oldKey.equals(key == null ? "" : key))
+			throw new IllegalStateException("key of '" + oldKey + "' cannot be changed");
+
 		this.key = (key == null ? "" : key);
+
+		if(oldKey != null && !oldKey.equals(this.key)) {
+			final ArrayList<OpNode> nodes;
+			synchronized(this) {
+				nodes = (owners == null ? new ArrayList<OpNode>() : new ArrayList<OpNode>(owners.keySet()));
+			}
+
+			for(OpNode node : nodes)
+				node.fieldKeyChanged(this, oldKey);
+		}
+	}
+
+	/**
+	 * Prevents the key of this item from changing, and stops tracking owners.
+	 */
+	synchronized void lockKey() {
+		keyLocked = true;
+		owners = null;
+	}
+
+	/**
+	 * Adds a node to be notified when the key of this item changes. Does
+	 * nothing if the key of this item is locked.
+	 * 
+	 * @param node  the node
+	 */
+	void addOwner(OpNode node) {
+		if(!keyLocked) {
+			synchronized(this) {
+				if(!keyLocked) {
+					if(owners == null)
+						owners = new WeakHashMap<OpNode, Boolean>();
+					owners.put(node, Boolean.TRUE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a node from the nodes notified when the key of this item changes.
+	 * 
+	 * @param node  the node
+	 */
+	void removeOwner(OpNode node) {
+		if(!keyLocked) {
+			synchronized(this) {
+				if(owners != null)
+					owners.remove(node);
+			}
+		}
 	}
 
 	@Override
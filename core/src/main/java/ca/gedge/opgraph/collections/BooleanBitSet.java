@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.RandomAccess;
+
+/**
+ * A resizable list of <code>boolean</code> values, backed by a {@link BitSet}
+ * so that each value takes a single bit.
+ */
+public class BooleanBitSet extends AbstractList<Boolean> implements PrimitiveList<Boolean>, RandomAccess {
+	/** The values, of which only the first {@link #size} are used */
+	private final BitSet bits;
+
+	/** The number of values in this list */
+	private int size;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	public BooleanBitSet() {
+		this.bits = new BitSet();
+	}
+
+	/**
+	 * Constructs a list containing a copy of the given values.
+	 * 
+	 * @param values  the values
+	 */
+	public BooleanBitSet(boolean [] values) {
+		this.bits = new BitSet(values.length);
+		for(int index = 0; index < values.length; ++index)
+			bits.set(index, values[index]);
+		this.size = values.length;
+	}
+
+	/**
+	 * Gets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * 
+	 * @return the value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public boolean getBoolean(int index) {
+		checkIndex(index, size);
+		return bits.get(index);
+	}
+
+	/**
+	 * Sets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * @param value  the new value
+	 * 
+	 * @return the previous value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public boolean setBoolean(int index, boolean value) {
+		checkIndex(index, size);
+		final boolean old = bits.get(index);
+		bits.set(index, value);
+		return old;
+	}
+
+	/**
+	 * Appends a value to this list without boxing it.
+	 * 
+	 * @param value  the value
+	 */
+	public void addBoolean(boolean value) {
+		bits.set(size++, value);
+		++modCount;
+	}
+
+	/**
+	 * Gets the number of <code>true</code> values in this list.
+	 * 
+	 * @return the number of <code>true</code> values
+	 */
+	public int countTrue() {
+		return bits.cardinality();
+	}
+
+	/**
+	 * Gets a copy of the values in this list.
+	 * 
+	 * @return the values, as an array
+	 */
+	public boolean [] toBooleanArray() {
+		final boolean [] values = new boolean[size];
+		for(int index = bits.nextSetBit(0); index >= 0; index = bits.nextSetBit(index + 1))
+			values[index] = true;
+		return values;
+	}
+
+	/**
+	 * Checks that an index is within a given range.
+	 * 
+	 * @param index  the index
+	 * @param size  the size of the range
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is not in the range
+	 */
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	//
+	// PrimitiveList<Boolean>
+	//
+
+	@Override
+	public Class<Boolean> getElementType() {
+		return Boolean.class;
+	}
+
+	//
+	// AbstractList<Boolean>
+	//
+
+	@Override
+	public Boolean get(int index) {
+		return getBoolean(index);
+	}
+
+	@Override
+	public Boolean set(int index, Boolean value) {
+		return setBoolean(index, value);
+	}
+
+	@Override
+	public void add(int index, Boolean value) {
+		checkIndex(index, size + 1);
+		final boolean unboxed = value;
+		for(int shift = size; shift > index; --shift)
+			bits.set(shift, bits.get(shift - 1));
+		bits.set(index, unboxed);
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public Boolean remove(int index) {
+		checkIndex(index, size);
+		final boolean old = bits.get(index);
+		for(int shift = index; shift < size - 1; ++shift)
+			bits.set(shift, bits.get(shift + 1));
+		bits.clear(--size);
+		++modCount;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		bits.clear();
+		size = 0;
+		++modCount;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
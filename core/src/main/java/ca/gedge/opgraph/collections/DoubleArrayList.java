@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A resizable list of <code>double</code> values, backed by an array.
+ */
+public class DoubleArrayList extends AbstractList<Double> implements PrimitiveList<Double>, RandomAccess {
+	/** The values, of which only the first {@link #size} are used */
+	private double [] values;
+
+	/** The number of values in this list */
+	private int size;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	public DoubleArrayList() {
+		this(10);
+	}
+
+	/**
+	 * Constructs an empty list with a given initial capacity.
+	 * 
+	 * @param capacity  the initial capacity
+	 * 
+	 * @throws IllegalArgumentException  if the capacity is negative
+	 */
+	public DoubleArrayList(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		this.values = new double[capacity];
+	}
+
+	/**
+	 * Constructs a list containing a copy of the given values.
+	 * 
+	 * @param values  the values
+	 */
+	public DoubleArrayList(double [] values) {
+		this.values = values.clone();
+		this.size = values.length;
+	}
+
+	/**
+	 * Gets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * 
+	 * @return the value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public double getDouble(int index) {
+		checkIndex(index, size);
+		return values[index];
+	}
+
+	/**
+	 * Sets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * @param value  the new value
+	 * 
+	 * @return the previous value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public double setDouble(int index, double value) {
+		checkIndex(index, size);
+		final double old = values[index];
+		values[index] = value;
+		return old;
+	}
+
+	/**
+	 * Appends a value to this list without boxing it.
+	 * 
+	 * @param value  the value
+	 */
+	public void addDouble(double value) {
+		ensureCapacity(size + 1);
+		values[size++] = value;
+		++modCount;
+	}
+
+	/**
+	 * Gets a copy of the values in this list.
+	 * 
+	 * @return the values, as an array
+	 */
+	public double [] toDoubleArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Gets a primitive stream of the values in this list.
+	 * 
+	 * @param parallel  <code>true</code> for a parallel stream,
+	 *                  <code>false</code> for a sequential one
+	 * 
+	 * @return the stream
+	 */
+	public DoubleStream doubleStream(boolean parallel) {
+		return StreamSupport.doubleStream(spliterator(), parallel);
+	}
+
+	/**
+	 * Ensures that this list can hold a given number of values without
+	 * growing its array.
+	 * 
+	 * @param capacity  the number of values
+	 */
+	public void ensureCapacity(int capacity) {
+		if(capacity > values.length)
+			values = Arrays.copyOf(values, Math.max(capacity, values.length + (values.length >> 1) + 1));
+	}
+
+	/**
+	 * Checks that an index is within a given range.
+	 * 
+	 * @param index  the index
+	 * @param size  the size of the range
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is not in the range
+	 */
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	//
+	// PrimitiveList<Double>
+	//
+
+	@Override
+	public Class<Double> getElementType() {
+		return Double.class;
+	}
+
+	//
+	// AbstractList<Double>
+	//
+
+	@Override
+	public Double get(int index) {
+		return getDouble(index);
+	}
+
+	@Override
+	public Double set(int index, Double value) {
+		return setDouble(index, value);
+	}
+
+	@Override
+	public void add(int index, Double value) {
+		checkIndex(index, size + 1);
+		final double unboxed = value;
+		ensureCapacity(size + 1);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = unboxed;
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public Double remove(int index) {
+		checkIndex(index, size);
+		final double old = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		--size;
+		++modCount;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		++modCount;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Spliterator.OfDouble spliterator() {
+		return Spliterators.spliterator(values, 0, size, Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A resizable list of <code>int</code> values, backed by an array.
+ */
+public class IntArrayList extends AbstractList<Integer> implements PrimitiveList<Integer>, RandomAccess {
+	/** The values, of which only the first {@link #size} are used */
+	private int [] values;
+
+	/** The number of values in this list */
+	private int size;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	public IntArrayList() {
+		this(10);
+	}
+
+	/**
+	 * Constructs an empty list with a given initial capacity.
+	 * 
+	 * @param capacity  the initial capacity
+	 * 
+	 * @throws IllegalArgumentException  if the capacity is negative
+	 */
+	public IntArrayList(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		this.values = new int[capacity];
+	}
+
+	/**
+	 * Constructs a list containing a copy of the given values.
+	 * 
+	 * @param values  the values
+	 */
+	public IntArrayList(int [] values) {
+		this.values = values.clone();
+		this.size = values.length;
+	}
+
+	/**
+	 * Gets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * 
+	 * @return the value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public int getInt(int index) {
+		checkIndex(index, size);
+		return values[index];
+	}
+
+	/**
+	 * Sets a value of this list without boxing it.
+	 * 
+	 * @param index  the index of the value
+	 * @param value  the new value
+	 * 
+	 * @return the previous value
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is out of range
+	 */
+	public int setInt(int index, int value) {
+		checkIndex(index, size);
+		final int old = values[index];
+		values[index] = value;
+		return old;
+	}
+
+	/**
+	 * Appends a value to this list without boxing it.
+	 * 
+	 * @param value  the value
+	 */
+	public void addInt(int value) {
+		ensureCapacity(size + 1);
+		values[size++] = value;
+		++modCount;
+	}
+
+	/**
+	 * Gets a copy of the values in this list.
+	 * 
+	 * @return the values, as an array
+	 */
+	public int [] toIntArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Gets a primitive stream of the values in this list.
+	 * 
+	 * @param parallel  <code>true</code> for a parallel stream,
+	 *                  <code>false</code> for a sequential one
+	 * 
+	 * @return the stream
+	 */
+	public IntStream intStream(boolean parallel) {
+		return StreamSupport.intStream(spliterator(), parallel);
+	}
+
+	/**
+	 * Ensures that this list can hold a given number of values without
+	 * growing its array.
+	 * 
+	 * @param capacity  the number of values
+	 */
+	public void ensureCapacity(int capacity) {
+		if(capacity > values.length)
+			values = Arrays.copyOf(values, Math.max(capacity, values.length + (values.length >> 1) + 1));
+	}
+
+	/**
+	 * Checks that an index is within a given range.
+	 * 
+	 * @param index  the index
+	 * @param size  the size of the range
+	 * 
+	 * @throws IndexOutOfBoundsException  if the index is not in the range
+	 */
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	//
+	// PrimitiveList<Integer>
+	//
+
+	@Override
+	public Class<Integer> getElementType() {
+		return Integer.class;
+	}
+
+	//
+	// AbstractList<Integer>
+	//
+
+	@Override
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	@Override
+	public Integer set(int index, Integer value) {
+		return setInt(index, value);
+	}
+
+	@Override
+	public void add(int index, Integer value) {
+		checkIndex(index, size + 1);
+		final int unboxed = value;
+		ensureCapacity(size + 1);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = unboxed;
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public Integer remove(int index) {
+		checkIndex(index, size);
+		final int old = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		--size;
+		++modCount;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		++modCount;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Spliterator.OfInt spliterator() {
+		return Spliterators.spliterator(values, 0, size, Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import java.util.List;
+
+/**
+ * A {@link List} view of primitive values. Values are stored unboxed, and are
+ * only boxed when accessed through the {@link List} interface. Primitive lists
+ * do not accept <code>null</code> elements.
+ * 
+ * @param <E>  the boxed type of the elements
+ */
+public interface PrimitiveList<E> extends List<E> {
+	/**
+	 * Gets the boxed type of the elements in this list. Every element of the
+	 * list is an instance of this type.
+	 * 
+	 * @return the element type
+	 */
+	public abstract Class<E> getElementType();
+}
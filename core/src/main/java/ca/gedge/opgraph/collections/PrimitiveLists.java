@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Utility methods for {@link PrimitiveList}s.
+ */
+public final class PrimitiveLists {
+	private PrimitiveLists() {}
+
+	/**
+	 * Copies a collection into the most compact list that can hold it. If
+	 * every element is a non-null {@link Integer}, {@link Double} or
+	 * {@link Boolean}, the copy is an {@link IntArrayList},
+	 * {@link DoubleArrayList} or {@link BooleanBitSet}, respectively.
+	 * Otherwise, the copy is an {@link ArrayList}.
+	 * 
+	 * @param values  the values to copy
+	 * 
+	 * @return a modifiable copy of the values
+	 */
+	public static List<?> copyOf(Collection<?> values) {
+		final Class<?> type = getCommonType(values);
+		if(type == Integer.class) {
+			final IntArrayList list = new IntArrayList(values.size());
+			for(Object value : values)
+				list.addInt((Integer)value);
+			return list;
+		} else if(type == Double.class) {
+			final DoubleArrayList list = new DoubleArrayList(values.size());
+			for(Object value : values)
+				list.addDouble((Double)value);
+			return list;
+		} else if(type == Boolean.class) {
+			final BooleanBitSet list = new BooleanBitSet();
+			for(Object value : values)
+				list.addBoolean((Boolean)value);
+			return list;
+		}
+
+		return new ArrayList<Object>(values);
+	}
+
+	/**
+	 * Gets the class shared by every element of a collection.
+	 * 
+	 * @param values  the collection
+	 * 
+	 * @return the class of the elements, or <code>null</code> if the
+	 *         collection is empty, contains <code>null</code>, or contains
+	 *         elements of different classes
+	 */
+	private static Class<?> getCommonType(Collection<?> values) {
+		Class<?> type = null;
+		for(Object value : values) {
+			if(value == null || (type != null && value.getClass() != type))
+				return null;
+			type = value.getClass();
+		}
+		return type;
+	}
+}
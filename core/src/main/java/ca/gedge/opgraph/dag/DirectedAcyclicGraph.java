@@ -18,31 +18,45 @@
  */
 package ca.gedge.opgraph.dag;
 
-import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 
 /**
  * A generic implementation of a directed acyclic graph (DAG). Topological
  * ordering is enforced on the vertices of this graph (see
  * <a href="http://en.wikipedia.org/wiki/Topological_sorting">Wikipedia Entry</a>). 
  * 
+ * Vertex membership is based on identity, not {@link Object#equals(Object)}:
+ * distinct vertices are always distinct members of this graph, even if they
+ * are equal to each other. Edges are ordered, and compared for membership,
+ * by their {@link Comparable} implementation.
+ * 
  * @param <V>  the vertex type, which implements {@link Vertex}
  * @param <E>  the edge type, which implements {@link DirectedEdge}
  */
 public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	implements Iterable<V>
 {
-	/** The vertices in this DAG */
+	/**
+	 * The vertices in this DAG, in topological order. Whenever sorting is
+	 * required, vertices added since the last sort are at the end of this
+	 * list.
+	 * 
+	 * @see #vertexSet
+	 */
 	private ArrayList<V> vertices;
 
+	/** The set of vertices in this DAG, by identity, used for constant time membership tests */
+	private Set<V> vertexSet;
+
 	/** The edges in this DAG */
 	private TreeSet<E> edges;
 
@@ -51,44 +65,52 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * 
 	 * @see #getLevel(Object)
 	 */
-	private WeakHashMap<V, Integer> vertexLevels;
+	private Map<V, Integer> vertexLevels;
 
-	/** A cache of incoming edges */
-	private WeakHashMap<V, SoftReference<Set<E>>> incomingEdgesCache;
+	/** An index from a vertex to the edges whose destination is that vertex */
+	private IdentityHashMap<V, TreeSet<E>> incomingEdges;
 
-	/** A cache of outgoing edges */
-	private WeakHashMap<V, SoftReference<Set<E>>> outgoingEdgesCache;
+	/** An index from a vertex to the edges whose source is that vertex */
+	private IdentityHashMap<V, TreeSet<E>> outgoingEdges;
 
 	/** Whether or not the topological sorting needs to be performed */
 	private boolean shouldSort;
 
+	/** The number of structural modifications made to this DAG */
+	private int modificationCount;
+
 	/**
 	 * Default constructor.
 	 */
 	public DirectedAcyclicGraph() {
 		this.vertices = new ArrayList<V>();
+		this.vertexSet = Collections.newSetFromMap(new IdentityHashMap<V, Boolean>());
 		this.edges = new TreeSet<E>();
-		this.vertexLevels = new WeakHashMap<V, Integer>();
-		this.incomingEdgesCache = new WeakHashMap<V, SoftReference<Set<E>>>();
-		this.outgoingEdgesCache = new WeakHashMap<V, SoftReference<Set<E>>>();
+		this.vertexLevels = new IdentityHashMap<V, Integer>();
+		this.incomingEdges = new IdentityHashMap<V, TreeSet<E>>();
+		this.outgoingEdges = new IdentityHashMap<V, TreeSet<E>>();
 		this.shouldSort = false;
 	}
 
 	/**
-	 * Adds a vertex to this DAG.
+	 * Adds a vertex to this DAG. Nothing is done if this DAG already contains
+	 * the same vertex instance, but a distinct vertex is added even if it is
+	 * equal to one already in this DAG.
 	 * 
 	 * @param vertex  the vertex to add
 	 */
 	public void add(V vertex) {
-		if(!vertices.contains(vertex)) {
+		if(vertexSet.add(vertex)) {
 			vertices.add(vertex);
 			shouldSort = true;
+			++modificationCount;
 		}
 	}
 
 	/**
 	 * Removes a vertex from this DAG. Any {@link DirectedEdge}s in this DAG that
-	 * reference this vertex will also be removed.
+	 * reference this vertex will also be removed. Only the given vertex
+	 * instance is removed, not vertices which are equal to it.
 	 * 
 	 * @param vertex  the vertex to remove
 	 * 
@@ -96,14 +118,28 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean remove(V vertex) {
-		final boolean removed = vertices.remove(vertex);
+		final boolean removed = vertexSet.remove(vertex);
 		if(removed) {
+			// Removing a vertex keeps the remaining vertices in order. Recently
+			// added vertices are at the end, so search from there.
+			for(int index = vertices.size() - 1; index >= 0; --index) {
+				if(vertices.get(index) == vertex) {
+					vertices.remove(index);
+					break;
+				}
+			}
+
 			shouldSort = true;
+			++modificationCount;
 
 			// Remove edges which reference this vertex
-			final ArrayList<E> edgesCopy = new ArrayList<E>(edges);
-			for(E edge : edgesCopy) {
-				if(edge.getSource() == vertex || edge.getDestination() == vertex)
+			if(outgoingEdges.containsKey(vertex)) {
+				for(E edge : new ArrayList<E>(outgoingEdges.get(vertex)))
+					remove(edge);
+			}
+
+			if(incomingEdges.containsKey(vertex)) {
+				for(E edge : new ArrayList<E>(incomingEdges.get(vertex)))
 					remove(edge);
 			}
 		}
@@ -111,7 +147,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	}
 
 	/**
-	 * Gets whether or not this graph contains a specified vertex.
+	 * Gets whether or not this graph contains a specified vertex instance.
 	 * 
 	 * @param vertex  the vertex
 	 * 
@@ -119,7 +155,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean contains(V vertex) {
-		return vertices.contains(vertex);
+		return vertexSet.contains(vertex);
 	}
 
 	/**
@@ -145,31 +181,97 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * @throws CycleDetectedException  if adding <code>edge</code> will induce a cycle 
 	 */
 	public void add(E edge) throws VertexNotFoundException, CycleDetectedException {
-		if(!vertices.contains(edge.getSource()))
+		if(!vertexSet.contains(edge.getSource()))
 			throw new VertexNotFoundException(edge.getSource());
 
-		if(!vertices.contains(edge.getDestination()))
+		if(!vertexSet.contains(edge.getDestination()))
 			throw new VertexNotFoundException(edge.getDestination());
 
-		edges.add(edge);
+		if(!edges.contains(edge)) {
+			// An edge {u, v} creates a cycle iff u is reachable from v
+			if(isReachable(edge.getDestination(), edge.getSource()))
+				throw new CycleDetectedException("adding edge creates a cycle");
+
+			edges.add(edge);
+			indexEdge(edge);
+			shouldSort = true;
+			++modificationCount;
+		}
+	}
+
+	/**
+	 * Adds a collection of vertices and edges to this DAG. Unlike adding
+	 * each item individually, acyclicity is only checked once, after all
+	 * items have been inserted. Either all of the given items are added, or
+	 * none of them are.
+	 * 
+	 * @param newVertices  the vertices to add
+	 * @param newEdges  the edges to add, which may reference vertices in
+	 *                  either this graph or <code>newVertices</code>
+	 * 
+	 * @throws VertexNotFoundException  if an edge contains vertices that are not
+	 *                                  contained within this graph or the given
+	 *                                  collection of vertices
+	 * @throws CycleDetectedException  if adding the edges will induce a cycle
+	 */
+	public void addAll(Collection<? extends V> newVertices, Collection<? extends E> newEdges)
+		throws VertexNotFoundException, CycleDetectedException
+	{
+		final boolean oldShouldSort = shouldSort;
+		final ArrayList<V> addedVertices = new ArrayList<V>();
+		final ArrayList<E> addedEdges = new ArrayList<E>();
+		boolean committed = false;
+		try {
+			for(V vertex : newVertices) {
+				if(vertexSet.add(vertex)) {
+					vertices.add(vertex);
+					addedVertices.add(vertex);
+				}
+			}
+
+			for(E edge : newEdges) {
+				if(!vertexSet.contains(edge.getSource()))
+					throw new VertexNotFoundException(edge.getSource());
+
+				if(!vertexSet.contains(edge.getDestination()))
+					throw new VertexNotFoundException(edge.getDestination());
+
+				if(edges.add(edge)) {
+					indexEdge(edge);
+					addedEdges.add(edge);
+				}
+			}
+
+			if(addedVertices.size() > 0 || addedEdges.size() > 0) {
+				shouldSort = true;
+				if(!topologicalSort())
+					throw new CycleDetectedException("adding edges creates a cycle");
+			}
+
+			committed = true;
+			if(addedVertices.size() > 0 || addedEdges.size() > 0)
+				++modificationCount;
+		} finally {
+			if(!committed) {
+				for(E edge : addedEdges) {
+					edges.remove(edge);
+					unindexEdge(edge);
+				}
 
-		// Clear out appropriate cache entries
-		outgoingEdgesCache.remove(edge.getSource());
-		incomingEdgesCache.remove(edge.getDestination());
+				// Added vertices were appended to the end of the vertex list
+				vertices.subList(vertices.size() - addedVertices.size(), vertices.size()).clear();
+				for(V vertex : addedVertices)
+					vertexSet.remove(vertex);
 
-		// Check if adding this edge created a cycle, and if so, remove it
-		boolean oldShouldSort = shouldSort;
-		shouldSort = true;
-		if(!topologicalSort()) {
-			edges.remove(edge);
-			shouldSort = oldShouldSort;
-			throw new CycleDetectedException("adding edge creates a cycle");
+				shouldSort = oldShouldSort;
+			}
 		}
 	}
 
 	/**
 	 * Gets whether or not an edge can be added to this graph without raising
-	 * any exception defined in {@link #add(DirectedEdge)}.
+	 * any exception defined in {@link #add(DirectedEdge)}. This method does
+	 * not modify the graph in any way.
 	 * 
 	 * @param edge  the edge to check
 	 * 
@@ -177,29 +279,9 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         cycle, <code>false</code> otherwise
 	 */
 	public boolean canAddEdge(E edge) {
-		boolean canAdd = false;
-		if(vertices.contains(edge.getSource()) && vertices.contains(edge.getDestination())) {
-			try {
-				edges.add(edge);
-
-				// XXX It'd be nice to not have to do this, but instead either directly
-				//     add this edge to the cached values of each, or maybe pass this
-				//     edge to toplogicalSort directly
-				outgoingEdgesCache.remove(edge.getSource());
-				incomingEdgesCache.remove(edge.getDestination());
-
-				// Check if adding this edge created a cycle, and if so, remove it
-				boolean oldShouldSort = shouldSort;
-				shouldSort = true;
-				canAdd = topologicalSort();
-				shouldSort = oldShouldSort;
-			} finally {
-				outgoingEdgesCache.remove(edge.getSource());
-				incomingEdgesCache.remove(edge.getDestination());
-				edges.remove(edge);
-			}
-		}
-		return canAdd;
+		return (vertexSet.contains(edge.getSource())
+		        && vertexSet.contains(edge.getDestination())
+		        && !isReachable(edge.getDestination(), edge.getSource()));
 	}
 
 	/**
@@ -211,15 +293,11 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean remove(E edge) {
-		final int initalSize = edges.size();
-		edges.remove(edge);
-		final boolean removed = initalSize != edges.size();
+		final boolean removed = edges.remove(edge);
 		if(removed) {
-			// Clear out appropriate cache entries
-			outgoingEdgesCache.remove(edge.getSource());
-			incomingEdgesCache.remove(edge.getDestination());
-
+			unindexEdge(edge);
 			shouldSort = true;
+			++modificationCount;
 		}
 		return removed;
 	}
@@ -235,6 +313,18 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 		return Collections.unmodifiableList(vertices);
 	}
 
+	/**
+	 * Gets the number of structural modifications made to this DAG. This
+	 * value changes whenever a vertex or edge is added or removed, so it
+	 * can be used to determine whether information computed from this DAG
+	 * is still up to date.
+	 * 
+	 * @return the modification count
+	 */
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
 	/**
 	 * Gets the set of edges in this DAG.
 	 * 
@@ -257,7 +347,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * @return the level of the vertex, or -1 if the vertex is not in this graph
 	 */
 	public int getLevel(V vertex) {
-		if(!vertices.contains(vertex))
+		if(!vertexSet.contains(vertex))
 			return -1;
 
 		topologicalSort();
@@ -277,21 +367,10 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         is <code>vertex</code>
 	 */
 	public Set<E> getIncomingEdges(V vertex) {
-		if(!vertices.contains(vertex))
-			return new TreeSet<E>();
-
-		// If not in cache, compute
-		if(!incomingEdgesCache.containsKey(vertex)) {
-			final TreeSet<E> cachedValue = new TreeSet<E>();
-			for(E edge : edges) {
-				if(edge.getDestination() == vertex)
-					cachedValue.add(edge);
-			}
-
-			incomingEdgesCache.put(vertex, new SoftReference<Set<E>>(cachedValue));
-		}
-
-		return new TreeSet<E>(incomingEdgesCache.get(vertex).get());
+		final TreeSet<E> ret = new TreeSet<E>();
+		if(vertexSet.contains(vertex) && incomingEdges.containsKey(vertex))
+			ret.addAll(incomingEdges.get(vertex));
+		return ret;
 	}
 
 	/**
@@ -303,21 +382,10 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         the <code>vertex</code>  
 	 */
 	public Set<E> getOutgoingEdges(V vertex) {
-		if(!vertices.contains(vertex))
-			return new TreeSet<E>();
-
-		// See if exists in cache
-		if(!outgoingEdgesCache.containsKey(vertex)) {
-			final TreeSet<E> cachedValue = new TreeSet<E>();
-			for(E edge : edges) {
-				if(edge.getSource() == vertex)
-					cachedValue.add(edge);
-			}
-
-			outgoingEdgesCache.put(vertex, new SoftReference<Set<E>>(cachedValue));
-		}
-
-		return new TreeSet<E>(outgoingEdgesCache.get(vertex).get());
+		final TreeSet<E> ret = new TreeSet<E>();
+		if(vertexSet.contains(vertex) && outgoingEdges.containsKey(vertex))
+			ret.addAll(outgoingEdges.get(vertex));
+		return ret;
 	}
 
 	@Override
@@ -351,67 +419,62 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * <tt>{u, v}</tt>, the vertex <tt>u</tt> comes before the vertex
 	 * <tt>v</tt> in the ordering.
 	 *
+	 * Sorting holds the lock on this DAG, since it rewrites the vertex list
+	 * and levels on what are otherwise read-only queries. Subclasses which
+	 * are read from several threads make structural changes while holding
+	 * the same lock.
+	 *
 	 * @return <code>true</code> if sorting was successful, <code>false</code>
 	 *         otherwise (because a cycle exists).
 	 *  
 	 * @see <a href="http://en.wikipedia.org/wiki/Topological_sorting">Wikipedia Article</a>
 	 */
-	private boolean topologicalSort() {
+	private synchronized boolean topologicalSort() {
 		boolean ret = true;
-		if(shouldSort && vertices.size() == 1) {
-			vertexLevels.put(vertices.iterator().next(), 0);
-		} else if(shouldSort && vertices.size() > 1) {
-			final ArrayList<V> orderedVertices = new ArrayList<V>();
-			final WeakHashMap<V, Integer> newLevels = new WeakHashMap<V, Integer>();
-			final HashMap<V, Integer> incomingEdgeCount = new HashMap<V, Integer>();
-
-			//
-			for(V vertex : vertices)
-				incomingEdgeCount.put(vertex, 0);
-
-			// Gather initial incoming edge count
-			for(E edge : edges) {
-				int count = incomingEdgeCount.get(edge.getDestination());
-				incomingEdgeCount.put(edge.getDestination(), count + 1);
+		if(shouldSort) {
+			final ArrayList<V> orderedVertices = new ArrayList<V>(vertexSet.size());
+			final IdentityHashMap<V, Integer> newLevels = new IdentityHashMap<V, Integer>();
+			final IdentityHashMap<V, Integer> incomingEdgeCount = new IdentityHashMap<V, Integer>();
+
+			// Gather initial incoming edge count. Vertices with no incoming
+			// edges make up the first level.
+			ArrayList<V> verticesToProcess = new ArrayList<V>();
+			for(V vertex : vertices) {
+				final Set<E> incoming = incomingEdges.get(vertex);
+				if(incoming == null)
+					verticesToProcess.add(vertex);
+				else
+					incomingEdgeCount.put(vertex, incoming.size());
 			}
 
 			// Ordering
-			for(int level = 0; orderedVertices.size() < vertices.size(); ++level) {
-				// Find a vertex with zero incoming edges
-				ArrayList<V> verticesToProcess = new ArrayList<V>();
-				for(Map.Entry<V, Integer> entry : incomingEdgeCount.entrySet()) {
-					if(entry.getValue() == 0)
-						verticesToProcess.add(entry.getKey());
-				}
-
-				if(verticesToProcess.size() == 0)
-					break;
-
+			for(int level = 0; verticesToProcess.size() > 0; ++level) {
+				final ArrayList<V> nextVertices = new ArrayList<V>();
 				for(V vertex : verticesToProcess) {
-					// Prevent reuse of this vertex
 					orderedVertices.add(vertex);
 					newLevels.put(vertex, level);
-					incomingEdgeCount.put(vertex, -1);
 
-					// Reduce incoming edge count after removing vertex
-					for(E edge : getOutgoingEdges(vertex)) {
-						V out = edge.getDestination();
-						incomingEdgeCount.put(out, incomingEdgeCount.get(out) - 1);
+					// Reduce incoming edge count after removing vertex. Once a
+					// vertex has no more incoming edges, it is on the next level.
+					final Set<E> outgoing = outgoingEdges.get(vertex);
+					if(outgoing != null) {
+						for(E edge : outgoing) {
+							final V out = edge.getDestination();
+							final int count = incomingEdgeCount.get(out) - 1;
+							incomingEdgeCount.put(out, count);
+							if(count == 0)
+								nextVertices.add(out);
+						}
 					}
 				}
-			}
 
-			boolean cycleExists = false;
-			for(Integer value : incomingEdgeCount.values()) {
-				if(value > 0) {
-					cycleExists = true;
-					break;
-				}
+				verticesToProcess = nextVertices;
 			}
 
 			// If no cycle, we want to update the vertices to the new
-			// ordered list and flag them as not needing sorting.
-			if(cycleExists) {
+			// ordered list and flag them as not needing sorting. Any
+			// vertex on a cycle never has its incoming edge count reach zero.
+			if(orderedVertices.size() < vertexSet.size()) {
 				ret = false;
 			} else {
 				vertexLevels = newLevels;
@@ -422,4 +485,98 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 
 		return ret;
 	}
+
+	/**
+	 * Gets whether or not there is a directed path between two vertices. The
+	 * search follows the outgoing edge index and never modifies this graph.
+	 * If the topological ordering is up to date, vertex levels are used to
+	 * bound the search: every vertex on a path to <code>target</code> has a
+	 * level strictly less than the level of <code>target</code>.
+	 * 
+	 * @param start  the vertex to start searching from
+	 * @param target  the vertex to search for
+	 * 
+	 * @return <code>true</code> if <code>target</code> is reachable from
+	 *         <code>start</code>, <code>false</code> otherwise
+	 */
+	private boolean isReachable(V start, V target) {
+		if(start == target)
+			return true;
+
+		int maxLevel = Integer.MAX_VALUE;
+		if(!shouldSort && vertexLevels.containsKey(start) && vertexLevels.containsKey(target)) {
+			maxLevel = vertexLevels.get(target);
+			if(vertexLevels.get(start) >= maxLevel)
+				return false;
+		}
+
+		final Set<V> visited = Collections.newSetFromMap(new IdentityHashMap<V, Boolean>());
+		final ArrayDeque<V> toVisit = new ArrayDeque<V>();
+		visited.add(start);
+		toVisit.push(start);
+		while(!toVisit.isEmpty()) {
+			final Set<E> outgoing = outgoingEdges.get(toVisit.pop());
+			if(outgoing == null)
+				continue;
+
+			for(E edge : outgoing) {
+				final V next = edge.getDestination();
+				if(next == target)
+					return true;
+
+				if(maxLevel != Integer.MAX_VALUE) {
+					final Integer level = vertexLevels.get(next);
+					if(level != null && level >= maxLevel)
+						continue;
+				}
+
+				if(visited.add(next))
+					toVisit.push(next);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds an edge to the incoming/outgoing edge indices.
+	 * 
+	 * @param edge  the edge
+	 */
+	private void indexEdge(E edge) {
+		TreeSet<E> outgoing = outgoingEdges.get(edge.getSource());
+		if(outgoing == null) {
+			outgoing = new TreeSet<E>();
+			outgoingEdges.put(edge.getSource(), outgoing);
+		}
+		outgoing.add(edge);
+
+		TreeSet<E> incoming = incomingEdges.get(edge.getDestination());
+		if(incoming == null) {
+			incoming = new TreeSet<E>();
+			incomingEdges.put(edge.getDestination(), incoming);
+		}
+		incoming.add(edge);
+	}
+
+	/**
+	 * Removes an edge from the incoming/outgoing edge indices.
+	 * 
+	 * @param edge  the edge
+	 */
+	private void unindexEdge(E edge) {
+		final TreeSet<E> outgoing = outgoingEdges.get(edge.getSource());
+		if(outgoing != null) {
+			outgoing.remove(edge);
+			if(outgoing.isEmpty())
+				outgoingEdges.remove(edge.getSource());
+		}
+
+		final TreeSet<E> incoming = incomingEdges.get(edge.getDestination());
+		if(incoming != null) {
+			incoming.remove(edge);
+			if(incoming.isEmpty())
+				incomingEdges.remove(edge.getDestination());
+		}
+	}
 }
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.dag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Structural analysis of a {@link DirectedAcyclicGraph}: ancestor and
+ * descendant sets, weakly connected components, the width of each level,
+ * and the longest path. Each analysis takes linear time in the size of the
+ * graph, and its result is cached until the graph is next modified.
+ * 
+ * Sets of vertices are represented as {@link BitSet}s over the vertex ids
+ * of the {@link GraphSnapshot} returned by {@link #getSnapshot()}. Results
+ * are only valid as long as the graph is not modified.
+ * 
+ * @param <V>  the vertex type, which implements {@link Vertex}
+ * @param <E>  the edge type, which implements {@link DirectedEdge}
+ */
+public class GraphAnalysis<V extends Vertex, E extends DirectedEdge<V>> {
+	/** The graph being analyzed */
+	private final DirectedAcyclicGraph<V, E> graph;
+
+	/** The modification count of the graph when the caches were built */
+	private int modificationCount;
+
+	/** Snapshot of the graph, or <code>null</code> if invalidated */
+	private GraphSnapshot<V, E> snapshot;
+
+	/** Cached ancestor sets */
+	private IdentityHashMap<V, BitSet> ancestors;
+
+	/** Cached descendant sets */
+	private IdentityHashMap<V, BitSet> descendants;
+
+	/** Component index of each vertex id, or <code>null</code> if not computed */
+	private int [] components;
+
+	/** The number of components */
+	private int componentCount;
+
+	/** Offsets of the first vertex id of each level, or <code>null</code> if not computed */
+	private int [] levelOffsets;
+
+	/**
+	 * Constructs an analysis of the given graph.
+	 * 
+	 * @param graph  the graph
+	 */
+	public GraphAnalysis(DirectedAcyclicGraph<V, E> graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Gets the graph being analyzed.
+	 * 
+	 * @return the graph
+	 */
+	public DirectedAcyclicGraph<V, E> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Gets a snapshot of the current state of the graph. The ids of
+	 * this snapshot are those used by the {@link BitSet}s returned from this
+	 * analysis.
+	 * 
+	 * @return the snapshot
+	 */
+	public GraphSnapshot<V, E> getSnapshot() {
+		if(snapshot == null || modificationCount != graph.getModificationCount()) {
+			modificationCount = graph.getModificationCount();
+			snapshot = new GraphSnapshot<V, E>(graph);
+			ancestors = new IdentityHashMap<V, BitSet>();
+			descendants = new IdentityHashMap<V, BitSet>();
+			components = null;
+			levelOffsets = null;
+		}
+		return snapshot;
+	}
+
+	//
+	// Ancestors / descendants
+	//
+
+	/**
+	 * Gets the ancestors of a vertex, that is, all vertices from which the
+	 * given vertex is reachable. The vertex itself is not included.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return a {@link BitSet} of vertex ids, which should not be modified
+	 * 
+	 * @throws VertexNotFoundException  if the vertex is not in the graph 
+	 */
+	public BitSet getAncestors(V vertex) throws VertexNotFoundException {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		BitSet ret = ancestors.get(vertex);
+		if(ret == null) {
+			ret = traverse(dag, vertex, false);
+			ancestors.put(vertex, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the descendants of a vertex, that is, all vertices reachable from
+	 * the given vertex. The vertex itself is not included.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return a {@link BitSet} of vertex ids, which should not be modified
+	 * 
+	 * @throws VertexNotFoundException  if the vertex is not in the graph 
+	 */
+	public BitSet getDescendants(V vertex) throws VertexNotFoundException {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		BitSet ret = descendants.get(vertex);
+		if(ret == null) {
+			ret = traverse(dag, vertex, true);
+			descendants.put(vertex, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Converts a set of vertex ids into a list of vertices, in topological order.
+	 * 
+	 * @param ids  the vertex ids
+	 * 
+	 * @return the list of vertices
+	 */
+	public List<V> toVertices(BitSet ids) {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		final ArrayList<V> ret = new ArrayList<V>(ids.cardinality());
+		for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+			ret.add(dag.getVertex(id));
+		return ret;
+	}
+
+	/**
+	 * Traverses the graph from a vertex.
+	 * 
+	 * @param dag  the graph
+	 * @param vertex  the starting vertex
+	 * @param forward  if <code>true</code>, follow outgoing edges, otherwise
+	 *                 follow incoming edges
+	 * 
+	 * @return the set of visited vertex ids, excluding the starting vertex
+	 * 
+	 * @throws VertexNotFoundException  if the vertex is not in the graph 
+	 */
+	private static <V extends Vertex> BitSet traverse(GraphSnapshot<V, ?> dag, V vertex, boolean forward)
+		throws VertexNotFoundException
+	{
+		final int start = dag.getId(vertex);
+		if(start < 0)
+			throw new VertexNotFoundException(vertex);
+
+		final BitSet visited = new BitSet(dag.getVertexCount());
+		final int [] stack = new int[dag.getVertexCount()];
+		int size = 0;
+		stack[size++] = start;
+		while(size > 0) {
+			final int id = stack[--size];
+			final int degree = (forward ? dag.getOutDegree(id) : dag.getInDegree(id));
+			for(int i = 0; i < degree; ++i) {
+				final int next = (forward ? dag.getSuccessor(id, i) : dag.getPredecessor(id, i));
+				if(!visited.get(next)) {
+					visited.set(next);
+					stack[size++] = next;
+				}
+			}
+		}
+		return visited;
+	}
+
+	//
+	// Components
+	//
+
+	/**
+	 * Gets the number of weakly connected components in the graph.
+	 * 
+	 * @return the number of components
+	 */
+	public int getComponentCount() {
+		computeComponents();
+		return componentCount;
+	}
+
+	/**
+	 * Gets the index of the weakly connected component containing a vertex.
+	 * Components are indexed from <code>0</code> to
+	 * <code>{@link #getComponentCount()} - 1</code>.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return the component index, or -1 if the vertex is not in the graph
+	 */
+	public int getComponent(V vertex) {
+		computeComponents();
+		final int id = snapshot.getId(vertex);
+		return (id < 0 ? -1 : components[id]);
+	}
+
+	/**
+	 * Gets the weakly connected components of the graph.
+	 * 
+	 * @return a list of {@link BitSet}s of vertex ids, one per component
+	 */
+	public List<BitSet> getComponents() {
+		computeComponents();
+
+		final ArrayList<BitSet> ret = new ArrayList<BitSet>(componentCount);
+		for(int c = 0; c < componentCount; ++c)
+			ret.add(new BitSet(components.length));
+
+		for(int id = 0; id < components.length; ++id)
+			ret.get(components[id]).set(id);
+
+		return ret;
+	}
+
+	/**
+	 * Labels each vertex with its weakly connected component, if not
+	 * already computed.
+	 */
+	private void computeComponents() {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		if(components != null)
+			return;
+
+		final int n = dag.getVertexCount();
+		final int [] labels = new int[n];
+		final int [] stack = new int[n];
+		int count = 0;
+		for(int id = 0; id < n; ++id)
+			labels[id] = -1;
+
+		for(int root = 0; root < n; ++root) {
+			if(labels[root] >= 0)
+				continue;
+
+			int size = 0;
+			labels[root] = count;
+			stack[size++] = root;
+			while(size > 0) {
+				final int id = stack[--size];
+				for(int i = 0; i < dag.getOutDegree(id); ++i) {
+					final int next = dag.getSuccessor(id, i);
+					if(labels[next] < 0) {
+						labels[next] = count;
+						stack[size++] = next;
+					}
+				}
+
+				for(int i = 0; i < dag.getInDegree(id); ++i) {
+					final int next = dag.getPredecessor(id, i);
+					if(labels[next] < 0) {
+						labels[next] = count;
+						stack[size++] = next;
+					}
+				}
+			}
+
+			++count;
+		}
+
+		components = labels;
+		componentCount = count;
+	}
+
+	//
+	// Levels
+	//
+
+	/**
+	 * Gets the number of levels in the graph.
+	 * 
+	 * @return the number of levels, or zero if the graph is empty
+	 */
+	public int getLevelCount() {
+		computeLevels();
+		return levelOffsets.length - 1;
+	}
+
+	/**
+	 * Gets the width of each level of the graph, that is, the number of
+	 * vertices on each level. Since vertices on the same level do not depend
+	 * on each other, this is the parallelism profile of the graph.
+	 * 
+	 * @return an array containing the number of vertices on each level
+	 */
+	public int [] getLevelWidths() {
+		computeLevels();
+
+		final int [] ret = new int[levelOffsets.length - 1];
+		for(int level = 0; level < ret.length; ++level)
+			ret[level] = levelOffsets[level + 1] - levelOffsets[level];
+
+		return ret;
+	}
+
+	/**
+	 * Gets the maximum width of any level in the graph.
+	 * 
+	 * @return the maximum width
+	 */
+	public int getMaximumWidth() {
+		int ret = 0;
+		for(int width : getLevelWidths())
+			ret = Math.max(ret, width);
+		return ret;
+	}
+
+	/**
+	 * Gets the vertices on a given level of the graph, in topological order.
+	 * 
+	 * @param level  the level
+	 * 
+	 * @return an immutable list of vertices, which is empty if the level is
+	 *         out of range
+	 */
+	public List<V> getVerticesAtLevel(int level) {
+		computeLevels();
+		if(level < 0 || level >= levelOffsets.length - 1)
+			return Collections.emptyList();
+
+		return snapshot.getVertices().subList(levelOffsets[level], levelOffsets[level + 1]);
+	}
+
+	/**
+	 * Gets a longest path in the graph.
+	 * 
+	 * @return the vertices along a longest path, from source to sink, or an
+	 *         empty list if the graph is empty
+	 */
+	public List<V> getLongestPath() {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		final int n = dag.getVertexCount();
+		if(n == 0)
+			return Collections.emptyList();
+
+		// The last vertex is on the highest level, and the level of a vertex
+		// is the length of the longest path to it, so walk backwards through
+		// predecessors one level lower
+		final ArrayList<V> ret = new ArrayList<V>(dag.getLevel(n - 1) + 1);
+		int id = n - 1;
+		ret.add(dag.getVertex(id));
+		while(dag.getLevel(id) > 0) {
+			final int level = dag.getLevel(id);
+			for(int i = 0; i < dag.getInDegree(id); ++i) {
+				final int prev = dag.getPredecessor(id, i);
+				if(dag.getLevel(prev) == level - 1) {
+					id = prev;
+					break;
+				}
+			}
+			ret.add(dag.getVertex(id));
+		}
+
+		Collections.reverse(ret);
+		return ret;
+	}
+
+	/**
+	 * Computes the offsets of each level, if not already computed.
+	 */
+	private void computeLevels() {
+		final GraphSnapshot<V, E> dag = getSnapshot();
+		if(levelOffsets != null)
+			return;
+
+		// Vertices on the same level have consecutive ids
+		final int n = dag.getVertexCount();
+		final int levelCount = (n == 0 ? 0 : dag.getLevel(n - 1) + 1);
+		final int [] offsets = new int[levelCount + 1];
+		for(int id = 0; id < n; ++id)
+			++offsets[dag.getLevel(id) + 1];
+
+		for(int level = 0; level < levelCount; ++level)
+			offsets[level + 1] += offsets[level];
+
+		levelOffsets = offsets;
+	}
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.dag;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable, read-only snapshot of a directed acyclic graph (DAG),
+ * laid out for fast traversal. Vertices are assigned dense integer ids
+ * in topological order, so that the topological ordering of the vertices
+ * is simply <code>0, 1, ..., n - 1</code>. Furthermore, vertices on the
+ * same level are assigned consecutive ids, in increasing order of level.
+ * Edges are stored in compressed sparse row (CSR) form: for a vertex with
+ * id <code>i</code>, its outgoing edges occupy the range
+ * <code>[offsets[i], offsets[i + 1])</code> of a flat array of destination
+ * ids (and similarly for incoming edges).
+ * 
+ * In addition to the generic, object-based API found in
+ * {@link DirectedAcyclicGraph}, an id-based API is provided so that
+ * traversals need not allocate.
+ * 
+ * A snapshot does not replace the storage of the {@link DirectedAcyclicGraph}
+ * it was copied from. It references the same vertex and edge objects, and
+ * keeps a mapping from vertex to id, so it adds to the memory used by the
+ * graph rather than reducing it.
+ * 
+ * @param <V>  the vertex type, which implements {@link Vertex}
+ * @param <E>  the edge type, which implements {@link DirectedEdge}
+ */
+public class GraphSnapshot<V extends Vertex, E extends DirectedEdge<V>>
+	implements Iterable<V>
+{
+	/** The vertices in this DAG, indexed by id (i.e., in topological order) */
+	private Object [] vertices;
+
+	/** A mapping from vertex to its id */
+	private IdentityHashMap<V, Integer> ids;
+
+	/** The level of each vertex, indexed by id */
+	private int [] levels;
+
+	/** Offsets into {@link #outgoingTargets} for each vertex id */
+	private int [] outgoingOffsets;
+
+	/** Destination ids of outgoing edges */
+	private int [] outgoingTargets;
+
+	/** Edge objects, aligned with {@link #outgoingTargets} */
+	private Object [] outgoingEdges;
+
+	/** Offsets into {@link #incomingSources} for each vertex id */
+	private int [] incomingOffsets;
+
+	/** Source ids of incoming edges */
+	private int [] incomingSources;
+
+	/** Indices into {@link #outgoingEdges}, aligned with {@link #incomingSources} */
+	private int [] incomingEdges;
+
+	/**
+	 * Constructs a snapshot of a given DAG.
+	 * 
+	 * @param graph  the graph to copy
+	 */
+	public GraphSnapshot(DirectedAcyclicGraph<V, E> graph) {
+		try {
+			build(graph.getVertices(), graph.getEdges());
+		} catch(VertexNotFoundException exc) {
+			throw new IllegalStateException("DAG contains an edge to a vertex not in the DAG", exc);
+		} catch(CycleDetectedException exc) {
+			throw new IllegalStateException("DAG contains a cycle", exc);
+		}
+	}
+
+	/**
+	 * Constructs a snapshot from the given vertices and edges.
+	 * 
+	 * @param vertices  the vertices
+	 * @param edges  the edges
+	 * 
+	 * @throws VertexNotFoundException  if an edge references a vertex that is
+	 *                                  not contained in the given vertices
+	 * @throws CycleDetectedException  if the given edges form a cycle
+	 */
+	public GraphSnapshot(Collection<? extends V> vertices, Collection<? extends E> edges)
+		throws VertexNotFoundException, CycleDetectedException
+	{
+		build(vertices, edges);
+	}
+
+	/**
+	 * Builds the CSR representation from the given vertices and edges.
+	 * 
+	 * @param vertexCollection  the vertices
+	 * @param edgeCollection  the edges
+	 * 
+	 * @throws VertexNotFoundException  if an edge references a vertex that is
+	 *                                  not contained in the given vertices
+	 * @throws CycleDetectedException  if the given edges form a cycle
+	 */
+	private void build(Collection<? extends V> vertexCollection, Collection<? extends E> edgeCollection)
+		throws VertexNotFoundException, CycleDetectedException
+	{
+		// Assign provisional ids in iteration order
+		final IdentityHashMap<V, Integer> provisionalIds = new IdentityHashMap<V, Integer>();
+		final Object [] provisionalVertices = new Object[vertexCollection.size()];
+		int n = 0;
+		for(V vertex : vertexCollection) {
+			if(!provisionalIds.containsKey(vertex)) {
+				provisionalIds.put(vertex, n);
+				provisionalVertices[n++] = vertex;
+			}
+		}
+
+		final int m = edgeCollection.size();
+		final int [] sources = new int[m];
+		final int [] destinations = new int[m];
+		final Object [] edgeObjects = new Object[m];
+		int edgeIndex = 0;
+		for(E edge : edgeCollection) {
+			final Integer source = provisionalIds.get(edge.getSource());
+			if(source == null)
+				throw new VertexNotFoundException(edge.getSource());
+
+			final Integer destination = provisionalIds.get(edge.getDestination());
+			if(destination == null)
+				throw new VertexNotFoundException(edge.getDestination());
+
+			sources[edgeIndex] = source;
+			destinations[edgeIndex] = destination;
+			edgeObjects[edgeIndex] = edge;
+			++edgeIndex;
+		}
+
+		// Sort provisional ids topologically, recording levels
+		final int [] offsets = new int[n + 1];
+		final int [] targets = new int[m];
+		fillRows(n, sources, destinations, offsets, targets, null);
+
+		final int [] incomingCount = new int[n];
+		for(int e = 0; e < m; ++e)
+			++incomingCount[destinations[e]];
+
+		final int [] order = new int[n];
+		final int [] provisionalLevels = new int[n];
+		int orderSize = 0;
+		for(int v = 0; v < n; ++v) {
+			if(incomingCount[v] == 0)
+				order[orderSize++] = v;
+		}
+
+		for(int levelStart = 0, level = 0; levelStart < orderSize; ++level) {
+			final int levelEnd = orderSize;
+			for(int i = levelStart; i < levelEnd; ++i) {
+				final int v = order[i];
+				provisionalLevels[v] = level;
+				for(int e = offsets[v]; e < offsets[v + 1]; ++e) {
+					if(--incomingCount[targets[e]] == 0)
+						order[orderSize++] = targets[e];
+				}
+			}
+			levelStart = levelEnd;
+		}
+
+		if(orderSize < n)
+			throw new CycleDetectedException("edges create a cycle");
+
+		// Relabel so that ids follow topological order
+		final int [] newIds = new int[n];
+		this.vertices = new Object[n];
+		this.levels = new int[n];
+		this.ids = new IdentityHashMap<V, Integer>(n);
+		for(int id = 0; id < n; ++id) {
+			final int v = order[id];
+			newIds[v] = id;
+			this.vertices[id] = provisionalVertices[v];
+			this.levels[id] = provisionalLevels[v];
+			this.ids.put(vertex(id), id);
+		}
+
+		for(int e = 0; e < m; ++e) {
+			sources[e] = newIds[sources[e]];
+			destinations[e] = newIds[destinations[e]];
+		}
+
+		// Outgoing rows, along with their edge objects
+		final int [] edgePermutation = new int[m];
+		this.outgoingOffsets = new int[n + 1];
+		this.outgoingTargets = new int[m];
+		fillRows(n, sources, destinations, outgoingOffsets, outgoingTargets, edgePermutation);
+
+		this.outgoingEdges = new Object[m];
+		final int [] outgoingPosition = new int[m];
+		for(int i = 0; i < m; ++i) {
+			outgoingEdges[i] = edgeObjects[edgePermutation[i]];
+			outgoingPosition[edgePermutation[i]] = i;
+		}
+
+		// Incoming rows, referencing edge objects in the outgoing rows
+		this.incomingOffsets = new int[n + 1];
+		this.incomingSources = new int[m];
+		fillRows(n, destinations, sources, incomingOffsets, incomingSources, edgePermutation);
+
+		this.incomingEdges = new int[m];
+		for(int i = 0; i < m; ++i)
+			incomingEdges[i] = outgoingPosition[edgePermutation[i]];
+	}
+
+	/**
+	 * Fills compressed sparse rows using a counting sort on row ids.
+	 * 
+	 * @param n  the number of rows
+	 * @param rows  the row id of each entry
+	 * @param columns  the column id of each entry
+	 * @param offsets  array of size <code>n + 1</code> to fill with row offsets 
+	 * @param values  array to fill with column ids
+	 * @param permutation  if not <code>null</code>, filled with the index of
+	 *                     the original entry placed at each position
+	 */
+	private static void fillRows(int n, int [] rows, int [] columns, int [] offsets, int [] values, int [] permutation) {
+		for(int e = 0; e < rows.length; ++e)
+			++offsets[rows[e] + 1];
+
+		for(int v = 0; v < n; ++v)
+			offsets[v + 1] += offsets[v];
+
+		final int [] next = new int[n];
+		System.arraycopy(offsets, 0, next, 0, n);
+		for(int e = 0; e < rows.length; ++e) {
+			final int position = next[rows[e]]++;
+			values[position] = columns[e];
+			if(permutation != null)
+				permutation[position] = e;
+		}
+	}
+
+	//
+	// Id-based API
+	//
+
+	/**
+	 * Gets the number of vertices in this DAG.
+	 * 
+	 * @return the number of vertices
+	 */
+	public int getVertexCount() {
+		return vertices.length;
+	}
+
+	/**
+	 * Gets the number of edges in this DAG.
+	 * 
+	 * @return the number of edges
+	 */
+	public int getEdgeCount() {
+		return outgoingTargets.length;
+	}
+
+	/**
+	 * Gets the id of a vertex. Ids range from <code>0</code> to
+	 * <code>{@link #getVertexCount()} - 1</code>, and follow the
+	 * topological ordering of this DAG.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return the id of the vertex, or -1 if the vertex is not in this graph
+	 */
+	public int getId(V vertex) {
+		final Integer id = ids.get(vertex);
+		return (id == null ? -1 : id);
+	}
+
+	/**
+	 * Gets the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * 
+	 * @return the vertex
+	 * 
+	 * @throws IndexOutOfBoundsException  if the id is out of range
+	 */
+	public V getVertex(int id) {
+		return vertex(id);
+	}
+
+	/**
+	 * Gets the level of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * 
+	 * @return the level of the vertex
+	 * 
+	 * @throws IndexOutOfBoundsException  if the id is out of range
+	 * 
+	 * @see DirectedAcyclicGraph#getLevel(Vertex)
+	 */
+	public int getLevel(int id) {
+		return levels[id];
+	}
+
+	/**
+	 * Gets the number of outgoing edges of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * 
+	 * @return the number of outgoing edges
+	 */
+	public int getOutDegree(int id) {
+		return outgoingOffsets[id + 1] - outgoingOffsets[id];
+	}
+
+	/**
+	 * Gets the destination of an outgoing edge of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * @param index  the index of the outgoing edge, between <code>0</code>
+	 *               and <code>{@link #getOutDegree(int)} - 1</code>
+	 * 
+	 * @return the id of the destination vertex
+	 */
+	public int getSuccessor(int id, int index) {
+		return outgoingTargets[outgoingOffsets[id] + index];
+	}
+
+	/**
+	 * Gets the number of incoming edges of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * 
+	 * @return the number of incoming edges
+	 */
+	public int getInDegree(int id) {
+		return incomingOffsets[id + 1] - incomingOffsets[id];
+	}
+
+	/**
+	 * Gets the source of an incoming edge of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * @param index  the index of the incoming edge, between <code>0</code>
+	 *               and <code>{@link #getInDegree(int)} - 1</code>
+	 * 
+	 * @return the id of the source vertex
+	 */
+	public int getPredecessor(int id, int index) {
+		return incomingSources[incomingOffsets[id] + index];
+	}
+
+	/**
+	 * Gets an outgoing edge of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * @param index  the index of the outgoing edge, between <code>0</code>
+	 *               and <code>{@link #getOutDegree(int)} - 1</code>
+	 * 
+	 * @return the edge
+	 */
+	public E getOutgoingEdge(int id, int index) {
+		return edge(outgoingOffsets[id] + index);
+	}
+
+	/**
+	 * Gets an incoming edge of the vertex with a given id.
+	 * 
+	 * @param id  the id
+	 * @param index  the index of the incoming edge, between <code>0</code>
+	 *               and <code>{@link #getInDegree(int)} - 1</code>
+	 * 
+	 * @return the edge
+	 */
+	public E getIncomingEdge(int id, int index) {
+		return edge(incomingEdges[incomingOffsets[id] + index]);
+	}
+
+	//
+	// Generic API
+	//
+
+	/**
+	 * Gets whether or not this graph contains a specified vertex.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return <code>true</code> if this graph contains the specified vertex,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean contains(V vertex) {
+		return ids.containsKey(vertex);
+	}
+
+	/**
+	 * Gets the vertices in this DAG, ordered according to their topological
+	 * ordering.
+	 * 
+	 * @return An immutable {@link List} of vertices.
+	 */
+	public List<V> getVertices() {
+		return new AbstractList<V>() {
+			@Override
+			public V get(int index) {
+				return vertex(index);
+			}
+
+			@Override
+			public int size() {
+				return vertices.length;
+			}
+		};
+	}
+
+	/**
+	 * Gets the set of edges in this DAG.
+	 * 
+	 * @return An immutable {@link Set} of edges.
+	 */
+	public Set<E> getEdges() {
+		final LinkedHashSet<E> ret = new LinkedHashSet<E>();
+		for(int i = 0; i < outgoingEdges.length; ++i)
+			ret.add(edge(i));
+		return Collections.unmodifiableSet(ret);
+	}
+
+	/**
+	 * Gets the level of a vertex.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return the level of the vertex, or -1 if the vertex is not in this graph
+	 * 
+	 * @see DirectedAcyclicGraph#getLevel(Vertex)
+	 */
+	public int getLevel(V vertex) {
+		final int id = getId(vertex);
+		return (id < 0 ? -1 : levels[id]);
+	}
+
+	/**
+	 * Gets the incoming {@link DirectedEdge}s for a {@link Vertex}.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return a {@link Set} of {@link DirectedEdge}s in this graph whose destination
+	 *         is <code>vertex</code>
+	 */
+	public Set<E> getIncomingEdges(V vertex) {
+		final LinkedHashSet<E> ret = new LinkedHashSet<E>();
+		final int id = getId(vertex);
+		if(id >= 0) {
+			for(int i = incomingOffsets[id]; i < incomingOffsets[id + 1]; ++i)
+				ret.add(edge(incomingEdges[i]));
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the outgoing {@link DirectedEdge}s for a {@link Vertex}.
+	 * 
+	 * @param vertex  the vertex
+	 * 
+	 * @return a {@link Set} of {@link DirectedEdge}s in this graph whose source is
+	 *         the <code>vertex</code>  
+	 */
+	public Set<E> getOutgoingEdges(V vertex) {
+		final LinkedHashSet<E> ret = new LinkedHashSet<E>();
+		final int id = getId(vertex);
+		if(id >= 0) {
+			for(int i = outgoingOffsets[id]; i < outgoingOffsets[id + 1]; ++i)
+				ret.add(edge(i));
+		}
+		return ret;
+	}
+
+	@Override
+	public Iterator<V> iterator() {
+		return getVertices().iterator();
+	}
+
+	//
+	// Helpers
+	//
+
+	@SuppressWarnings("unchecked")
+	private V vertex(int id) {
+		return (V)vertices[id];
+	}
+
+	@SuppressWarnings("unchecked")
+	private E edge(int index) {
+		return (E)outgoingEdges[index];
+	}
+}
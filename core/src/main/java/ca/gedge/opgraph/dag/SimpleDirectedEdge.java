@@ -18,12 +18,24 @@
  */
 package ca.gedge.opgraph.dag;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * An edge that only knows about its source and destination vertices.
  * 
+ * Every edge is assigned a sequence id upon construction, which is used
+ * to give edges a stable, total ordering (the order of construction) and
+ * a hash code that is reproducible from run to run.
+ * 
  * @param <V>  the type of vertex used in the edge
  */
 public class SimpleDirectedEdge<V> implements DirectedEdge<V> {
+	/** Source of sequence ids for edges */
+	private static final AtomicLong nextSequenceId = new AtomicLong();
+
+	/** The sequence id of this edge */
+	private final long sequenceId = nextSequenceId.getAndIncrement();
+
 	/** The source vertex of this edge */
 	protected final V source;
 
@@ -46,6 +58,29 @@ public class SimpleDirectedEdge<V> implements DirectedEdge<V> {
 		this.destination = destination;
 	}
 
+	/**
+	 * Gets the sequence id of this edge. Sequence ids are unique, and
+	 * monotonically increase in the order edges are constructed.
+	 * 
+	 * @return the sequence id
+	 */
+	public final long getSequenceId() {
+		return sequenceId;
+	}
+
+	/**
+	 * Compares two sequence ids.
+	 * 
+	 * @param a  the first sequence id
+	 * @param b  the second sequence id
+	 * 
+	 * @return a negative integer, zero, or a positive integer if <code>a</code>
+	 *         is less than, equal to, or greater than <code>b</code>
+	 */
+	protected static int compareSequenceIds(long a, long b) {
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
 	//
 	// DirectedEdge
 	//
@@ -60,10 +95,34 @@ public class SimpleDirectedEdge<V> implements DirectedEdge<V> {
 		return destination;
 	}
 
+	/**
+	 * Compares edges by sequence id. Edges are only comparable to edges of
+	 * the same class, since subclasses may order their edges differently,
+	 * and edges of other types have no sequence id to order by.
+	 * 
+	 * @throws ClassCastException  if the given edge is not of the same class
+	 *                             as this edge
+	 */
 	@Override
 	public int compareTo(DirectedEdge<V> o) {
 		if(o == null)
 			return 1;
-		return (equals(o) ? 0 : (new Integer(System.identityHashCode(this))).compareTo(System.identityHashCode(o)));
+
+		if(equals(o))
+			return 0;
+
+		if(o.getClass() != getClass())
+			throw new ClassCastException("cannot compare " + getClass().getName() + " to " + o.getClass().getName());
+
+		return compareSequenceIds(sequenceId, ((SimpleDirectedEdge<?>)o).sequenceId);
+	}
+
+	//
+	// Overrides
+	//
+
+	@Override
+	public int hashCode() {
+		return (int)(sequenceId ^ (sequenceId >>> 32));
 	}
 }
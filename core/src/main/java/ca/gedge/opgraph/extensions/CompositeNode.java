@@ -25,6 +25,13 @@ import ca.gedge.opgraph.OpNode;
  * An extension meant for any {@link OpNode} that contains a graph (e.g., macro nodes).
  */
 public interface CompositeNode {
+	/**
+	 * The name of the node property fired when the graph of a composite node
+	 * changes, with the old and new graphs as values. Graphs containing the
+	 * node rely on this property to keep their index of node ids up to date.
+	 */
+	public static final String GRAPH_PROPERTY = "graph";
+
 	/**
 	 * Gets the graph contained within this node.
 	 * 
@@ -33,7 +40,8 @@ public interface CompositeNode {
 	public abstract OpGraph getGraph();
 
 	/**
-	 * Sets the graph contained within this node.
+	 * Sets the graph contained within this node. Implementations must fire
+	 * a {@link #GRAPH_PROPERTY} property change when the graph changes.
 	 * 
 	 * @param graph  the graph that composes this node
 	 */
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.extensions;
+
+import ca.gedge.opgraph.OpNode;
+import ca.gedge.opgraph.Processor;
+
+/**
+ * An extension meant for any {@link OpNode} with the {@link CompositeNode} and
+ * {@link Publishable} extensions whose operation is equivalent to processing
+ * its graph once, with published inputs mapped to internal nodes beforehand,
+ * and published outputs mapped back afterwards. A {@link Processor} can
+ * inline such a node, linking directly to and from its internal nodes (see
+ * {@link Processor#setInlining(boolean)}).
+ * 
+ * Nodes that loop over their graph, or otherwise do more than map inputs and
+ * outputs, must not have this extension.
+ */
+public interface Inlinable {}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.extensions;
+
+import java.io.File;
+
+import ca.gedge.opgraph.OpGraph;
+
+/**
+ * An extension meant for any {@link OpGraph} that is shared by several
+ * {@link CompositeNode}s, such as a macro definition loaded once from a
+ * source file. A shared graph should be treated as read-only, and copies of
+ * its composite nodes should share it instead of copying it. The editor
+ * reverts any edit made while viewing a shared graph.
+ */
+public interface SharedGraph {
+	/**
+	 * Gets the file this graph was loaded from.
+	 * 
+	 * @return the source file
+	 */
+	public abstract File getSource();
+}
@@ -21,6 +21,7 @@
  */
 package ca.gedge.opgraph.io;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -41,6 +42,20 @@ public interface OpGraphSerializer {
 	 */
 	public abstract void write(OpGraph graph, OutputStream stream) throws IOException;
 
+	/**
+	 * Writes a graph to a stream that will be stored at a given location.
+	 * References to other files, such as shared macro sources, are written
+	 * relative to the location where possible.
+	 * 
+	 * @param graph  the graph to write
+	 * @param stream  the stream to write to
+	 * @param location  the file the stream will be stored in, or
+	 *                  <code>null</code> if unknown
+	 * 
+	 * @throws IOException  if any I/O errors occur
+	 */
+	public abstract void write(OpGraph graph, OutputStream stream, File location) throws IOException;
+
 	/**
 	 * Reads a graph from a given stream.
 	 * 
@@ -51,4 +66,18 @@ public interface OpGraphSerializer {
 	 * @throws IOException  if any I/O errors occur
 	 */
 	public abstract OpGraph read(InputStream stream) throws IOException;
+
+	/**
+	 * Reads a graph from a stream that was loaded from a given location.
+	 * Relative references to other files are resolved against the location.
+	 * 
+	 * @param stream  the stream to read from
+	 * @param location  the file the stream was loaded from, or
+	 *                  <code>null</code> if unknown
+	 * 
+	 * @return the {@link OpGraph} that was read from the given stream
+	 * 
+	 * @throws IOException  if any I/O errors occur
+	 */
+	public abstract OpGraph read(InputStream stream, File location) throws IOException;
 }
@@ -20,9 +20,12 @@ package ca.gedge.opgraph.validators;
 
 import java.util.Collection;
 
+import ca.gedge.opgraph.collections.PrimitiveList;
+
 /**
  * A validator that will check if a {@link Collection} contains objects that
- * adhere to a given {@link TypeValidator}.
+ * adhere to a given {@link TypeValidator}. A non-empty {@link PrimitiveList}
+ * is checked by its element type, without boxing its elements.
  */
 public class CollectionValidator implements TypeValidator {
 	/** The validator used for collection elements */
@@ -54,6 +57,11 @@ public class CollectionValidator implements TypeValidator {
 
 	@Override
 	public boolean isAcceptable(Object obj) {
+		if(obj instanceof PrimitiveList) {
+			final PrimitiveList<?> list = (PrimitiveList<?>)obj;
+			return (list.isEmpty() || elementValidator.isAcceptable(list.getElementType()));
+		}
+
 		boolean ret = true;
 		if(obj instanceof Iterable) {
 			for(Object o : (Collection<?>)obj) {
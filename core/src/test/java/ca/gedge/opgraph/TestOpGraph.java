@@ -20,6 +20,13 @@ package ca.gedge.opgraph;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Test;
 
 import ca.gedge.opgraph.InputField;
@@ -28,7 +35,12 @@ import ca.gedge.opgraph.OpLink;
 import ca.gedge.opgraph.OpGraph;
 import ca.gedge.opgraph.OpNode;
 import ca.gedge.opgraph.OutputField;
+import ca.gedge.opgraph.dag.CycleDetectedException;
+import ca.gedge.opgraph.dag.GraphSnapshot;
+import ca.gedge.opgraph.dag.VertexNotFoundException;
+import ca.gedge.opgraph.exceptions.ItemMissingException;
 import ca.gedge.opgraph.exceptions.ProcessingException;
+import ca.gedge.opgraph.extensions.CompositeNode;
 import ca.gedge.opgraph.exceptions.RequiredInputException;
 
 /**
@@ -389,4 +401,440 @@ public class TestOpGraph {
 			fail("Should be no errors when processing");
 		}
 	}
+
+	/**
+	 * Tests that changes made in a batch are delivered in a single event to
+	 * batch listeners, and individually to other listeners.
+	 */
+	@Test
+	public void testBatchedEvents()
+		throws ItemMissingException, VertexNotFoundException, CycleDetectedException
+	{
+		final OpGraph dag = new OpGraph();
+		final AddNode av1 = new AddNode();
+		final MultiplyNode mv1 = new MultiplyNode();
+		dag.add(av1);
+		dag.add(mv1);
+		assertNotNull(dag.connect(av1, AddNode.RESULT_FIELD, mv1, MultiplyNode.X_FIELD));
+
+		final List<List<OpGraphChange>> batches = new ArrayList<List<OpGraphChange>>();
+		final List<String> events = new ArrayList<String>();
+		dag.addGraphListener(new OpGraphBatchListener() {
+			@Override
+			public void graphChanged(OpGraph graph, List<OpGraphChange> changes) {
+				batches.add(changes);
+			}
+
+			@Override
+			public void nodeAdded(OpGraph graph, OpNode node) { fail("Should be batched"); }
+
+			@Override
+			public void nodeRemoved(OpGraph graph, OpNode node) { fail("Should be batched"); }
+
+			@Override
+			public void linkAdded(OpGraph graph, OpLink link) { fail("Should be batched"); }
+
+			@Override
+			public void linkRemoved(OpGraph graph, OpLink link) { fail("Should be batched"); }
+		});
+
+		dag.addGraphListener(new OpGraphListener() {
+			@Override
+			public void nodeAdded(OpGraph graph, OpNode node) { events.add("nodeAdded"); }
+
+			@Override
+			public void nodeRemoved(OpGraph graph, OpNode node) { events.add("nodeRemoved"); }
+
+			@Override
+			public void linkAdded(OpGraph graph, OpLink link) { events.add("linkAdded"); }
+
+			@Override
+			public void linkRemoved(OpGraph graph, OpLink link) { events.add("linkRemoved"); }
+		});
+
+		// Removing a node also removes its links, all in one batch
+		dag.remove(av1);
+		assertEquals(1, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertEquals(OpGraphChange.Type.LINK_REMOVED, batches.get(0).get(0).getType());
+		assertEquals(OpGraphChange.Type.NODE_REMOVED, batches.get(0).get(1).getType());
+		assertSame(av1, batches.get(0).get(1).getNode());
+		assertEquals(Arrays.asList("linkRemoved", "nodeRemoved"), events);
+
+		// Nested batches are delivered when the outermost batch ends
+		dag.beginBatch();
+		dag.add(av1);
+		dag.beginBatch();
+		assertNotNull(dag.connect(av1, AddNode.RESULT_FIELD, mv1, MultiplyNode.X_FIELD));
+		dag.endBatch();
+		assertEquals(1, batches.size());
+		dag.endBatch();
+		assertEquals(2, batches.size());
+		assertEquals(2, batches.get(1).size());
+
+		// Links given more than once to a bulk add are only added once
+		final AddNode av2 = new AddNode();
+		final MultiplyNode mv2 = new MultiplyNode();
+		final OpLink link = new OpLink(av2, AddNode.RESULT_FIELD, mv2, MultiplyNode.X_FIELD);
+		events.clear();
+		dag.addAll(Arrays.asList(av2, mv2), Arrays.asList(link, link));
+		assertEquals(3, batches.size());
+		assertEquals(3, batches.get(2).size());
+		assertEquals(Arrays.asList("nodeAdded", "nodeAdded", "linkAdded"), events);
+	}
+
+	/**
+	 * Tests that a processor works on the version of the graph at the time
+	 * it was reset, regardless of later edits.
+	 */
+	@Test
+	public void testSnapshotProcessing() throws ProcessingException {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode cv2 = new ConstantNode(2.0);
+		final ConstantNode cv10 = new ConstantNode(10.0);
+		final MultiplyNode mv1 = new MultiplyNode();
+		dag.add(cv2);
+		dag.add(cv10);
+		dag.add(mv1);
+		assertNotNull(dag.connect(cv2, ConstantNode.VALUE_FIELD, mv1, MultiplyNode.X_FIELD));
+		final OpLink optionalLink = dag.connect(cv10, ConstantNode.VALUE_FIELD, mv1, MultiplyNode.Y_FIELD);
+		assertNotNull(optionalLink);
+
+		final Processor processor = new Processor(dag);
+		final GraphSnapshot<OpNode, OpLink> snapshot = dag.getSnapshot();
+
+		// Edit after the processor pinned its version
+		dag.remove(optionalLink);
+		dag.remove(cv10);
+		assertNotSame(snapshot, dag.getSnapshot());
+		assertEquals(3, snapshot.getVertexCount());
+		assertEquals(2, dag.getSnapshot().getVertexCount());
+		assertSame(dag.getSnapshot(), dag.getSnapshot());
+
+		processor.stepAll();
+		assertNull(processor.getError());
+		assertEquals(20.0, (Double)processor.getContext().findChildContext(mv1).get(MultiplyNode.RESULT_FIELD), 1e-10);
+
+		// After a reset, the new version is used
+		processor.reset(null);
+		processor.stepAll();
+		assertNull(processor.getError());
+		assertEquals(2.0, (Double)processor.getContext().findChildContext(mv1).get(MultiplyNode.RESULT_FIELD), 1e-10);
+	}
+
+	/**
+	 * Tests that snapshots requested from one thread are consistent while
+	 * another thread edits and queries the graph.
+	 */
+	@Test
+	public void testConcurrentSnapshots() throws InterruptedException {
+		final OpGraph dag = new OpGraph();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(!done.get()) {
+						final GraphSnapshot<OpNode, OpLink> snapshot = dag.getSnapshot();
+						for(int id = 0; id < snapshot.getVertexCount(); ++id) {
+							for(int i = 0; i < snapshot.getOutDegree(id); ++i)
+								assertTrue(snapshot.getSuccessor(id, i) > id);
+						}
+
+						for(OpLink link : snapshot.getEdges()) {
+							assertTrue(snapshot.contains(link.getSource()));
+							assertTrue(snapshot.contains(link.getDestination()));
+						}
+						Thread.yield();
+					}
+				} catch(Throwable exc) {
+					error.set(exc);
+				}
+			}
+		};
+		reader.start();
+
+		try {
+			final ArrayList<OpNode> added = new ArrayList<OpNode>();
+			for(int i = 0; i < 500; ++i) {
+				final ConstantNode constant = new ConstantNode(i);
+				final AddNode add = new AddNode();
+				if(i % 2 == 0) {
+					dag.add(constant);
+					dag.add(add);
+					assertNotNull(dag.connect(constant, ConstantNode.VALUE_FIELD, add, AddNode.X_FIELD));
+				} else {
+					dag.beginBatch();
+					try {
+						dag.add(constant);
+						dag.add(add);
+						assertNotNull(dag.connect(constant, ConstantNode.VALUE_FIELD, add, AddNode.Y_FIELD));
+					} finally {
+						dag.endBatch();
+					}
+				}
+
+				// Queries which sort on the editing thread
+				assertEquals(1, dag.getLevel(add));
+				assertTrue(dag.getVertices().contains(constant));
+
+				added.add(constant);
+				added.add(add);
+				if(added.size() > 20)
+					dag.remove(added.remove(0));
+			}
+		} finally {
+			done.set(true);
+			reader.join();
+		}
+
+		if(error.get() != null)
+			throw new AssertionError(error.get());
+
+		final GraphSnapshot<OpNode, OpLink> snapshot = dag.getSnapshot();
+		assertEquals(dag.getVertices().size(), snapshot.getVertexCount());
+		assertTrue(snapshot.getVertices().containsAll(dag.getVertices()));
+	}
+
+	/**
+	 * Test node that contains a graph.
+	 */
+	static class GraphNode extends OpNode implements CompositeNode {
+		private OpGraph graph;
+
+		public GraphNode(OpGraph graph) {
+			this.graph = graph;
+			putExtension(CompositeNode.class, this);
+		}
+
+		@Override
+		public OpGraph getGraph() {
+			return graph;
+		}
+
+		@Override
+		public void setGraph(OpGraph graph) {
+			final OpGraph oldGraph = this.graph;
+			this.graph = graph;
+			firePropertyChange(GRAPH_PROPERTY, oldGraph, graph);
+		}
+
+		@Override
+		public void operate(OpContext context) {}
+	}
+
+	/**
+	 * Tests deep lookup of nodes by id through composite nodes
+	 */
+	@Test
+	public void testDeepNodeLookup() {
+		final OpGraph root = new OpGraph();
+		final OpGraph middle = new OpGraph();
+		final OpGraph inner = new OpGraph();
+		final AddNode rootNode = new AddNode();
+		final AddNode innerNode = new AddNode();
+		final GraphNode middleComposite = new GraphNode(middle);
+		final GraphNode innerComposite = new GraphNode(inner);
+
+		root.add(rootNode);
+		root.add(middleComposite);
+		middle.add(innerComposite);
+
+		// Nodes added to a nested graph after the composite node was added
+		inner.add(innerNode);
+
+		assertSame(rootNode, root.getNodeById(rootNode.getId(), true));
+		assertSame(innerNode, root.getNodeById(innerNode.getId(), true));
+		assertNull(root.getNodeById(innerNode.getId(), false));
+		assertEquals(Arrays.asList(root, middle, inner), root.getGraphPath(innerNode.getId()));
+		assertEquals(Arrays.asList(middle, inner), middle.getGraphPath(innerNode.getId()));
+
+		// Id changes
+		final String oldId = innerNode.getId();
+		innerNode.setId("renamed");
+		assertNull(root.getNodeById(oldId, true));
+		assertSame(innerNode, root.getNodeById("renamed", true));
+
+		// Removal
+		middle.remove(innerComposite);
+		assertNull(root.getNodeById("renamed", true));
+		assertNull(root.getGraphPath("renamed"));
+		assertSame(innerNode, inner.getNodeById("renamed", true));
+	}
+
+	/**
+	 * Tests deep lookup of nodes in a graph shared by several composite nodes
+	 */
+	@Test
+	public void testSharedGraphLookup() {
+		final OpGraph root = new OpGraph();
+		final OpGraph left = new OpGraph();
+		final OpGraph right = new OpGraph();
+		final OpGraph shared = new OpGraph();
+		final AddNode sharedNode = new AddNode();
+		final GraphNode leftMacro = new GraphNode(left);
+		final GraphNode rightMacro = new GraphNode(right);
+		final GraphNode firstShared = new GraphNode(shared);
+		final GraphNode secondShared = new GraphNode(shared);
+		final GraphNode thirdShared = new GraphNode(shared);
+
+		shared.add(sharedNode);
+		left.add(firstShared);
+		left.add(secondShared);
+		right.add(thirdShared);
+		root.add(leftMacro);
+		root.add(rightMacro);
+
+		// The route indexed first wins
+		final String id = sharedNode.getId();
+		assertSame(sharedNode, root.getNodeById(id, true));
+		assertEquals(Arrays.asList(root, left, shared), root.getGraphPath(id));
+
+		// Adding the same graph twice to a parent only indexes it once
+		left.remove(firstShared);
+		assertEquals(Arrays.asList(root, left, shared), root.getGraphPath(id));
+		assertEquals(Arrays.asList(left, shared), left.getGraphPath(id));
+
+		// Once a route goes away, a remaining one takes over
+		left.remove(secondShared);
+		assertNull(left.getGraphPath(id));
+		assertEquals(Arrays.asList(root, right, shared), root.getGraphPath(id));
+
+		// Nodes added to the shared graph are reachable along the new route
+		final AddNode addedNode = new AddNode();
+		shared.add(addedNode);
+		assertEquals(Arrays.asList(root, right, shared), root.getGraphPath(addedNode.getId()));
+
+		left.add(firstShared);
+		assertEquals(Arrays.asList(root, right, shared), root.getGraphPath(id));
+
+		root.remove(rightMacro);
+		assertEquals(Arrays.asList(root, left, shared), root.getGraphPath(id));
+		assertEquals(Arrays.asList(root, left, shared), root.getGraphPath(addedNode.getId()));
+
+		root.remove(leftMacro);
+		assertNull(root.getNodeById(id, true));
+		assertNull(root.getNodeById(addedNode.getId(), true));
+		assertSame(sharedNode, right.getNodeById(id, true));
+
+		// Changing the graph of an attached composite node updates the index
+		root.add(rightMacro);
+		assertEquals(Arrays.asList(root, right, shared), root.getGraphPath(id));
+		thirdShared.setGraph(left);
+		assertEquals(Arrays.asList(root, right, left, shared), root.getGraphPath(id));
+		left.remove(firstShared);
+		assertNull(root.getGraphPath(id));
+	}
+
+	/**
+	 * Tests lookup of node fields by key, including after keys change
+	 */
+	@Test
+	public void testFieldLookup() {
+		final AddNode node = new AddNode();
+		try {
+			node.putField(new InputField("x", ""));
+			fail("Fixed fields should not be overwritten");
+		} catch(IllegalArgumentException exc) {}
+
+		assertSame(AddNode.X_FIELD, node.getInputFieldWithKey("x"));
+		assertSame(OpNode.ENABLED_FIELD, node.getInputFieldWithKey("enabled"));
+		assertNull(node.getInputFieldWithKey("z"));
+		assertEquals(3, node.getInputFields().size());
+
+		final InputField z = new InputField("z", "");
+		node.putField(z);
+		assertSame(z, node.getInputFieldWithKey("z"));
+
+		z.setKey("w");
+		assertNull(node.getInputFieldWithKey("z"));
+		assertSame(z, node.getInputFieldWithKey("w"));
+
+		node.removeField(z);
+		assertNull(node.getInputFieldWithKey("w"));
+
+		// Fields shared between nodes keep every node's index up to date
+		final AddNode other = new AddNode();
+		final InputField shared = new InputField("s", "");
+		node.putField(shared);
+		other.putField(shared);
+		shared.setKey("t");
+		assertSame(shared, node.getInputFieldWithKey("t"));
+		assertSame(shared, other.getInputFieldWithKey("t"));
+		assertNull(other.getInputFieldWithKey("s"));
+
+		// The first field with a key is indexed
+		final InputField u = new InputField("u", "");
+		node.putField(u);
+		u.setKey("t");
+		assertSame(shared, node.getInputFieldWithKey("t"));
+		shared.setKey("v");
+		assertSame(u, node.getInputFieldWithKey("t"));
+		assertSame(shared, node.getInputFieldWithKey("v"));
+
+		// Removed fields no longer change the index
+		node.removeField(u);
+		u.setKey("x");
+		assertSame(AddNode.X_FIELD, node.getInputFieldWithKey("x"));
+		assertNull(node.getInputFieldWithKey("t"));
+		node.removeField(shared);
+		other.removeField(shared);
+
+		node.removeAllOutputFields();
+		assertNull(node.getOutputFieldWithKey("result"));
+		assertEquals(0, node.getOutputFields().size());
+
+		node.removeAllInputFields();
+		assertSame(OpNode.ENABLED_FIELD, node.getInputFieldWithKey("enabled"));
+		assertEquals(1, node.getInputFields().size());
+
+		// Missing keys
+		assertNull(node.getInputFieldWithKey(null));
+		assertNull(node.getOutputFieldWithKey(null));
+
+		// The shared enabled field cannot be renamed
+		OpNode.ENABLED_FIELD.setKey("enabled");
+		try {
+			OpNode.ENABLED_FIELD.setKey("disabled");
+			fail("Enabled field was renamed");
+		} catch(IllegalStateException exc) {
+			assertEquals("enabled", OpNode.ENABLED_FIELD.getKey());
+		}
+	}
+
+	/**
+	 * Tests that links whose fields share keys, but not classes, are ordered
+	 * consistently with equals
+	 */
+	@Test
+	public void testLinkOrdering() throws ItemMissingException {
+		final ConstantNode source = new ConstantNode(1.0);
+		final AddNode destination = new AddNode();
+
+		final InputField plain = new InputField("z", "");
+		destination.putField(plain);
+		final OpLink first = new OpLink(source, ConstantNode.VALUE_FIELD, destination, plain);
+
+		final InputField special = new InputField("z", "") {};
+		destination.removeField(plain);
+		destination.putField(special);
+		final OpLink second = new OpLink(source, ConstantNode.VALUE_FIELD, destination, special);
+
+		assertFalse(first.equals(second));
+		assertTrue(first.compareTo(second) != 0);
+		assertEquals(-Integer.signum(first.compareTo(second)), Integer.signum(second.compareTo(first)));
+
+		final OpLink copy = new OpLink(source, ConstantNode.VALUE_FIELD, destination, special);
+		assertEquals(0, second.compareTo(copy));
+
+		// Equal links order the same way against every other link
+		assertTrue(second.equals(copy));
+		assertEquals(Integer.signum(first.compareTo(second)), Integer.signum(first.compareTo(copy)));
+		assertEquals(Integer.signum(second.compareTo(first)), Integer.signum(copy.compareTo(first)));
+
+		final TreeSet<OpLink> links = new TreeSet<OpLink>(Arrays.asList(first, second, copy));
+		assertEquals(2, links.size());
+	}
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.collections;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ca.gedge.opgraph.validators.CollectionValidator;
+
+/**
+ * Tests {@link PrimitiveList}s.
+ */
+public class TestPrimitiveLists {
+	@Test
+	public void testIntArrayList() {
+		final IntArrayList list = new IntArrayList(0);
+		final ArrayList<Integer> expected = new ArrayList<Integer>();
+		for(int i = 0; i < 100; ++i) {
+			list.addInt(i);
+			expected.add(i);
+		}
+		assertEquals(expected, list);
+
+		list.add(10, -1);
+		expected.add(10, -1);
+		list.remove(50);
+		expected.remove(50);
+		list.set(0, 7);
+		expected.set(0, 7);
+		assertEquals(expected, list);
+		assertEquals(expected.hashCode(), list.hashCode());
+
+		int sum = 0;
+		for(int value : expected)
+			sum += value;
+		assertEquals(sum, list.intStream(true).sum());
+		assertEquals(list.size(), list.toIntArray().length);
+
+		try {
+			list.getInt(list.size());
+			fail("Index past end should fail");
+		} catch(IndexOutOfBoundsException exc) {}
+
+		try {
+			list.add(null);
+			fail("Null elements should fail");
+		} catch(NullPointerException exc) {}
+	}
+
+	@Test
+	public void testDoubleArrayList() {
+		final DoubleArrayList list = new DoubleArrayList(new double[]{1.5, 2.5, 3.0});
+		list.addDouble(4.0);
+		list.remove(0);
+		assertEquals(Arrays.asList(2.5, 3.0, 4.0), list);
+		assertEquals(9.5, list.doubleStream(false).sum(), 1e-10);
+		assertArrayEquals(new double[]{2.5, 3.0, 4.0}, list.toDoubleArray(), 1e-10);
+	}
+
+	@Test
+	public void testBooleanBitSet() {
+		final BooleanBitSet list = new BooleanBitSet(new boolean[]{true, false, true});
+		list.add(1, true);
+		list.addBoolean(false);
+		assertEquals(Arrays.asList(true, true, false, true, false), list);
+		assertEquals(3, list.countTrue());
+
+		list.remove(0);
+		list.remove(0);
+		assertEquals(Arrays.asList(false, true, false), list);
+		assertEquals(1, list.countTrue());
+		assertTrue(Arrays.equals(new boolean[]{false, true, false}, list.toBooleanArray()));
+	}
+
+	@Test
+	public void testCopyOf() {
+		assertTrue(PrimitiveLists.copyOf(Arrays.asList(1, 2, 3)) instanceof IntArrayList);
+		assertTrue(PrimitiveLists.copyOf(Arrays.asList(1.0, 2.0)) instanceof DoubleArrayList);
+		assertTrue(PrimitiveLists.copyOf(Arrays.asList(true, false)) instanceof BooleanBitSet);
+
+		final List<?> mixed = PrimitiveLists.copyOf(Arrays.<Object>asList(1, 2.0));
+		assertTrue(mixed instanceof ArrayList);
+		assertEquals(Arrays.<Object>asList(1, 2.0), mixed);
+
+		assertTrue(PrimitiveLists.copyOf(Arrays.asList(1, null)) instanceof ArrayList);
+		assertEquals(Arrays.asList(4, 5), PrimitiveLists.copyOf(Arrays.asList(4, 5)));
+	}
+
+	@Test
+	public void testCollectionValidator() {
+		final CollectionValidator numbers = new CollectionValidator(Number.class);
+		final CollectionValidator strings = new CollectionValidator(String.class);
+		final IntArrayList list = new IntArrayList(new int[]{1, 2, 3});
+
+		assertTrue(numbers.isAcceptable(list));
+		assertFalse(strings.isAcceptable(list));
+		assertTrue(strings.isAcceptable(new IntArrayList()));
+		assertTrue(numbers.isAcceptable(new DoubleArrayList(new double[]{1.0})));
+		assertFalse(numbers.isAcceptable(new BooleanBitSet(new boolean[]{true})));
+	}
+}
@@ -21,12 +21,15 @@ package ca.gedge.opgraph.dag;
 import static org.junit.Assert.*;
 import static ca.gedge.CollectionsAssert.assertCollectionEqualsArray;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import org.junit.Before;
 import org.junit.Test;
 
 import ca.gedge.opgraph.dag.CycleDetectedException;
 import ca.gedge.opgraph.dag.DirectedAcyclicGraph;
+import ca.gedge.opgraph.dag.DirectedEdge;
 import ca.gedge.opgraph.dag.SimpleDirectedEdge;
 import ca.gedge.opgraph.dag.Vertex;
 import ca.gedge.opgraph.dag.VertexNotFoundException;
@@ -172,4 +175,223 @@ public class TestDirectedAcyclicGraph {
 		assertCollectionEqualsArray(dag.getIncomingEdges(vertexMap.get("G")));
 		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("G")));
 	}
+
+	/**
+	 * Tests that checking whether an edge can be added does not modify the DAG
+	 */
+	@Test
+	public void testCanAddEdge() {
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(vertexMap.get("A"));
+		dag.add(vertexMap.get("B"));
+		dag.add(vertexMap.get("C"));
+		dag.add(vertexMap.get("D"));
+
+		try {
+			dag.add(edgeMap.get("AB"));
+			dag.add(edgeMap.get("BC"));
+		} catch(VertexNotFoundException exc) {
+			fail("Vertex not found, but should be: " + exc.getVertex());
+		} catch(CycleDetectedException exc) {
+			fail("Adding edge creates cycle, but this shouldn't happen");
+		}
+
+		assertTrue(dag.canAddEdge(edgeMap.get("AC")));
+		assertTrue(dag.canAddEdge(edgeMap.get("CD")));
+		assertTrue(dag.canAddEdge(edgeMap.get("AB")));
+		assertFalse(dag.canAddEdge(edgeMap.get("CA")));
+		assertFalse(dag.canAddEdge(edgeMap.get("BA")));
+		assertFalse(dag.canAddEdge(edgeMap.get("AE")));
+
+		// Sorted graph uses vertex levels to bound the search
+		dag.getVertices();
+		assertTrue(dag.canAddEdge(edgeMap.get("DA")));
+		assertFalse(dag.canAddEdge(edgeMap.get("CA")));
+
+		assertCollectionEqualsArray(dag.getEdges(), edgeMap.get("AB"), edgeMap.get("BC"));
+		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("A")), edgeMap.get("AB"));
+		assertCollectionEqualsArray(dag.getIncomingEdges(vertexMap.get("A")));
+	}
+
+	/**
+	 * Tests adding vertices and edges in bulk to a DAG
+	 */
+	@Test
+	public void testAddAll() {
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(vertexMap.get("A"));
+
+		try {
+			dag.addAll(Arrays.asList(vertexMap.get("B"), vertexMap.get("C"), vertexMap.get("D")),
+			           Arrays.asList(edgeMap.get("DC"), edgeMap.get("CA"), edgeMap.get("AB"), edgeMap.get("DA")));
+		} catch(VertexNotFoundException exc) {
+			fail("Vertex not found, but should be: " + exc.getVertex());
+		} catch(CycleDetectedException exc) {
+			fail("Adding edges creates cycle, but this shouldn't happen");
+		}
+
+		assertEquals(0, dag.getLevel(vertexMap.get("D")));
+		assertEquals(1, dag.getLevel(vertexMap.get("C")));
+		assertEquals(2, dag.getLevel(vertexMap.get("A")));
+		assertEquals(3, dag.getLevel(vertexMap.get("B")));
+
+		// A cycle should leave the DAG untouched
+		try {
+			dag.addAll(Arrays.asList(vertexMap.get("E")),
+			           Arrays.asList(edgeMap.get("BE"), edgeMap.get("ED")));
+			fail("Adding edges should create a cycle");
+		} catch(VertexNotFoundException exc) {
+			fail("Vertex not found, but should be: " + exc.getVertex());
+		} catch(CycleDetectedException exc) {
+			// expected
+		}
+
+		assertFalse(dag.contains(vertexMap.get("E")));
+		assertCollectionEqualsArray(dag.getVertices(), 
+		                            vertexMap.get("A"), vertexMap.get("B"), vertexMap.get("C"), vertexMap.get("D"));
+		assertCollectionEqualsArray(dag.getEdges(),
+		                            edgeMap.get("DC"), edgeMap.get("CA"), edgeMap.get("AB"), edgeMap.get("DA"));
+		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("B")));
+	}
+
+	/**
+	 * Tests removal of vertices, and their edges, from a DAG
+	 */
+	@Test
+	public void testRemoveVertex() {
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(vertexMap.get("A"));
+		dag.add(vertexMap.get("B"));
+		dag.add(vertexMap.get("C"));
+
+		try {
+			dag.add(edgeMap.get("AB"));
+			dag.add(edgeMap.get("BC"));
+			dag.add(edgeMap.get("AC"));
+		} catch(VertexNotFoundException exc) {
+			fail("Vertex not found, but should be: " + exc.getVertex());
+		} catch(CycleDetectedException exc) {
+			fail("Adding edge creates cycle, but this shouldn't happen");
+		}
+
+		assertTrue(dag.remove(vertexMap.get("B")));
+		assertFalse(dag.remove(vertexMap.get("B")));
+		assertFalse(dag.contains(vertexMap.get("B")));
+		assertEquals(-1, dag.getLevel(vertexMap.get("B")));
+		assertCollectionEqualsArray(dag.getEdges(), edgeMap.get("AC"));
+		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("A")), edgeMap.get("AC"));
+		assertCollectionEqualsArray(dag.getIncomingEdges(vertexMap.get("C")), edgeMap.get("AC"));
+
+		// Removing and re-adding a vertex before sorting should not duplicate it
+		assertTrue(dag.remove(vertexMap.get("A")));
+		dag.add(vertexMap.get("A"));
+		assertCollectionEqualsArray(dag.getVertices(), vertexMap.get("A"), vertexMap.get("C"));
+		assertCollectionEqualsArray(dag.getEdges());
+	}
+
+	/**
+	 * Tests that vertex membership is based on identity, not equality
+	 */
+	@Test
+	public void testVertexIdentity() {
+		final SimpleVertex a = new SimpleVertex("A") {
+			@Override
+			public boolean equals(Object obj) {
+				return (obj instanceof SimpleVertex && obj.toString().equals(toString()));
+			}
+
+			@Override
+			public int hashCode() {
+				return toString().hashCode();
+			}
+		};
+		final SimpleVertex otherA = new SimpleVertex("A") {
+			@Override
+			public boolean equals(Object obj) {
+				return a.equals(obj);
+			}
+
+			@Override
+			public int hashCode() {
+				return a.hashCode();
+			}
+		};
+		assertEquals(a, otherA);
+
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(a);
+		dag.add(otherA);
+		assertEquals(2, dag.getVertices().size());
+
+		assertTrue(dag.remove(otherA));
+		assertTrue(dag.contains(a));
+		assertFalse(dag.contains(otherA));
+		assertEquals(1, dag.getVertices().size());
+		assertSame(a, dag.getVertices().get(0));
+
+		// Repeatedly removing and re-adding without sorting doesn't grow the graph
+		for(int i = 0; i < 10; ++i) {
+			dag.add(otherA);
+			dag.remove(otherA);
+		}
+		assertCollectionEqualsArray(dag.getVertices(), a);
+	}
+
+	/**
+	 * Tests that edges are ordered by construction, and that distinct edges
+	 * between the same vertices are all kept
+	 */
+	@Test
+	public void testEdgeOrdering() {
+		final SimpleVertex a = vertexMap.get("A");
+		final SimpleVertex b = vertexMap.get("B");
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(a);
+		dag.add(b);
+
+		final ArrayList<SimpleDirectedEdge<SimpleVertex>> edges = new ArrayList<SimpleDirectedEdge<SimpleVertex>>();
+		for(int i = 0; i < 100; ++i)
+			edges.add(new SimpleDirectedEdge<SimpleVertex>(a, b));
+
+		try {
+			for(int i = edges.size() - 1; i >= 0; --i)
+				dag.add(edges.get(i));
+		} catch(VertexNotFoundException exc) {
+			fail("Vertex not found, but should be: " + exc.getVertex());
+		} catch(CycleDetectedException exc) {
+			fail("Adding edge creates cycle, but this shouldn't happen");
+		}
+
+		assertEquals(edges, new ArrayList<SimpleDirectedEdge<SimpleVertex>>(dag.getEdges()));
+		assertEquals(edges, new ArrayList<SimpleDirectedEdge<SimpleVertex>>(dag.getOutgoingEdges(a)));
+	}
+
+	/**
+	 * Tests that edges refuse to be ordered against edges of another type,
+	 * rather than guessing an order
+	 */
+	@Test(expected=ClassCastException.class)
+	public void testMixedEdgeOrdering() {
+		final SimpleVertex a = vertexMap.get("A");
+		final SimpleVertex b = vertexMap.get("B");
+		final SimpleDirectedEdge<SimpleVertex> edge = new SimpleDirectedEdge<SimpleVertex>(a, b);
+		final DirectedEdge<SimpleVertex> other = new DirectedEdge<SimpleVertex>() {
+			@Override
+			public SimpleVertex getSource() {
+				return a;
+			}
+
+			@Override
+			public SimpleVertex getDestination() {
+				return b;
+			}
+
+			@Override
+			public int compareTo(DirectedEdge<SimpleVertex> o) {
+				return 0;
+			}
+		};
+
+		edge.compareTo(other);
+	}
 }
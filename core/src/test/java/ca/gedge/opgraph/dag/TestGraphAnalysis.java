@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.dag;
+
+import static org.junit.Assert.*;
+import static ca.gedge.CollectionsAssert.assertCollectionEqualsArray;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link GraphAnalysis}.
+ */
+public class TestGraphAnalysis {
+	/**
+	 * Basic vertex class for testing.
+	 */
+	private static class SimpleVertex implements Vertex {
+		private String name;
+
+		public SimpleVertex(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	//
+	// Test data
+	//
+
+	private HashMap<String, SimpleVertex> vertexMap = new HashMap<String, SimpleVertex>();
+	private DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag;
+	private GraphAnalysis<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> analysis;
+
+	/**
+	 * Sets up the graph <code>A -&gt; B -&gt; D, A -&gt; C -&gt; D, D -&gt; E</code>
+	 * along with the disconnected vertices <code>F -&gt; G</code>.
+	 */
+	@Before
+	public void setUp() throws VertexNotFoundException, CycleDetectedException {
+		dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		for(char s = 'A'; s <= 'G'; ++s) {
+			vertexMap.put("" + s, new SimpleVertex("" + s));
+			dag.add(vertexMap.get("" + s));
+		}
+
+		for(String edge : Arrays.asList("AB", "AC", "BD", "CD", "DE", "FG")) {
+			dag.add(new SimpleDirectedEdge<SimpleVertex>(vertexMap.get(edge.substring(0, 1)),
+			                                             vertexMap.get(edge.substring(1, 2))));
+		}
+
+		analysis = new GraphAnalysis<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>(dag);
+	}
+
+	/**
+	 * Tests ancestor and descendant sets
+	 */
+	@Test
+	public void testAncestorsDescendants() throws VertexNotFoundException {
+		assertCollectionEqualsArray(analysis.toVertices(analysis.getAncestors(vertexMap.get("D"))),
+		                            vertexMap.get("A"), vertexMap.get("B"), vertexMap.get("C"));
+		assertCollectionEqualsArray(analysis.toVertices(analysis.getDescendants(vertexMap.get("B"))),
+		                            vertexMap.get("D"), vertexMap.get("E"));
+		assertTrue(analysis.getAncestors(vertexMap.get("A")).isEmpty());
+		assertTrue(analysis.getDescendants(vertexMap.get("G")).isEmpty());
+	}
+
+	/**
+	 * Tests weakly connected components
+	 */
+	@Test
+	public void testComponents() {
+		assertEquals(2, analysis.getComponentCount());
+		assertEquals(analysis.getComponent(vertexMap.get("A")), analysis.getComponent(vertexMap.get("E")));
+		assertEquals(analysis.getComponent(vertexMap.get("F")), analysis.getComponent(vertexMap.get("G")));
+		assertFalse(analysis.getComponent(vertexMap.get("A")) == analysis.getComponent(vertexMap.get("F")));
+		assertEquals(-1, analysis.getComponent(new SimpleVertex("H")));
+	}
+
+	/**
+	 * Tests level widths and the longest path
+	 */
+	@Test
+	public void testLevels() {
+		assertEquals(4, analysis.getLevelCount());
+		assertArrayEquals(new int[]{2, 3, 1, 1}, analysis.getLevelWidths());
+		assertEquals(3, analysis.getMaximumWidth());
+		assertCollectionEqualsArray(analysis.getVerticesAtLevel(1),
+		                            vertexMap.get("B"), vertexMap.get("C"), vertexMap.get("G"));
+
+		assertEquals(4, analysis.getLongestPath().size());
+		assertSame(vertexMap.get("A"), analysis.getLongestPath().get(0));
+		assertSame(vertexMap.get("E"), analysis.getLongestPath().get(3));
+	}
+
+	/**
+	 * Tests that results are recomputed after the graph is modified
+	 */
+	@Test
+	public void testInvalidation() throws VertexNotFoundException, CycleDetectedException {
+		assertEquals(2, analysis.getComponentCount());
+
+		dag.add(new SimpleDirectedEdge<SimpleVertex>(vertexMap.get("E"), vertexMap.get("F")));
+		assertEquals(1, analysis.getComponentCount());
+		assertEquals(6, analysis.getLongestPath().size());
+		assertEquals(6, analysis.getDescendants(vertexMap.get("A")).cardinality());
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * This file is part of the OpGraph project.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.gedge.opgraph.dag;
+
+import static org.junit.Assert.*;
+import static ca.gedge.CollectionsAssert.assertCollectionEqualsArray;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link GraphSnapshot}.
+ */
+public class TestGraphSnapshot {
+	/**
+	 * Basic vertex class for testing.
+	 */
+	private static class SimpleVertex implements Vertex {
+		private String name;
+
+		public SimpleVertex(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	//
+	// Test data
+	//
+
+	private HashMap<String, SimpleVertex> vertexMap = new HashMap<String, SimpleVertex>();
+	private HashMap<String, SimpleDirectedEdge<SimpleVertex>> edgeMap = new HashMap<String, SimpleDirectedEdge<SimpleVertex>>();
+
+	@Before
+	public void setUp() {
+		for(char s = 'A'; s <= 'F'; ++s)
+			vertexMap.put("" + s, new SimpleVertex("" + s));
+
+		for(char u = 'A'; u <= 'F'; ++u) {
+			for(char v = (char)(u + 1); v <= 'F'; ++v) {
+				SimpleVertex uV = vertexMap.get("" + u);
+				SimpleVertex vV = vertexMap.get("" + v);
+				edgeMap.put(u + "" + v, new SimpleDirectedEdge<SimpleVertex>(uV, vV));
+				edgeMap.put(v + "" + u, new SimpleDirectedEdge<SimpleVertex>(vV, uV));
+			}
+		}
+	}
+
+	/**
+	 * Tests that a snapshot preserves ordering, levels and adjacency
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCopy() throws VertexNotFoundException, CycleDetectedException {
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		for(char s = 'A'; s <= 'E'; ++s)
+			dag.add(vertexMap.get("" + s));
+
+		dag.add(edgeMap.get("DC"));
+		dag.add(edgeMap.get("CA"));
+		dag.add(edgeMap.get("AB"));
+		dag.add(edgeMap.get("DA"));
+		dag.add(edgeMap.get("AE"));
+
+		final GraphSnapshot<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> snapshot =
+			new GraphSnapshot<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>(dag);
+
+		assertEquals(5, snapshot.getVertexCount());
+		assertEquals(5, snapshot.getEdgeCount());
+		assertFalse(snapshot.contains(vertexMap.get("F")));
+		assertEquals(-1, snapshot.getId(vertexMap.get("F")));
+
+		for(SimpleVertex vertex : dag.getVertices()) {
+			final int id = snapshot.getId(vertex);
+			assertSame(vertex, snapshot.getVertex(id));
+			assertEquals(dag.getLevel(vertex), snapshot.getLevel(id));
+			assertEquals(dag.getIncomingEdges(vertex), snapshot.getIncomingEdges(vertex));
+			assertEquals(dag.getOutgoingEdges(vertex), snapshot.getOutgoingEdges(vertex));
+
+			// Ids follow topological order
+			for(int i = 0; i < snapshot.getOutDegree(id); ++i)
+				assertTrue(snapshot.getSuccessor(id, i) > id);
+			for(int i = 0; i < snapshot.getInDegree(id); ++i)
+				assertTrue(snapshot.getPredecessor(id, i) < id);
+		}
+
+		assertCollectionEqualsArray(snapshot.getEdges(),
+		                            edgeMap.get("DC"), edgeMap.get("CA"), edgeMap.get("AB"),
+		                            edgeMap.get("DA"), edgeMap.get("AE"));
+	}
+
+	/**
+	 * Tests cycle detection when constructing a snapshot
+	 */
+	@Test(expected=CycleDetectedException.class)
+	public void testCycleException() throws VertexNotFoundException, CycleDetectedException {
+		new GraphSnapshot<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>(
+			Arrays.asList(vertexMap.get("A"), vertexMap.get("B"), vertexMap.get("C")),
+			Arrays.asList(edgeMap.get("AB"), edgeMap.get("BC"), edgeMap.get("CA")));
+	}
+
+	/**
+	 * Tests missing vertex detection when constructing a snapshot
+	 */
+	@Test(expected=VertexNotFoundException.class)
+	public void testVertexNotFound() throws VertexNotFoundException, CycleDetectedException {
+		new GraphSnapshot<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>(
+			Arrays.asList(vertexMap.get("A"), vertexMap.get("B")),
+			Arrays.asList(edgeMap.get("AB"), edgeMap.get("BC")));
+	}
+}
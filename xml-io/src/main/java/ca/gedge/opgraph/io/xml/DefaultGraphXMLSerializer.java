@@ -21,6 +21,8 @@ package ca.gedge.opgraph.io.xml;
 import static ca.gedge.opgraph.io.xml.XMLSerializerFactory.DEFAULT_NAMESPACE;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
@@ -99,6 +101,10 @@ public class DefaultGraphXMLSerializer implements XMLSerializer {
 		if(GRAPH_QNAME.equals(XMLSerializerFactory.getQName(elem))) {
 			graph = new OpGraph();
 
+			// Links are added in bulk once all children have been read, so
+			// that the graph is only checked for cycles once
+			final ArrayList<OpLink> links = new ArrayList<OpLink>();
+
 			// Read children
 			final NodeList children = elem.getChildNodes();
 			for(int childIndex = 0; childIndex < children.getLength(); ++childIndex) {
@@ -120,19 +126,21 @@ public class DefaultGraphXMLSerializer implements XMLSerializer {
 						if(objRead instanceof OpNode) {
 							graph.add((OpNode)objRead);
 						} else if(objRead instanceof OpLink) {
-							try {
-								graph.add( (OpLink)objRead );
-							} catch(VertexNotFoundException exc) {
-								throw new IOException("Link references unknown node", exc);
-							} catch(CycleDetectedException exc) {
-								throw new IOException("Link induces a cycle", exc);
-							} catch(NullPointerException exc) {
-								throw new IOException("Could not construct link", exc);
-							}
+							links.add((OpLink)objRead);
 						}
 					}
 				}
 			}
+
+			try {
+				graph.addAll(Collections.<OpNode>emptyList(), links);
+			} catch(VertexNotFoundException exc) {
+				throw new IOException("Link references unknown node", exc);
+			} catch(CycleDetectedException exc) {
+				throw new IOException("Link induces a cycle", exc);
+			} catch(NullPointerException exc) {
+				throw new IOException("Could not construct link", exc);
+			}
 		} else if(OPGRAPH_QNAME.equals(XMLSerializerFactory.getQName(elem))) {
 			final NodeList children = elem.getChildNodes();
 			for(int childIndex = 0; childIndex < children.getLength(); ++childIndex) {
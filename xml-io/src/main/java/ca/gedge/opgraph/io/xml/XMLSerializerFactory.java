@@ -19,6 +19,7 @@
 package ca.gedge.opgraph.io.xml;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -82,6 +83,9 @@ public final class XMLSerializerFactory implements OpGraphSerializer {
 	/** XML Validator */
 	private Validator validator;
 
+	/** The location of the document being read or written, or <code>null</code> if unknown */
+	private File documentLocation;
+
 	/**
 	 * Default constructor.
 	 */
@@ -213,6 +217,64 @@ public final class XMLSerializerFactory implements OpGraphSerializer {
 	// Overrides
 	//
 
+	/**
+	 * Gets the location of the document currently being read or written.
+	 * 
+	 * @return the document's file, or <code>null</code> if unknown
+	 */
+	public File getDocumentLocation() {
+		return documentLocation;
+	}
+
+	/**
+	 * Gets a path to a file suitable for storing in the document currently
+	 * being written. The path is relative to the document's directory if the
+	 * document's location is known and such a path exists, and absolute
+	 * otherwise. Relative paths always use <code>'/'</code> as a separator.
+	 * 
+	 * @param file  the file
+	 * 
+	 * @return the path to store
+	 * 
+	 * @see #resolvePath(String)
+	 */
+	public String getRelativePath(File file) {
+		final File absoluteFile = file.getAbsoluteFile();
+		if(documentLocation != null) {
+			final File dir = documentLocation.getAbsoluteFile().getParentFile();
+			if(dir != null) {
+				try {
+					final String path = dir.toPath().normalize().relativize(absoluteFile.toPath().normalize()).toString();
+					return path.replace(File.separatorChar, '/');
+				} catch(IllegalArgumentException exc) {
+					// No relative path exists (e.g., different roots)
+				}
+			}
+		}
+		return absoluteFile.getPath();
+	}
+
+	/**
+	 * Resolves a path stored in the document currently being read. Relative
+	 * paths are resolved against the document's directory if the document's
+	 * location is known.
+	 * 
+	 * @param path  the stored path
+	 * 
+	 * @return the file the path refers to
+	 * 
+	 * @see #getRelativePath(File)
+	 */
+	public File resolvePath(String path) {
+		final File file = new File(path.replace('/', File.separatorChar));
+		if(!file.isAbsolute() && documentLocation != null) {
+			final File dir = documentLocation.getAbsoluteFile().getParentFile();
+			if(dir != null)
+				return new File(dir, file.getPath());
+		}
+		return file;
+	}
+
 	/**
 	 * Writes a graph to a stream.
 	 *
@@ -223,6 +285,39 @@ public final class XMLSerializerFactory implements OpGraphSerializer {
 	 */
 	@Override
 	public void write(OpGraph graph, OutputStream stream) throws IOException {
+		write(graph, stream, null);
+	}
+
+	/**
+	 * Writes a graph to a stream that will be stored at a given location.
+	 *
+	 * @param graph  the graph to write
+	 * @param stream  the stream to write to
+	 * @param location  the file the stream will be stored in, or
+	 *                  <code>null</code> if unknown
+	 *
+	 * @throws IOException  if any I/O errors occur
+	 */
+	@Override
+	public void write(OpGraph graph, OutputStream stream, File location) throws IOException {
+		final File oldLocation = documentLocation;
+		documentLocation = location;
+		try {
+			writeDocument(graph, stream);
+		} finally {
+			documentLocation = oldLocation;
+		}
+	}
+
+	/**
+	 * Writes a graph to a stream.
+	 *
+	 * @param graph  the graph to write
+	 * @param stream  the stream to write to
+	 *
+	 * @throws IOException  if any I/O errors occur
+	 */
+	private void writeDocument(OpGraph graph, OutputStream stream) throws IOException {
 		Document doc;
 		try {
 			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -276,6 +371,37 @@ public final class XMLSerializerFactory implements OpGraphSerializer {
 	 */
 	@Override
 	public OpGraph read(InputStream stream) throws IOException {
+		return read(stream, null);
+	}
+
+	/**
+	 * Reads a graph from a stream that was loaded from a given location.
+	 *
+	 * @param stream  the stream to read from
+	 * @param location  the file the stream was loaded from, or
+	 *                  <code>null</code> if unknown
+	 *
+	 * @throws IOException  if any I/O errors occur
+	 */
+	@Override
+	public OpGraph read(InputStream stream, File location) throws IOException {
+		final File oldLocation = documentLocation;
+		documentLocation = location;
+		try {
+			return readDocument(stream);
+		} finally {
+			documentLocation = oldLocation;
+		}
+	}
+
+	/**
+	 * Reads a graph from a stream.
+	 *
+	 * @param stream  the stream to read from
+	 *
+	 * @throws IOException  if any I/O errors occur
+	 */
+	private OpGraph readDocument(InputStream stream) throws IOException {
 		// Create document
 		Document doc;
 		try {